@@ -0,0 +1,204 @@
+import org.junit.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.SQLException;
+
+/**
+ * Unit test suite for <tt>ConnectionPool</tt>.
+ */
+@RunWith(JUnit4.class)
+public class ConnectionPoolTest
+{
+	/** Where the scratch database lives. */
+	private static final String URL="jdbc:sqlite:pooltest.db";
+
+	/** The pool under test. */
+	private ConnectionPool pool;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		Class.forName("org.sqlite.JDBC");
+		pool=new ConnectionPool(URL, 2, 1, 200, 60000);
+	}
+
+	@After
+	public void tearDown()
+	{
+		pool.close();
+	}
+
+	@Test
+	public void testWarmUp()
+	{
+		Assert.assertEquals(1, pool.getOpenCount());
+		Assert.assertEquals(1, pool.getIdleCount());
+		Assert.assertEquals(0, pool.getBorrowedCount());
+	}
+
+	@Test
+	public void testReuse() throws SQLException
+	{
+		Connection first=pool.borrow();
+		pool.release(first);
+		Connection second=pool.borrow();
+
+		Assert.assertTrue(first==second);
+		Assert.assertEquals(1, pool.getOpenCount());
+		pool.release(second);
+	}
+
+	@Test
+	public void testBounded() throws SQLException
+	{
+		Connection first=pool.borrow();
+		Connection second=pool.borrow();
+
+		Assert.assertFalse(first==second);
+		Assert.assertEquals(2, pool.getOpenCount());
+		try
+		{
+			pool.borrow();
+			Assert.fail("Borrowed more connections than the pool allows");
+		}
+		catch(SQLException timedOut)
+		{
+			//expected
+		}
+		pool.release(first);
+		pool.release(second);
+		Assert.assertEquals(2, pool.getIdleCount());
+	}
+
+	@Test
+	public void testWaitsForRelease() throws Exception
+	{
+		pool.close();
+		pool=new ConnectionPool(URL, 1, 1, 5000, 60000);
+		final Connection only=pool.borrow();
+		Thread returner=new Thread()
+		{
+			public void run()
+			{
+				try
+				{
+					Thread.sleep(50);
+				}
+				catch(InterruptedException ignored)
+				{
+				}
+				pool.release(only);
+			}
+		};
+		returner.start();
+
+		Assert.assertTrue(pool.borrow()==only);
+		returner.join();
+	}
+
+	@Test
+	public void testAbandonedTransactionRolledBack() throws SQLException
+	{
+		Connection conn=pool.borrow();
+		conn.setAutoCommit(false);
+		pool.release(conn);
+
+		Assert.assertTrue(pool.borrow().getAutoCommit());
+	}
+
+	@Test
+	public void testStatementsReused() throws SQLException
+	{
+		Connection conn=pool.borrow();
+		PreparedStatement first=pool.prepare(conn, "SELECT ?");
+		pool.release(conn);
+		conn=pool.borrow();
+		PreparedStatement second=pool.prepare(conn, "SELECT ?");
+
+		Assert.assertTrue(first==second);
+		Assert.assertEquals(1, pool.getStatementCount());
+		pool.release(conn);
+	}
+
+	@Test
+	public void testStatementsOnlyForBorrowers() throws SQLException
+	{
+		Connection conn=pool.borrow();
+		pool.release(conn);
+		try
+		{
+			pool.prepare(conn, "SELECT 1");
+			Assert.fail("Prepared a statement on a connection that wasn't on loan");
+		}
+		catch(SQLException notBorrowed)
+		{
+			//expected
+		}
+	}
+
+	@Test
+	public void testStatementsForgottenWhenClosed() throws SQLException
+	{
+		Connection conn=pool.borrow();
+		pool.prepare(conn, "SELECT 1");
+		pool.release(conn);
+		pool.close();
+
+		Assert.assertEquals(0, pool.getStatementCount());
+	}
+
+	@Test
+	public void testProfileApplied() throws SQLException
+	{
+		pool.close();
+		pool=new ConnectionPool(URL, 1, 1, 200, 60000, DatabaseProfile.REPORTING);
+		Connection conn=pool.borrow();
+		Statement stmt=conn.createStatement();
+
+		ResultSet mode=stmt.executeQuery("PRAGMA journal_mode");
+		Assert.assertEquals(DatabaseProfile.REPORTING.getJournalMode(), mode.getString(1).toUpperCase());
+		mode.close();
+		ResultSet sync=stmt.executeQuery("PRAGMA synchronous");
+		Assert.assertEquals(1, sync.getInt(1)); //NORMAL
+		sync.close();
+		stmt.close();
+		pool.release(conn);
+	}
+
+	@Test
+	public void testLeakReported() throws Exception
+	{
+		pool.close();
+		pool=new ConnectionPool(URL, 2, 0, 200, 0);
+		Connection leaked=pool.borrow();
+		Thread.sleep(5);
+
+		Assert.assertEquals(1, pool.reportLeaks());
+		Assert.assertEquals(0, pool.reportLeaks());
+		pool.release(leaked);
+	}
+
+	@Test
+	public void testClosedRefusesLoans()
+	{
+		pool.close();
+		Assert.assertEquals(0, pool.getOpenCount());
+		try
+		{
+			pool.borrow();
+			Assert.fail("Borrowed from a closed pool");
+		}
+		catch(SQLException closed)
+		{
+			//expected
+		}
+	}
+}
@@ -7,6 +7,7 @@ import org.junit.runners.JUnit4;
 import java.sql.SQLException;
 import java.util.GregorianCalendar;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * unit test suite for CustomerPurchaseScreen
@@ -50,7 +51,7 @@ public class CustomerPurchaseScreenTest {
 		CustomerPurchaseScreen screen = new 
 			CustomerPurchaseScreen( user, help );
 		Assert.assertTrue( "Good".equals( screen.tryPurchase( 
-			new Pair<Integer, Integer> (0, 0) ) ) );
+			Slot.of(0, 0) ) ) );
 		Assert.assertTrue( screen.getPurchasedItem().equals( help.getCurrentLayout().getRows()[0][0].getProduct() ) ); // now also tests that the 
 	}
 
@@ -63,7 +64,7 @@ public class CustomerPurchaseScreenTest {
 		CustomerPurchaseScreen screen = new 
 			CustomerPurchaseScreen( user, help );
 		Assert.assertTrue( "Invalid location".equals( screen.tryPurchase( 
-			new Pair<Integer, Integer> (0, 15) ) ) );
+			Slot.of(0, 15) ) ) );
 	}
 
 	@Test
@@ -75,7 +76,7 @@ public class CustomerPurchaseScreenTest {
 		CustomerPurchaseScreen screen = new 
 			CustomerPurchaseScreen( user, help );
 		Assert.assertTrue( "No product".equals( screen.tryPurchase( 
-			new Pair<Integer, Integer> (0, 0) ) ) );
+			Slot.of(0, 0) ) ) );
 	}
 
 	@Test
@@ -90,7 +91,7 @@ public class CustomerPurchaseScreenTest {
 		CustomerPurchaseScreen screen = new 
 			CustomerPurchaseScreen( user, help );
 		Assert.assertTrue( "Item sold out".equals( screen.tryPurchase( 
-			new Pair<Integer, Integer> (0, 0) ) ) );
+			Slot.of(0, 0) ) ) );
 	}
 
 	@Test
@@ -105,7 +106,7 @@ public class CustomerPurchaseScreenTest {
 		CustomerPurchaseScreen screen = new 
 			CustomerPurchaseScreen( user, help );
 		Assert.assertTrue( "Item inactive".equals( screen.tryPurchase( 
-			new Pair<Integer, Integer> (0, 0) ) ) );
+			Slot.of(0, 0) ) ) );
 	}
 
 	@Test
@@ -118,7 +119,7 @@ public class CustomerPurchaseScreenTest {
 		CustomerPurchaseScreen screen = new 
 			CustomerPurchaseScreen( user, help );
 		Assert.assertTrue( "Insufficient funds".equals( 
-			screen.tryPurchase( new Pair<Integer, Integer> (0, 0) ) ) );
+			screen.tryPurchase( Slot.of(0, 0) ) ) );
 	}
 
 	@Test
@@ -143,11 +144,11 @@ public class CustomerPurchaseScreenTest {
 		VendingMachine help=helper.machines.get(1);
 		Customer user=helper.customers.get(0);
 		for (int i=0;i<30;++i)
-			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), helper.items.get(0), new Pair<Integer, Integer>(0,0)));
+			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), helper.items.get(0), Slot.of(0, 0)));
 		for (int i=0;i<10;++i)
-			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), helper.items.get(1), new Pair<Integer, Integer>(0,0)));
+			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), helper.items.get(1), Slot.of(0, 0)));
 		for (int i=0;i<50;++i)
-			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), helper.items.get(3), new Pair<Integer, Integer>(0,0)));
+			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), helper.items.get(3), Slot.of(0, 0)));
 
 		for (Transaction trans : helper.transactions)
 			dbl.updateOrCreateTransaction(trans);
@@ -173,13 +174,13 @@ public class CustomerPurchaseScreenTest {
 		FoodItem howAboutW = new FoodItem("W", 125, 125, true);
 		dbl.updateOrCreateFoodItem(howAboutW);
 		for (int i=0;i<30;++i)
-			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), helper.items.get(0), new Pair<Integer, Integer>(0,0)));
+			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), helper.items.get(0), Slot.of(0, 0)));
 		for (int i=0;i<10;++i)
-			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), helper.items.get(1), new Pair<Integer, Integer>(0,0)));
+			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), helper.items.get(1), Slot.of(0, 0)));
 		for (int i=0;i<50;++i)
-			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), helper.items.get(3), new Pair<Integer, Integer>(0,0)));
+			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), helper.items.get(3), Slot.of(0, 0)));
 		for (int i=0;i<70;++i)
-			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), howAboutW, new Pair<Integer, Integer>(0,0)));
+			helper.transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), helper.machines.get(0), helper.customers.get(0), howAboutW, Slot.of(0, 0)));
 
 		for (Transaction trans : helper.transactions)
 			dbl.updateOrCreateTransaction(trans);
@@ -234,4 +235,74 @@ public class CustomerPurchaseScreenTest {
 		FoodItem howAboutW = null;
 		Assert.assertTrue(screen.tryPurchase(howAboutW).equals("Item not found"));
 	}
+
+	/**
+	 * Tests that concurrent purchases from the same row never sell more than it holds
+	 **/
+	@Test
+	public void testConcurrentPurchases() throws Exception
+	{
+		TestUtilities helper=new TestUtilities(true);
+		final VendingMachine help=helper.machines.get(1);
+		final Customer user=helper.customers.get(1);
+		final int money=user.getMoney();
+		final int price=help.getCurrentLayout().getRows()[0][0].getProduct().getPrice();
+		int stock=help.getCurrentLayout().getRows()[0][0].getRemainingQuantity();
+		final AtomicInteger sold=new AtomicInteger();
+		Thread[] buyers=new Thread[8];
+
+		for(int buyer=0; buyer<buyers.length; ++buyer)
+		{
+			buyers[buyer]=new Thread()
+			{
+				@Override
+				public void run()
+				{
+					if("Good".equals(new CustomerPurchaseScreen(user, help).tryPurchase(Slot.of(0, 0))))
+						sold.incrementAndGet();
+				}
+			};
+			buyers[buyer].start();
+		}
+		for(Thread buyer : buyers)
+			buyer.join();
+
+		Assert.assertEquals(stock, sold.get());
+		Assert.assertEquals(0, help.getCurrentLayout().getRows()[0][0].getRemainingQuantity());
+		Assert.assertEquals(money-stock*price, user.getMoney());
+		Assert.assertEquals(money-stock*price, DatabaseLayer.getInstance().getCustomerById(user.getId()).getMoney());
+	}
+
+	/**
+	 * Tests that a purchase turned down because of changes made elsewhere leaves the screen showing the stored balance and stock
+	 **/
+	@Test
+	public void testStaleRefreshed() throws Exception
+	{
+		TestUtilities helper=new TestUtilities(true);
+		DatabaseLayer db=DatabaseLayer.getInstance();
+		VendingMachine help=helper.machines.get(1);
+		Customer user=helper.customers.get(0);
+		CustomerPurchaseScreen screen=new CustomerPurchaseScreen(user, help);
+
+		db.updateCustomer(db.getCustomerById(user.getId()), new DatabaseLayer.Change<Customer>()
+		{
+			@Override
+			public void applyTo(Customer target) throws BadArgumentException
+			{
+				target.setMoney(0);
+			}
+		});
+		Assert.assertEquals("Insufficient funds", screen.tryPurchase(Slot.of(0, 0)));
+		Assert.assertEquals(0, user.getMoney());
+
+		Customer rich=helper.customers.get(1);
+		VendingMachine elsewhere=db.getVendingMachineById(help.getId());
+		int stock=elsewhere.getCurrentLayout().getRows()[0][0].getRemainingQuantity();
+		for(int bought=0; bought<stock; ++bought)
+			Assert.assertEquals("Good", new CustomerPurchaseScreen(rich, elsewhere).tryPurchase(Slot.of(0, 0)));
+		Assert.assertEquals("Item sold out", new CustomerPurchaseScreen(rich, help).tryPurchase(Slot.of(0, 0)));
+		Assert.assertEquals(0, help.getCurrentLayout().getRows()[0][0].getRemainingQuantity());
+		Assert.assertNull(screen.listLayout()[0][0]);
+	}
 }
@@ -0,0 +1,82 @@
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit test suite for <tt>EntityCache</tt>.
+ */
+@RunWith(JUnit4.class)
+public class EntityCacheTest
+{
+	/** The cache under test. */
+	private EntityCache<FoodItem> cache;
+
+	/** Something to put in it. */
+	private FoodItem item;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		cache=new EntityCache<FoodItem>(2, 60000);
+		item=new FoodItem("Chips", 100, 1000);
+	}
+
+	@Test
+	public void testHitsAndMisses()
+	{
+		Assert.assertNull(cache.get(1));
+		cache.put(1, item);
+		Assert.assertTrue(cache.get(1)==item);
+
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() throws Exception
+	{
+		FoodItem second=new FoodItem("Soda", 150, 1000);
+		FoodItem third=new FoodItem("Candy", 75, 1000);
+
+		cache.put(1, item);
+		cache.put(2, second);
+		cache.get(1);
+		cache.put(3, third);
+
+		Assert.assertEquals(2, cache.size());
+		Assert.assertTrue(cache.get(1)==item);
+		Assert.assertNull(cache.get(2));
+		Assert.assertTrue(cache.get(3)==third);
+	}
+
+	@Test
+	public void testExpired() throws Exception
+	{
+		cache=new EntityCache<FoodItem>(2, 0);
+		cache.put(1, item);
+		Thread.sleep(5);
+
+		Assert.assertNull(cache.get(1));
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testInvalidate()
+	{
+		cache.put(1, item);
+		cache.invalidate(1);
+		Assert.assertNull(cache.get(1));
+
+		cache.put(1, item);
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadLimits()
+	{
+		new EntityCache<FoodItem>(0, 60000);
+	}
+}
@@ -0,0 +1,86 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.SwingUtilities;
+
+/**
+ * Tests for GuiExecutor
+ */
+public class GuiExecutorTest
+{
+	/**
+	 * Makes sure the work happens in the background and its result is delivered on the event dispatch thread
+	 **/
+	@Test
+	public void resultOnEventThread() throws Exception
+	{
+		final CountDownLatch finished=new CountDownLatch(1);
+		final AtomicBoolean workedOnEventThread=new AtomicBoolean(true);
+		final AtomicBoolean doneOnEventThread=new AtomicBoolean(false);
+		final AtomicReference<String> delivered=new AtomicReference<String>();
+
+		GuiExecutor.submit(new GuiExecutor.Task<String>()
+		{
+			@Override
+			protected String call()
+			{
+				workedOnEventThread.set(SwingUtilities.isEventDispatchThread());
+				return "Good";
+			}
+
+			@Override
+			protected void done(String result)
+			{
+				doneOnEventThread.set(SwingUtilities.isEventDispatchThread());
+				delivered.set(result);
+				finished.countDown();
+			}
+		});
+
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		assertFalse(workedOnEventThread.get());
+		assertTrue(doneOnEventThread.get());
+		assertEquals("Good", delivered.get());
+	}
+
+	/**
+	 * Makes sure a task that throws is told so on the event dispatch thread
+	 **/
+	@Test
+	public void failureOnEventThread() throws Exception
+	{
+		final CountDownLatch finished=new CountDownLatch(1);
+		final AtomicBoolean doneCalled=new AtomicBoolean(false);
+		final AtomicBoolean failedOnEventThread=new AtomicBoolean(false);
+
+		GuiExecutor.submit(new GuiExecutor.Task<Void>()
+		{
+			@Override
+			protected Void call()
+			{
+				throw new IllegalStateException("Broken");
+			}
+
+			@Override
+			protected void done(Void ignored)
+			{
+				doneCalled.set(true);
+			}
+
+			@Override
+			protected void failed(RuntimeException problem)
+			{
+				failedOnEventThread.set(SwingUtilities.isEventDispatchThread());
+				finished.countDown();
+			}
+		});
+
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		assertFalse(doneCalled.get());
+		assertTrue(failedOnEventThread.get());
+	}
+}
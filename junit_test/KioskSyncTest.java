@@ -0,0 +1,247 @@
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.SQLException;
+
+/**
+ * Tests for KioskSync and the replica support in DatabaseLayer
+ */
+public class KioskSyncTest
+{
+	/** Example data, stored at the head office */
+	private TestUtilities helper;
+
+	/** Where the head office's database is kept */
+	private File file;
+
+	/** The head office's database */
+	private DatabaseLayer headOffice;
+
+	/** The local database */
+	private DatabaseLayer local;
+
+	/**
+	 * Creates a head office database holding the example data, and clears the local one
+	 **/
+	@Before
+	public void setUp() throws Exception
+	{
+		local=DatabaseLayer.getInstance();
+		local.nuke();
+		file=File.createTempFile("headoffice", ".db");
+		headOffice=DatabaseLayer.open(file.getPath());
+		helper=new TestUtilities();
+		for(FoodItem item : helper.items)
+			headOffice.updateOrCreateFoodItem(item);
+		for(VendingMachine machine : helper.machines)
+			headOffice.updateOrCreateVendingMachine(machine);
+		for(Customer customer : helper.customers)
+			headOffice.updateOrCreateCustomer(customer);
+	}
+
+	/**
+	 * Stops the local database being a replica and deletes the head office's
+	 **/
+	@After
+	public void tearDown() throws Exception
+	{
+		headOffice.close();
+		local.nuke();
+		file.delete();
+	}
+
+	/**
+	 * Buys the last item in the active machine's bottom right row using the local database
+	 * @param customer the buyer
+	 **/
+	private void buy(Customer customer) throws Exception
+	{
+		VendingMachine machine=local.getVendingMachineById(helper.machines.get(0).getId());
+		assertEquals("Good", new CustomerPurchaseScreen(local.getCustomerById(customer.getId()), machine).tryPurchase(Slot.of(1, 1)));
+	}
+
+	/**
+	 * Reopens the head office's database, so that nothing is served from before the last sync
+	 **/
+	private void reopen() throws Exception
+	{
+		headOffice.close();
+		headOffice=DatabaseLayer.open(file.getPath());
+	}
+
+	/**
+	 * @return the price of the item in the active machine's bottom right row
+	 **/
+	private int price() throws Exception
+	{
+		return helper.machines.get(0).getCurrentLayout().getRows()[1][1].getProduct().getPrice();
+	}
+
+	/**
+	 * Makes sure nonsensical batch sizes are refused
+	 **/
+	@Test(expected=IllegalArgumentException.class)
+	public void badBatchSize()
+	{
+		new KioskSync(file.getPath(), "kiosk", 0);
+	}
+
+	/**
+	 * Makes sure the first sync copies the head office's data
+	 **/
+	@Test
+	public void seeded() throws Exception
+	{
+		assertEquals(0, new KioskSync(file.getPath(), "kiosk", 10).sync());
+
+		assertEquals(helper.customers.size(), local.getCustomersAll().size());
+		assertEquals(2000, local.getCustomerById(helper.customers.get(0).getId()).getMoney());
+		VendingMachine machine=local.getVendingMachineById(helper.machines.get(0).getId());
+		assertEquals(1, machine.getCurrentLayout().getRows()[1][1].getRemainingQuantity());
+	}
+
+	/**
+	 * Makes sure sales made locally reach the head office exactly once, without losing its own balance changes
+	 **/
+	@Test
+	public void salesSent() throws Exception
+	{
+		KioskSync sync=new KioskSync(file.getPath(), "kiosk", 1);
+		Customer customer=helper.customers.get(0);
+		sync.sync();
+
+		buy(customer);
+		assertEquals(1, local.getSyncOutbox(10).size());
+		headOffice.updateCustomer(headOffice.getCustomerById(customer.getId()), new DatabaseLayer.Change<Customer>()
+		{
+			@Override
+			public void applyTo(Customer target) throws BadArgumentException
+			{
+				target.setMoney(target.getMoney()+1000);
+			}
+		});
+
+		assertEquals(1, sync.sync());
+		assertEquals(0, sync.sync());
+		reopen();
+		assertTrue(local.getSyncOutbox(10).isEmpty());
+		assertEquals(1, headOffice.getTransactionsAll().size());
+		assertEquals(3000-price(), headOffice.getCustomerById(customer.getId()).getMoney());
+		assertEquals(3000-price(), local.getCustomerById(customer.getId()).getMoney());
+		assertEquals(0, headOffice.getVendingMachineById(helper.machines.get(0).getId()).getCurrentLayout().getRows()[1][1].getRemainingQuantity());
+	}
+
+	/**
+	 * Makes sure a sale the head office balance no longer covers is still stored
+	 **/
+	@Test
+	public void overdrawn() throws Exception
+	{
+		KioskSync sync=new KioskSync(file.getPath(), "kiosk", 10);
+		Customer customer=helper.customers.get(0);
+		sync.sync();
+
+		buy(customer);
+		headOffice.updateCustomer(headOffice.getCustomerById(customer.getId()), new DatabaseLayer.Change<Customer>()
+		{
+			@Override
+			public void applyTo(Customer target) throws BadArgumentException
+			{
+				target.setMoney(50);
+			}
+		});
+
+		assertEquals(1, sync.sync());
+		reopen();
+		assertEquals(1, headOffice.getTransactionsAll().size());
+		assertEquals(0, headOffice.getCustomerById(customer.getId()).getMoney());
+		assertEquals(0, local.getCustomerById(customer.getId()).getMoney());
+	}
+
+	/**
+	 * Makes sure sales not yet sent aren't forgotten when the replica is refreshed
+	 **/
+	@Test
+	public void unsentKept() throws Exception
+	{
+		new KioskSync(file.getPath(), "kiosk", 10).sync();
+		Customer customer=helper.customers.get(0);
+
+		buy(customer);
+		local.refreshReplica(file.getPath(), "kiosk", 0);
+
+		assertEquals(1, local.getSyncOutbox(10).size());
+		assertEquals(2000-price(), local.getCustomerById(customer.getId()).getMoney());
+		assertEquals(0, local.getVendingMachineById(helper.machines.get(0).getId()).getCurrentLayout().getRows()[1][1].getRemainingQuantity());
+		assertEquals(2000, headOffice.getCustomerById(customer.getId()).getMoney());
+		assertEquals(1, local.getFavoritesByCustomer(customer).size());
+		assertEquals(1, (int)local.getFavoritesByCustomer(customer).get(0).second);
+	}
+
+	/**
+	 * Makes sure the replica turns away local changes that the next sync would overwrite
+	 **/
+	@Test
+	public void localChangesRefused() throws Exception
+	{
+		new KioskSync(file.getPath(), "kiosk", 10).sync();
+		VendingMachine machine=local.getVendingMachineById(helper.machines.get(0).getId());
+
+		try
+		{
+			local.updateVendingMachine(machine, new DatabaseLayer.Change<VendingMachine>()
+			{
+				@Override
+				public void applyTo(VendingMachine target) throws BadArgumentException
+				{
+					target.setStockingInterval(target.getStockingInterval()+1);
+				}
+			});
+			fail("Changed a machine in a replica");
+		}
+		catch(BadStateException expected)
+		{
+			assertEquals(helper.machines.get(0).getStockingInterval(), local.getVendingMachineById(machine.getId()).getStockingInterval());
+		}
+	}
+
+	/**
+	 * Makes sure an unreachable head office leaves sales queued
+	 **/
+	@Test
+	public void offline() throws Exception
+	{
+		new KioskSync(file.getPath(), "kiosk", 10).sync();
+		buy(helper.customers.get(0));
+
+		try
+		{
+			new KioskSync(file.getPath()+".missing", "kiosk", 10).sync();
+			fail("Synced with a head office that doesn't exist");
+		}
+		catch(SQLException expected)
+		{
+			assertEquals(1, local.getSyncOutbox(10).size());
+		}
+	}
+
+	/**
+	 * Makes sure sales sent again after a failure aren't stored twice
+	 **/
+	@Test
+	public void resent() throws Exception
+	{
+		new KioskSync(file.getPath(), "kiosk", 10).sync();
+		buy(helper.customers.get(0));
+
+		headOffice.commitSyncedPurchases("kiosk", local.getSyncOutbox(10));
+		new KioskSync(file.getPath(), "kiosk", 10).sync();
+		reopen();
+
+		assertEquals(1, headOffice.getTransactionsAll().size());
+		assertEquals(2000-price(), headOffice.getCustomerById(helper.customers.get(0).getId()).getMoney());
+	}
+}
@@ -143,4 +143,21 @@ public class LocationTest {
 		Location t = new Location(17, "Non-null", nearby);
 		Assert.assertEquals(t.retrieveFormattedZipCode(), "00017");
 	}
+
+	@Test
+	public void testDirtyTracking() throws BadArgumentException, BadStateException
+	{
+		String[] nearby = {"Dave's", "Joe's", "Jack's"};
+		Location t = new Location(14586, "Non-null", nearby);
+		t.setId(1);
+		Assert.assertFalse(t.isDirty());
+		Assert.assertFalse(t.areBusinessesDirty());
+		nearby[0] = "Jill's";
+		Assert.assertFalse(t.isDirty());
+		Assert.assertTrue(t.areBusinessesDirty());
+		t.markClean();
+		t.setState("New York");
+		Assert.assertTrue(t.isDirty());
+		Assert.assertFalse(t.areBusinessesDirty());
+	}
 }
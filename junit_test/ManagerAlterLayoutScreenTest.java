@@ -80,8 +80,7 @@ public class ManagerAlterLayoutScreenTest
 		ManagerAlterLayoutScreen test = new ManagerAlterLayoutScreen();
 		FoodItem[][] layout = test.listRows();
 		FoodItem next = new FoodItem( "Twinkies", 387, Integer.MAX_VALUE );
-		assertTrue( test.queueRowChange( new 
-			Pair<Integer, Integer>( 0, 0 ), next ) == 0 );
+		assertTrue( test.queueRowChange( Slot.of(0, 0), next ) == 0 );
 	}
 
 	@Test
@@ -89,8 +88,7 @@ public class ManagerAlterLayoutScreenTest
 		ManagerAlterLayoutScreen test = new ManagerAlterLayoutScreen();
 		FoodItem[][] layout = test.listRows();
 		FoodItem next = new FoodItem( "Twinkies", 387, 1 );
-		assertTrue( test.queueRowChange( new 
-			Pair<Integer, Integer>( 0, 0 ), next ) == 1);
+		assertTrue( test.queueRowChange( Slot.of(0, 0), next ) == 1);
 	}
 
 	@Test
@@ -98,7 +96,7 @@ public class ManagerAlterLayoutScreenTest
 		ManagerAlterLayoutScreen test = new ManagerAlterLayoutScreen();
 		FoodItem[][] layout = test.listRows();
 		FoodItem next = new FoodItem( "Twinkies", 387, 900000 );
-		test.queueRowChange( new Pair<Integer, Integer>( 0, 0 ), next );
+		test.queueRowChange( Slot.of(0, 0), next );
 		assertTrue( test.commitRowChanges() );
 	}
 }
@@ -246,4 +246,41 @@ public class ManagerReportStatsScreenTest {
 		for (Transaction t : helper.transactions)
 			assertTrue(test1.contains(t));
 	}
+
+	/**
+	 * Tests ranking the items by sales
+	 **/
+	@Test
+	public void testRankFoodItems() throws Exception
+	{
+		ManagerReportStatsScreen test = new ManagerReportStatsScreen();
+		ArrayList<TransactionColumns.Group> ranked = test.rankFoodItems(10, false);
+		int sales = 0;
+		for (TransactionColumns.Group group : ranked)
+			sales += group.getSales();
+		assertTrue(sales == helper.transactions.size());
+		assertTrue(test.getStatistics().size() == helper.transactions.size());
+		assertTrue(test.rankMachines(1, true).get(0).getKey() == helper.machines.get(0).getId());
+	}
+
+	/**
+	 * Tests totaling the sales by state and zip code
+	 **/
+	@Test
+	public void testListStateSales() throws Exception
+	{
+		ManagerReportStatsScreen test = new ManagerReportStatsScreen();
+		TreeMap<String, TransactionColumns.Group> states = test.listStateSales();
+		int sales = 0;
+		for (TransactionColumns.Group group : states.values())
+			sales += group.getSales();
+		assertTrue(sales == helper.transactions.size());
+		String state = helper.machines.get(0).getLocation().getState();
+		assertTrue(states.get(state).getSales() >= 2);
+
+		sales = 0;
+		for (TransactionColumns.Group group : test.listZipCodeSales().values())
+			sales += group.getSales();
+		assertTrue(sales == helper.transactions.size());
+	}
 }
@@ -41,6 +41,21 @@ public class ManagerUserAccountsScreenTest {
 			DatabaseLayer.getInstance().getCustomerById( id ) ) );
 	}
 
+	@Test
+	public void addFundsTest() throws SQLException, BadStateException,
+		BadArgumentException {
+		ManagerUserAccountsScreen test = new ManagerUserAccountsScreen();
+		DatabaseLayer db = DatabaseLayer.getInstance();
+		int id = test.addCustomer("Krutz", 500);
+		Customer stale = db.getCustomerById( id );
+		Customer spent = db.getCustomerById( id ); // e.g. a purchase
+		spent.setMoney( 400 );
+		db.updateOrCreateCustomer( spent );
+		Assert.assertTrue( test.addFunds( stale, 100 ) );
+		Assert.assertEquals( 500, db.getCustomerById( id ).getMoney() );
+		Assert.assertFalse( test.addFunds( stale, 0 ) );
+	}
+
 	@Test
 	public void addCustTestBad() throws SQLException, BadStateException,
 		BadArgumentException {
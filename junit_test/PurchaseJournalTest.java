@@ -0,0 +1,197 @@
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for PurchaseJournal
+ */
+public class PurchaseJournalTest
+{
+	/** Example data */
+	private TestUtilities helper;
+
+	/** Where the journal is kept */
+	private File file;
+
+	/**
+	 * Clears the database and creates an empty journal file
+	 **/
+	@Before
+	public void setUp() throws Exception
+	{
+		DatabaseLayer.getInstance().nuke();
+		helper=new TestUtilities(true);
+		file=File.createTempFile("purchases", ".journal");
+	}
+
+	/**
+	 * Goes back to storing purchases directly and deletes the journal file
+	 **/
+	@After
+	public void tearDown()
+	{
+		CustomerPurchaseScreen.setPurchaseJournal(null);
+		file.delete();
+	}
+
+	/**
+	 * Writes lines to the journal file, as if left over from a crash
+	 * @param lines the contents
+	 **/
+	private void leave(String lines) throws IOException
+	{
+		FileOutputStream out=new FileOutputStream(file);
+		try
+		{
+			out.write(lines.getBytes("UTF-8"));
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Creates an entry for the first row of the second machine
+	 * @param sequence the entry's sequence number
+	 * @return the entry
+	 **/
+	private PurchaseJournal.Entry sale(long sequence) throws Exception
+	{
+		VendingMachine machine=helper.machines.get(1);
+		Row row=machine.getCurrentLayout().getRows()[0][0];
+
+		return new PurchaseJournal.Entry(sequence, 1356048000000L, machine.getId(), helper.customers.get(0).getId(), row.getProduct().getId(), Slot.of(0, 0), row.getId(), row.getProduct().getPrice());
+	}
+
+	/**
+	 * Makes sure entries survive being written out and read back
+	 **/
+	@Test
+	public void entryRoundTrip() throws Exception
+	{
+		PurchaseJournal.Entry entry=sale(7);
+		PurchaseJournal.Entry copy=PurchaseJournal.Entry.parse(entry.toString());
+
+		assertEquals(7, copy.getSequence());
+		assertEquals(entry.getTimestamp(), copy.getTimestamp());
+		assertEquals(entry.getMachineId(), copy.getMachineId());
+		assertEquals(entry.getCustomerId(), copy.getCustomerId());
+		assertEquals(entry.getProductId(), copy.getProductId());
+		assertEquals(entry.getRow(), copy.getRow());
+		assertEquals(entry.getRowId(), copy.getRowId());
+		assertEquals(entry.getBalance(), copy.getBalance());
+	}
+
+	/**
+	 * Makes sure garbled lines are rejected
+	 **/
+	@Test(expected=BadArgumentException.class)
+	public void entryGarbled() throws Exception
+	{
+		PurchaseJournal.Entry.parse("1 2 three");
+	}
+
+	/**
+	 * Makes sure nonsensical batching limits are refused
+	 **/
+	@Test(expected=IllegalArgumentException.class)
+	public void badLimits() throws Exception
+	{
+		new PurchaseJournal(file, 50, 0);
+	}
+
+	/**
+	 * Makes sure purchases made through the screen end up in the database once flushed
+	 **/
+	@Test
+	public void purchaseStored() throws Exception
+	{
+		DatabaseLayer db=DatabaseLayer.getInstance();
+		VendingMachine machine=helper.machines.get(1);
+		Customer customer=helper.customers.get(0);
+		int before=db.getTransactionsAll().size();
+		int money=customer.getMoney();
+		int price=machine.getCurrentLayout().getRows()[0][0].getProduct().getPrice();
+
+		PurchaseJournal journal=new PurchaseJournal(file);
+		CustomerPurchaseScreen.setPurchaseJournal(journal);
+		assertEquals("Good", new CustomerPurchaseScreen(customer, machine).tryPurchase(Slot.of(0, 0)));
+		journal.flush();
+		assertEquals(0, journal.getPendingCount());
+		journal.close();
+
+		assertEquals(before+1, db.getTransactionsAll().size());
+		assertEquals(money-price, db.getCustomerById(customer.getId()).getMoney());
+		assertEquals(0, file.length());
+	}
+
+	/**
+	 * Makes sure purchases left over in the file are stored when it's reopened, ignoring a torn last line
+	 **/
+	@Test
+	public void replayed() throws Exception
+	{
+		DatabaseLayer db=DatabaseLayer.getInstance();
+		int before=db.getTransactionsAll().size();
+		int money=db.getCustomerById(helper.customers.get(0).getId()).getMoney();
+		PurchaseJournal.Entry entry=sale(3);
+
+		leave(entry+"\n"+"4 1356048");
+		PurchaseJournal journal=new PurchaseJournal(file);
+		assertEquals(0, journal.getPendingCount());
+		journal.close();
+
+		assertEquals(before+1, db.getTransactionsAll().size());
+		assertEquals(money-entry.getBalance(), db.getCustomerById(helper.customers.get(0).getId()).getMoney());
+		assertEquals(3, db.getJournalCheckpoint(file.getCanonicalPath()));
+	}
+
+	/**
+	 * Makes sure purchases already stored aren't stored again when they're replayed
+	 **/
+	@Test
+	public void checkpointed() throws Exception
+	{
+		DatabaseLayer db=DatabaseLayer.getInstance();
+		int before=db.getTransactionsAll().size();
+		int money=db.getCustomerById(helper.customers.get(0).getId()).getMoney();
+		String lines=sale(1)+"\n";
+
+		leave(lines);
+		new PurchaseJournal(file).close();
+		leave(lines+sale(2)+"\n");
+		new PurchaseJournal(file).close();
+
+		assertEquals(before+2, db.getTransactionsAll().size());
+		assertEquals(money-2*sale(1).getBalance(), db.getCustomerById(helper.customers.get(0).getId()).getMoney());
+		assertEquals(2, db.getJournalCheckpoint(file.getCanonicalPath()));
+	}
+
+	/**
+	 * Makes sure purchases from machines that no longer exist are dropped without holding up the rest, and that those already handed over are stored even once the stock has run out
+	 **/
+	@Test
+	public void rejected() throws Exception
+	{
+		DatabaseLayer db=DatabaseLayer.getInstance();
+		int before=db.getTransactionsAll().size();
+		PurchaseJournal.Entry good=sale(2);
+		PurchaseJournal.Entry orphan=new PurchaseJournal.Entry(1, good.getTimestamp(), Integer.MAX_VALUE, good.getCustomerId(), good.getProductId(), good.getRow(), good.getRowId(), good.getBalance());
+
+		// the row only holds two, but the last was still handed over
+		leave(orphan+"\n"+good+"\n"+sale(3)+"\n"+sale(4)+"\n");
+		PurchaseJournal journal=new PurchaseJournal(file);
+		assertEquals(0, journal.getPendingCount());
+		journal.close();
+
+		assertEquals(before+3, db.getTransactionsAll().size());
+		assertEquals(0, db.getVendingMachineById(helper.machines.get(1).getId()).getCurrentLayout().getRows()[0][0].getRemainingQuantity());
+		assertEquals(4, db.getJournalCheckpoint(file.getCanonicalPath()));
+	}
+}
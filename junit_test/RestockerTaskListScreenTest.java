@@ -125,4 +125,31 @@ public class RestockerTaskListScreenTest {
 		Assert.assertTrue( dispenser.getCurrentLayout().getDepth() 
 			== dispenser.getNextLayout().getDepth() );
 	}
+
+	/**
+	 * Tests that stocking is still recorded if someone else changes the machine in the meantime, without undoing their change
+	 **/
+	@Test
+	public void testStockingCompleteRace() throws Exception {
+		db.nuke();
+		TestUtilities helper = new TestUtilities( true );
+		VendingMachine dispenser = db.getVendingMachineById( helper.machines.get(0).getId() );
+		int replaced = dispenser.getCurrentLayout().getId();
+
+		RestockerTaskListScreen hope = new RestockerTaskListScreen( dispenser );
+		for ( Integer i : new ArrayList<Integer>( hope.getInstructions().keySet() ) )
+			hope.removeInstruction( i );
+		final int interval = dispenser.getStockingInterval()+1;
+		db.updateVendingMachine( db.getVendingMachineById( dispenser.getId() ), new DatabaseLayer.Change<VendingMachine>() {
+			@Override
+			public void applyTo( VendingMachine target ) throws BadArgumentException {
+				target.setStockingInterval( interval );
+			}
+		} );
+
+		Assert.assertTrue( hope.completeStocking() );
+		VendingMachine stored = db.getVendingMachineById( dispenser.getId() );
+		Assert.assertEquals( interval, stored.getStockingInterval() );
+		Assert.assertTrue( stored.getCurrentLayout().getId() != replaced );
+	}
 }
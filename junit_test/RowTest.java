@@ -176,4 +176,35 @@ public class RowTest
 		assertFalse(fight.decrementRemainingQuantity());
 		assertEquals(fight.getRemainingQuantity(), 0);
 	}
+
+	@Test
+	public void testDirtyTracking() throws BadArgumentException, BadStateException
+	{
+		FoodItem banana=new FoodItem("Banana", 75, 11);
+		GregorianCalendar dragging=new GregorianCalendar();
+		Row fight=new Row(banana, 4, dragging);
+		
+		assertTrue(fight.isDirty()); //never stored
+		fight.setId(1);
+		assertFalse(fight.isDirty());
+		fight.decrementRemainingQuantity();
+		assertTrue(fight.isDirty());
+		fight.markClean();
+		assertFalse(fight.isDirty());
+		dragging.add(GregorianCalendar.DAY_OF_YEAR, 1);
+		assertFalse(fight.isDirty()); //the row keeps its own copy
+		fight.setExpirationDate(dragging);
+		assertTrue(fight.isDirty());
+	}
+
+	@Test
+	public void testMillisConstruction() throws BadArgumentException
+	{
+		GregorianCalendar dragging=new GregorianCalendar();
+		Row fight=new Row(new FoodItem("Banana", 75, 11), 4, dragging.getTimeInMillis());
+
+		assertTrue(fight.getExpirationMillis()==dragging.getTimeInMillis());
+		assertEquals(fight.getExpirationDate(), dragging);
+		assertFalse(fight.getExpirationDate()==fight.getExpirationDate());
+	}
 }
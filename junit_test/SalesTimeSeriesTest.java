@@ -0,0 +1,49 @@
+import java.util.GregorianCalendar;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit test suite for <tt>SalesTimeSeries</tt>.
+ */
+@RunWith(JUnit4.class)
+public class SalesTimeSeriesTest
+{
+	@Test(expected=BadArgumentException.class)
+	public void testMismatchedLengths() throws BadArgumentException
+	{
+		new SalesTimeSeries(SalesTimeSeries.Granularity.DAY, new GregorianCalendar(), new int[2], new long[3]);
+	}
+
+	@Test
+	public void testPeriods() throws BadArgumentException
+	{
+		GregorianCalendar time=new GregorianCalendar(2013, 0, 31, 22, 15, 0);
+
+		Assert.assertEquals(2013013122L, SalesTimeSeries.Granularity.HOUR.keyOf(time));
+		Assert.assertEquals(20130131L, SalesTimeSeries.Granularity.DAY.keyOf(time));
+		Assert.assertEquals(201301L, SalesTimeSeries.Granularity.MONTH.keyOf(time));
+		SalesTimeSeries.Granularity.MONTH.truncate(time);
+		Assert.assertEquals(new GregorianCalendar(2013, 0, 1), time);
+
+		SalesTimeSeries series=new SalesTimeSeries(SalesTimeSeries.Granularity.MONTH, time, new int[3], new long[3]);
+		Assert.assertEquals(new GregorianCalendar(2013, 2, 1), series.getPeriodStart(2));
+	}
+
+	@Test
+	public void testMovingAverage() throws BadArgumentException
+	{
+		SalesTimeSeries series=new SalesTimeSeries(SalesTimeSeries.Granularity.HOUR, new GregorianCalendar(), new int[]{2, 4, 6, 0}, new long[]{100, 300, 0, 0});
+		double[] sales=series.movingAverageSales(2);
+		double[] revenue=series.movingAverageRevenue(3);
+
+		Assert.assertEquals(2.0, sales[0], 0.0);
+		Assert.assertEquals(3.0, sales[1], 0.0);
+		Assert.assertEquals(5.0, sales[2], 0.0);
+		Assert.assertEquals(3.0, sales[3], 0.0);
+		Assert.assertEquals(200.0, revenue[1], 0.0);
+		Assert.assertEquals(100.0, revenue[3], 0.0);
+	}
+}
@@ -0,0 +1,43 @@
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashSet;
+
+/**
+ * Unit test suite for <tt>Slot</tt>.
+ */
+@RunWith(JUnit4.class)
+public class SlotTest {
+	@Test
+	public void testCoordinates() {
+		Slot slot = Slot.of(5, 6);
+
+		Assert.assertTrue(slot.getX() == 5);
+		Assert.assertTrue(slot.getY() == 6);
+		Assert.assertTrue(slot == Slot.of(5, 6));
+		Assert.assertEquals("<5, 6>", slot.toString());
+	}
+
+	@Test
+	public void testEquality() {
+		Slot big = Slot.of(500, 6);
+		HashSet<Slot> seen = new HashSet<Slot>();
+
+		Assert.assertFalse(big == Slot.of(500, 6));
+		Assert.assertTrue(big.equals(Slot.of(500, 6)));
+		Assert.assertFalse(big.equals(Slot.of(6, 500)));
+		seen.add(big);
+		seen.add(Slot.of(1, 2));
+		Assert.assertTrue(seen.contains(Slot.of(500, 6)));
+		Assert.assertFalse(seen.contains(Slot.of(2, 1)));
+	}
+
+	@Test
+	public void testPacking() {
+		Assert.assertEquals(Slot.of(3, 5), Slot.unpack(Slot.of(3, 5).pack()));
+		Assert.assertEquals(Slot.of(65535, 40000), Slot.unpack(Slot.of(65535, 40000).pack()));
+		Assert.assertTrue(Slot.of(0, 0).pack() == 0);
+	}
+}
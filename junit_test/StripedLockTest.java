@@ -0,0 +1,66 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.util.HashSet;
+
+/**
+ * Tests for StripedLock
+ */
+public class StripedLockTest
+{
+	/**
+	 * Makes sure a nonsensical stripe count is refused
+	 **/
+	@Test(expected=IllegalArgumentException.class)
+	public void badCount()
+	{
+		new StripedLock(0);
+	}
+
+	/**
+	 * Makes sure each key always gets the same lock
+	 **/
+	@Test
+	public void sameKeySameLock()
+	{
+		StripedLock locks=new StripedLock(StripedLock.DEFAULT_STRIPES);
+
+		for(int key=-100; key<100; ++key)
+			assertSame(locks.get(key), locks.get(key));
+		assertSame(locks.get(Integer.MIN_VALUE), locks.get(Integer.MIN_VALUE));
+	}
+
+	/**
+	 * Makes sure sequential keys are spread across the locks
+	 **/
+	@Test
+	public void spread()
+	{
+		StripedLock locks=new StripedLock(8);
+		HashSet<Object> used=new HashSet<Object>();
+
+		for(int key=0; key<64; ++key)
+			used.add(locks.get(key));
+		assertEquals(8, used.size());
+		assertEquals(8, locks.getStripeCount());
+	}
+
+	/**
+	 * Makes sure stored objects are locked by id, so that separately loaded copies share a lock
+	 **/
+	@Test
+	public void byId() throws Exception
+	{
+		StripedLock locks=new StripedLock(StripedLock.DEFAULT_STRIPES);
+		Customer one=new Customer("Carlton", 2000);
+		Customer another=new Customer("Carlton", 2000);
+
+		one.setId(42);
+		another.setId(42);
+		assertSame(locks.get(one), locks.get(another));
+		assertSame(locks.get(42), locks.get(one));
+
+		Customer unstored=new Customer("Hank", 100);
+		assertSame(locks.get(unstored), locks.get(unstored));
+	}
+}
@@ -6,6 +6,12 @@ import java.sql.SQLException;
 import java.util.GregorianCalendar;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.HashMap;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
 
 /**
  * Runs tests on the DatabaseLayer
@@ -332,6 +338,26 @@ public class TestDatabaseLayer
 		}
 	}
 
+	/**
+	 * Tests fetching where each vending machine is
+	 **/
+	@Test
+	public void getVendingMachinePlaces() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+
+		HashMap<Integer, Pair<String, Integer>> places = dbl.getVendingMachinePlaces();
+
+		assertTrue(places.size() == machines.size());
+		for (VendingMachine machine : machines)
+		{
+			Pair<String, Integer> place = places.get(machine.getId());
+			assertTrue(place.first.equals(machine.getLocation().getState()));
+			assertTrue(place.second == machine.getLocation().getZipCode());
+		}
+	}
+
 	/**
 	 * Tests changing a vending machine's next layout to a layout already in
 	 * the database.
@@ -944,6 +970,552 @@ public class TestDatabaseLayer
 		}
 	}
 
+	/**
+	 * Tests fetching a machine's transactions a page at a time and by span
+	 * of time
+	 **/
+	@Test
+	public void getTransactionsPagedAndRanged() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+		testUtil.noTestAddTransactions();
+
+		ArrayList<Transaction> page = dbl.getTransactionsByVendingMachine(machines.get(0), 0, 1);
+		assertTrue(page.size() == 1);
+		TestUtilities.transactionEquals(page.get(0), transactions.get(0));
+		page = dbl.getTransactionsByVendingMachine(machines.get(0), page.get(0).getId(), 1);
+		assertTrue(page.size() == 1);
+		TestUtilities.transactionEquals(page.get(0), transactions.get(2));
+		page = dbl.getTransactionsByVendingMachine(machines.get(0), page.get(0).getId(), 1);
+		assertTrue(page.isEmpty());
+		assertTrue(dbl.getTransactionsByCustomer(customers.get(1), 0, 10).size() == 1);
+		assertTrue(dbl.getTransactionsByFoodItem(items.get(3), transactions.get(2).getId(), 10).isEmpty());
+
+		ArrayList<Transaction> span = dbl.getTransactionsByVendingMachine(machines.get(0), new GregorianCalendar(2013, 1, 7), new GregorianCalendar(2013, 1, 8));
+		assertTrue(span.size() == 1);
+		TestUtilities.transactionEquals(span.get(0), transactions.get(2));
+		assertTrue(dbl.getTransactionsByVendingMachine(machines.get(0), new GregorianCalendar(2013, 1, 7), new GregorianCalendar(2013, 1, 9)).size() == 2);
+		assertTrue(dbl.getTransactionsByCustomer(customers.get(1), new GregorianCalendar(2013, 1, 7), new GregorianCalendar(2013, 1, 9)).isEmpty());
+		assertTrue(dbl.getTransactionsByFoodItem(items.get(1), new GregorianCalendar(2013, 0, 21), new GregorianCalendar(2013, 0, 22)).size() == 1);
+	}
+
+	/**
+	 * Tests reading transactions one at a time through a cursor
+	 **/
+	@Test
+	public void openTransactionsCursor() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+		testUtil.noTestAddTransactions();
+
+		ArrayList<Transaction> all = dbl.getTransactionsAll();
+		DatabaseLayer.TransactionCursor cursor = dbl.openTransactionsAll();
+		int count = 0;
+		for (Transaction trans = cursor.next(); trans != null; trans = cursor.next())
+		{
+			//the cursor's own statement isn't disturbed by other queries
+			TestUtilities.transactionEquals(trans, dbl.getTransactionById(trans.getId()));
+			TestUtilities.transactionEquals(trans, all.get(count++));
+		}
+		assertTrue(count == all.size());
+		assertTrue(cursor.next() == null);
+		cursor.close();
+
+		cursor = dbl.openTransactionsByVendingMachine(machines.get(0));
+		Transaction first = cursor.next();
+		assertTrue(first.getMachine().getId() == machines.get(0).getId());
+		cursor.close();
+		cursor.close();
+		assertTrue(cursor.next() == null);
+	}
+
+	/**
+	 * Tests that transactions fetched together share one copy of each
+	 * machine, customer, and item they have in common
+	 **/
+	@Test
+	public void getTransactionsSharesObjects() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+		testUtil.noTestAddTransactions();
+		dbl.updateOrCreateTransaction(new Transaction(new GregorianCalendar(2013, 1, 9, 10, 0, 0), machines.get(0), customers.get(0), items.get(0), Slot.of(0, 0)));
+
+		ArrayList<Transaction> test = dbl.getTransactionsByVendingMachine(machines.get(0));
+		assertTrue(test.size() == 3);
+		Transaction first = null;
+		Transaction second = null;
+		for (Transaction trans : test)
+		{
+			assertTrue(trans.getMachine() == test.get(0).getMachine());
+			if (trans.getCustomer().getId() == customers.get(0).getId())
+			{
+				if (first == null)
+					first = trans;
+				else
+					second = trans;
+			}
+		}
+		assertTrue(second != null);
+		assertTrue(first.getCustomer() == second.getCustomer());
+		assertTrue(first.getProduct() == second.getProduct());
+		TestUtilities.customerEquals(first.getCustomer(), customers.get(0));
+		TestUtilities.foodItemEquals(first.getProduct(), items.get(0));
+	}
+
+	/**
+	 * Tests that repeated fetches are served from the entity cache, and that
+	 * what the cache hands out can be modified without affecting later
+	 * fetches.
+	 **/
+	@Test
+	public void getFromCacheReturnsCopies() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+
+		long hits = dbl.getCacheHits();
+		VendingMachine first = dbl.getVendingMachineById(machines.get(0).getId());
+		VendingMachine second = dbl.getVendingMachineById(machines.get(0).getId());
+		assertTrue(dbl.getCacheHits() > hits);
+		assertTrue(first != second);
+		assertTrue(first.getCurrentLayout() != second.getCurrentLayout());
+		TestUtilities.vendingMachineEquals(first, second);
+
+		Customer customer = dbl.getCustomerById(customers.get(0).getId());
+		customer.setMoney(customer.getMoney() + 100);
+		TestUtilities.customerEquals(dbl.getCustomerById(customers.get(0).getId()), customers.get(0));
+
+		FoodItem item = dbl.getFoodItemById(items.get(0).getId());
+		item.setPrice(item.getPrice() + 100);
+		dbl.updateOrCreateFoodItem(item);
+		TestUtilities.foodItemEquals(dbl.getFoodItemById(item.getId()), item);
+	}
+
+	/**
+	 * Tests that a purchase stores the transaction, debits the customer, and
+	 * decrements the row it came from.
+	 **/
+	@Test
+	public void commitPurchase() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+
+		VendingMachine machine = machines.get(1);
+		Row row = machine.getCurrentLayout().getRows()[0][0];
+		Customer customer = customers.get(0);
+		Transaction purchase = new Transaction(new GregorianCalendar(), machine, customer, row.getProduct(), Slot.of(0, 0));
+		dbl.commitPurchase(purchase, row);
+
+		assertFalse(purchase.isTempId());
+		Transaction stored = dbl.getTransactionById(purchase.getId());
+		assertTrue(stored.getBalance() == purchase.getBalance());
+		assertTrue(stored.getMachine().getId() == machine.getId());
+		TestUtilities.foodItemEquals(stored.getProduct(), row.getProduct());
+		assertTrue(dbl.getCustomerById(customer.getId()).getMoney() == customer.getMoney() - row.getProduct().getPrice());
+		assertTrue(dbl.getVendingMachineById(machine.getId()).getCurrentLayout().getRows()[0][0].getRemainingQuantity() == row.getRemainingQuantity() - 1);
+	}
+
+	/**
+	 * Tests that a purchase leaves the machine cached, with the row it came
+	 * from taken down by one and at its stored version.
+	 **/
+	@Test
+	public void commitPurchaseKeepsMachineCached() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+
+		VendingMachine machine = dbl.getVendingMachineById(machines.get(1).getId());
+		Row row = machine.getCurrentLayout().getRows()[0][0];
+		dbl.commitPurchase(new Transaction(new GregorianCalendar(), machine, customers.get(0), row.getProduct(), Slot.of(0, 0)), row);
+
+		long misses = dbl.getCacheMisses();
+		VendingMachine cachedMachine = dbl.getVendingMachineById(machine.getId());
+		Row cached = cachedMachine.getCurrentLayout().getRows()[0][0];
+		assertTrue(dbl.getCacheMisses() == misses);
+		assertTrue(cached.getRemainingQuantity() == row.getRemainingQuantity() - 1);
+		assertTrue(cached.getVersion() == row.getVersion() + 1);
+
+		//the cached version is the stored one, so the row can be written back
+		cached.setRemainingQuantity(0);
+		dbl.updateOrCreateVendingMachine(cachedMachine);
+		assertTrue(dbl.getVendingMachineById(machine.getId()).getCurrentLayout().getRows()[0][0].getRemainingQuantity() == 0);
+	}
+
+	/**
+	 * Tests that the sales rollups follow purchases and changes to
+	 * transactions
+	 **/
+	@Test
+	public void salesRollups() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+		testUtil.noTestAddTransactions();
+		GregorianCalendar first = new GregorianCalendar(2013, 1, 1);
+		GregorianCalendar last = new GregorianCalendar(2013, 1, 28);
+
+		ArrayList<SalesRollup> days = dbl.getVendingMachineDailySales(machines.get(0), first, last);
+		assertTrue(days.size() == 2);
+		assertTrue(days.get(0).getPeriod() == 20130207);
+		assertTrue(days.get(0).getSales() == 1);
+		assertTrue(days.get(0).getRevenue() == transactions.get(2).getBalance());
+		assertTrue(SalesRollup.total(days).getSales() == 2);
+		assertTrue(SalesRollup.total(days).getRevenue() == transactions.get(0).getBalance() + transactions.get(2).getBalance());
+		assertTrue(dbl.getCustomerMonthlySales(customers.get(1), new GregorianCalendar(2013, 0, 1), last).get(0).getPeriod() == 201301);
+		assertTrue(dbl.getFoodItemDailySales(items.get(3), first, last).size() == 1);
+		int zipCode = machines.get(0).getLocation().getZipCode();
+		assertTrue(SalesRollup.total(dbl.getZipCodeDailySales(zipCode, first, last)).getSales() >= 2);
+		assertTrue(SalesRollup.total(dbl.getStateDailySales(machines.get(0).getLocation().getState(), first, last)).getSales() >= 2);
+
+		//moving a transaction to another machine moves it between the rollups
+		Transaction moved = new Transaction(transactions.get(2).getTimestamp(), machines.get(1), customers.get(3), items.get(3), Slot.of(2, 1));
+		moved.setId(transactions.get(2).getId());
+		dbl.updateOrCreateTransaction(moved);
+		assertTrue(SalesRollup.total(dbl.getVendingMachineDailySales(machines.get(0), first, last)).getSales() == 1);
+		assertTrue(SalesRollup.total(dbl.getVendingMachineDailySales(machines.get(1), first, last)).getSales() == 1);
+
+		VendingMachine machine = machines.get(1);
+		Row row = machine.getCurrentLayout().getRows()[0][0];
+		GregorianCalendar now = new GregorianCalendar();
+		int before = SalesRollup.total(dbl.getVendingMachineDailySales(machine, now, now)).getSales();
+		dbl.commitPurchase(new Transaction(now, machine, customers.get(0), row.getProduct(), Slot.of(0, 0)), row);
+		SalesRollup today = SalesRollup.total(dbl.getVendingMachineDailySales(machine, now, now));
+		assertTrue(today.getSales() == before + 1);
+	}
+
+	/**
+	 * Tests charting sales over time from the rollups
+	 **/
+	@Test
+	public void salesSeries() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+		testUtil.noTestAddTransactions();
+
+		SalesTimeSeries days = dbl.getVendingMachineSalesSeries(machines.get(0), SalesTimeSeries.Granularity.DAY, new GregorianCalendar(2013, 1, 6, 12, 0), new GregorianCalendar(2013, 1, 9));
+		assertTrue(days.size() == 4);
+		assertTrue(days.getSales(0) == 0);
+		assertTrue(days.getSales(1) == 1);
+		assertTrue(days.getSales(2) == 1);
+		assertTrue(days.getRevenue(2) == transactions.get(0).getBalance());
+		assertTrue(days.getSales(3) == 0);
+
+		SalesTimeSeries hours = dbl.getVendingMachineSalesSeries(machines.get(0), SalesTimeSeries.Granularity.HOUR, new GregorianCalendar(2013, 1, 8), new GregorianCalendar(2013, 1, 8, 23, 0));
+		assertTrue(hours.size() == 24);
+		assertTrue(hours.getSales(14) == 1);
+
+		SalesTimeSeries months = dbl.getFoodItemSalesSeries(items.get(1), SalesTimeSeries.Granularity.MONTH, new GregorianCalendar(2012, 11, 1), new GregorianCalendar(2013, 1, 1));
+		assertTrue(months.size() == 3);
+		assertTrue(months.getSales(1) == 1);
+		assertTrue(months.getSales(0) + months.getSales(2) == 0);
+	}
+
+	/**
+	 * Tests ranking items by sales at a machine, in a region, and across
+	 * the fleet
+	 **/
+	@Test
+	public void bestSellers() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+		testUtil.noTestAddTransactions();
+		dbl.updateOrCreateTransaction(new Transaction(new GregorianCalendar(2013, 1, 9, 10, 0, 0), machines.get(0), customers.get(1), items.get(3), Slot.of(2, 1)));
+
+		ArrayList<Pair<FoodItem, Integer>> ranked = dbl.getBestSellersByVendingMachine(machines.get(0), 10);
+		assertTrue(ranked.size() == 2);
+		TestUtilities.foodItemEquals(ranked.get(0).first, items.get(3));
+		assertTrue(ranked.get(0).second == 2);
+		assertTrue(ranked.get(1).second == 1);
+		assertTrue(dbl.getBestSellersByVendingMachine(machines.get(0), 1).size() == 1);
+
+		ranked = dbl.getBestSellersAll(10);
+		assertTrue(ranked.size() == 3);
+		TestUtilities.foodItemEquals(ranked.get(0).first, items.get(3));
+		Location location = machines.get(0).getLocation();
+		TestUtilities.foodItemEquals(dbl.getBestSellersByState(location.getState(), 1).get(0).first, items.get(3));
+		TestUtilities.foodItemEquals(dbl.getBestSellersByZipCode(location.getZipCode(), 1).get(0).first, items.get(3));
+
+		//a purchase counts straight away
+		VendingMachine machine = machines.get(1);
+		Row row = machine.getCurrentLayout().getRows()[0][0];
+		dbl.commitPurchase(new Transaction(new GregorianCalendar(), machine, customers.get(0), row.getProduct(), Slot.of(0, 0)), row);
+		dbl.commitPurchase(new Transaction(new GregorianCalendar(), machine, customers.get(0), row.getProduct(), Slot.of(0, 0)), row);
+		ranked = dbl.getBestSellersByVendingMachine(machine, 1);
+		TestUtilities.foodItemEquals(ranked.get(0).first, row.getProduct());
+		assertTrue(ranked.get(0).second >= 2);
+	}
+
+	/**
+	 * Tests that a purchase from an empty row changes nothing.
+	 **/
+	@Test
+	public void commitPurchaseSoldOut() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+
+		VendingMachine machine = machines.get(1);
+		Row row = machine.getCurrentLayout().getRows()[0][0];
+		Customer customer = customers.get(0);
+		for (int left=row.getRemainingQuantity();left>0;--left)
+			dbl.commitPurchase(new Transaction(new GregorianCalendar(), machine, customer, row.getProduct(), Slot.of(0, 0)), row);
+		int money = dbl.getCustomerById(customer.getId()).getMoney();
+		int sold = dbl.getTransactionsAll().size();
+
+		try
+		{
+			dbl.commitPurchase(new Transaction(new GregorianCalendar(), machine, customer, row.getProduct(), Slot.of(0, 0)), row);
+			fail("Bought from an empty row");
+		}
+		catch (BadStateException soldOut)
+		{
+			assertTrue(soldOut.getMessage().equals("Item sold out"));
+		}
+		assertTrue(dbl.getCustomerById(customer.getId()).getMoney() == money);
+		assertTrue(dbl.getTransactionsAll().size() == sold);
+	}
+
+	/**
+	 * Tests that only changed parts of a vending machine are written.
+	 **/
+	@Test
+	public void updateVendingMachineSkipsUnchanged() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+
+		VendingMachine machine = machines.get(1);
+		assertFalse(machine.isDirty());
+		assertFalse(machine.getCurrentLayout().isDirty());
+		assertFalse(machine.getCurrentLayout().isArrangementDirty());
+
+		//a purchase elsewhere changes the stored row behind this copy's back
+		Row bought = machine.getCurrentLayout().getRows()[0][0];
+		dbl.commitPurchase(new Transaction(new GregorianCalendar(), machine, customers.get(0), bought.getProduct(), Slot.of(0, 0)), bought);
+
+		//so rewriting an unrelated row mustn't undo it
+		Row restocked = machine.getCurrentLayout().getRows()[1][1];
+		restocked.setRemainingQuantity(restocked.getRemainingQuantity() + 1);
+		assertTrue(restocked.isDirty());
+		dbl.updateOrCreateVendingMachine(machine);
+		assertFalse(restocked.isDirty());
+
+		Row[][] stored = dbl.getVendingMachineById(machine.getId()).getCurrentLayout().getRows();
+		assertTrue(stored[0][0].getRemainingQuantity() == bought.getRemainingQuantity() - 1);
+		assertTrue(stored[1][1].getRemainingQuantity() == restocked.getRemainingQuantity());
+	}
+
+	/**
+	 * Tests that a stale copy of a customer can't be written over a newer one,
+	 * and that the change can be redone to the newer one instead.
+	 **/
+	@Test
+	public void updateCustomerConflicts() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddCustomers();
+		int id = customers.get(0).getId();
+		int version = customers.get(0).getVersion();
+
+		Customer stale = dbl.getCustomerById(id);
+		Customer other = dbl.getCustomerById(id);
+		other.setMoney(700);
+		dbl.updateOrCreateCustomer(other);
+		assertEquals(version + 1, other.getVersion());
+		assertEquals(version + 1, dbl.getCustomerById(id).getVersion());
+
+		stale.setMoney(1);
+		try
+		{
+			dbl.updateOrCreateCustomer(stale);
+			fail("Stale customer was written");
+		}
+		catch (ConflictException expected) {}
+		assertEquals(700, dbl.getCustomerById(id).getMoney());
+
+		Customer stored = dbl.updateCustomer(stale, new DatabaseLayer.Change<Customer>()
+		{
+			@Override
+			public void applyTo(Customer target)
+			{
+				target.deductMoney(-50);
+			}
+		});
+		assertEquals(750, stored.getMoney());
+		assertEquals(750, dbl.getCustomerById(id).getMoney());
+	}
+
+	/**
+	 * Tests that a customer fetched before a purchase can't be written back
+	 * over the balance the purchase left.
+	 **/
+	@Test
+	public void purchaseAdvancesVersions() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+
+		VendingMachine machine = machines.get(1);
+		Customer before = dbl.getCustomerById(customers.get(0).getId());
+		Row stale = dbl.getVendingMachineById(machine.getId()).getCurrentLayout().getRows()[0][0];
+		Row bought = machine.getCurrentLayout().getRows()[0][0];
+		dbl.commitPurchase(new Transaction(new GregorianCalendar(), machine, customers.get(0), bought.getProduct(), Slot.of(0, 0)), bought);
+
+		assertEquals(before.getVersion() + 1, dbl.getCustomerById(before.getId()).getVersion());
+		assertEquals(stale.getVersion() + 1, dbl.getVendingMachineById(machine.getId()).getCurrentLayout().getRows()[0][0].getVersion());
+
+		before.setMoney(before.getMoney() + 100);
+		try
+		{
+			dbl.updateOrCreateCustomer(before);
+			fail("Customer was written over a purchase");
+		}
+		catch (ConflictException expected) {}
+	}
+
+	/**
+	 * Tests that a stale copy of a vending machine can't be written over a
+	 * newer one, and that the change can be redone to the newer one instead.
+	 **/
+	@Test
+	public void updateVendingMachineConflicts() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		int id = machines.get(0).getId();
+
+		VendingMachine stale = dbl.getVendingMachineById(id);
+		VendingMachine other = dbl.getVendingMachineById(id);
+		other.makeActive(!other.isActive());
+		dbl.updateOrCreateVendingMachine(other);
+		assertEquals(stale.getVersion() + 1, other.getVersion());
+
+		stale.setStockingInterval(stale.getStockingInterval() + 1);
+		try
+		{
+			dbl.updateOrCreateVendingMachine(stale);
+			fail("Stale vending machine was written");
+		}
+		catch (ConflictException expected) {}
+
+		final int interval = other.getStockingInterval() + 1;
+		dbl.updateVendingMachine(stale, new DatabaseLayer.Change<VendingMachine>()
+		{
+			@Override
+			public void applyTo(VendingMachine target) throws BadArgumentException
+			{
+				target.setStockingInterval(interval);
+			}
+		});
+		VendingMachine stored = dbl.getVendingMachineById(id);
+		assertEquals(other.isActive(), stored.isActive());
+		assertEquals(interval, stored.getStockingInterval());
+	}
+
+	/**
+	 * Tests that a row can't be written over a purchase made from it since it
+	 * was fetched, and that nothing else in the machine is written either.
+	 **/
+	@Test
+	public void updateRowConflicts() throws SQLException, BadStateException, BadArgumentException
+	{
+		testUtil.noTestAddFoodItems();
+		testUtil.noTestAddVendingMachines();
+		testUtil.noTestAddCustomers();
+
+		VendingMachine machine = machines.get(1);
+		VendingMachine stale = dbl.getVendingMachineById(machine.getId());
+		Row bought = machine.getCurrentLayout().getRows()[0][0];
+		dbl.commitPurchase(new Transaction(new GregorianCalendar(), machine, customers.get(0), bought.getProduct(), Slot.of(0, 0)), bought);
+
+		stale.getCurrentLayout().getRows()[0][0].setRemainingQuantity(5);
+		stale.getCurrentLayout().getRows()[1][1].setRemainingQuantity(5);
+		try
+		{
+			dbl.updateOrCreateVendingMachine(stale);
+			fail("Row was written over a purchase");
+		}
+		catch (ConflictException expected) {}
+
+		Row[][] stored = dbl.getVendingMachineById(machine.getId()).getCurrentLayout().getRows();
+		assertEquals(bought.getRemainingQuantity() - 1, stored[0][0].getRemainingQuantity());
+		assertEquals(machine.getCurrentLayout().getRows()[1][1].getRemainingQuantity(), stored[1][1].getRemainingQuantity());
+	}
+
+	/**
+	 * Tests that the database has every migration applied.
+	 **/
+	@Test
+	public void schemaUpToDate() throws SQLException
+	{
+		assertEquals(DatabaseLayer.SCHEMA_VERSION, dbl.getSchemaVersion());
+	}
+
+	/**
+	 * Tests that a database from before schema versioning is upgraded
+	 * without losing its contents.
+	 **/
+	@Test
+	public void upgradeSchemaKeepsData() throws SQLException
+	{
+		File old = new File("migrationtest.db");
+		old.delete();
+		Connection db = DriverManager.getConnection("jdbc:sqlite:migrationtest.db");
+		try
+		{
+			Statement stmt = db.createStatement();
+			stmt.executeUpdate("CREATE TABLE Customer( customerId INTEGER PRIMARY KEY AUTOINCREMENT, money INTEGER NOT NULL, name TEXT)");
+			stmt.executeUpdate("INSERT INTO Customer(money, name) VALUES(500, 'Carlton')");
+			stmt.executeUpdate("CREATE TABLE VMTransaction( transactionId INTEGER PRIMARY KEY AUTOINCREMENT, timestamp INTEGER NOT NULL, machineId INTEGER, customerId INTEGER, productId INTEGER, rowX INTEGER NOT NULL, rowY INTEGER NOT NULL, balance INTEGER NOT NULL)");
+			stmt.executeUpdate("INSERT INTO VMTransaction(timestamp, machineId, customerId, productId, rowX, rowY, balance) VALUES(0, 1, 1, 1, 0, 0, 150)");
+			stmt.executeUpdate("INSERT INTO VMTransaction(timestamp, machineId, customerId, productId, rowX, rowY, balance) VALUES(1000, 1, 1, 2, 0, 0, 100)");
+
+			DatabaseLayer.upgradeSchema(db);
+			DatabaseLayer.upgradeSchema(db); //nothing left to do
+
+			ResultSet results = stmt.executeQuery("PRAGMA user_version");
+			assertEquals(DatabaseLayer.SCHEMA_VERSION, results.getInt(1));
+			results.close();
+			results = stmt.executeQuery("SELECT money, name FROM Customer");
+			assertTrue(results.next());
+			assertEquals(500, results.getInt(1));
+			assertEquals("Carlton", results.getString(2));
+			results.close();
+			results = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type='index' AND name='VMTransactionCustomer'");
+			assertTrue(results.next());
+			results.close();
+			results = stmt.executeQuery("SELECT sales, revenue FROM MachineDailySales WHERE machineId=1");
+			assertTrue(results.next());
+			assertEquals(2, results.getInt(1));
+			assertEquals(250, results.getInt(2));
+			results.close();
+			stmt.close();
+		}
+		finally
+		{
+			db.close();
+			old.delete();
+		}
+	}
+
 	/**
 	 * Tests fetching all of the locations from the database
 	 **/
@@ -174,9 +174,9 @@ public class TestUtilities
 	public void initTransactions() throws BadStateException, BadArgumentException
 	{
 		transactions = new ArrayList<Transaction>();
-		transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), machines.get(0), customers.get(0), items.get(0), new Pair<Integer, Integer>(0,0)));
-		transactions.add(new Transaction(new GregorianCalendar(2012, 12, 21, 23, 59, 59), machines.get(1), customers.get(1), items.get(1), new Pair<Integer, Integer>(1,1)));
-		transactions.add(new Transaction(new GregorianCalendar(2013, 1,7,11,31,15), machines.get(0), customers.get(3), items.get(3), new Pair<Integer, Integer>(2,1)));
+		transactions.add(new Transaction(new GregorianCalendar(2013, 1, 8, 14, 15, 3), machines.get(0), customers.get(0), items.get(0), Slot.of(0, 0)));
+		transactions.add(new Transaction(new GregorianCalendar(2012, 12, 21, 23, 59, 59), machines.get(1), customers.get(1), items.get(1), Slot.of(1, 1)));
+		transactions.add(new Transaction(new GregorianCalendar(2013, 1,7,11,31,15), machines.get(0), customers.get(3), items.get(3), Slot.of(2, 1)));
 	}
 
 	/**
@@ -302,8 +302,7 @@ public class TestUtilities
 		vendingMachineEquals(trans1.getMachine(), trans2.getMachine());
 		customerEquals(trans1.getCustomer(), trans2.getCustomer());
 		foodItemEquals(trans1.getProduct(), trans2.getProduct());
-		assertTrue(trans1.getRow().first == trans2.getRow().first &&
-			trans1.getRow().second == trans2.getRow().second);
+		assertTrue(trans1.getRow().equals(trans2.getRow()));
 		assertTrue(trans1.getBalance() == trans2.getBalance());
 	}
 
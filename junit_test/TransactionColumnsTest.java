@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit test suite for <tt>TransactionColumns</tt>.
+ */
+@RunWith(JUnit4.class)
+public class TransactionColumnsTest
+{
+	/**
+	 * Builds columns in which transaction <tt>i</tt> happens at time <tt>i</tt>, at machine <tt>i%machines</tt>, by customer <tt>i%2</tt>, of product <tt>i%3</tt>, for <tt>i%5</tt> cents.
+	 * @param size the number of transactions
+	 * @param machines the number of machines
+	 * @return the columns
+	 */
+	private static TransactionColumns build(int size, int machines)
+	{
+		long[] timestamps=new long[size];
+		int[] machineIds=new int[size];
+		int[] customerIds=new int[size];
+		int[] productIds=new int[size];
+		int[] rows=new int[size];
+		int[] balances=new int[size];
+
+		for(int index=0; index<size; ++index)
+		{
+			timestamps[index]=index;
+			machineIds[index]=index%machines;
+			customerIds[index]=index%2;
+			productIds[index]=index%3;
+			rows[index]=Slot.of(index%4, index%6).pack();
+			balances[index]=index%5;
+		}
+		return new TransactionColumns(size, timestamps, machineIds, customerIds, productIds, rows, balances);
+	}
+
+	@Test
+	public void testGroupAndFilter()
+	{
+		TransactionColumns columns=build(30, 3);
+		ArrayList<TransactionColumns.Group> groups=columns.group(TransactionColumns.Key.MACHINE, new TransactionColumns.Filter());
+
+		Assert.assertEquals(3, groups.size());
+		Assert.assertEquals(0, groups.get(0).getKey());
+		Assert.assertEquals(10, groups.get(0).getSales());
+
+		TransactionColumns.Group total=columns.total(new TransactionColumns.Filter().customer(1).between(10, 20));
+		Assert.assertEquals(5, total.getSales());
+		Assert.assertEquals(1+3+0+2+4, total.getRevenue());
+
+		Assert.assertEquals(0, columns.total(new TransactionColumns.Filter().machine(0).product(1).between(0, 3)).getSales());
+		Assert.assertEquals(Slot.of(3, 5), columns.getRow(11));
+	}
+
+	@Test
+	public void testTop()
+	{
+		TransactionColumns columns=build(10, 10);
+		ArrayList<TransactionColumns.Group> top=columns.top(TransactionColumns.Key.MACHINE, new TransactionColumns.Filter(), 2, true);
+
+		Assert.assertEquals(2, top.size());
+		Assert.assertEquals(4, top.get(0).getKey()); //4 and 9 both took 4 cents; ties go to the lower key
+		Assert.assertEquals(9, top.get(1).getKey());
+		Assert.assertEquals(4, columns.top(TransactionColumns.Key.PRODUCT, new TransactionColumns.Filter(), 5, false).get(0).getSales());
+	}
+
+	@Test
+	public void testParallelScanMatchesSerial()
+	{
+		int size=TransactionColumns.PARALLEL_THRESHOLD*2+7;
+		TransactionColumns columns=build(size, 7);
+		long revenue=0;
+
+		for(TransactionColumns.Group group : columns.group(TransactionColumns.Key.MACHINE, new TransactionColumns.Filter()))
+		{
+			Assert.assertEquals(size/7+(group.getKey()<size%7 ? 1 : 0), group.getSales());
+			revenue+=group.getRevenue();
+		}
+		Assert.assertEquals(columns.total(new TransactionColumns.Filter()).getRevenue(), revenue);
+		Assert.assertEquals(size, columns.total(new TransactionColumns.Filter()).getSales());
+	}
+}
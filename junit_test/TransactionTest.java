@@ -20,11 +20,11 @@ public class TransactionTest {
 													layout);
 		Customer customer = new Customer("Krutz", 512);
 		FoodItem product = new FoodItem("Pasta", 3, 128);
-		Pair<Integer, Integer> whichRow = new Pair<Integer, Integer>(4, 2);
+		Slot whichRow = Slot.of(4, 2);
 
 		Transaction transaction = new Transaction(calendar, machine, customer, product, whichRow);
 
-		Assert.assertTrue(transaction.getTimestamp() == calendar);
+		Assert.assertTrue(transaction.getTimestamp().equals(calendar));
 		Assert.assertTrue(transaction.getMachine() == machine);
 		Assert.assertTrue(transaction.getCustomer() == customer);
 		Assert.assertTrue(transaction.getProduct() == product);
@@ -42,11 +42,11 @@ public class TransactionTest {
 													layout);
 		Customer customer = new Customer("Krutz", 512);
 		FoodItem product = new FoodItem("Pasta", 3, 128);
-		Pair<Integer, Integer> whichRow = new Pair<Integer, Integer>(4, 2);
+		Slot whichRow = Slot.of(4, 2);
 
 		Transaction transaction = new Transaction(calendar, machine, customer, product, whichRow, 14);
 
-		Assert.assertTrue(transaction.getTimestamp() == calendar);
+		Assert.assertTrue(transaction.getTimestamp().equals(calendar));
 		Assert.assertTrue(transaction.getMachine() == machine);
 		Assert.assertTrue(transaction.getCustomer() == customer);
 		Assert.assertTrue(transaction.getProduct() == product);
@@ -62,7 +62,7 @@ public class TransactionTest {
 		VendingMachine machine = new VendingMachine(loc, 1, layout);
 		Customer customer = new Customer("Krutz", 512);
 		FoodItem product = new FoodItem("Pasta", 3, 128);
-		Pair<Integer, Integer> whichRow = new Pair<Integer, Integer>(4, 2);
+		Slot whichRow = Slot.of(4, 2);
 
 		Transaction transaction = new Transaction(calendar, machine, customer, product, whichRow);
 
@@ -83,7 +83,7 @@ public class TransactionTest {
 													layout);
 		Customer customer = new Customer("Krutz", 512);
 		FoodItem product = new FoodItem("Pasta", 3, 128);
-		Pair<Integer, Integer> whichRow = new Pair<Integer, Integer>(4, 2);
+		Slot whichRow = Slot.of(4, 2);
 
 		try {
 			Transaction transaction = new Transaction(calendar, machine, customer, product, whichRow);
@@ -102,7 +102,7 @@ public class TransactionTest {
 		VendingMachine machine = null;
 		Customer customer = new Customer("Krutz", 512);
 		FoodItem product = new FoodItem("Pasta", 3, 128);
-		Pair<Integer, Integer> whichRow = new Pair<Integer, Integer>(4, 2);
+		Slot whichRow = Slot.of(4, 2);
 
 		try {
 			Transaction transaction = new Transaction(calendar, machine, customer, product, whichRow);
@@ -124,7 +124,7 @@ public class TransactionTest {
 													layout);
 		Customer customer = null;
 		FoodItem product = new FoodItem("Pasta", 3, 128);
-		Pair<Integer, Integer> whichRow = new Pair<Integer, Integer>(4, 2);
+		Slot whichRow = Slot.of(4, 2);
 
 		try {
 			Transaction transaction = new Transaction(calendar, machine, customer, product, whichRow);
@@ -146,29 +146,7 @@ public class TransactionTest {
 													layout);
 		Customer customer = new Customer("Krutz", 512);
 		FoodItem product = new FoodItem("Pasta", 3, 128);
-		Pair<Integer, Integer> whichRow = null;
-
-		try {
-			Transaction transaction = new Transaction(calendar, machine, customer, product, whichRow);
-		} catch(BadArgumentException e) {
-			testFailed = true;
-		}
-
-		Assert.assertTrue(testFailed);
-	}
-
-	@Test
-	public void testNullRowCoordinateConstruction() throws BadArgumentException {
-		boolean testFailed = false;
-
-		GregorianCalendar calendar = new GregorianCalendar();
-		VMLayout layout = new VMLayout(3, 3, 3);
-		VendingMachine machine = new VendingMachine(new Location(14586, "New York", new String[] {"A", "B", "C"}),
-													1,
-													layout);
-		Customer customer = new Customer("Krutz", 512);
-		FoodItem product = new FoodItem("Pasta", 3, 128);
-		Pair<Integer, Integer> whichRow = new Pair<Integer, Integer>(null, 2);
+		Slot whichRow = null;
 
 		try {
 			Transaction transaction = new Transaction(calendar, machine, customer, product, whichRow);
@@ -190,7 +168,7 @@ public class TransactionTest {
 													layout);
 		Customer customer = new Customer("Krutz", 512);
 		FoodItem product = new FoodItem("Pasta", 3, 128);
-		Pair<Integer, Integer> whichRow = new Pair<Integer, Integer>(-4, 2);
+		Slot whichRow = Slot.of(-4, 2);
 
 		try {
 			Transaction transaction = new Transaction(calendar, machine, customer, product, whichRow);
@@ -212,7 +190,7 @@ public class TransactionTest {
 													layout);
 		Customer customer = new Customer("Krutz", 512);
 		FoodItem product = new FoodItem("Pasta", 3, 128);
-		Pair<Integer, Integer> whichRow = new Pair<Integer, Integer>(2, -2);
+		Slot whichRow = Slot.of(2, -2);
 
 		try {
 			Transaction transaction = new Transaction(calendar, machine, customer, product, whichRow);
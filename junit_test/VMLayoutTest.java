@@ -88,7 +88,7 @@ public class VMLayoutTest
 		
 		assertTrue(orig.getRows()==bak.getRows());
 		assertEquals(orig.getDepth(), bak.getDepth());
-		assertTrue(orig.getNextVisit()==bak.getNextVisit());
+		assertEquals(orig.getNextVisit(), bak.getNextVisit());
 		assertEquals(orig, bak);
 		assertEquals(orig.getId(), bak.getId());
 	}
@@ -132,4 +132,110 @@ public class VMLayoutTest
 		visitee.setNextVisit(null);
 		assertEquals(visitee.getNextVisit(), null);
 	}
+
+	@Test
+	public void testDirtyTracking() throws BadArgumentException, BadStateException
+	{
+		VMLayout visitee=new VMLayout(2, 4, 8);
+		GregorianCalendar appointment=new GregorianCalendar();
+		
+		visitee.setNextVisit(appointment);
+		visitee.setId(1);
+		visitee.markClean();
+		assertFalse(visitee.isDirty());
+		assertFalse(visitee.isArrangementDirty());
+		appointment.add(GregorianCalendar.DAY_OF_YEAR, 1);
+		assertFalse(visitee.isDirty()); //the layout keeps its own copy
+		visitee.setNextVisit(appointment);
+		assertTrue(visitee.isDirty());
+		assertFalse(visitee.isArrangementDirty());
+		visitee.markClean();
+		visitee.getRows()[1][3]=new Row(new FoodItem("Banana", 75, 11), 4, new GregorianCalendar());
+		assertFalse(visitee.isDirty());
+		assertTrue(visitee.isArrangementDirty());
+	}
+
+	@Test
+	public void testStockedItemIds() throws BadArgumentException, BadStateException
+	{
+		VMLayout shelves=new VMLayout(2, 2, 8);
+		FoodItem stocked=new FoodItem("Gum", 50, 100);
+		FoodItem soldOut=new FoodItem("Mints", 75, 100);
+		FoodItem unstored=new FoodItem("Jerky", 200, 100);
+		stocked.setId(1);
+		soldOut.setId(2);
+
+		shelves.setRow(0, 0, new Row(stocked, 3, new GregorianCalendar()));
+		shelves.setRow(0, 1, new Row(soldOut, 0, new GregorianCalendar()));
+		shelves.setRow(1, 0, new Row(unstored, 3, new GregorianCalendar()));
+		assertEquals(1, shelves.getStockedItemIds().size());
+		assertTrue(shelves.getStockedItemIds().contains(1));
+	}
+
+	@Test
+	public void testSlotIndex() throws BadArgumentException, BadStateException
+	{
+		VMLayout shelves=new VMLayout(2, 2, 8);
+		shelves.setId(1); //only stored layouts can be shallow-copied
+		VMLayout copy=new VMLayout(shelves);
+		FoodItem gum=new FoodItem("Gum", 50, 100);
+		FoodItem mints=new FoodItem("Mints", 75, 100);
+		gum.setId(1);
+		mints.setId(2);
+
+		assertNull(shelves.findStockedSlot(gum));
+		shelves.setRow(0, 1, new Row(gum, 0, new GregorianCalendar()));
+		shelves.setRow(1, 1, new Row(gum, 3, new GregorianCalendar()));
+		assertEquals(Slot.of(1, 1), shelves.findStockedSlot(gum));
+		assertEquals(Slot.of(1, 1), copy.findStockedSlot(gum));
+		assertTrue(shelves.getRemainingQuantity(gum)==3);
+		assertFalse(shelves.isStocked(mints));
+
+		shelves.getRow(1, 1).setRemainingQuantity(0);
+		assertFalse(shelves.isStocked(gum));
+		shelves.getRow(0, 1).setRemainingQuantity(2);
+		assertEquals(Slot.of(0, 1), shelves.findStockedSlot(gum));
+
+		shelves.getRow(0, 1).setProduct(mints);
+		assertEquals(Slot.of(0, 1), shelves.findStockedSlot(mints));
+		assertTrue(shelves.getRemainingQuantity(gum)==0);
+
+		copy.setRow(0, 1, null);
+		assertFalse(shelves.isStocked(mints));
+		shelves.setRow(1, 0, new Row(mints, 5, new GregorianCalendar()));
+		assertTrue(shelves.getRemainingQuantity(mints)==5);
+	}
+
+	@Test
+	public void testSlotIndexNoticesChanges() throws BadArgumentException, BadStateException
+	{
+		Row[][] rows=new Row[2][2];
+		FoodItem gum=new FoodItem("Gum", 50, 100);
+		FoodItem jerky=new FoodItem("Jerky", 200, 100);
+		FoodItem mints=new FoodItem("Mints", 75, 100);
+		gum.setId(1);
+		mints.setId(3);
+		rows[1][0]=new Row(gum, 3, new GregorianCalendar());
+		VMLayout shelves=new VMLayout(rows, 8);
+
+		assertEquals(Slot.of(1, 0), shelves.findStockedSlot(gum));
+		shelves.getRow(1, 0).setProduct(mints);
+		assertNull(shelves.findStockedSlot(gum));
+		assertEquals(Slot.of(1, 0), shelves.findStockedSlot(mints));
+
+		shelves.setRow(0, 0, new Row(jerky, 2, new GregorianCalendar()));
+		assertTrue(shelves.getStockedItemIds().size()==1);
+		jerky.setId(2);
+		assertEquals(Slot.of(0, 0), shelves.findStockedSlot(jerky));
+		assertTrue(shelves.getStockedItemIds().size()==2);
+
+		shelves.setRow(0, 0, null);
+		assertFalse(shelves.isStocked(jerky));
+	}
+
+	@Test(expected=BadArgumentException.class)
+	public void testSetRowOutside() throws BadArgumentException
+	{
+		new VMLayout(2, 2, 8).setRow(2, 0, null);
+	}
 }
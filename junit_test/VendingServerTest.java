@@ -0,0 +1,176 @@
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for VendingServer and VendingClient
+ */
+public class VendingServerTest
+{
+	/** Example data */
+	private TestUtilities helper;
+
+	/** The server under test */
+	private VendingServer server;
+
+	/**
+	 * Clears the database and starts a server on any free port
+	 **/
+	@Before
+	public void setUp() throws Exception
+	{
+		DatabaseLayer.getInstance().nuke();
+		helper=new TestUtilities(true);
+		server=new VendingServer(0, 4);
+		server.start();
+	}
+
+	/**
+	 * Shuts the server down
+	 **/
+	@After
+	public void tearDown() throws Exception
+	{
+		server.close();
+	}
+
+	/**
+	 * @return a client connected to the active machine
+	 **/
+	private VendingClient terminal() throws Exception
+	{
+		VendingClient client=new VendingClient("localhost", server.getPort());
+		assertTrue(client.selectMachine(helper.machines.get(0).getId()));
+		return client;
+	}
+
+	/**
+	 * Makes sure nonsensical thread counts are refused
+	 **/
+	@Test(expected=IllegalArgumentException.class)
+	public void badThreads() throws Exception
+	{
+		new VendingServer(0, 0);
+	}
+
+	/**
+	 * Makes sure inactive machines can't be selected
+	 **/
+	@Test
+	public void inactiveMachine() throws Exception
+	{
+		VendingClient client=new VendingClient("localhost", server.getPort());
+		assertFalse(client.selectMachine(helper.machines.get(1).getId()));
+		client.close();
+	}
+
+	/**
+	 * Makes sure requests out of order are reported
+	 **/
+	@Test(expected=IOException.class)
+	public void notLoggedIn() throws Exception
+	{
+		VendingClient client=terminal();
+		try
+		{
+			client.getBalance();
+		}
+		finally
+		{
+			client.close();
+		}
+	}
+
+	/**
+	 * Makes sure a customer can log in, see the layout, and buy
+	 **/
+	@Test
+	public void purchase() throws Exception
+	{
+		Customer customer=helper.customers.get(0);
+		Row row=helper.machines.get(0).getCurrentLayout().getRows()[1][1];
+		VendingClient client=terminal();
+
+		assertFalse(client.login(-1));
+		assertTrue(client.login(customer.getId()));
+		assertEquals(customer.getMoney(), client.getBalance());
+		FoodItem[][] layout=client.listLayout();
+		assertEquals(row.getProduct().getId(), layout[1][1].getId());
+		assertEquals(row.getProduct().getPrice(), layout[1][1].getPrice());
+		assertNull(layout[0][0]);
+
+		assertEquals("Good", client.tryPurchase(Slot.of(1, 1)));
+		assertFalse("Good".equals(client.tryPurchase(Slot.of(1, 1))));
+		assertEquals(customer.getMoney()-row.getProduct().getPrice(), client.logout());
+		assertEquals(customer.getMoney()-row.getProduct().getPrice(), DatabaseLayer.getInstance().getCustomerById(customer.getId()).getMoney());
+		client.close();
+	}
+
+	/**
+	 * Makes sure cash customers get their change back
+	 **/
+	@Test
+	public void cash() throws Exception
+	{
+		int price=helper.machines.get(0).getCurrentLayout().getRows()[1][1].getProduct().getPrice();
+		VendingClient client=terminal();
+
+		assertTrue(client.cashLogin());
+		assertFalse(client.insertCash(-5));
+		assertTrue(client.insertCash(price+25));
+		assertEquals("Good", client.tryPurchase(Slot.of(1, 1)));
+		assertEquals(25, client.logout());
+		client.close();
+	}
+
+	/**
+	 * Makes sure terminals racing for the last item don't both get it
+	 **/
+	@Test
+	public void concurrentTerminals() throws Exception
+	{
+		final int terminals=4;
+		final CountDownLatch ready=new CountDownLatch(terminals);
+		final AtomicInteger sold=new AtomicInteger(0);
+		final AtomicInteger failures=new AtomicInteger(0);
+		Thread[] threads=new Thread[terminals];
+
+		for(int each=0; each<terminals; ++each)
+		{
+			final int customerId=helper.customers.get(each).getId();
+			threads[each]=new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						VendingClient client=terminal();
+						client.login(customerId);
+						ready.countDown();
+						ready.await();
+						if(client.tryPurchase(Slot.of(1, 1)).equals("Good"))
+							sold.incrementAndGet();
+						client.close();
+					}
+					catch(Exception problem)
+					{
+						failures.incrementAndGet();
+					}
+				}
+			};
+			threads[each].start();
+		}
+		for(Thread thread : threads)
+			thread.join();
+
+		assertEquals(0, failures.get());
+		assertEquals(1, sold.get());
+		assertEquals(0, DatabaseLayer.getInstance().getVendingMachineById(helper.machines.get(0).getId()).getCurrentLayout().getRows()[1][1].getRemainingQuantity());
+	}
+}
@@ -214,20 +214,24 @@ public class CashCustomerPurchaseScreenGUI extends JPanel implements ActionListe
 		}
 		else if (source == purchaseButton)
 		{
-			new Thread()
+			final Slot selected = vmButtons.getSelectedRow();
+			if (selected == null)
 			{
-				public void run()
+				master.getStatusBar().setStatus("You haven't selected an item yet!", StatusBar.STATUS_BAD_COLOR);
+				return;
+			}
+			master.setProcessing(source);
+			GuiExecutor.submit(new GuiExecutor.Task<String>()
+			{
+				@Override
+				protected String call()
+				{
+					return controller.tryPurchase(selected);
+				}
+
+				@Override
+				protected void done(String result)
 				{
-					master.setProcessing(source);
-					Pair<Integer, Integer> selected = vmButtons.getSelectedRow();
-					if (selected == null)
-					{
-						master.doneProcessing();
-						purchaseButton.setEnabled(true);
-						master.getStatusBar().setStatus("You haven't selected an item yet!", StatusBar.STATUS_BAD_COLOR);
-						return;
-					}
-					String result = controller.tryPurchase(selected);
 					if (result.equals("Good"))
 					{
 						master.popContentPanel();
@@ -240,10 +244,9 @@ public class CashCustomerPurchaseScreenGUI extends JPanel implements ActionListe
 						master.doneProcessing();
 						purchaseButton.setEnabled(true);
 						master.getStatusBar().setStatus(result, StatusBar.STATUS_BAD_COLOR);
-						return;
 					}
 				}
-			}.start();
+			});
 		}
 		else if (source == enterMoneyButton)
 		{
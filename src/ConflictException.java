@@ -0,0 +1,18 @@
+/**
+ * Indicates that a stored object was changed by someone else after it was fetched, so writing it back would have overwritten their changes.
+ * Nothing was stored; fetch the object again, redo the change to the fresh copy, and try once more.
+ */
+public class ConflictException extends BadStateException
+{
+	/** Identifies this version of the class when serialized. */
+	private static final long serialVersionUID=1L;
+
+	/**
+	 * Create an exception to signify that we lost a race.
+	 * @param mess the clarification message
+	 */
+	public ConflictException(String mess)
+	{
+		super(mess);
+	}
+}
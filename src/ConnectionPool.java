@@ -0,0 +1,449 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * A bounded pool of database connections.
+ * Connections are opened ahead of time, validated before being lent out again, and watched for borrowers that hold onto them for too long.
+ * Each connection also keeps the statements compiled on it, so that SQL which is run over and over is only parsed once per connection.
+ * Every method is safe to call from multiple threads at once.
+ */
+public class ConnectionPool
+{
+	/** The default maximum number of connections open at once. */
+	public static final int DEFAULT_MAX_SIZE=4;
+
+	/** The default number of connections to open up front. */
+	public static final int DEFAULT_WARM_SIZE=1;
+
+	/** The default number of milliseconds to wait for a free connection before giving up. */
+	public static final long DEFAULT_BORROW_TIMEOUT=10000;
+
+	/** The default number of milliseconds a connection may be borrowed before it is reported as leaked. */
+	public static final long DEFAULT_LEAK_THRESHOLD=60000;
+
+	/** How long (in milliseconds) a connection may sit idle before it is revalidated on its way out. */
+	private static final long VALIDATION_INTERVAL=5000;
+
+	/** The cheapest possible query, used to prove a connection still works. */
+	private static final String VALIDATION_QUERY="SELECT 1";
+
+	/** JDBC URL from which to open connections. */
+	private final String url;
+
+	/** Maximum number of connections open at once. */
+	private final int maxSize;
+
+	/** Milliseconds to wait for a free connection. */
+	private final long borrowTimeout;
+
+	/** Milliseconds after which an outstanding loan is considered a leak. */
+	private final long leakThreshold;
+
+	/** Tuning applied to each connection as it is opened, or <tt>null</tt> to leave SQLite's defaults. */
+	private final DatabaseProfile profile;
+
+	/** Connections not currently lent out, most recently returned first. */
+	private final LinkedList<Connection> idle;
+
+	/** When each idle connection was returned. */
+	private final HashMap<Connection, Long> idleSince;
+
+	/** Outstanding loans, keyed by the connection lent. */
+	private final HashMap<Connection, Loan> loans;
+
+	/** Statements already compiled on each open connection, keyed by their SQL. */
+	private final HashMap<Connection, HashMap<String, PreparedStatement>> statements;
+
+	/** Number of connections currently open, whether idle or lent. */
+	private int opened;
+
+	/** Whether <tt>close()</tt> has been called. */
+	private boolean closed;
+
+	/**
+	 * Records who borrowed a connection and when.
+	 */
+	private static class Loan
+	{
+		/** When the connection was lent. */
+		final long since;
+
+		/** Where the connection was lent, for the leak report. */
+		final Exception origin;
+
+		/** Whether this loan has already been reported as a leak. */
+		boolean reported;
+
+		/**
+		 * Records a loan to the current thread as of now.
+		 */
+		Loan()
+		{
+			since=System.currentTimeMillis();
+			origin=new Exception("Connection borrowed by thread "+Thread.currentThread().getName());
+			reported=false;
+		}
+	}
+
+	/**
+	 * Default constructor.
+	 * Uses the default size, timeout, and leak threshold.
+	 * @param url the JDBC URL of the database
+	 * @throws SQLException if the warm-up connections cannot be opened
+	 */
+	public ConnectionPool(String url) throws SQLException
+	{
+		this(url, DEFAULT_MAX_SIZE, DEFAULT_WARM_SIZE, DEFAULT_BORROW_TIMEOUT, DEFAULT_LEAK_THRESHOLD);
+	}
+
+	/**
+	 * Untuned constructor.
+	 * Connections are left with SQLite's default settings.
+	 * @param url the JDBC URL of the database
+	 * @param maxSize the maximum number of connections to have open at once
+	 * @param warmSize how many connections to open up front
+	 * @param borrowTimeout milliseconds to wait for a free connection
+	 * @param leakThreshold milliseconds a connection may be borrowed before it is reported as leaked
+	 * @throws IllegalArgumentException if <tt>url</tt> is <tt>null</tt>, <tt>maxSize</tt> isn't positive, <tt>warmSize</tt> is out of range, or a duration is negative
+	 * @throws SQLException if the warm-up connections cannot be opened
+	 */
+	public ConnectionPool(String url, int maxSize, int warmSize, long borrowTimeout, long leakThreshold) throws SQLException
+	{
+		this(url, maxSize, warmSize, borrowTimeout, leakThreshold, null);
+	}
+
+	/**
+	 * Full constructor.
+	 * Opens <tt>warmSize</tt> connections immediately so that the first callers don't pay for them.
+	 * @param url the JDBC URL of the database
+	 * @param maxSize the maximum number of connections to have open at once
+	 * @param warmSize how many connections to open up front
+	 * @param borrowTimeout milliseconds to wait for a free connection
+	 * @param leakThreshold milliseconds a connection may be borrowed before it is reported as leaked
+	 * @param profile tuning to apply to each connection as it is opened, or <tt>null</tt> for none
+	 * @throws IllegalArgumentException if <tt>url</tt> is <tt>null</tt>, <tt>maxSize</tt> isn't positive, <tt>warmSize</tt> is out of range, or a duration is negative
+	 * @throws SQLException if the warm-up connections cannot be opened or tuned
+	 */
+	public ConnectionPool(String url, int maxSize, int warmSize, long borrowTimeout, long leakThreshold, DatabaseProfile profile) throws SQLException
+	{
+		if(url==null)
+			throw new IllegalArgumentException("URL cannot be null");
+		else if(maxSize<=0)
+			throw new IllegalArgumentException("Maximum size must be positive");
+		else if(warmSize<0 || warmSize>maxSize)
+			throw new IllegalArgumentException("Warm size must be between zero and the maximum size");
+		else if(borrowTimeout<0 || leakThreshold<0)
+			throw new IllegalArgumentException("Durations cannot be negative");
+
+		this.url=url;
+		this.maxSize=maxSize;
+		this.borrowTimeout=borrowTimeout;
+		this.leakThreshold=leakThreshold;
+		this.profile=profile;
+		idle=new LinkedList<Connection>();
+		idleSince=new HashMap<Connection, Long>();
+		loans=new HashMap<Connection, Loan>();
+		statements=new HashMap<Connection, HashMap<String, PreparedStatement>>();
+		opened=0;
+		closed=false;
+
+		for(int warm=0; warm<warmSize; ++warm)
+			giveBack(open());
+	}
+
+	/**
+	 * Lends out a connection, opening a new one if none is idle and the pool isn't full.
+	 * If the pool is exhausted, waits up to the borrow timeout for another thread to release one.
+	 * The caller must hand the connection back with <tt>release(Connection)</tt> rather than closing it.
+	 * @return a working connection
+	 * @throws SQLException if the pool is closed, the wait times out, or a new connection cannot be opened
+	 */
+	public synchronized Connection borrow() throws SQLException
+	{
+		long deadline=System.currentTimeMillis()+borrowTimeout;
+
+		reportLeaks();
+		while(true)
+		{
+			if(closed)
+				throw new SQLException("Connection pool has been closed");
+
+			while(!idle.isEmpty())
+			{
+				Connection candidate=idle.removeFirst();
+				long returned=idleSince.remove(candidate);
+
+				if(System.currentTimeMillis()-returned<VALIDATION_INTERVAL || isValid(candidate))
+				{
+					loans.put(candidate, new Loan());
+					return candidate;
+				}
+				discard(candidate);
+			}
+
+			if(opened<maxSize)
+			{
+				Connection fresh=open();
+				loans.put(fresh, new Loan());
+				return fresh;
+			}
+
+			long remaining=deadline-System.currentTimeMillis();
+			if(remaining<=0)
+			{
+				reportLeaks();
+				throw new SQLException("Timed out waiting for one of "+maxSize+" database connections");
+			}
+			try
+			{
+				wait(remaining);
+			}
+			catch(InterruptedException interruption)
+			{
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a database connection");
+			}
+		}
+	}
+
+	/**
+	 * Returns a borrowed connection to the pool.
+	 * Any transaction the borrower left open is rolled back.
+	 * @param conn a connection previously obtained from <tt>borrow()</tt>
+	 */
+	public synchronized void release(Connection conn)
+	{
+		if(loans.remove(conn)==null)
+			return; //not one of ours, or already returned
+
+		try
+		{
+			if(!conn.getAutoCommit())
+			{
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}
+		}
+		catch(SQLException broken)
+		{
+			discard(conn);
+			notifyAll();
+			return;
+		}
+
+		if(closed)
+			discard(conn);
+		else
+			giveBack(conn);
+		notifyAll();
+	}
+
+	/**
+	 * Compiles a statement on a borrowed connection, or reuses the one compiled the last time the same SQL was prepared on it.
+	 * The statement belongs to the pool: the caller must not close it, and must be done reading its results before preparing the same SQL again on the same connection.
+	 * Any batch left over from an earlier use is discarded, but parameters are not reset, so every one of them should be set before each execution.
+	 * @param conn a connection currently on loan from this pool
+	 * @param sql the SQL, with <tt>?</tt> placeholders rather than literal values so that it can be reused
+	 * @return the compiled statement
+	 * @throws SQLException if the connection isn't on loan or the SQL doesn't compile
+	 */
+	public PreparedStatement prepare(Connection conn, String sql) throws SQLException
+	{
+		HashMap<String, PreparedStatement> compiled;
+
+		synchronized(this)
+		{
+			if(!loans.containsKey(conn))
+				throw new SQLException("Connection is not on loan from this pool");
+
+			compiled=statements.get(conn);
+			if(compiled==null)
+			{
+				compiled=new HashMap<String, PreparedStatement>();
+				statements.put(conn, compiled);
+			}
+		}
+
+		//only the borrower uses a connection's statements, so no further locking is needed
+		PreparedStatement stmt=compiled.get(sql);
+		if(stmt==null)
+		{
+			stmt=conn.prepareStatement(sql);
+			compiled.put(sql, stmt);
+		}
+		else
+			stmt.clearBatch();
+		return stmt;
+	}
+
+	/**
+	 * Closes all idle connections and prevents further borrowing.
+	 * Connections still on loan are closed as they are released.
+	 */
+	public synchronized void close()
+	{
+		closed=true;
+		while(!idle.isEmpty())
+			discard(idle.removeFirst());
+		idleSince.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Prints a warning for each connection that has been on loan for longer than the leak threshold.
+	 * Each leak is only reported once.
+	 * @return how many new leaks were found
+	 */
+	public synchronized int reportLeaks()
+	{
+		long now=System.currentTimeMillis();
+		int found=0;
+
+		for(Map.Entry<Connection, Loan> loan : loans.entrySet())
+		{
+			Loan details=loan.getValue();
+
+			if(!details.reported && now-details.since>leakThreshold)
+			{
+				details.reported=true;
+				++found;
+				System.err.println("WARNING: A database connection has been borrowed for "+(now-details.since)+" ms without being released");
+				System.err.print("    DUMP : ");
+				details.origin.printStackTrace();
+				System.err.println();
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * @return the number of connections currently open, whether idle or lent out
+	 */
+	public synchronized int getOpenCount()
+	{
+		return opened;
+	}
+
+	/**
+	 * @return the number of connections waiting to be borrowed
+	 */
+	public synchronized int getIdleCount()
+	{
+		return idle.size();
+	}
+
+	/**
+	 * @return the number of connections currently lent out
+	 */
+	public synchronized int getBorrowedCount()
+	{
+		return loans.size();
+	}
+
+	/**
+	 * @return the number of compiled statements being kept across all open connections
+	 */
+	public synchronized int getStatementCount()
+	{
+		int count=0;
+
+		for(HashMap<String, PreparedStatement> compiled : statements.values())
+			count+=compiled.size();
+		return count;
+	}
+
+	/**
+	 * @return the maximum number of connections the pool will open
+	 */
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * Opens and tunes a brand-new connection and counts it against the pool's size.
+	 * @return the connection
+	 * @throws SQLException if the driver refuses or the tuning fails
+	 */
+	private Connection open() throws SQLException
+	{
+		Connection fresh=DriverManager.getConnection(url);
+
+		if(profile!=null)
+		{
+			try
+			{
+				profile.apply(fresh);
+			}
+			catch(SQLException rejected)
+			{
+				fresh.close();
+				throw rejected;
+			}
+		}
+		++opened;
+		return fresh;
+	}
+
+	/**
+	 * Puts a connection at the front of the idle list.
+	 * @param conn the connection
+	 */
+	private void giveBack(Connection conn)
+	{
+		idle.addFirst(conn);
+		idleSince.put(conn, System.currentTimeMillis());
+	}
+
+	/**
+	 * Closes a connection and stops counting it against the pool's size.
+	 * @param conn the connection
+	 */
+	private void discard(Connection conn)
+	{
+		--opened;
+		statements.remove(conn); //closing the connection closes them
+		try
+		{
+			conn.close();
+		}
+		catch(SQLException alreadyBroken)
+		{
+			//nothing more we can do with it anyway
+		}
+	}
+
+	/**
+	 * Checks whether a connection can still run queries.
+	 * @param conn the connection
+	 * @return whether the validation query succeeded
+	 */
+	private boolean isValid(Connection conn)
+	{
+		try
+		{
+			if(conn.isClosed())
+				return false;
+
+			Statement probe=conn.createStatement();
+			ResultSet result=probe.executeQuery(VALIDATION_QUERY);
+			boolean alive=result.next();
+
+			result.close();
+			probe.close();
+			return alive;
+		}
+		catch(SQLException broken)
+		{
+			return false;
+		}
+	}
+}
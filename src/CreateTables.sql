@@ -19,7 +19,8 @@ CREATE TABLE IF NOT EXISTS VMRow(
 vmRowId INTEGER PRIMARY KEY AUTOINCREMENT,
 productId INTEGER REFERENCES Item(itemId),
 expirationDate INTEGER NOT NULL,
-remainingQuant INTEGER NOT NULL);
+remainingQuant INTEGER NOT NULL,
+version INTEGER NOT NULL DEFAULT 0);
 
 CREATE TABLE IF NOT EXISTS VMLayoutVMRowLink(
 layoutId INTEGER REFERENCES VMLayout(layoutId),
@@ -33,7 +34,8 @@ active INTEGER NOT NULL,
 stockingInterval INTEGER NOT NULL,
 currentLayoutId INTEGER REFERENCES VMLayout(layoutId),
 nextLayoutId INTEGER REFERENCES VMLayout(layoutId),
-locationId INTEGER REFERENCES Location(locationId));
+locationId INTEGER REFERENCES Location(locationId),
+version INTEGER NOT NULL DEFAULT 0);
 
 CREATE TABLE IF NOT EXISTS NearbyBusiness(
 locationId INTEGER REFERENCES Location(locationId),
@@ -42,7 +44,8 @@ name TEXT NOT NULL);
 CREATE TABLE IF NOT EXISTS Customer(
 customerId INTEGER PRIMARY KEY AUTOINCREMENT,
 money INTEGER NOT NULL,
-name TEXT);
+name TEXT,
+version INTEGER NOT NULL DEFAULT 0);
 
 CREATE TABLE IF NOT EXISTS Manager(
 managerId INTEGER PRIMARY KEY AUTOINCREMENT,
@@ -58,3 +61,120 @@ productId INTEGER REFERENCES Item(itemId),
 rowX INTEGER NOT NULL,
 rowY INTEGER NOT NULL,
 balance INTEGER NOT NULL);
+
+CREATE INDEX IF NOT EXISTS VMTransactionMachine ON VMTransaction(machineId, timestamp);
+CREATE INDEX IF NOT EXISTS VMTransactionCustomer ON VMTransaction(customerId);
+CREATE INDEX IF NOT EXISTS VMTransactionProduct ON VMTransaction(productId);
+CREATE INDEX IF NOT EXISTS VMTransactionTimestamp ON VMTransaction(timestamp);
+CREATE INDEX IF NOT EXISTS VMLayoutVMRowLinkLayout ON VMLayoutVMRowLink(layoutId);
+CREATE INDEX IF NOT EXISTS NearbyBusinessLocation ON NearbyBusiness(locationId);
+CREATE INDEX IF NOT EXISTS LocationZipCode ON Location(zipCode);
+CREATE INDEX IF NOT EXISTS LocationState ON Location(state);
+CREATE INDEX IF NOT EXISTS VendingMachineLocation ON VendingMachine(locationId);
+CREATE INDEX IF NOT EXISTS VMTransactionMachinePage ON VMTransaction(machineId, transactionId);
+
+CREATE TABLE IF NOT EXISTS MachineDailySales(
+machineId INTEGER NOT NULL,
+day INTEGER NOT NULL,
+sales INTEGER NOT NULL,
+revenue INTEGER NOT NULL,
+PRIMARY KEY(machineId, day));
+
+CREATE TABLE IF NOT EXISTS ItemDailySales(
+productId INTEGER NOT NULL,
+day INTEGER NOT NULL,
+sales INTEGER NOT NULL,
+revenue INTEGER NOT NULL,
+PRIMARY KEY(productId, day));
+
+CREATE TABLE IF NOT EXISTS CustomerMonthlySales(
+customerId INTEGER NOT NULL,
+month INTEGER NOT NULL,
+sales INTEGER NOT NULL,
+revenue INTEGER NOT NULL,
+PRIMARY KEY(customerId, month));
+
+CREATE TABLE IF NOT EXISTS LocationDailySales(
+state TEXT NOT NULL,
+zipCode INTEGER NOT NULL,
+day INTEGER NOT NULL,
+sales INTEGER NOT NULL,
+revenue INTEGER NOT NULL,
+PRIMARY KEY(state, zipCode, day));
+
+CREATE INDEX IF NOT EXISTS LocationDailySalesZipCode ON LocationDailySales(zipCode, day);
+
+CREATE TABLE IF NOT EXISTS MachineHourlySales(
+machineId INTEGER NOT NULL,
+hour INTEGER NOT NULL,
+sales INTEGER NOT NULL,
+revenue INTEGER NOT NULL,
+PRIMARY KEY(machineId, hour));
+
+CREATE TABLE IF NOT EXISTS ItemHourlySales(
+productId INTEGER NOT NULL,
+hour INTEGER NOT NULL,
+sales INTEGER NOT NULL,
+revenue INTEGER NOT NULL,
+PRIMARY KEY(productId, hour));
+
+CREATE TABLE IF NOT EXISTS MachineItemSales(
+machineId INTEGER NOT NULL,
+productId INTEGER NOT NULL,
+sales INTEGER NOT NULL,
+revenue INTEGER NOT NULL,
+PRIMARY KEY(machineId, productId));
+
+CREATE TABLE IF NOT EXISTS ZipCodeItemSales(
+zipCode INTEGER NOT NULL,
+productId INTEGER NOT NULL,
+sales INTEGER NOT NULL,
+revenue INTEGER NOT NULL,
+PRIMARY KEY(zipCode, productId));
+
+CREATE TABLE IF NOT EXISTS StateItemSales(
+state TEXT NOT NULL,
+productId INTEGER NOT NULL,
+sales INTEGER NOT NULL,
+revenue INTEGER NOT NULL,
+PRIMARY KEY(state, productId));
+
+CREATE TABLE IF NOT EXISTS ItemSales(
+productId INTEGER PRIMARY KEY,
+sales INTEGER NOT NULL,
+revenue INTEGER NOT NULL);
+
+CREATE INDEX IF NOT EXISTS MachineItemSalesRank ON MachineItemSales(machineId, sales, productId);
+CREATE INDEX IF NOT EXISTS ZipCodeItemSalesRank ON ZipCodeItemSales(zipCode, sales, productId);
+CREATE INDEX IF NOT EXISTS StateItemSalesRank ON StateItemSales(state, sales, productId);
+CREATE INDEX IF NOT EXISTS ItemSalesRank ON ItemSales(sales, productId);
+
+CREATE TABLE IF NOT EXISTS CustomerItemSales(
+customerId INTEGER NOT NULL,
+productId INTEGER NOT NULL,
+sales INTEGER NOT NULL,
+revenue INTEGER NOT NULL,
+PRIMARY KEY(customerId, productId));
+
+CREATE INDEX IF NOT EXISTS CustomerItemSalesRank ON CustomerItemSales(customerId, sales, productId);
+
+CREATE TABLE IF NOT EXISTS JournalCheckpoint(
+journal TEXT PRIMARY KEY,
+sequence INTEGER NOT NULL);
+
+CREATE TABLE IF NOT EXISTS ReplicaOf(
+headOffice TEXT NOT NULL,
+kiosk TEXT NOT NULL);
+
+CREATE TABLE IF NOT EXISTS SyncOutbox(
+sequence INTEGER PRIMARY KEY AUTOINCREMENT,
+timestamp INTEGER NOT NULL,
+machineId INTEGER NOT NULL,
+customerId INTEGER NOT NULL,
+productId INTEGER NOT NULL,
+rowX INTEGER NOT NULL,
+rowY INTEGER NOT NULL,
+vmRowId INTEGER NOT NULL,
+balance INTEGER NOT NULL);
+
+PRAGMA user_version=10;
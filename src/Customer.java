@@ -75,6 +75,7 @@ public class Customer extends User
 			throw new BadArgumentException("Money must not be negative");
 		
 		this.money=money;
+		markDirty();
 	}
 
 	/**
@@ -96,6 +97,7 @@ public class Customer extends User
 		if(change<=money) //balance wouldn't go negative
 		{
 			money-=change;
+			markDirty();
 			
 			return true;
 		}
@@ -1,3 +1,4 @@
+import java.io.File;
 import java.util.ArrayList;
 
 /**
@@ -15,17 +16,30 @@ public class CustomerCLI {
 	 */
 	private static void usage() {
 		System.err.println("In order to start a machine, you need to enter a valid ID.");
+		System.err.println("Usage: CustomerCLI <machine ID> [journal file]");
 	}
 
 	/**
 	 * The main entry point to the program.
 	 */
 	public static void main(String[] args) {
-		if(args.length != 1) {
+		if(args.length != 1 && args.length != 2) {
 			usage();
 			System.exit(1);
 		}
 		
+		PurchaseJournal journal = null;
+		if(args.length == 2) {
+			try {
+				journal = new PurchaseJournal(new File(args[1]));
+			}
+			catch(Exception unusable) {
+				System.err.println("Supplied [journal file] could not be opened: " + unusable.getMessage());
+				System.exit(1);
+			}
+			CustomerPurchaseScreen.setPurchaseJournal(journal);
+		}
+		
 		CustomerLoginScreen backend = null;
 		try {
 			backend = CustomerLoginScreen.buildInstance(Integer.parseInt(args[0]));
@@ -61,6 +75,14 @@ public class CustomerCLI {
 					break program;
 			}
 		}
+		if(journal != null) {
+			try {
+				journal.close();
+			}
+			catch(Exception unflushed) { //it will be replayed next time
+				System.err.println("Some purchases will be stored next time: " + unflushed.getMessage());
+			}
+		}
 		System.out.println("Goodbye!");
 	}
 
@@ -110,7 +132,7 @@ public class CustomerCLI {
 
 					if(CLIUtilities.yesOrNo("Would you like to proceed with your purchase?")) {
 						
-						String message=account.tryPurchase(new Pair<Integer, Integer>(CLIUtilities.promptInt("Enter X", true), CLIUtilities.promptInt("Enter Y", true)));
+						String message=account.tryPurchase(Slot.of(CLIUtilities.promptInt("Enter X", true), CLIUtilities.promptInt("Enter Y", true)));
 						if(message.equals("Good")) {
 							System.out.println("Purchase complete: remaining balance is " + U.formatMoney(account.getBalance()));
 							break screen;
@@ -1,3 +1,5 @@
+import java.io.File;
+
 public class CustomerGUI
 {
 	/**
@@ -6,10 +8,14 @@ public class CustomerGUI
 	 * @param args Command line arguments:
 	 * <ol>
 	 * <li>ID of the vending machine</li>
+	 * <li>Optionally, a file in which to journal purchases so that they
+	 * are written to the database in the background</li>
 	 * </ol>
 	 **/
 	public static void main(String[] args) throws Exception
 	{
+		if (args.length > 1)
+			CustomerPurchaseScreen.setPurchaseJournal(new PurchaseJournal(new File(args[1])));
 		GUIUtilities.setNativeLookAndFeel();
 		BaseGUI base = new BaseGUI("HCLC's Smart Vending Machine");
 		CustomerMachinePickerScreen controller = new CustomerMachinePickerScreen();
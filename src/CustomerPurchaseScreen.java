@@ -1,9 +1,8 @@
 import java.sql.SQLException;
 import java.util.GregorianCalendar;
-import java.util.Comparator;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * CustomerPurchaseScreen.
@@ -16,6 +15,18 @@ public class CustomerPurchaseScreen {
 	/** The Database instance */
 	private static DatabaseLayer db = DatabaseLayer.getInstance();
 
+	/**
+	 * Serializes purchases from each machine, across every screen.
+	 * Always taken before the customer's lock.
+	 */
+	private static final StripedLock machineLocks = new StripedLock( StripedLock.DEFAULT_STRIPES );
+
+	/** Serializes purchases by each account holder, across every screen */
+	private static final StripedLock customerLocks = new StripedLock( StripedLock.DEFAULT_STRIPES );
+
+	/** Where purchases are recorded in write-behind mode, or null if each is stored as it is made */
+	private static PurchaseJournal journal = null;
+
 	/** The current Customer */
 	private Customer user;
 
@@ -38,6 +49,18 @@ public class CustomerPurchaseScreen {
 		purchasedItem = null;
 	}
 
+	/**
+	 * Switches write-behind mode on or off. In write-behind mode, purchases
+	 * are appended to a journal and stored in the database in the background,
+	 * so whether the customer can afford an item and whether it's in stock
+	 * are judged from what was loaded rather than from the database.
+	 * @param purchases the journal to record purchases in, or null to store
+	 * each purchase as it is made
+	 */
+	public static void setPurchaseJournal( PurchaseJournal purchases ) {
+		journal = purchases;
+	}
+
 	/** 
 	 * Lists the layout of all the items still available for sale.
 	 * Those items that have sold out are delivered as <tt>null</tt>s.
@@ -59,23 +82,50 @@ public class CustomerPurchaseScreen {
 
 	/**
 	 * Attempts to purchase the item at the specified location.
-	 * @param product the location (as a Pair of Integers) of the product
+	 * Purchases from the same machine or by the same account holder are made
+	 * one at a time, even from different threads, so that the stock and
+	 * balance checks can't be overtaken by another purchase.
+	 * @param product the location of the product
 	 * @return a reason why it either succeded or failed.  If success, returns "GOOD"
  	 */
-	public String tryPurchase( Pair<Integer, Integer> product ) {
-		VMLayout locs = machine.getCurrentLayout();
-		Row[][] rows = locs.getRows();
-		if ( product.first < 0 || rows.length <= product.first ||
-			product.second < 0 || rows[product.first].length <= product.second )
+	public String tryPurchase( Slot product ) {
+		ReentrantLock machineLock = machineLocks.get( machine );
+		ReentrantLock customerLock = user.isCashCustomer() ? null : customerLocks.get( user );
+		machineLock.lock();
+		try {
+			if ( customerLock != null )
+				customerLock.lock();
+			try {
+				return purchase( product );
+			} finally {
+				if ( customerLock != null )
+					customerLock.unlock();
+			}
+		} finally {
+			machineLock.unlock();
+		}
+	}
+
+	/**
+	 * Does the work of <tt>tryPurchase(Slot)</tt> once the locks are held.
+	 * @param product the location of the product
+	 * @return a reason why it either succeded or failed.  If success, returns "GOOD"
+	 */
+	private String purchase( Slot product ) {
+		Row row;
+		try {
+			row = machine.getCurrentLayout().getRow(product.getX(), product.getY());
+		} catch ( BadArgumentException outOfRange ) {
 			return "Invalid location"; //not a valid location
-		if ( rows[product.first][product.second] == null)
+		}
+		if ( row == null)
 			return "No product"; //nothing to see here
-		if ( rows[product.first][product.second].getRemainingQuantity() <= 0 )
+		if ( row.getRemainingQuantity() <= 0 )
 			return "Item sold out"; //check if there is some remaining
-		if ( !rows[product.first][product.second].getProduct().isActive() )
+		if ( !row.getProduct().isActive() )
 			return "Item inactive"; //check if product disabled
 		
-		FoodItem item = rows[product.first][product.second].getProduct();
+		FoodItem item = row.getProduct();
 		purchasedItem = item;
 		int cash = getBalance();
 		int price = item.getPrice();
@@ -86,44 +136,69 @@ public class CustomerPurchaseScreen {
 		{
 			Transaction trans = new Transaction(new GregorianCalendar(), 
 				machine, user, item, product);
-			db.updateOrCreateTransaction( trans );
+			if ( journal == null )
+				db.commitPurchase( trans, row );
+			else
+				journal.append( trans, row );
 			user.setMoney( cash - price );
-			db.updateOrCreateCustomer(user);
-			rows[product.first][product.second].decrementRemainingQuantity();
-			db.updateOrCreateVendingMachine(machine);
+			row.decrementRemainingQuantity();
+		}
+		catch(BadStateException outOfDate) //someone else got there first
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, outOfDate);
+			if ( journal == null )
+				refresh( product, row );
+			return outOfDate.getMessage();
 		}
 		catch(Exception databaseProblem)
 		{
 			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.ERROR, databaseProblem);
+			return "Purchase failed";
 		}
 		return "Good";
 	}
 
 	/**
-	 * Attempts to find and purchase the specified item
-	 * @param item The item to purchase
-	 * @return GOOD or a reason why this operation failed
-	 **/
-	public String tryPurchase(FoodItem item)
-	{
+	 * Brings the customer's balance and the row's stock up to date with the
+	 * database after a purchase was turned down because of a change made
+	 * elsewhere, so that the next attempt and <tt>listLayout()</tt> see it.
+	 * @param product the location of the row
+	 * @param row the row that was bought from
+	 */
+	private void refresh( Slot product, Row row ) {
 		try
 		{
-			Row[][] rows = machine.getCurrentLayout().getRows();
-			for (int i=0;i<rows.length;++i)
-			{
-				for (int j=0;j<rows[i].length;++j)
-				{
-					Row row = rows[i][j];
-					if (row != null && row.getRemainingQuantity() > 0 && row.getProduct().equals(item))
-						return tryPurchase(new Pair<Integer,Integer>(i,j));
+			if ( !user.isCashCustomer() ) {
+				Customer stored = db.getCustomerById( user.getId() );
+				if ( stored != null ) {
+					user.setMoney( stored.getMoney() );
+					user.setVersion( stored.getVersion() );
 				}
 			}
+
+			VendingMachine storedMachine = db.getVendingMachineById( machine.getId() );
+			Row stored = storedMachine == null ? null : storedMachine.getCurrentLayout().getRow( product.getX(), product.getY() );
+			if ( stored != null && stored.getId() == row.getId() ) {
+				row.setRemainingQuantity( stored.getRemainingQuantity() );
+				row.setVersion( stored.getVersion() );
+			}
 		}
-		catch (Exception databaseProblem)
+		catch(Exception databaseProblem) //the next attempt will be turned down again
 		{
-
-			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.WARN, databaseProblem);
 		}
+	}
+
+	/**
+	 * Attempts to find and purchase the specified item
+	 * @param item The item to purchase
+	 * @return GOOD or a reason why this operation failed
+	 **/
+	public String tryPurchase(FoodItem item)
+	{
+		Slot slot = machine.getCurrentLayout().findStockedSlot(item);
+		if (slot != null)
+			return tryPurchase(slot);
 		return "Item not found";
 	}
 
@@ -162,60 +237,37 @@ public class CustomerPurchaseScreen {
 		return purchasedItem;
 	}
 
-	/**
-	 * Checks whether the given food item is stocked in the vending machine
-	 * @param item The item to check
-	 * @return True iff the item is in stock in the vending machine.
-	 **/
-	private boolean isStocked(FoodItem item)
-	{
-		for (Row[] column : machine.getCurrentLayout().getRows())
-		{
-			for (Row row : column)
-			{
-				if (row != null && row.getRemainingQuantity() > 0 && row.getProduct().equals(item))
-					return true;
-			}
-		}
-		return false;
-	}
-
 	/**
 	 * Gets an ordered list of most frequently bought items by the current user.
+	 * Only items in stock in the vending machine are included.
 	 * @return A list of items sorted in descending order of frequency the
 	 * current user has bought the item.
 	 **/
 	public ArrayList<FoodItem> getFrequentlyBought()
 	{
-		ArrayList<Transaction> raw = null;
+		ArrayList<Pair<FoodItem, Integer>> ranked = null;
 		try
 		{
-			raw = db.getTransactionsByCustomer(user);
+			ranked = db.getFavoritesByCustomer(user);
 		}
 		catch (Exception databaseProblem)
 		{
 			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.ERROR, databaseProblem);
 			return null;
 		}
-		final HashMap<FoodItem, Integer> counts = new HashMap<FoodItem, Integer>();
-		for (Transaction trans : raw)
+		HashSet<Integer> stocked = machine.getCurrentLayout().getStockedItemIds();
+		ArrayList<FoodItem> favorites = new ArrayList<FoodItem>();
+		try
 		{
-			if (isStocked(trans.getProduct()))
-			{
-				if (!counts.containsKey(trans.getProduct()))
-					counts.put(trans.getProduct(), 1);
-				else
-					counts.put(trans.getProduct(), counts.get(trans.getProduct()) + 1);
-			}
+			for (Pair<FoodItem, Integer> favorite : ranked)
+				if (stocked.contains(favorite.first.getId()))
+					favorites.add(favorite.first);
 		}
-		ArrayList<FoodItem> favorites = new ArrayList<FoodItem>(counts.keySet());
-		Collections.sort(favorites, new Comparator<FoodItem>()
+		catch (BadStateException impossible) //items from the database always have ids
 		{
-			public int compare(FoodItem item1, FoodItem item2)
-			{
-				return -counts.get(item1).compareTo(counts.get(item2));
-			}
-		});
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.ERROR, impossible);
+			return null;
+		}
 		return favorites;
 	}
 }
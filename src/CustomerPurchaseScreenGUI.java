@@ -178,28 +178,28 @@ public class CustomerPurchaseScreenGUI extends JPanel implements ActionListener
 		}
 		else
 		{
-			new Thread()
+			final Slot selected = vmButtons.getSelectedRow();
+			final FoodItem fav = favoritesPanel.getSelectedItem();
+			if (selected == null && fav == null)
 			{
-				public void run()
+				master.getStatusBar().setStatus("You haven't selected an item yet!", StatusBar.STATUS_BAD_COLOR);
+				return;
+			}
+			master.setProcessing(source);
+			GuiExecutor.submit(new GuiExecutor.Task<String>()
+			{
+				@Override
+				protected String call()
 				{
-					master.setProcessing(source);
-					Pair<Integer, Integer> selected = vmButtons.getSelectedRow();
-					String result;
 					if (selected == null)
-					{
-						FoodItem fav = favoritesPanel.getSelectedItem();
-						if (fav == null)
-						{
-							master.doneProcessing();
-							purchaseButton.setEnabled(true);
-							master.getStatusBar().setStatus("You haven't selected an item yet!", StatusBar.STATUS_BAD_COLOR);
-							return;
-						}
-						else
-							result = controller.tryPurchase(fav);
-					}
+						return controller.tryPurchase(fav);
 					else
-						result = controller.tryPurchase(selected);
+						return controller.tryPurchase(selected);
+				}
+
+				@Override
+				protected void done(String result)
+				{
 					if (result.equals("Good"))
 					{
 						master.popContentPanel();
@@ -212,10 +212,9 @@ public class CustomerPurchaseScreenGUI extends JPanel implements ActionListener
 						master.doneProcessing();
 						purchaseButton.setEnabled(true);
 						master.getStatusBar().setStatus(result, StatusBar.STATUS_BAD_COLOR);
-						return;
 					}
 				}
-			}.start();
+			});
 		}
 	}
 }
@@ -1,12 +1,19 @@
+import java.io.File;
 import java.sql.Connection;
 import java.sql.Statement;
 import java.sql.ResultSet;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.GregorianCalendar;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.sql.PreparedStatement;
 
 /**
@@ -30,19 +37,191 @@ public class DatabaseLayer
 	/** File path to the sqlite database. */
 	private static String dbLocation=DEFAULT_DB_LOCATION;
 
+	/**
+	 * Selects everything readTransactions() needs to build Transactions,
+	 * joining in each transaction's item and customer. Append any further
+	 * joins and a WHERE clause.
+	 **/
+	private static final String TRANSACTION_QUERY="SELECT VMTransaction.transactionId, VMTransaction.timestamp, VMTransaction.machineId, VMTransaction.customerId, VMTransaction.productId, VMTransaction.rowX, VMTransaction.rowY, VMTransaction.balance, Item.itemId, Item.name, Item.price, Item.freshLength, Item.active, Customer.money, Customer.name, Customer.version FROM VMTransaction LEFT JOIN Item ON Item.itemId=VMTransaction.productId LEFT JOIN Customer ON Customer.customerId=VMTransaction.customerId";
+
+	/** Joins each transaction in a TRANSACTION_QUERY to its machine's location. */
+	private static final String TRANSACTION_LOCATION_JOIN=" JOIN VendingMachine ON VendingMachine.machineId=VMTransaction.machineId JOIN Location ON Location.locationId=VendingMachine.locationId";
+
+	/** Number of rows a TransactionCursor asks the driver for at a time. */
+	private static final int CURSOR_FETCH_SIZE=100;
+
+	/**
+	 * Number of machines, customers, or items a TransactionCursor remembers
+	 * for sharing before starting afresh.
+	 **/
+	private static final int CURSOR_SHARING_LIMIT=256;
+
+	/**
+	 * The changes made by each version of the schema, in order: applying
+	 * MIGRATIONS[n] to a database at version n brings it to version n+1.
+	 * Version 1 is the original schema, which older databases already have
+	 * (hence IF NOT EXISTS). Add new migrations to the end; never edit old
+	 * ones, since databases in the field have already applied them. Keep
+	 * CreateTables.sql in sync.
+	 **/
+	private static final String[][] MIGRATIONS={
+		{ //1: original schema
+			"CREATE TABLE IF NOT EXISTS Location( locationId INTEGER PRIMARY KEY AUTOINCREMENT, zipCode INTEGER, state TEXT)",
+			"CREATE TABLE IF NOT EXISTS Item( itemId INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, price INTEGER NOT NULL, freshLength INTEGER NOT NULL, active INTEGER NOT NULL)",
+			"CREATE TABLE IF NOT EXISTS VMLayout( layoutId INTEGER PRIMARY KEY AUTOINCREMENT, nextVisit INTEGER, depth INTEGER NOT NULL)",
+			"CREATE TABLE IF NOT EXISTS VMRow( vmRowId INTEGER PRIMARY KEY AUTOINCREMENT, productId INTEGER REFERENCES Item(itemId), expirationDate INTEGER NOT NULL, remainingQuant INTEGER NOT NULL)",
+			"CREATE TABLE IF NOT EXISTS VMLayoutVMRowLink( layoutId INTEGER REFERENCES VMLayout(layoutId), vmRowId INTEGER REFERENCES VMRow(vmRowId), rowX INTEGER NOT NULL, rowY INTEGER NOT NULL)",
+			"CREATE TABLE IF NOT EXISTS VendingMachine( machineId INTEGER PRIMARY KEY AUTOINCREMENT, active INTEGER NOT NULL, stockingInterval INTEGER NOT NULL, currentLayoutId INTEGER REFERENCES VMLayout(layoutId), nextLayoutId INTEGER REFERENCES VMLayout(layoutId), locationId INTEGER REFERENCES Location(locationId))",
+			"CREATE TABLE IF NOT EXISTS NearbyBusiness( locationId INTEGER REFERENCES Location(locationId), name TEXT NOT NULL)",
+			"CREATE TABLE IF NOT EXISTS Customer( customerId INTEGER PRIMARY KEY AUTOINCREMENT, money INTEGER NOT NULL, name TEXT)",
+			"CREATE TABLE IF NOT EXISTS Manager( managerId INTEGER PRIMARY KEY AUTOINCREMENT, password TEXT NOT NULL, name TEXT)",
+			"CREATE TABLE IF NOT EXISTS VMTransaction( transactionId INTEGER PRIMARY KEY AUTOINCREMENT, timestamp INTEGER NOT NULL, machineId INTEGER REFERENCES VendingMachine(machineId), customerId INTEGER REFERENCES Customer(customerId), productId INTEGER REFERENCES Item(itemId), rowX INTEGER NOT NULL, rowY INTEGER NOT NULL, balance INTEGER NOT NULL)"
+		},
+		{ //2: indexes for the columns queries filter and join on
+			"CREATE INDEX IF NOT EXISTS VMTransactionMachine ON VMTransaction(machineId, timestamp)",
+			"CREATE INDEX IF NOT EXISTS VMTransactionCustomer ON VMTransaction(customerId)",
+			"CREATE INDEX IF NOT EXISTS VMTransactionProduct ON VMTransaction(productId)",
+			"CREATE INDEX IF NOT EXISTS VMTransactionTimestamp ON VMTransaction(timestamp)",
+			"CREATE INDEX IF NOT EXISTS VMLayoutVMRowLinkLayout ON VMLayoutVMRowLink(layoutId)",
+			"CREATE INDEX IF NOT EXISTS NearbyBusinessLocation ON NearbyBusiness(locationId)",
+			"CREATE INDEX IF NOT EXISTS LocationZipCode ON Location(zipCode)",
+			"CREATE INDEX IF NOT EXISTS LocationState ON Location(state)",
+			"CREATE INDEX IF NOT EXISTS VendingMachineLocation ON VendingMachine(locationId)"
+		},
+		{ //3: paging through a machine's transactions in id order
+			"CREATE INDEX IF NOT EXISTS VMTransactionMachinePage ON VMTransaction(machineId, transactionId)"
+		},
+		{ //4: sales rollups, filled in from the existing transactions
+			"CREATE TABLE IF NOT EXISTS MachineDailySales( machineId INTEGER NOT NULL, day INTEGER NOT NULL, sales INTEGER NOT NULL, revenue INTEGER NOT NULL, PRIMARY KEY(machineId, day))",
+			"CREATE TABLE IF NOT EXISTS ItemDailySales( productId INTEGER NOT NULL, day INTEGER NOT NULL, sales INTEGER NOT NULL, revenue INTEGER NOT NULL, PRIMARY KEY(productId, day))",
+			"CREATE TABLE IF NOT EXISTS CustomerMonthlySales( customerId INTEGER NOT NULL, month INTEGER NOT NULL, sales INTEGER NOT NULL, revenue INTEGER NOT NULL, PRIMARY KEY(customerId, month))",
+			"CREATE TABLE IF NOT EXISTS LocationDailySales( state TEXT NOT NULL, zipCode INTEGER NOT NULL, day INTEGER NOT NULL, sales INTEGER NOT NULL, revenue INTEGER NOT NULL, PRIMARY KEY(state, zipCode, day))",
+			"CREATE INDEX IF NOT EXISTS LocationDailySalesZipCode ON LocationDailySales(zipCode, day)",
+			"INSERT INTO MachineDailySales SELECT machineId, day, COUNT(*), SUM(balance) FROM (SELECT machineId, CAST(strftime('%Y%m%d', timestamp/1000, 'unixepoch', 'localtime') AS INTEGER) AS day, balance FROM VMTransaction) GROUP BY machineId, day",
+			"INSERT INTO ItemDailySales SELECT productId, day, COUNT(*), SUM(balance) FROM (SELECT productId, CAST(strftime('%Y%m%d', timestamp/1000, 'unixepoch', 'localtime') AS INTEGER) AS day, balance FROM VMTransaction) GROUP BY productId, day",
+			"INSERT INTO CustomerMonthlySales SELECT customerId, month, COUNT(*), SUM(balance) FROM (SELECT customerId, CAST(strftime('%Y%m', timestamp/1000, 'unixepoch', 'localtime') AS INTEGER) AS month, balance FROM VMTransaction) GROUP BY customerId, month",
+			"INSERT INTO LocationDailySales SELECT state, zipCode, day, COUNT(*), SUM(balance) FROM (SELECT Location.state AS state, Location.zipCode AS zipCode, CAST(strftime('%Y%m%d', VMTransaction.timestamp/1000, 'unixepoch', 'localtime') AS INTEGER) AS day, VMTransaction.balance AS balance FROM VMTransaction JOIN VendingMachine ON VendingMachine.machineId=VMTransaction.machineId JOIN Location ON Location.locationId=VendingMachine.locationId) GROUP BY state, zipCode, day"
+		},
+		{ //5: hourly sales rollups for time series, filled in from the existing transactions
+			"CREATE TABLE IF NOT EXISTS MachineHourlySales( machineId INTEGER NOT NULL, hour INTEGER NOT NULL, sales INTEGER NOT NULL, revenue INTEGER NOT NULL, PRIMARY KEY(machineId, hour))",
+			"CREATE TABLE IF NOT EXISTS ItemHourlySales( productId INTEGER NOT NULL, hour INTEGER NOT NULL, sales INTEGER NOT NULL, revenue INTEGER NOT NULL, PRIMARY KEY(productId, hour))",
+			"INSERT INTO MachineHourlySales SELECT machineId, hour, COUNT(*), SUM(balance) FROM (SELECT machineId, CAST(strftime('%Y%m%d%H', timestamp/1000, 'unixepoch', 'localtime') AS INTEGER) AS hour, balance FROM VMTransaction) GROUP BY machineId, hour",
+			"INSERT INTO ItemHourlySales SELECT productId, hour, COUNT(*), SUM(balance) FROM (SELECT productId, CAST(strftime('%Y%m%d%H', timestamp/1000, 'unixepoch', 'localtime') AS INTEGER) AS hour, balance FROM VMTransaction) GROUP BY productId, hour"
+		},
+		{ //6: sales of each item by machine, zip code, state, and fleet, indexed for ranking
+			"CREATE TABLE IF NOT EXISTS MachineItemSales( machineId INTEGER NOT NULL, productId INTEGER NOT NULL, sales INTEGER NOT NULL, revenue INTEGER NOT NULL, PRIMARY KEY(machineId, productId))",
+			"CREATE TABLE IF NOT EXISTS ZipCodeItemSales( zipCode INTEGER NOT NULL, productId INTEGER NOT NULL, sales INTEGER NOT NULL, revenue INTEGER NOT NULL, PRIMARY KEY(zipCode, productId))",
+			"CREATE TABLE IF NOT EXISTS StateItemSales( state TEXT NOT NULL, productId INTEGER NOT NULL, sales INTEGER NOT NULL, revenue INTEGER NOT NULL, PRIMARY KEY(state, productId))",
+			"CREATE TABLE IF NOT EXISTS ItemSales( productId INTEGER PRIMARY KEY, sales INTEGER NOT NULL, revenue INTEGER NOT NULL)",
+			"CREATE INDEX IF NOT EXISTS MachineItemSalesRank ON MachineItemSales(machineId, sales, productId)",
+			"CREATE INDEX IF NOT EXISTS ZipCodeItemSalesRank ON ZipCodeItemSales(zipCode, sales, productId)",
+			"CREATE INDEX IF NOT EXISTS StateItemSalesRank ON StateItemSales(state, sales, productId)",
+			"CREATE INDEX IF NOT EXISTS ItemSalesRank ON ItemSales(sales, productId)",
+			"INSERT INTO MachineItemSales SELECT machineId, productId, COUNT(*), SUM(balance) FROM VMTransaction GROUP BY machineId, productId",
+			"INSERT INTO ZipCodeItemSales SELECT Location.zipCode, VMTransaction.productId, COUNT(*), SUM(VMTransaction.balance) FROM VMTransaction" + TRANSACTION_LOCATION_JOIN + " GROUP BY Location.zipCode, VMTransaction.productId",
+			"INSERT INTO StateItemSales SELECT Location.state, VMTransaction.productId, COUNT(*), SUM(VMTransaction.balance) FROM VMTransaction" + TRANSACTION_LOCATION_JOIN + " GROUP BY Location.state, VMTransaction.productId",
+			"INSERT INTO ItemSales SELECT productId, COUNT(*), SUM(balance) FROM VMTransaction GROUP BY productId"
+		},
+		{ //7: each customer's purchases of each item, indexed for favorites
+			"CREATE TABLE IF NOT EXISTS CustomerItemSales( customerId INTEGER NOT NULL, productId INTEGER NOT NULL, sales INTEGER NOT NULL, revenue INTEGER NOT NULL, PRIMARY KEY(customerId, productId))",
+			"CREATE INDEX IF NOT EXISTS CustomerItemSalesRank ON CustomerItemSales(customerId, sales, productId)",
+			"INSERT INTO CustomerItemSales SELECT customerId, productId, COUNT(*), SUM(balance) FROM VMTransaction GROUP BY customerId, productId"
+		},
+		{ //8: how far through each kiosk's purchase journal has been stored
+			"CREATE TABLE IF NOT EXISTS JournalCheckpoint( journal TEXT PRIMARY KEY, sequence INTEGER NOT NULL)"
+		},
+		{ //9: write counts, so that stale copies can't be written back over newer ones
+			"ALTER TABLE Customer ADD COLUMN version INTEGER NOT NULL DEFAULT 0",
+			"ALTER TABLE VMRow ADD COLUMN version INTEGER NOT NULL DEFAULT 0",
+			"ALTER TABLE VendingMachine ADD COLUMN version INTEGER NOT NULL DEFAULT 0"
+		},
+		{ //10: offline kiosks' replicas of the head office database, and the sales they have yet to send it
+			"CREATE TABLE IF NOT EXISTS ReplicaOf( headOffice TEXT NOT NULL, kiosk TEXT NOT NULL)",
+			"CREATE TABLE IF NOT EXISTS SyncOutbox( sequence INTEGER PRIMARY KEY AUTOINCREMENT, timestamp INTEGER NOT NULL, machineId INTEGER NOT NULL, customerId INTEGER NOT NULL, productId INTEGER NOT NULL, rowX INTEGER NOT NULL, rowY INTEGER NOT NULL, vmRowId INTEGER NOT NULL, balance INTEGER NOT NULL)"
+		}
+	};
+
+	/**
+	 * The tables an offline kiosk's replica copies from the head office on
+	 * each sync. Sales and their rollups stay local, except for each
+	 * customer's purchase counts, which drive their favorites.
+	 **/
+	private static final String[] REPLICATED_TABLES={"Location", "NearbyBusiness", "Item", "VMLayout", "VMRow", "VMLayoutVMRowLink", "VendingMachine", "Customer", "Manager", "CustomerItemSales"};
+
+	/** How many times to redo a change that loses a race with another writer before giving up. */
+	public static final int CONFLICT_RETRIES=3;
+
+	/**
+	 * A change to a stored object that can be redone to a freshly fetched
+	 * copy if it loses a race with another writer.
+	 **/
+	public static interface Change<T extends ModelBase>
+	{
+		/**
+		 * Makes the change.
+		 * @param target The object to change.
+		 * @throws BadArgumentException if the change is invalid
+		 * @throws BadStateException if the change can't be made to it
+		 **/
+		public void applyTo(T target) throws BadArgumentException, BadStateException;
+	}
+
+	/** The schema version this class expects, i.e. the number of MIGRATIONS. */
+	public static final int SCHEMA_VERSION=MIGRATIONS.length;
+
+	/** Tuning applied to each connection to the database. */
+	private static DatabaseProfile databaseProfile=DatabaseProfile.KIOSK;
+
+	/** Maximum number of connections the pool may open. */
+	private static int poolMaxSize=ConnectionPool.DEFAULT_MAX_SIZE;
+
+	/** Number of connections the pool opens at startup. */
+	private static int poolWarmSize=ConnectionPool.DEFAULT_WARM_SIZE;
+
+	/** Maximum number of entities of each type to keep cached. */
+	private static int cacheMaxEntries=EntityCache.DEFAULT_MAX_ENTRIES;
+
+	/** Number of milliseconds a cached entity remains valid. */
+	private static long cacheTimeToLive=EntityCache.DEFAULT_TIME_TO_LIVE;
+
 	/** Singleton instance itself. */
 	private static DatabaseLayer instance=null;
 
 	/**
-	 * Instance of the database connection. If nothing is using this it should
-	 * be null.
+	 * Pool from which each thread borrows its connection to the database.
+	 **/
+	private ConnectionPool pool;
+
+	/**
+	 * The connection each thread has borrowed, along with the number of
+	 * methods on that thread using it. Threads that aren't using the database
+	 * have no entry.
+	 **/
+	private ThreadLocal<Pair<Connection, Integer>> heldConnection;
+
+	/**
+	 * Recently fetched items. The cached instances are never handed out;
+	 * callers always receive copies.
+	 **/
+	private EntityCache<FoodItem> itemCache;
+
+	/**
+	 * Recently fetched customers. The cached instances are never handed out;
+	 * callers always receive copies.
 	 **/
-	private Connection dbInstance;
+	private EntityCache<Customer> customerCache;
 
 	/**
-	 * Number of methods using dbInstance.
+	 * Recently fetched locations. The cached instances are never handed out;
+	 * callers always receive copies.
 	 **/
-	private int dbUseCounter;
+	private EntityCache<Location> locationCache;
+
+	/**
+	 * Recently fetched vending machines. The cached instances are never
+	 * handed out; callers always receive deep copies.
+	 **/
+	private EntityCache<VendingMachine> machineCache;
 
 	/**
 	 * Selects a custom database location.
@@ -50,7 +229,7 @@ public class DatabaseLayer
 	 * @param path valid readable/writable path to the database file to create or use
 	 * @return whether the path could be set (i.e. <tt>getInstance()</tt> has never been called
 	 */
-	public static boolean setDatabaseLocation(String path)
+	public static synchronized boolean setDatabaseLocation(String path)
 	{
 		if(instance==null) //instance not yet constructed
 		{
@@ -62,19 +241,79 @@ public class DatabaseLayer
 			return false;
 	}
 
+	/**
+	 * Selects how each connection to the database is tuned.
+	 * Kiosks should keep the default, <tt>DatabaseProfile.KIOSK</tt>; the head-office host should use <tt>DatabaseProfile.REPORTING</tt>.
+	 * This is only useful if the instance has not yet been constructed; otherwise, it does nothing.
+	 * @param profile the tuning to apply
+	 * @return whether the profile could be set (i.e. <tt>getInstance()</tt> has never been called and the profile isn't <tt>null</tt>)
+	 */
+	public static synchronized boolean setDatabaseProfile(DatabaseProfile profile)
+	{
+		if(instance==null && profile!=null)
+		{
+			databaseProfile=profile;
+			
+			return true;
+		}
+		else
+			return false;
+	}
+
+	/**
+	 * Sizes the connection pool.
+	 * This is only useful if the instance has not yet been constructed; otherwise, it does nothing.
+	 * @param maxSize the maximum number of connections to keep open at once
+	 * @param warmSize how many connections to open as soon as the instance is constructed
+	 * @return whether the limits could be set (i.e. <tt>getInstance()</tt> has never been called and the limits make sense)
+	 */
+	public static synchronized boolean setConnectionPoolLimits(int maxSize, int warmSize)
+	{
+		if(instance==null && maxSize>0 && warmSize>=0 && warmSize<=maxSize)
+		{
+			poolMaxSize=maxSize;
+			poolWarmSize=warmSize;
+			
+			return true;
+		}
+		else
+			return false;
+	}
+
+	/**
+	 * Sizes the entity caches.
+	 * This is only useful if the instance has not yet been constructed; otherwise, it does nothing.
+	 * @param maxEntries the most items, customers, locations, or machines to keep cached (each)
+	 * @param timeToLive how long, in milliseconds, a cached entity may be served before it is fetched again
+	 * @return whether the limits could be set (i.e. <tt>getInstance()</tt> has never been called and the limits make sense)
+	 */
+	public static synchronized boolean setEntityCacheLimits(int maxEntries, long timeToLive)
+	{
+		if(instance==null && maxEntries>0 && timeToLive>=0)
+		{
+			cacheMaxEntries=maxEntries;
+			cacheTimeToLive=timeToLive;
+			
+			return true;
+		}
+		else
+			return false;
+	}
+
 	/**
 	 * Retrieves singleton instance.
+	 * Safe to call from any thread; the first call constructs it.
 	 * The database will be located at the default location unless <tt>setDatabaseLocation(String)</tt> has first been used.
 	 * @return the <tt>DatabaseLayer</tt> instance, or <tt>null</tt> upon error
 	 */
-	public static DatabaseLayer getInstance()
+	public static synchronized DatabaseLayer getInstance()
 	{
 		try
 		{
 			Class.forName(DRIVER_CLASS); //load driver
 			
 			if(instance==null) //instance not yet constructed
-				instance=new DatabaseLayer();
+				instance=new DatabaseLayer(dbLocation);
 			
 			return instance;
 		}
@@ -94,76 +333,220 @@ public class DatabaseLayer
 		}
 	}
 
+	/**
+	 * Opens a database other than the one <tt>getInstance()</tt> uses, such
+	 * as the head office's from a kiosk syncing its replica of it. It is
+	 * brought up to date and tuned just like the singleton's, but has its own
+	 * connections and caches, which the caller must release with
+	 * <tt>close()</tt>.
+	 * @param path valid readable/writable path to the database file to create or use
+	 * @return the new instance
+	 * @throws SQLException in case of a database error, or if the driver can't be found
+	 */
+	public static DatabaseLayer open(String path) throws SQLException
+	{
+		try
+		{
+			Class.forName(DRIVER_CLASS); //load driver
+		}
+		catch(ClassNotFoundException gone)
+		{
+			throw new SQLException("Unable to locate database driver", gone);
+		}
+		return new DatabaseLayer(path);
+	}
+
 	/**
 	 * Instance constructor.
-	 * This will only be invoked once per run.
+	 * This will only be invoked once per run for the singleton, and once per
+	 * <tt>open(String)</tt> otherwise.
 	 * Precondition: The database driver must already be loaded.
+	 * @param location path to the database file to create or use
 	 * @throws SQLException in case of a database error
 	 */
-	private DatabaseLayer() throws SQLException
+	private DatabaseLayer(String location) throws SQLException
 	{
-		dbUseCounter = 0;
+		pool = new ConnectionPool(DB_DRIVER+location, poolMaxSize, poolWarmSize, ConnectionPool.DEFAULT_BORROW_TIMEOUT, ConnectionPool.DEFAULT_LEAK_THRESHOLD, databaseProfile);
+		heldConnection = new ThreadLocal<Pair<Connection, Integer>>();
+		itemCache = new EntityCache<FoodItem>(cacheMaxEntries, cacheTimeToLive);
+		customerCache = new EntityCache<Customer>(cacheMaxEntries, cacheTimeToLive);
+		locationCache = new EntityCache<Location>(cacheMaxEntries, cacheTimeToLive);
+		machineCache = new EntityCache<VendingMachine>(cacheMaxEntries, cacheTimeToLive);
 		initializeDatabase();
 	}
 
 	/**
-	 * Connects to the database or returns the current connection.
+	 * Returns the connection the current thread is already using, or borrows
+	 * one from the pool if it isn't using one yet.
 	 * @return A connection to the database.
 	 **/
 	private Connection connect() throws SQLException
 	{
-		if (dbInstance == null)
-			dbInstance = DriverManager.getConnection(DB_DRIVER+dbLocation);
-		++dbUseCounter;
-		return dbInstance;
+		Pair<Connection, Integer> held = heldConnection.get();
+		if (held == null)
+		{
+			held = new Pair<Connection, Integer>(pool.borrow(), 0);
+			heldConnection.set(held);
+		}
+		++held.second;
+		return held.first;
 	}
 
 	/**
-	 * Decrements the counter for the number of methods using the database.
-	 * If the counter reaches 0 then the connection is closed and
-	 * dbInstance is set to null.
+	 * Decrements the counter for the number of methods on the current thread
+	 * using the database. If the counter reaches 0 then the connection is
+	 * given back to the pool.
 	 **/
 	private void closeConnection() throws SQLException
 	{
-		if (--dbUseCounter == 0)
+		Pair<Connection, Integer> held = heldConnection.get();
+		if (--held.second == 0)
+		{
+			heldConnection.remove();
+			pool.release(held.first);
+		}
+	}
+
+	/**
+	 * Starts a database transaction on the given connection, unless one is
+	 * already in progress on it, in which case the caller's work simply
+	 * becomes part of that one.
+	 * @param db The current thread's connection.
+	 * @return Whether a transaction was started, in which case the caller
+	 * must finish it with endTransaction().
+	 **/
+	private boolean beginTransaction(Connection db) throws SQLException
+	{
+		if (!db.getAutoCommit())
+			return false;
+		db.setAutoCommit(false);
+		return true;
+	}
+
+	/**
+	 * Commits or rolls back a transaction started by beginTransaction(), and
+	 * goes back to committing each statement on its own.
+	 * @param db The current thread's connection.
+	 * @param started What beginTransaction() returned. If false, this does
+	 * nothing.
+	 * @param succeeded Whether to commit rather than roll back.
+	 **/
+	private void endTransaction(Connection db, boolean started, boolean succeeded) throws SQLException
+	{
+		if (!started)
+			return;
+		try
+		{
+			if (succeeded)
+				db.commit();
+			else
+				db.rollback();
+		}
+		finally
 		{
-			dbInstance.close();
-			dbInstance = null;
+			db.setAutoCommit(true);
 		}
 	}
 
 	/**
-	 * Creates all of the necessary tables in the database
+	 * Brings the schema up to date, creating it from scratch in a new
+	 * database.
 	 * @throws SQLException in case of a database error
 	 **/
 	private void initializeDatabase() throws SQLException
 	{
 		Connection db = connect();
-		Statement stmt = db.createStatement();
-		
-		stmt.addBatch("CREATE TABLE IF NOT EXISTS Location( locationId INTEGER PRIMARY KEY AUTOINCREMENT, zipCode INTEGER, state TEXT);");
-
-		stmt.addBatch("CREATE TABLE IF NOT EXISTS Item( itemId INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, price INTEGER NOT NULL, freshLength INTEGER NOT NULL, active INTEGER NOT NULL);");
-
-		stmt.addBatch("CREATE TABLE IF NOT EXISTS VMLayout( layoutId INTEGER PRIMARY KEY AUTOINCREMENT, nextVisit INTEGER, depth INTEGER NOT NULL);");
-
-		stmt.addBatch(" CREATE TABLE IF NOT EXISTS VMRow( vmRowId INTEGER PRIMARY KEY AUTOINCREMENT, productId INTEGER REFERENCES Item(itemId), expirationDate INTEGER NOT NULL, remainingQuant INTEGER NOT NULL);");
-
-		stmt.addBatch(" CREATE TABLE IF NOT EXISTS VMLayoutVMRowLink( layoutId INTEGER REFERENCES VMLayout(layoutId), vmRowId INTEGER REFERENCES VMRow(vmRowId), rowX INTEGER NOT NULL, rowY INTEGER NOT NULL);");
-
-		stmt.addBatch("CREATE TABLE IF NOT EXISTS VendingMachine( machineId INTEGER PRIMARY KEY AUTOINCREMENT, active INTEGER NOT NULL, stockingInterval INTEGER NOT NULL, currentLayoutId INTEGER REFERENCES VMLayout(layoutId), nextLayoutId INTEGER REFERENCES VMLayout(layoutId), locationId INTEGER REFERENCES Location(locationId));");
-
-		stmt.addBatch("CREATE TABLE IF NOT EXISTS NearbyBusiness( locationId INTEGER REFERENCES Location(locationId), name TEXT NOT NULL);");
+		try
+		{
+			upgradeSchema(db);
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
 
-		stmt.addBatch(" CREATE TABLE IF NOT EXISTS Customer( customerId INTEGER PRIMARY KEY AUTOINCREMENT, money INTEGER NOT NULL, name TEXT)");
+	/**
+	 * Brings the schema of a database up to SCHEMA_VERSION by applying, in
+	 * order, each of the MIGRATIONS it hasn't had yet. The version is tracked
+	 * in SQLite's user_version header field. Each migration is applied in its
+	 * own transaction together with the version bump, so an interrupted
+	 * upgrade resumes where it left off and existing data is never lost.
+	 * getInstance() does this automatically for its own database.
+	 * @param db A connection to the database to upgrade, which must not be in
+	 * the middle of a transaction.
+	 * @throws SQLException in case of a database error, or if the database
+	 * was created by a newer version of this program
+	 **/
+	public static void upgradeSchema(Connection db) throws SQLException
+	{
+		Statement stmt = db.createStatement();
+		try
+		{
+			int version = readSchemaVersion(stmt);
+			if (version > SCHEMA_VERSION)
+				throw new SQLException("Database schema version " + version + " is newer than the supported version " + SCHEMA_VERSION);
 
-		stmt.addBatch(" CREATE TABLE IF NOT EXISTS Manager( managerId INTEGER PRIMARY KEY AUTOINCREMENT, password TEXT NOT NULL, name TEXT)");
+			for (; version < SCHEMA_VERSION; ++version)
+			{
+				db.setAutoCommit(false);
+				try
+				{
+					for (String statement : MIGRATIONS[version])
+						stmt.executeUpdate(statement);
+					stmt.executeUpdate("PRAGMA user_version=" + (version+1));
+					db.commit();
+				}
+				finally
+				{
+					if (!db.getAutoCommit())
+					{
+						db.rollback(); //no-op if the commit went through
+						db.setAutoCommit(true);
+					}
+				}
+			}
+		}
+		finally
+		{
+			stmt.close();
+		}
+	}
 
-		stmt.addBatch("CREATE TABLE IF NOT EXISTS VMTransaction( transactionId INTEGER PRIMARY KEY AUTOINCREMENT, timestamp INTEGER NOT NULL, machineId INTEGER REFERENCES VendingMachine(machineId), customerId INTEGER REFERENCES Customer(customerId), productId INTEGER REFERENCES Item(itemId), rowX INTEGER NOT NULL, rowY INTEGER NOT NULL, balance INTEGER NOT NULL);");
+	/**
+	 * Reads the schema version of the database.
+	 * @param stmt A statement on a connection to the database.
+	 * @return The version recorded in the user_version header field, which
+	 * is 0 for databases created before versioning was introduced.
+	 **/
+	private static int readSchemaVersion(Statement stmt) throws SQLException
+	{
+		ResultSet results = stmt.executeQuery("PRAGMA user_version");
+		int version = results.next() ? results.getInt(1) : 0;
+		results.close();
+		return version;
+	}
 
-		stmt.executeBatch();
-		stmt.close();
-		closeConnection();
+	/**
+	 * Determines which schema version the database is at.
+	 * @return The schema version, which will be SCHEMA_VERSION once the
+	 * instance has been constructed.
+	 * @throws SQLException in case of a database error
+	 **/
+	public int getSchemaVersion() throws SQLException
+	{
+		Connection db = connect();
+		try
+		{
+			Statement stmt = db.createStatement();
+			int version = readSchemaVersion(stmt);
+			stmt.close();
+			return version;
+		}
+		finally
+		{
+			closeConnection();
+		}
 	}
 
 	/**
@@ -174,10 +557,50 @@ public class DatabaseLayer
 	public void nuke() throws SQLException
 	{
 		Connection db = connect();
-		Statement stmt = db.createStatement();
-		stmt.executeUpdate("DELETE FROM Item; DELETE FROM Location; DELETE FROM VMLayout; DELETE FROM VMRow; DELETE FROM VendingMachine; DELETE FROM NearbyBusiness; DELETE FROM Customer; DELETE FROM Manager; DELETE FROM VMTransaction");
-		stmt.close();
-		closeConnection();
+		try
+		{
+			Statement stmt = db.createStatement();
+			stmt.executeUpdate("DELETE FROM Item; DELETE FROM Location; DELETE FROM VMLayout; DELETE FROM VMRow; DELETE FROM VendingMachine; DELETE FROM NearbyBusiness; DELETE FROM Customer; DELETE FROM Manager; DELETE FROM VMTransaction; DELETE FROM MachineDailySales; DELETE FROM ItemDailySales; DELETE FROM CustomerMonthlySales; DELETE FROM LocationDailySales; DELETE FROM MachineHourlySales; DELETE FROM ItemHourlySales; DELETE FROM MachineItemSales; DELETE FROM ZipCodeItemSales; DELETE FROM StateItemSales; DELETE FROM ItemSales; DELETE FROM CustomerItemSales; DELETE FROM JournalCheckpoint; DELETE FROM ReplicaOf; DELETE FROM SyncOutbox");
+			stmt.close();
+			itemCache.clear();
+			customerCache.clear();
+			locationCache.clear();
+			machineCache.clear();
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Closes the connections of an instance made with <tt>open(String)</tt>,
+	 * after which it mustn't be used. The singleton's are closed when the
+	 * program exits.
+	 **/
+	public void close()
+	{
+		pool.close();
+	}
+
+	/**
+	 * Counts the entity lookups that were answered from memory.
+	 * @return The total number of cache hits for items, customers, locations,
+	 * and vending machines.
+	 **/
+	public long getCacheHits()
+	{
+		return itemCache.getHits() + customerCache.getHits() + locationCache.getHits() + machineCache.getHits();
+	}
+
+	/**
+	 * Counts the entity lookups that had to go to the database.
+	 * @return The total number of cache misses for items, customers,
+	 * locations, and vending machines.
+	 **/
+	public long getCacheMisses()
+	{
+		return itemCache.getMisses() + customerCache.getMisses() + locationCache.getMisses() + machineCache.getMisses();
 	}
 
 	private boolean isFoodItemValid(FoodItem item)
@@ -261,19 +684,29 @@ public class DatabaseLayer
 	 **/
 	public FoodItem getFoodItemById(int id) throws SQLException, BadStateException, BadArgumentException
 	{
+		FoodItem cached = itemCache.get(id);
+		if (cached != null)
+			return new FoodItem(cached);
+
 		Connection db = connect();
-		FoodItem returnValue = null;
-		Statement stmt = db.createStatement();
-		ResultSet results = stmt.executeQuery("SELECT itemId, name, price, freshLength, active FROM Item WHERE itemId=" + id);
-		if (results.next())
+		try
 		{
-			returnValue = new FoodItem(results.getString(2), results.getInt(3), results.getInt(4), results.getInt(5) != 0);
-			returnValue.setId(results.getInt(1));
+			FoodItem returnValue = null;
+			PreparedStatement stmt = pool.prepare(db, "SELECT itemId, name, price, freshLength, active FROM Item WHERE itemId=?");
+			stmt.setInt(1, id);
+			ResultSet results = stmt.executeQuery();
+			if (results.next())
+			{
+				returnValue = readFoodItem(results, 1, null);
+				itemCache.put(id, new FoodItem(returnValue));
+			}
+			results.close();
+			return returnValue;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return returnValue;
 	}
 
 	/**
@@ -284,58 +717,100 @@ public class DatabaseLayer
 	public ArrayList<FoodItem> getFoodItemsAll() throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<FoodItem> returnSet = new ArrayList<FoodItem>();
-		Statement stmt = db.createStatement();
-		ResultSet results = stmt.executeQuery("SELECT itemId, name, price, freshLength, active FROM Item");
-		while (results.next())
+		try
 		{
-			FoodItem item = new FoodItem(results.getString(2), results.getInt(3), results.getInt(4), results.getInt(5) != 0);
-			item.setId(results.getInt(1));
-			returnSet.add(item);
+			ArrayList<FoodItem> returnSet = new ArrayList<FoodItem>();
+			PreparedStatement stmt = pool.prepare(db, "SELECT itemId, name, price, freshLength, active FROM Item");
+			ResultSet results = stmt.executeQuery();
+			while (results.next())
+				returnSet.add(readFoodItem(results, 1, null));
+			results.close();
+			return returnSet;
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return returnSet;
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Builds the item described by five consecutive columns of the current
+	 * result row: itemId, name, price, freshLength, and active. If an identity
+	 * map is supplied, an item that has already been built during the same
+	 * query is reused rather than rebuilt.
+	 * @param results The result set, positioned on the row to read.
+	 * @param firstColumn The index of the itemId column.
+	 * @param items Items already built during this query, by id, or null to
+	 * always build a new item.
+	 * @return The item, or null if the columns are null (e.g. because of an
+	 * outer join that found no item).
+	 **/
+	private FoodItem readFoodItem(ResultSet results, int firstColumn, HashMap<Integer, FoodItem> items) throws SQLException, BadStateException, BadArgumentException
+	{
+		int id = results.getInt(firstColumn);
+		if (results.wasNull())
+			return null;
+		if (items != null && items.containsKey(id))
+			return items.get(id);
+
+		FoodItem item = new FoodItem(results.getString(firstColumn+1), results.getInt(firstColumn+2), results.getLong(firstColumn+3), results.getInt(firstColumn+4) != 0);
+		item.setId(id);
+		if (items != null)
+			items.put(id, item);
+		return item;
 	}
 
 	/**
 	 * Updates the item in the database. If the item does not already exists
 	 * (determined by the id of the item) then the item is created. If an item
-	 * is created then the id is updated with the auto incremented one.
+	 * is created then the id is updated with the auto incremented one. Items
+	 * that haven't changed since they were last stored or fetched aren't
+	 * written.
 	 * @param item The item to update
+	 * @throws BadStateException if this database is an offline kiosk's
+	 * replica, where this can only be changed at the head office
 	 * @throws SQLException in case of a database error
 	 **/
 	public void updateOrCreateFoodItem(FoodItem item) throws SQLException, BadStateException, BadArgumentException
 	{
+		if (!item.isDirty())
+			return;
 		Connection db = connect();
-		if (item.isTempId())
-		{
-			PreparedStatement insertStmt = db.prepareStatement("INSERT INTO Item(name, price, freshLength, active) VALUES(?, ?, ?, ?)");
-			insertStmt.setString(1, item.getName());
-			insertStmt.setInt(2, item.getPrice());
-			insertStmt.setLong(3, item.getFreshLength());
-			insertStmt.setInt(4, item.isActive() ? 1 : 0);
-			insertStmt.executeUpdate();
-			ResultSet keys = insertStmt.getGeneratedKeys();
-			keys.next();
-			int id = keys.getInt(1);
-			item.setId(id);
-			keys.close();
-			insertStmt.close();
+		try
+		{
+			refuseIfReplica(db);
+			if (item.isTempId())
+			{
+				PreparedStatement insertStmt = pool.prepare(db, "INSERT INTO Item(name, price, freshLength, active) VALUES(?, ?, ?, ?)");
+				insertStmt.setString(1, item.getName());
+				insertStmt.setInt(2, item.getPrice());
+				insertStmt.setLong(3, item.getFreshLength());
+				insertStmt.setInt(4, item.isActive() ? 1 : 0);
+				insertStmt.executeUpdate();
+				ResultSet keys = insertStmt.getGeneratedKeys();
+				keys.next();
+				int id = keys.getInt(1);
+				item.setId(id);
+				keys.close();
+			}
+			else
+			{
+				PreparedStatement updateStmt = pool.prepare(db, "UPDATE Item SET name=?, price=?, freshLength=?, active=? WHERE itemId=?");
+				updateStmt.setString(1, item.getName());
+				updateStmt.setInt(2, item.getPrice());
+				updateStmt.setLong(3, item.getFreshLength());
+				updateStmt.setInt(4, item.isActive() ? 1 : 0);
+				updateStmt.setInt(5, item.getId());
+				updateStmt.executeUpdate();
+			}
+			item.markClean();
+			itemCache.put(item.getId(), new FoodItem(item));
+			machineCache.clear(); //cached machines hold their own copies of items
 		}
-		else
+		finally
 		{
-			PreparedStatement updateStmt = db.prepareStatement("UPDATE Item SET name=?, price=?, freshLength=?, active=? WHERE itemId=?");
-			updateStmt.setString(1, item.getName());
-			updateStmt.setInt(2, item.getPrice());
-			updateStmt.setLong(3, item.getFreshLength());
-			updateStmt.setInt(4, item.isActive() ? 1 : 0);
-			updateStmt.setInt(5, item.getId());
-			updateStmt.executeUpdate();
-			updateStmt.close();
+			closeConnection();
 		}
-		closeConnection();
 	}
 
 	/**
@@ -343,209 +818,255 @@ public class DatabaseLayer
 	 * inside this class that need to work with VMLayouts, which is mostly the
 	 * VendingMachine methods.
 	 * @param id The id of the VMLayout to get.
+	 * @param items Items already built during the current query, by id. Any
+	 * items the layout's rows need are taken from or added to this map.
 	 * @return The VMLayout from the database with the given id or null if no such
 	 * VMLayout exists.
 	 * @throws SQLException in case of a database error.
 	 **/
-	private VMLayout getVMLayoutById(int id) throws SQLException, BadStateException, BadArgumentException
+	private VMLayout getVMLayoutById(int id, HashMap<Integer, FoodItem> items) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		int maxX = -1;
-		int maxY = -1;
-		LinkedList<Pair<Row,Pair<Integer,Integer>>> raw = getRowsByVMLayoutId(id);
-
-		for (Pair<Row,Pair<Integer,Integer>> entry : raw)
+		try
 		{
-			maxX = Math.max(maxX, entry.second.first);
-			maxY = Math.max(maxY, entry.second.second);
-		}
+			int maxX = -1;
+			int maxY = -1;
+			ArrayList<Pair<Row,Slot>> raw = getRowsByVMLayoutId(id, items);
 
-		if (maxX == -1 || maxY == -1)
-			return null;
+			for (Pair<Row,Slot> entry : raw)
+			{
+				maxX = Math.max(maxX, entry.second.getX());
+				maxY = Math.max(maxY, entry.second.getY());
+			}
 
-		Row[][] rows = new Row[maxY+1][maxX+1];
-		for (Pair<Row,Pair<Integer,Integer>> entry : raw)
-			rows[entry.second.second][entry.second.first] = entry.first;
+			if (maxX == -1 || maxY == -1)
+				return null;
 
-		Statement moreInfo = db.createStatement();
-		ResultSet metaData = moreInfo.executeQuery(String.format("SELECT depth, nextVisit FROM VMLayout WHERE layoutId=%d", id));
-		int depth = metaData.getInt("depth");
-		long nextVisitInt = metaData.getLong("nextVisit");
-		GregorianCalendar nextVisit = null;
-		if (!metaData.wasNull())
+			Row[][] rows = new Row[maxX+1][maxY+1];
+			for (Pair<Row,Slot> entry : raw)
+				rows[entry.second.getX()][entry.second.getY()] = entry.first;
+
+			PreparedStatement moreInfo = pool.prepare(db, "SELECT depth, nextVisit FROM VMLayout WHERE layoutId=?");
+			moreInfo.setInt(1, id);
+			ResultSet metaData = moreInfo.executeQuery();
+			int depth = metaData.getInt("depth");
+			Long nextVisit = metaData.getLong("nextVisit");
+			if (metaData.wasNull())
+				nextVisit = null;
+			metaData.close();
+
+			VMLayout layout = new VMLayout(rows, depth);
+			layout.setNextVisitMillis(nextVisit);
+			layout.setId(id);
+			layout.markClean();
+			return layout;
+		}
+		finally
 		{
-			nextVisit = new GregorianCalendar();
-			nextVisit.setTimeInMillis(nextVisitInt);
+			closeConnection();
 		}
-		metaData.close();
-		moreInfo.close();
-
-		VMLayout layout = new VMLayout(rows, depth);
-		layout.setNextVisit(nextVisit);
-		layout.setId(id);
-		closeConnection();
-		return layout;
 	}
 
 	/**
 	 * Updates the VMLayout and its rows if it exists in the database. If it does not exist
-	 * then it and its rows are created.
+	 * then it and its rows are created. Only the parts that have changed since the
+	 * layout was last stored or fetched are written: the layout's own fields, each
+	 * row, and the arrangement of rows are considered separately. Nothing is marked
+	 * clean here, since the caller's transaction might yet be rolled back.
 	 * @param layout The VMLayout to update/create.
+	 * @param written The rows written so far in the caller's transaction,
+	 * which this adds to. Rows already in it aren't written again.
+	 * @throws ConflictException if a row has been changed by someone else
+	 * since it was fetched
 	 **/
-	private void updateOrCreateVMLayout(VMLayout layout) throws SQLException, BadStateException, BadArgumentException
+	private void updateOrCreateVMLayout(VMLayout layout, Set<ModelBase> written) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		if (layout.isTempId())
-		{
-			Statement insertStmt = db.createStatement();
-			String time = layout.getNextVisit() == null ? "NULL" : layout.getNextVisit().getTimeInMillis() + "";
-			String query = String.format("INSERT INTO VMLayout(nextVisit, depth) VALUES(%s, %d)", time, layout.getDepth());
-			insertStmt.executeUpdate(query);
-			ResultSet keys = insertStmt.getGeneratedKeys();
-			keys.next();
-			int id = keys.getInt(1);
-			layout.setId(id);
-			keys.close();
-			insertStmt.close();
-		}
-		else
-		{
-			Statement updateStmt = db.createStatement();
-			String time = layout.getNextVisit() == null ? "NULL" : layout.getNextVisit().getTimeInMillis() + "";
-			String query = String.format("UPDATE VMLayout SET nextVisit=%s, depth=%d WHERE layoutId=%d", time, layout.getDepth(), layout.getId());
-			updateStmt.executeUpdate(query);
-			updateStmt.close();
-		}
-
-		Statement delStatement = db.createStatement();
-		delStatement.executeUpdate("DELETE FROM VMLayoutVMRowLink WHERE layoutId=" + layout.getId());
-		delStatement.close();
-			
-		Row[][] grid = layout.getRows();
-		PreparedStatement rowUpdateStatements = db.prepareStatement("UPDATE VMRow SET productId=?, expirationDate=?, remainingQuant=? WHERE vmRowId=?");
-		PreparedStatement rowLinkStatements = db.prepareStatement("INSERT INTO VMLayoutVMRowLink(layoutId, vmRowId, rowX, rowY) VALUES(?, ?, ?, ?)");
-		db.setAutoCommit(false);
-		for (int y=0;y<grid.length;++y)
+		try
 		{
-			for (int x=0;x<grid[y].length;++x)
+			boolean ownTransaction = beginTransaction(db);
+			boolean done = false;
+			try
 			{
-				Row row = grid[y][x];
-				updateOrCreateRow(row, x, y, layout.getId(), rowUpdateStatements, rowLinkStatements);
+				boolean relink = layout.isTempId() || layout.isArrangementDirty();
+				if (layout.isTempId())
+				{
+					PreparedStatement insertStmt = pool.prepare(db, "INSERT INTO VMLayout(nextVisit, depth) VALUES(?, ?)");
+					if (layout.getNextVisitMillis() == null)
+						insertStmt.setNull(1, java.sql.Types.INTEGER);
+					else
+						insertStmt.setLong(1, layout.getNextVisitMillis());
+					insertStmt.setInt(2, layout.getDepth());
+					insertStmt.executeUpdate();
+					ResultSet keys = insertStmt.getGeneratedKeys();
+					keys.next();
+					int id = keys.getInt(1);
+					layout.setId(id);
+					keys.close();
+				}
+				else if (layout.isDirty())
+				{
+					PreparedStatement updateStmt = pool.prepare(db, "UPDATE VMLayout SET nextVisit=?, depth=? WHERE layoutId=?");
+					if (layout.getNextVisitMillis() == null)
+						updateStmt.setNull(1, java.sql.Types.INTEGER);
+					else
+						updateStmt.setLong(1, layout.getNextVisitMillis());
+					updateStmt.setInt(2, layout.getDepth());
+					updateStmt.setInt(3, layout.getId());
+					updateStmt.executeUpdate();
+				}
+
+				if (relink)
+				{
+					PreparedStatement delStatement = pool.prepare(db, "DELETE FROM VMLayoutVMRowLink WHERE layoutId=?");
+					delStatement.setInt(1, layout.getId());
+					delStatement.executeUpdate();
+				}
+				
+				Row[][] grid = layout.getRows();
+				PreparedStatement rowUpdateStatements = pool.prepare(db, "UPDATE VMRow SET productId=?, expirationDate=?, remainingQuant=?, version=? WHERE vmRowId=? AND version=?");
+				PreparedStatement rowLinkStatements = pool.prepare(db, "INSERT INTO VMLayoutVMRowLink(layoutId, vmRowId, rowX, rowY) VALUES(?, ?, ?, ?)");
+				for (int y=0;y<grid.length;++y)
+				{
+					for (int x=0;x<grid[y].length;++x)
+					{
+						Row row = grid[y][x];
+						updateOrCreateRow(row, x, y, layout.getId(), relink, written, rowUpdateStatements, rowLinkStatements);
+					}
+				}
+				for (int updated : rowUpdateStatements.executeBatch())
+					if (updated == 0)
+						throw new ConflictException("A row has been changed by someone else since it was fetched");
+				rowLinkStatements.executeBatch();
+				done = true;
+			}
+			finally
+			{
+				endTransaction(db, ownTransaction, done);
 			}
 		}
-		if (!db.getAutoCommit())
+		finally
 		{
-			db.commit();
-			db.setAutoCommit(true);
+			closeConnection();
 		}
-		rowUpdateStatements.executeBatch();
-		rowLinkStatements.executeBatch();
-		rowUpdateStatements.close();
-		rowLinkStatements.close();
-		closeConnection();
 	}
 
 	/**
 	 * Gets the rows associated with the given layout id
 	 * @param layoutId The id of the VMLayout
-	 * @return A LinkedList of pairs of rows and pairs of integers. The rows
-	 * are the rows (duh) and the pairs of integers are the x and y coordinates
-	 * of the row in its parent VMLayout
+	 * @param items Items already built during the current query, by id. The
+	 * rows' products are joined in rather than fetched one at a time, and are
+	 * taken from or added to this map.
+	 * @return An ArrayList of pairs of rows and slots. The rows are the rows
+	 * (duh) and the slots are their positions in the parent VMLayout's
+	 * getRows(). Note that the stored rowY is the major coordinate.
 	 **/
-	private LinkedList<Pair<Row,Pair<Integer,Integer>>> getRowsByVMLayoutId(int layoutId) throws SQLException, BadStateException, BadArgumentException
+	private ArrayList<Pair<Row,Slot>> getRowsByVMLayoutId(int layoutId, HashMap<Integer, FoodItem> items) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		LinkedList<Pair<Row,Pair<Integer,Integer>>> returnSet = new LinkedList<Pair<Row,Pair<Integer,Integer>>>();
-		Statement rowStmt = db.createStatement();
-		ResultSet rowResults = rowStmt.executeQuery("SELECT VMRow.vmRowId, productId, expirationDate, remainingQuant, rowX, rowY FROM VMLayoutVMRowLink LEFT JOIN VMRow ON VMRow.vmRowId=VMLayoutVMRowLink.vmRowId WHERE layoutId=" + layoutId);
-
-		while (rowResults.next())
+		try
 		{
-			int productId = rowResults.getInt(2);
-			long dateInt = rowResults.getLong(3);
-			int rowX = rowResults.getInt(5);
-			int rowY = rowResults.getInt(6);
+			ArrayList<Pair<Row,Slot>> returnSet = new ArrayList<Pair<Row,Slot>>();
+			PreparedStatement rowStmt = pool.prepare(db, "SELECT VMRow.vmRowId, productId, expirationDate, remainingQuant, rowX, rowY, itemId, name, price, freshLength, active, VMRow.version FROM VMLayoutVMRowLink LEFT JOIN VMRow ON VMRow.vmRowId=VMLayoutVMRowLink.vmRowId LEFT JOIN Item ON Item.itemId=VMRow.productId WHERE layoutId=?");
+			rowStmt.setInt(1, layoutId);
+			ResultSet rowResults = rowStmt.executeQuery();
 
-			FoodItem item = getFoodItemById(productId);
-			
-			GregorianCalendar date = new GregorianCalendar();
-			date.setTimeInMillis(dateInt);
-
-			Row returnValue = null;
-			int rowId = rowResults.getInt(4);
-			if (!rowResults.wasNull())
+			while (rowResults.next())
 			{
-				returnValue = new Row(item, rowResults.getInt(4), date);
-				returnValue.setId(rowResults.getInt(1));
+				long dateInt = rowResults.getLong(3);
+				int rowX = rowResults.getInt(5);
+				int rowY = rowResults.getInt(6);
+
+				FoodItem item = readFoodItem(rowResults, 7, items);
+
+				Row returnValue = null;
+				int rowId = rowResults.getInt(4);
+				if (!rowResults.wasNull())
+				{
+					returnValue = new Row(item, rowResults.getInt(4), dateInt);
+					returnValue.setId(rowResults.getInt(1));
+					returnValue.setVersion(rowResults.getInt(12));
+				}
+
+				returnSet.add(new Pair<Row, Slot>(returnValue, Slot.of(rowY, rowX)));
 			}
-
-			returnSet.add(new Pair<Row, Pair<Integer, Integer>>(returnValue, new Pair<Integer, Integer>(rowX, rowY)));
+			rowResults.close();
+			return returnSet;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		rowResults.close();
-		rowStmt.close();
-		closeConnection();
-		return returnSet;
 	}
 
 	/**
-	 * Updates a row if it exists in the datbase (determined by id) or creates it
-	 * if it does not exist. Also creates a link between the row and the parent
-	 * layout.
+	 * Updates a row if it exists in the datbase (determined by id) and has
+	 * changed, or creates it if it does not exist. Also creates a link between
+	 * the row and the parent layout if asked to. The row is written over the
+	 * revision it was fetched as, and its version is left for the caller to
+	 * advance once the transaction has committed.
 	 * @param row The row to update/create
 	 * @param x The x value of the row in the grid of the parent layout
 	 * @param y The y value of the row in the grid of the parent layout
 	 * @param parentLayoutId The id of the parent layout
+	 * @param link Whether the parent layout's links have been cleared and need
+	 * to be recreated
+	 * @param written The rows written so far in the caller's transaction,
+	 * which this adds to. A row already in it isn't written again.
 	 * @param rowUpdateStatements The prepared statement to put the batch update statements in
 	 * @param rowLinkStatements The prepare statement to put the batch row layout link statements in
 	 **/
-	private void updateOrCreateRow(Row row, int x, int y, int parentLayoutId, PreparedStatement rowUpdateStatements, PreparedStatement rowLinkStatements) throws SQLException, BadStateException, BadArgumentException
+	private void updateOrCreateRow(Row row, int x, int y, int parentLayoutId, boolean link, Set<ModelBase> written, PreparedStatement rowUpdateStatements, PreparedStatement rowLinkStatements) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		if (row != null)
+		try
 		{
-			if(!isFoodItemValid(row.getProduct())) {
-				throw new BadArgumentException("FoodItem in Row is not in database, but it must be before the Row can be added");
-			}
-
-			if (row.isTempId())
+			if (row != null && row.isDirty() && written.add(row))
 			{
-				Statement rowStmt = db.createStatement();
-				String rowQuery = String.format("INSERT INTO VMRow(productId, expirationDate, remainingQuant) VALUES(%d, %d, %d)", row.getProduct().getId(), row.getExpirationDate().getTimeInMillis(), row.getRemainingQuantity());
-				rowStmt.executeUpdate(rowQuery);
-				db.commit();
-				ResultSet rowKeys = rowStmt.getGeneratedKeys();
-				rowKeys.next();
-				row.setId(rowKeys.getInt(1));
-				rowKeys.close();
-				rowStmt.close();
+				if(!isFoodItemValid(row.getProduct())) {
+					throw new BadArgumentException("FoodItem in Row is not in database, but it must be before the Row can be added");
+				}
+
+				if (row.isTempId())
+				{
+					PreparedStatement rowStmt = pool.prepare(db, "INSERT INTO VMRow(productId, expirationDate, remainingQuant, version) VALUES(?, ?, ?, ?)");
+					rowStmt.setInt(1, row.getProduct().getId());
+					rowStmt.setLong(2, row.getExpirationMillis());
+					rowStmt.setInt(3, row.getRemainingQuantity());
+					rowStmt.setInt(4, row.getVersion()+1);
+					rowStmt.executeUpdate();
+					ResultSet rowKeys = rowStmt.getGeneratedKeys();
+					rowKeys.next();
+					row.setId(rowKeys.getInt(1));
+					rowKeys.close();
+				}
+				else
+				{
+					rowUpdateStatements.setInt(1, row.getProduct().getId());
+					rowUpdateStatements.setLong(2, row.getExpirationMillis());
+					rowUpdateStatements.setInt(3, row.getRemainingQuantity());
+					rowUpdateStatements.setInt(4, row.getVersion()+1);
+					rowUpdateStatements.setInt(5, row.getId());
+					rowUpdateStatements.setInt(6, row.getVersion());
+					rowUpdateStatements.addBatch();
+				}
 			}
-			else
+			if (link)
 			{
-
-				rowUpdateStatements.setInt(1, row.getProduct().getId());
-				rowUpdateStatements.setLong(2, row.getExpirationDate().getTimeInMillis());
-				rowUpdateStatements.setInt(3, row.getRemainingQuantity());
-				rowUpdateStatements.setInt(4, row.getId());
-				rowUpdateStatements.addBatch();
+				rowLinkStatements.setInt(1, parentLayoutId);
+				if (row == null)
+					rowLinkStatements.setNull(2, java.sql.Types.INTEGER);
+				else
+					rowLinkStatements.setInt(2, row.getId());
+				rowLinkStatements.setInt(3, x);
+				rowLinkStatements.setInt(4, y);
+				rowLinkStatements.addBatch();
 			}
 		}
-		Statement qLink = db.createStatement();
-		String rowIdStr = row == null ? "NULL" : row.getId()+"";
-		ResultSet linkSet = qLink.executeQuery("SELECT vmRowId FROM VMLayoutVMRowLink WHERE layoutId=" + parentLayoutId + " AND vmRowId=" + rowIdStr);
-		if (!linkSet.next())
+		finally
 		{
-			rowLinkStatements.setInt(1, parentLayoutId);
-			if (row == null)
-				rowLinkStatements.setNull(2, java.sql.Types.INTEGER);
-			else
-				rowLinkStatements.setInt(2, row.getId());
-			rowLinkStatements.setInt(3, x);
-			rowLinkStatements.setInt(4, y);
-			rowLinkStatements.addBatch();
+			closeConnection();
 		}
-		linkSet.close();
-		qLink.close();
-		closeConnection();
 	}
 
 	/**
@@ -557,26 +1078,37 @@ public class DatabaseLayer
 	 **/
 	private Location getLocationById(int id) throws SQLException, BadStateException, BadArgumentException
 	{
+		Location cached = locationCache.get(id);
+		if (cached != null)
+			return copyLocation(cached);
+
 		Connection db = connect();
-		Location returnValue = null;
-		Statement locStmt = db.createStatement();
-		ResultSet locSet = locStmt.executeQuery("SELECT locationId, zipCode, state FROM Location WHERE locationId=" + id);
-		if (locSet.next())
+		try
+		{
+			Location returnValue = null;
+			PreparedStatement locStmt = pool.prepare(db, "SELECT locationId, zipCode, state FROM Location WHERE locationId=?");
+			locStmt.setInt(1, id);
+			ResultSet locSet = locStmt.executeQuery();
+			if (locSet.next())
+			{
+				PreparedStatement busStmt = pool.prepare(db, "SELECT name FROM NearbyBusiness WHERE locationId=?");
+				busStmt.setInt(1, id);
+				ResultSet busSet = busStmt.executeQuery();
+				LinkedList<String> busList = new LinkedList<String>();
+				while (busSet.next())
+					busList.add(busSet.getString(1));
+				returnValue = new Location(locSet.getInt(2), locSet.getString(3), busList.toArray(new String[0]));
+				returnValue.setId(locSet.getInt(1));
+				locationCache.put(id, copyLocation(returnValue));
+				busSet.close();
+			}
+			locSet.close();
+			return returnValue;
+		}
+		finally
 		{
-			Statement busStmt = db.createStatement();
-			ResultSet busSet = busStmt.executeQuery("SELECT name FROM NearbyBusiness WHERE locationId=" + id);
-			LinkedList<String> busList = new LinkedList<String>();
-			while (busSet.next())
-				busList.add(busSet.getString(1));
-			returnValue = new Location(locSet.getInt(2), locSet.getString(3), busList.toArray(new String[0]));
-			returnValue.setId(locSet.getInt(1));
-			busSet.close();
-			busStmt.close();
+			closeConnection();
 		}
-		locSet.close();
-		locStmt.close();
-		closeConnection();
-		return returnValue;
 	}
 
 	/**
@@ -587,83 +1119,94 @@ public class DatabaseLayer
 	public ArrayList<Location> getLocationsAll() throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<Location> returnSet = new ArrayList<Location>();
-		Statement locStmt = db.createStatement();
-		ResultSet locSet = locStmt.executeQuery("SELECT locationId, zipCode, state FROM Location");
-		while (locSet.next())
-		{
-			int id = locSet.getInt(1);
-			Statement busStmt = db.createStatement();
-			ResultSet busSet = busStmt.executeQuery("SELECT name FROM NearbyBusiness WHERE locationId=" + id);
-			LinkedList<String> busList = new LinkedList<String>();
-			while (busSet.next())
-				busList.add(busSet.getString(1));
-			Location returnValue = new Location(locSet.getInt(2), locSet.getString(3), busList.toArray(new String[0]));
-			returnValue.setId(locSet.getInt(1));
-			returnSet.add(returnValue);
-			busSet.close();
-			busStmt.close();
-		}
-		locSet.close();
-		locStmt.close();
-		closeConnection();
-		return returnSet;
-	}
-
-	/**
-	 * Updates the given location if it exists in the database. If it does not
-	 * exist then it is created.
-	 * @param location The location to create/update.
-	 * @throws SQLException in case of a database error.
+		try
+		{
+			ArrayList<Location> returnSet = new ArrayList<Location>();
+			PreparedStatement locStmt = pool.prepare(db, "SELECT locationId, zipCode, state FROM Location");
+			ResultSet locSet = locStmt.executeQuery();
+			while (locSet.next())
+			{
+				int id = locSet.getInt(1);
+				PreparedStatement busStmt = pool.prepare(db, "SELECT name FROM NearbyBusiness WHERE locationId=?");
+				busStmt.setInt(1, id);
+				ResultSet busSet = busStmt.executeQuery();
+				LinkedList<String> busList = new LinkedList<String>();
+				while (busSet.next())
+					busList.add(busSet.getString(1));
+				Location returnValue = new Location(locSet.getInt(2), locSet.getString(3), busList.toArray(new String[0]));
+				returnValue.setId(locSet.getInt(1));
+				returnSet.add(returnValue);
+				busSet.close();
+			}
+			locSet.close();
+			return returnSet;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Updates the given location if it exists in the database. If it does not
+	 * exist then it is created. The location's fields and its list of nearby
+	 * businesses are only written if they have changed.
+	 * @param location The location to create/update.
+	 * @throws SQLException in case of a database error.
 	 **/
 	private void updateOrCreateLocation(Location location) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		if (location.isTempId())
+		try
 		{
-			PreparedStatement insertStmt = db.prepareStatement("INSERT INTO Location(zipCode, state) VALUES(?, ?)");
-			insertStmt.setInt(1, location.getZipCode());
-			insertStmt.setString(2, location.getState());
+			boolean businessesChanged = location.areBusinessesDirty();
+			if (location.isTempId())
+			{
+				PreparedStatement insertStmt = pool.prepare(db, "INSERT INTO Location(zipCode, state) VALUES(?, ?)");
+				insertStmt.setInt(1, location.getZipCode());
+				insertStmt.setString(2, location.getState());
 	 		
-			insertStmt.executeUpdate();
-			ResultSet keys = insertStmt.getGeneratedKeys();
-			keys.next();
-			int id = keys.getInt(1);
-			location.setId(id);
-			insertStmt.close();
-
-			for (String business : location.getNearbyBusinesses())
+				insertStmt.executeUpdate();
+				ResultSet keys = insertStmt.getGeneratedKeys();
+				keys.next();
+				int id = keys.getInt(1);
+				location.setId(id);
+				keys.close();
+			}
+			else
 			{
-				PreparedStatement busStmt = db.prepareStatement("INSERT INTO NearbyBusiness(locationId, name) VALUES(?, ?)");
-				busStmt.setInt(1, location.getId());
-				busStmt.setString(2, business);
-				busStmt.executeUpdate();
-				busStmt.close();
+				if (location.isDirty())
+				{
+					PreparedStatement updateStmt = pool.prepare(db, "UPDATE Location SET zipCode=?, state=? WHERE locationId=?");
+					updateStmt.setInt(1, location.getZipCode());
+					updateStmt.setString(2, location.getState());
+					updateStmt.setInt(3, location.getId());
+					updateStmt.executeUpdate();
+				}
+
+				if (businessesChanged)
+				{
+					PreparedStatement delStatement = pool.prepare(db, "DELETE FROM NearbyBusiness WHERE locationId=?");
+					delStatement.setInt(1, location.getId());
+					delStatement.executeUpdate();
+				}
 			}
-		}
-		else
-		{
-			PreparedStatement updateStmt = db.prepareStatement("UPDATE Location SET zipCode=?, state=? WHERE locationId=?");
-			updateStmt.setInt(1, location.getZipCode());
-			updateStmt.setString(2, location.getState());
-			updateStmt.setInt(3, location.getId());
-			updateStmt.executeUpdate();
-			updateStmt.close();
 
-			Statement delStatement = db.createStatement();
-			delStatement.executeUpdate("DELETE FROM NearbyBusiness WHERE locationId=" + location.getId());
-			delStatement.close();
-
-			for (String business : location.getNearbyBusinesses())
+			if (businessesChanged)
 			{
-				PreparedStatement busStmt = db.prepareStatement("INSERT INTO NearbyBusiness(locationId, name) VALUES(?, ?)");
-				busStmt.setInt(1, location.getId());
-				busStmt.setString(2, business);
-				busStmt.executeUpdate();
-				busStmt.close();
+				for (String business : location.getNearbyBusinesses())
+				{
+					PreparedStatement busStmt = pool.prepare(db, "INSERT INTO NearbyBusiness(locationId, name) VALUES(?, ?)");
+					busStmt.setInt(1, location.getId());
+					busStmt.setString(2, business);
+					busStmt.executeUpdate();
+				}
 			}
 		}
-		closeConnection();
+		finally
+		{
+			closeConnection();
+		}
 	}
 
 	/**
@@ -675,29 +1218,55 @@ public class DatabaseLayer
 	 **/
 	public VendingMachine getVendingMachineById(int id) throws SQLException, BadStateException, BadArgumentException
 	{
+		return getVendingMachineById(id, new HashMap<Integer, FoodItem>());
+	}
+
+	/**
+	 * Fetches the vending machine with the given id, sharing items with the
+	 * rest of the current query.
+	 * @param id The id of the vending machine to fetch.
+	 * @param items Items already built during the current query, by id.
+	 * @return The vending machine with the given id or null if the vending
+	 * machine does not exist.
+	 * @throws SQLException in case of a database error
+	 **/
+	private VendingMachine getVendingMachineById(int id, HashMap<Integer, FoodItem> items) throws SQLException, BadStateException, BadArgumentException
+	{
+		VendingMachine cached = machineCache.get(id);
+		if (cached != null)
+			return copyVendingMachine(cached, items);
+
 		Connection db = connect();
-		VendingMachine returnValue = null;
-		Statement vmStmt = db.createStatement();
-		ResultSet vmResults = vmStmt.executeQuery("SELECT machineId, active, currentLayoutId, nextLayoutId, locationId, stockingInterval FROM VendingMachine WHERE machineId=" + id);
-		if (vmResults.next())
-		{
-			id = vmResults.getInt(1);
-			boolean active = !(vmResults.getInt(2) == 0);
-			int interval = vmResults.getInt(6);
-			int curId = vmResults.getInt(3);
-			int nextId = vmResults.getInt(4);
-			int locationId = vmResults.getInt(5);
+		try
+		{
+			VendingMachine returnValue = null;
+			PreparedStatement vmStmt = pool.prepare(db, "SELECT machineId, active, currentLayoutId, nextLayoutId, locationId, stockingInterval, VendingMachine.version FROM VendingMachine WHERE machineId=?");
+			vmStmt.setInt(1, id);
+			ResultSet vmResults = vmStmt.executeQuery();
+			if (vmResults.next())
+			{
+				id = vmResults.getInt(1);
+				boolean active = !(vmResults.getInt(2) == 0);
+				int interval = vmResults.getInt(6);
+				int curId = vmResults.getInt(3);
+				int nextId = vmResults.getInt(4);
+				int locationId = vmResults.getInt(5);
 			
-			VMLayout cur = getVMLayoutById(curId);
-			VMLayout next = getVMLayoutById(nextId);
-			Location loc = getLocationById(locationId);
-			returnValue = new VendingMachine(loc, interval, cur, next, active);
-			returnValue.setId(id);
+				VMLayout cur = getVMLayoutById(curId, items);
+				VMLayout next = getVMLayoutById(nextId, items);
+				Location loc = getLocationById(locationId);
+				returnValue = new VendingMachine(loc, interval, cur, next, active);
+				returnValue.setId(id);
+				returnValue.setVersion(vmResults.getInt(7));
+				machineCache.put(id, copyVendingMachine(returnValue, new HashMap<Integer, FoodItem>()));
+			}
+			vmResults.close();
+			return returnValue;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		vmResults.close();
-		vmStmt.close();
-		closeConnection();
-		return returnValue;
 	}
 
 	/**
@@ -708,29 +1277,60 @@ public class DatabaseLayer
 	public ArrayList<VendingMachine> getVendingMachinesAll() throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<VendingMachine> returnSet = new ArrayList<VendingMachine>();
-		Statement vmStmt = db.createStatement();
-		ResultSet vmResults = vmStmt.executeQuery("SELECT machineId, active, currentLayoutId, nextLayoutId, locationId, stockingInterval FROM VendingMachine");
-		while (vmResults.next())
-		{
-			int id = vmResults.getInt(1);
-			boolean active = !(vmResults.getInt(2) == 0);
-			int interval = vmResults.getInt(6);
-			int curId = vmResults.getInt(3);
-			int nextId = vmResults.getInt(4);
-			int locationId = vmResults.getInt(5);
+		try
+		{
+			ArrayList<VendingMachine> returnSet = new ArrayList<VendingMachine>();
+			HashMap<Integer, FoodItem> items = new HashMap<Integer, FoodItem>();
+			PreparedStatement vmStmt = pool.prepare(db, "SELECT machineId, active, currentLayoutId, nextLayoutId, locationId, stockingInterval, VendingMachine.version FROM VendingMachine");
+			ResultSet vmResults = vmStmt.executeQuery();
+			while (vmResults.next())
+			{
+				int id = vmResults.getInt(1);
+				boolean active = !(vmResults.getInt(2) == 0);
+				int interval = vmResults.getInt(6);
+				int curId = vmResults.getInt(3);
+				int nextId = vmResults.getInt(4);
+				int locationId = vmResults.getInt(5);
 			
-			VMLayout cur = getVMLayoutById(curId);
-			VMLayout next = getVMLayoutById(nextId);
-			Location loc = getLocationById(locationId);
-			VendingMachine machine = new VendingMachine(loc, interval, cur, next, active);
-			machine.setId(id);
-			returnSet.add(machine);
+				VMLayout cur = getVMLayoutById(curId, items);
+				VMLayout next = getVMLayoutById(nextId, items);
+				Location loc = getLocationById(locationId);
+				VendingMachine machine = new VendingMachine(loc, interval, cur, next, active);
+				machine.setId(id);
+				machine.setVersion(vmResults.getInt(7));
+				returnSet.add(machine);
+			}
+			vmResults.close();
+			return returnSet;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Fetches where each vending machine is, without building the machines.
+	 * @return The state and zip code of each vending machine, by machine id.
+	 * @throws SQLException in case of a database error
+	 **/
+	public HashMap<Integer, Pair<String, Integer>> getVendingMachinePlaces() throws SQLException
+	{
+		Connection db = connect();
+		try
+		{
+			HashMap<Integer, Pair<String, Integer>> places = new HashMap<Integer, Pair<String, Integer>>();
+			PreparedStatement stmt = pool.prepare(db, "SELECT machineId, state, zipCode FROM VendingMachine JOIN Location ON Location.locationId = VendingMachine.locationId");
+			ResultSet results = stmt.executeQuery();
+			while (results.next())
+				places.put(results.getInt(1), new Pair<String, Integer>(results.getString(2), results.getInt(3)));
+			results.close();
+			return places;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		vmResults.close();
-		vmStmt.close();
-		closeConnection();
-		return returnSet;
 	}
 
 	/**
@@ -742,29 +1342,37 @@ public class DatabaseLayer
 	public ArrayList<VendingMachine> getVendingMachinesByZip(int zip) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<VendingMachine> returnSet = new ArrayList<VendingMachine>();
-		Statement vmStmt = db.createStatement();
-		ResultSet vmResults = vmStmt.executeQuery("SELECT machineId, active, currentLayoutId, nextLayoutId, VendingMachine.locationId, stockingInterval FROM VendingMachine JOIN Location ON Location.locationId = VendingMachine.locationId WHERE Location.zipCode=" + zip);
-		while (vmResults.next())
-		{
-			int id = vmResults.getInt(1);
-			boolean active = !(vmResults.getInt(2) == 0);
-			int curId = vmResults.getInt(3);
-			int nextId = vmResults.getInt(4);
-			int locationId = vmResults.getInt(5);
-			int interval = vmResults.getInt(6);
+		try
+		{
+			ArrayList<VendingMachine> returnSet = new ArrayList<VendingMachine>();
+			HashMap<Integer, FoodItem> items = new HashMap<Integer, FoodItem>();
+			PreparedStatement vmStmt = pool.prepare(db, "SELECT machineId, active, currentLayoutId, nextLayoutId, VendingMachine.locationId, stockingInterval, VendingMachine.version FROM VendingMachine JOIN Location ON Location.locationId = VendingMachine.locationId WHERE Location.zipCode=?");
+			vmStmt.setInt(1, zip);
+			ResultSet vmResults = vmStmt.executeQuery();
+			while (vmResults.next())
+			{
+				int id = vmResults.getInt(1);
+				boolean active = !(vmResults.getInt(2) == 0);
+				int curId = vmResults.getInt(3);
+				int nextId = vmResults.getInt(4);
+				int locationId = vmResults.getInt(5);
+				int interval = vmResults.getInt(6);
 			
-			VMLayout cur = getVMLayoutById(curId);
-			VMLayout next = getVMLayoutById(nextId);
-			Location loc = getLocationById(locationId);
-			VendingMachine machine = new VendingMachine(loc, interval, cur, next, active);
-			machine.setId(id);
-			returnSet.add(machine);
+				VMLayout cur = getVMLayoutById(curId, items);
+				VMLayout next = getVMLayoutById(nextId, items);
+				Location loc = getLocationById(locationId);
+				VendingMachine machine = new VendingMachine(loc, interval, cur, next, active);
+				machine.setId(id);
+				machine.setVersion(vmResults.getInt(7));
+				returnSet.add(machine);
+			}
+			vmResults.close();
+			return returnSet;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		vmResults.close();
-		vmStmt.close();
-		closeConnection();
-		return returnSet;
 	}
 
 	/**
@@ -776,30 +1384,37 @@ public class DatabaseLayer
 	public ArrayList<VendingMachine> getVendingMachinesByState(String state) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<VendingMachine> returnSet = new ArrayList<VendingMachine>();
-		PreparedStatement vmStmt = db.prepareStatement("SELECT machineId, active, currentLayoutId, nextLayoutId, VendingMachine.locationId, stockingInterval FROM VendingMachine JOIN Location ON Location.locationId = VendingMachine.locationId WHERE Location.state=?");
-		vmStmt.setString(1, state);
-		ResultSet vmResults = vmStmt.executeQuery();
-		while (vmResults.next())
-		{
-			int id = vmResults.getInt(1);
-			boolean active = !(vmResults.getInt(2) == 0);
-			int curId = vmResults.getInt(3);
-			int nextId = vmResults.getInt(4);
-			int locationId = vmResults.getInt(5);
-			int interval = vmResults.getInt(6);
+		try
+		{
+			ArrayList<VendingMachine> returnSet = new ArrayList<VendingMachine>();
+			HashMap<Integer, FoodItem> items = new HashMap<Integer, FoodItem>();
+			PreparedStatement vmStmt = pool.prepare(db, "SELECT machineId, active, currentLayoutId, nextLayoutId, VendingMachine.locationId, stockingInterval, VendingMachine.version FROM VendingMachine JOIN Location ON Location.locationId = VendingMachine.locationId WHERE Location.state=?");
+			vmStmt.setString(1, state);
+			ResultSet vmResults = vmStmt.executeQuery();
+			while (vmResults.next())
+			{
+				int id = vmResults.getInt(1);
+				boolean active = !(vmResults.getInt(2) == 0);
+				int curId = vmResults.getInt(3);
+				int nextId = vmResults.getInt(4);
+				int locationId = vmResults.getInt(5);
+				int interval = vmResults.getInt(6);
 			
-			VMLayout cur = getVMLayoutById(curId);
-			VMLayout next = getVMLayoutById(nextId);
-			Location loc = getLocationById(locationId);
-			VendingMachine machine = new VendingMachine(loc, interval, cur, next, active);
-			machine.setId(id);
-			returnSet.add(machine);
+				VMLayout cur = getVMLayoutById(curId, items);
+				VMLayout next = getVMLayoutById(nextId, items);
+				Location loc = getLocationById(locationId);
+				VendingMachine machine = new VendingMachine(loc, interval, cur, next, active);
+				machine.setId(id);
+				machine.setVersion(vmResults.getInt(7));
+				returnSet.add(machine);
+			}
+			vmResults.close();
+			return returnSet;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		vmResults.close();
-		vmStmt.close();
-		closeConnection();
-		return returnSet;
 	}
 
 	/**
@@ -807,36 +1422,235 @@ public class DatabaseLayer
 	 * by id) or creates it if it doesn't exist. If it creates a vending machine
 	 * then it will update the id with the auto incremented one. Will also
 	 * update/create the location, VMLayouts, and Rows that are associated with
-	 * the machine.
+	 * the machine, all in one database transaction. Only the parts that have
+	 * changed since they were last stored or fetched are written.
+	 * The machine's version covers everything it contains, so if any part has
+	 * changed, the machine is only written over the revision it was fetched
+	 * as; so are its changed rows, which purchases also write.
 	 * @param vm The vending machine to update or create.
+	 * @throws ConflictException if the machine or one of its changed rows has
+	 * been changed by someone else since it was fetched, in which case
+	 * nothing is stored
+	 * @throws BadStateException if this database is an offline kiosk's
+	 * replica, where this can only be changed at the head office
 	 * @throws SQLException in case of a database error
 	 **/
 	public void updateOrCreateVendingMachine(VendingMachine vm) throws SQLException, BadStateException, BadArgumentException
 	{
+		if (!vm.isTempId())
+			machineCache.invalidate(vm.getId());
+		if (!vm.getLocation().isTempId())
+			locationCache.invalidate(vm.getLocation().getId());
+		boolean changed = hasChanges(vm);
+		Set<ModelBase> written = Collections.newSetFromMap(new IdentityHashMap<ModelBase, Boolean>());
 		Connection db = connect();
-		updateOrCreateVMLayout(vm.getCurrentLayout());
-		updateOrCreateVMLayout(vm.getNextLayout());
-		updateOrCreateLocation(vm.getLocation());
+		try
+		{
+			refuseIfReplica(db);
+			boolean ownTransaction = beginTransaction(db);
+			boolean done = false;
+			try
+			{
+				updateOrCreateVMLayout(vm.getCurrentLayout(), written);
+				updateOrCreateVMLayout(vm.getNextLayout(), written);
+				updateOrCreateLocation(vm.getLocation());
+
+				if (vm.isTempId())
+				{
+					PreparedStatement insertStmt = pool.prepare(db, "INSERT INTO VendingMachine(active, stockingInterval, currentLayoutId, nextLayoutId, locationId, version) VALUES(?, ?, ?, ?, ?, ?)");
+					insertStmt.setInt(1, vm.isActive() ? 1 : 0);
+					insertStmt.setInt(2, vm.getStockingInterval());
+					insertStmt.setInt(3, vm.getCurrentLayout().getId());
+					insertStmt.setInt(4, vm.getNextLayout().getId());
+					insertStmt.setInt(5, vm.getLocation().getId());
+					insertStmt.setInt(6, vm.getVersion()+1);
+					insertStmt.executeUpdate();
+					ResultSet keys = insertStmt.getGeneratedKeys();
+					keys.next();
+					int id = keys.getInt(1);
+					vm.setId(id);
+					keys.close();
+					written.add(vm);
+				}
+				else if (changed)
+				{
+					PreparedStatement updateStmt = pool.prepare(db, "UPDATE VendingMachine SET active=?, stockingInterval=?, currentLayoutId=?, nextLayoutId=?, locationId=?, version=? WHERE machineId=? AND version=?");
+					updateStmt.setInt(1, vm.isActive() ? 1 : 0);
+					updateStmt.setInt(2, vm.getStockingInterval());
+					updateStmt.setInt(3, vm.getCurrentLayout().getId());
+					updateStmt.setInt(4, vm.getNextLayout().getId());
+					updateStmt.setInt(5, vm.getLocation().getId());
+					updateStmt.setInt(6, vm.getVersion()+1);
+					updateStmt.setInt(7, vm.getId());
+					updateStmt.setInt(8, vm.getVersion());
+					if (updateStmt.executeUpdate() == 0)
+						throw new ConflictException("Vending machine has been changed by someone else since it was fetched");
+					written.add(vm);
+				}
+				done = true;
+			}
+			finally
+			{
+				endTransaction(db, ownTransaction, done);
+			}
+			if (ownTransaction)
+			{
+				for (ModelBase stored : written)
+					stored.setVersion(stored.getVersion()+1);
+				markClean(vm);
+			}
+			machineCache.invalidate(vm.getId()); //in case another thread cached it mid-update
+			locationCache.invalidate(vm.getLocation().getId());
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
 
-		if (vm.isTempId())
+	/**
+	 * Updates a stored vending machine, redoing the change to a freshly
+	 * fetched copy if it loses a race with another writer, up to
+	 * CONFLICT_RETRIES times.
+	 * @param vm The vending machine to change, which must have been stored.
+	 * @param change The change to make.
+	 * @return The copy that was stored, which is vm unless the change had to
+	 * be redone.
+	 * @throws ConflictException if the change kept losing
+	 * @throws SQLException in case of a database error
+	 **/
+	public VendingMachine updateVendingMachine(VendingMachine vm, Change<VendingMachine> change) throws SQLException, BadStateException, BadArgumentException
+	{
+		int id = vm.getId();
+		for (int attempt = 0; ; ++attempt)
 		{
-			Statement insertStmt = db.createStatement();
-			String query = String.format("INSERT INTO VendingMachine(active, stockingInterval, currentLayoutId, nextLayoutId, locationId) VALUES(%d, %d, %d, %d, %d)", vm.isActive() ? 1 : 0, vm.getStockingInterval(), vm.getCurrentLayout().getId(), vm.getNextLayout().getId(), vm.getLocation().getId());
-			insertStmt.executeUpdate(query);
-			ResultSet keys = insertStmt.getGeneratedKeys();
-			keys.next();
-			int id = keys.getInt(1);
-			vm.setId(id);
-			insertStmt.close();
+			change.applyTo(vm);
+			try
+			{
+				updateOrCreateVendingMachine(vm);
+				return vm;
+			}
+			catch (ConflictException lost)
+			{
+				if (attempt == CONFLICT_RETRIES)
+					throw lost;
+				ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, lost);
+				vm = getVendingMachineById(id);
+				if (vm == null)
+					throw new BadStateException("Vending machine has been deleted by someone else");
+			}
 		}
-		else
+	}
+
+	/**
+	 * Determines whether anything a vending machine contains needs to be
+	 * written to the database.
+	 * @param vm The vending machine.
+	 * @return Whether it, its location, its layouts, or their rows have
+	 * changed since they were last stored or fetched.
+	 **/
+	private boolean hasChanges(VendingMachine vm)
+	{
+		if (vm.isDirty() || vm.getLocation().isDirty())
+			return true;
+		VMLayout[] layouts = {vm.getCurrentLayout(), vm.getNextLayout()};
+		for (VMLayout layout : layouts)
 		{
-			Statement updateStmt = db.createStatement();
-			String query = String.format("UPDATE VendingMachine SET active=%d, stockingInterval=%d, currentLayoutId=%d, nextLayoutId=%d, locationId=%d WHERE machineId=%d", vm.isActive() ? 1 : 0, vm.getStockingInterval(),vm.getCurrentLayout().getId(), vm.getNextLayout().getId(), vm.getLocation().getId(), vm.getId());
-			updateStmt.executeUpdate(query);
-			updateStmt.close();
+			if (layout.isDirty() || layout.isArrangementDirty())
+				return true;
+			for (Row[] line : layout.getRows())
+				for (Row row : line)
+					if (row != null && row.isDirty())
+						return true;
 		}
-		closeConnection();
+		return false;
+	}
+
+	/**
+	 * Records that a vending machine, its location, its layouts, and their
+	 * rows all match the database.
+	 * @param vm The vending machine that has just been stored.
+	 **/
+	private void markClean(VendingMachine vm)
+	{
+		vm.markClean();
+		vm.getLocation().markClean();
+		VMLayout[] layouts = {vm.getCurrentLayout(), vm.getNextLayout()};
+		for (VMLayout layout : layouts)
+		{
+			layout.markClean();
+			for (Row[] line : layout.getRows())
+				for (Row row : line)
+					if (row != null)
+						row.markClean();
+		}
+	}
+
+	/**
+	 * Makes a copy of a location that shares nothing mutable with the
+	 * original, for use by the entity cache.
+	 * @param location The location to copy.
+	 * @return The copy, with the same id.
+	 **/
+	private Location copyLocation(Location location) throws BadStateException, BadArgumentException
+	{
+		Location copy = new Location(location.getZipCode(), location.getState(), location.getNearbyBusinesses().clone());
+		copy.setId(location.getId());
+		return copy;
+	}
+
+	/**
+	 * Makes a copy of a vending machine that shares nothing mutable with the
+	 * original, for use by the entity cache. Unlike VMLayout's deep copy, the
+	 * layouts and rows keep their ids.
+	 * @param vm The vending machine to copy.
+	 * @param items Items already built during the current query, by id. The
+	 * copy's rows take their products from (or add copies to) this map.
+	 * @return The copy, with the same id.
+	 **/
+	private VendingMachine copyVendingMachine(VendingMachine vm, HashMap<Integer, FoodItem> items) throws BadStateException, BadArgumentException
+	{
+		VendingMachine copy = new VendingMachine(copyLocation(vm.getLocation()), vm.getStockingInterval(), copyVMLayout(vm.getCurrentLayout(), items), copyVMLayout(vm.getNextLayout(), items), vm.isActive());
+		copy.setId(vm.getId());
+		copy.setVersion(vm.getVersion());
+		return copy;
+	}
+
+	/**
+	 * Makes a copy of a stored VMLayout that shares nothing mutable with the
+	 * original, keeping its id and those of its rows.
+	 * @param layout The layout to copy.
+	 * @param items Items already built during the current query, by id.
+	 * @return The copy.
+	 **/
+	private VMLayout copyVMLayout(VMLayout layout, HashMap<Integer, FoodItem> items) throws BadStateException, BadArgumentException
+	{
+		Row[][] grid = layout.getRows();
+		Row[][] rows = new Row[grid.length][grid[0].length];
+		for (int y=0;y<grid.length;++y)
+		{
+			for (int x=0;x<grid[y].length;++x)
+			{
+				Row row = grid[y][x];
+				if (row == null)
+					continue;
+				FoodItem product = items.get(row.getProduct().getId());
+				if (product == null)
+				{
+					product = new FoodItem(row.getProduct());
+					items.put(product.getId(), product);
+				}
+				rows[y][x] = new Row(product, row.getRemainingQuantity(), row.getExpirationMillis());
+				rows[y][x].setId(row.getId());
+				rows[y][x].setVersion(row.getVersion());
+			}
+		}
+
+		VMLayout copy = new VMLayout(rows, layout.getDepth());
+		copy.setNextVisitMillis(layout.getNextVisitMillis());
+		copy.setId(layout.getId());
+		copy.markClean();
+		return copy;
 	}
 
 	/**
@@ -848,23 +1662,31 @@ public class DatabaseLayer
 	 **/
 	public Customer getCustomerById(int id) throws SQLException, BadStateException, BadArgumentException
 	{
-		Connection db = connect();
 		if(id==Customer.CASH_ID) //lock out cash customers specially, since they're not database-backed
 			return new Customer();
+		Customer cached = customerCache.get(id);
+		if (cached != null)
+			return new Customer(cached);
 		
-		Customer returnValue = null;
-		Statement stmt = db.createStatement();
-		String query = "SELECT customerId, money, name FROM Customer WHERE customerId=" + id;
-		ResultSet results = stmt.executeQuery(query);
-		if (results.next())
+		Connection db = connect();
+		try
+		{
+			Customer returnValue = null;
+			PreparedStatement stmt = pool.prepare(db, "SELECT customerId, money, name, version FROM Customer WHERE customerId=?");
+			stmt.setInt(1, id);
+			ResultSet results = stmt.executeQuery();
+			if (results.next())
+			{
+				returnValue = readCustomer(results, results.getInt(1), 2);
+				customerCache.put(id, new Customer(returnValue));
+			}
+			results.close();
+			return returnValue;
+		}
+		finally
 		{
-			returnValue = new Customer(results.getString(3), results.getInt(2));
-			returnValue.setId(results.getInt(1));
+			closeConnection();
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return returnValue;
 	}
 
 	/**
@@ -875,54 +1697,113 @@ public class DatabaseLayer
 	public ArrayList<Customer> getCustomersAll() throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<Customer> returnSet = new ArrayList<Customer>();
-		Statement stmt = db.createStatement();
-		String query = "SELECT customerId, money, name FROM Customer";
-		ResultSet results = stmt.executeQuery(query);
-		while (results.next())
+		try
 		{
-			Customer returnValue = new Customer(results.getString(3), results.getInt(2));
-			returnValue.setId(results.getInt(1));
-			returnSet.add(returnValue);
+			ArrayList<Customer> returnSet = new ArrayList<Customer>();
+			PreparedStatement stmt = pool.prepare(db, "SELECT customerId, money, name, version FROM Customer");
+			ResultSet results = stmt.executeQuery();
+			while (results.next())
+				returnSet.add(readCustomer(results, results.getInt(1), 2));
+			results.close();
+			return returnSet;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return returnSet;
 	}
 
 	/**
 	 * Updates the given customer if it exists (determined by id) or creates it
-	 * if it does not exist.
+	 * if it does not exist. An existing customer is only written over the
+	 * revision it was fetched as, since purchases change the stored balance.
 	 * @param customer The Customer to update/create.
+	 * @throws ConflictException if the customer has been changed by someone
+	 * else since it was fetched, in which case nothing is stored
+	 * @throws BadStateException if this database is an offline kiosk's
+	 * replica, where this can only be changed at the head office
 	 * @throws SQLException in case of a database error
 	 **/
 	public void updateOrCreateCustomer(Customer customer) throws SQLException, BadStateException, BadArgumentException
 	{
+		if (!customer.isDirty())
+			return;
 		Connection db = connect();
-		if (customer.isTempId())
+		try
 		{
-			PreparedStatement insertStmt = db.prepareStatement("INSERT INTO Customer(money, name) VALUES(?, ?)");
-			insertStmt.setInt(1, customer.getMoney());
-			insertStmt.setString(2, customer.getName());
-			insertStmt.executeUpdate();
-			ResultSet keys = insertStmt.getGeneratedKeys();
-			keys.next();
-			customer.setId(keys.getInt(1));
-			keys.close();
-			insertStmt.close();
+			refuseIfReplica(db);
+			if (customer.isTempId())
+			{
+				PreparedStatement insertStmt = pool.prepare(db, "INSERT INTO Customer(money, name, version) VALUES(?, ?, ?)");
+				insertStmt.setInt(1, customer.getMoney());
+				insertStmt.setString(2, customer.getName());
+				insertStmt.setInt(3, customer.getVersion()+1);
+				insertStmt.executeUpdate();
+				ResultSet keys = insertStmt.getGeneratedKeys();
+				keys.next();
+				customer.setId(keys.getInt(1));
+				keys.close();
+			}
+			else if(!customer.isCashCustomer())
+			{
+				PreparedStatement updateStmt = pool.prepare(db, "UPDATE Customer SET money=?, name=?, version=? WHERE customerId=? AND version=?");
+				updateStmt.setInt(1, customer.getMoney());
+				updateStmt.setString(2, customer.getName());
+				updateStmt.setInt(3, customer.getVersion()+1);
+				updateStmt.setInt(4, customer.getId());
+				updateStmt.setInt(5, customer.getVersion());
+				if (updateStmt.executeUpdate() == 0)
+				{
+					customerCache.invalidate(customer.getId());
+					throw new ConflictException("Customer has been changed by someone else since it was fetched");
+				}
+			}
+			//do NOT store cash customers under any circumstances
+			if (!customer.isCashCustomer())
+			{
+				customer.setVersion(customer.getVersion()+1);
+				customer.markClean();
+				customerCache.put(customer.getId(), new Customer(customer));
+			}
+		}
+		finally
+		{
+			closeConnection();
 		}
-		else if(!customer.isCashCustomer())
+	}
+
+	/**
+	 * Updates a stored customer, redoing the change to a freshly fetched copy
+	 * if it loses a race with another writer (such as a purchase), up to
+	 * CONFLICT_RETRIES times.
+	 * @param customer The customer to change, which must have been stored.
+	 * @param change The change to make.
+	 * @return The copy that was stored, which is customer unless the change
+	 * had to be redone.
+	 * @throws ConflictException if the change kept losing
+	 * @throws SQLException in case of a database error
+	 **/
+	public Customer updateCustomer(Customer customer, Change<Customer> change) throws SQLException, BadStateException, BadArgumentException
+	{
+		int id = customer.getId();
+		for (int attempt = 0; ; ++attempt)
 		{
-			PreparedStatement updateStmt = db.prepareStatement("UPDATE Customer SET money=?, name=? WHERE customerId=?");
-			updateStmt.setInt(1, customer.getMoney());
-			updateStmt.setString(2, customer.getName());
-			updateStmt.setInt(3, customer.getId());
-			updateStmt.executeUpdate();
-			updateStmt.close();
+			change.applyTo(customer);
+			try
+			{
+				updateOrCreateCustomer(customer);
+				return customer;
+			}
+			catch (ConflictException lost)
+			{
+				if (attempt == CONFLICT_RETRIES)
+					throw lost;
+				ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, lost);
+				customer = getCustomerById(id);
+				if (customer == null)
+					throw new BadStateException("Customer has been deleted by someone else");
+			}
 		}
-		//do NOT store cash customers under any circumstances
-		closeConnection();
 	}
 
 	/**
@@ -934,19 +1815,24 @@ public class DatabaseLayer
 	public Manager getManagerById(int id) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		Manager returnValue = null;
-		Statement stmt = db.createStatement();
-		String query = "SELECT managerId, password, name FROM Manager WHERE managerId=" + id;
-		ResultSet results = stmt.executeQuery(query);
-		if (results.next())
+		try
 		{
-			returnValue = new Manager(results.getString(3), results.getString(2));
-			returnValue.setId(results.getInt(1));
+			Manager returnValue = null;
+			PreparedStatement stmt = pool.prepare(db, "SELECT managerId, password, name FROM Manager WHERE managerId=?");
+			stmt.setInt(1, id);
+			ResultSet results = stmt.executeQuery();
+			if (results.next())
+			{
+				returnValue = new Manager(results.getString(3), results.getString(2));
+				returnValue.setId(results.getInt(1));
+			}
+			results.close();
+			return returnValue;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return returnValue;
 	}
 
 	/**
@@ -957,53 +1843,67 @@ public class DatabaseLayer
 	public ArrayList<Manager> getManagersAll() throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<Manager> returnSet = new ArrayList<Manager>();
-		Statement stmt = db.createStatement();
-		String query = "SELECT managerId, password, name FROM Manager";
-		ResultSet results = stmt.executeQuery(query);
-		while (results.next())
+		try
 		{
-			Manager returnValue = new Manager(results.getString(3), results.getString(2));
-			returnValue.setId(results.getInt(1));
-			returnSet.add(returnValue);
+			ArrayList<Manager> returnSet = new ArrayList<Manager>();
+			PreparedStatement stmt = pool.prepare(db, "SELECT managerId, password, name FROM Manager");
+			ResultSet results = stmt.executeQuery();
+			while (results.next())
+			{
+				Manager returnValue = new Manager(results.getString(3), results.getString(2));
+				returnValue.setId(results.getInt(1));
+				returnSet.add(returnValue);
+			}
+			results.close();
+			return returnSet;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return returnSet;
 	}
 
 	/**
 	 * Updates the given manager if it exists (determined by id) or creates it
 	 * if it does not exist.
 	 * @param manager The manager to update/create.
+	 * @throws BadStateException if this database is an offline kiosk's
+	 * replica, where this can only be changed at the head office
 	 * @throws SQLException in case of a database error
 	 **/
 	public void updateOrCreateManager(Manager manager) throws SQLException, BadStateException, BadArgumentException
 	{
+		if (!manager.isDirty())
+			return;
 		Connection db = connect();
-		if (manager.isTempId())
-		{
-			PreparedStatement insertStmt = db.prepareStatement("INSERT INTO Manager(password, name) VALUES(?, ?)");
-			insertStmt.setString(1, manager.getPassword());
-			insertStmt.setString(2, manager.getName());
-			insertStmt.executeUpdate();
-			ResultSet keys = insertStmt.getGeneratedKeys();
-			keys.next();
-			manager.setId(keys.getInt(1));
-			keys.close();
-			insertStmt.close();
+		try
+		{
+			refuseIfReplica(db);
+			if (manager.isTempId())
+			{
+				PreparedStatement insertStmt = pool.prepare(db, "INSERT INTO Manager(password, name) VALUES(?, ?)");
+				insertStmt.setString(1, manager.getPassword());
+				insertStmt.setString(2, manager.getName());
+				insertStmt.executeUpdate();
+				ResultSet keys = insertStmt.getGeneratedKeys();
+				keys.next();
+				manager.setId(keys.getInt(1));
+				keys.close();
+			}
+			else
+			{
+				PreparedStatement updateStmt = pool.prepare(db, "UPDATE Manager SET password=?, name=? WHERE managerId=?");
+				updateStmt.setString(1, manager.getPassword());
+				updateStmt.setString(2, manager.getName());
+				updateStmt.setInt(3, manager.getId());
+				updateStmt.executeUpdate();
+			}
+			manager.markClean();
 		}
-		else
+		finally
 		{
-			PreparedStatement updateStmt = db.prepareStatement("UPDATE Manager SET password=?, name=? WHERE managerId=?");
-			updateStmt.setString(1, manager.getPassword());
-			updateStmt.setString(2, manager.getName());
-			updateStmt.setInt(3, manager.getId());
-			updateStmt.executeUpdate();
-			updateStmt.close();
+			closeConnection();
 		}
-		closeConnection();
 	}
 
 	/**
@@ -1017,27 +1917,17 @@ public class DatabaseLayer
 	public Transaction getTransactionById(int id) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		Transaction returnValue = null;
-		Statement stmt = db.createStatement();
-		String query = "SELECT transactionId, timestamp, machineId, customerId, productId, rowX, rowY, balance FROM VMTransaction WHERE transactionId=" + id;
-		ResultSet results = stmt.executeQuery(query);
-		if (results.next())
-		{
-			GregorianCalendar time = new GregorianCalendar();
-			time.setTimeInMillis(results.getLong(2));
-			VendingMachine machine = getVendingMachineById(results.getInt(3));
-			Customer customer = getCustomerById(results.getInt(4));
-			FoodItem product = getFoodItemById(results.getInt(5));
-			Pair<Integer, Integer> row = new Pair<Integer, Integer>(results.getInt(6), results.getInt(7));
-			int balance = results.getInt(8);
-			returnValue = new Transaction(time, machine, customer, product, row, balance);
-			returnValue.setId(id);
-			
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, TRANSACTION_QUERY + " WHERE transactionId=?");
+			stmt.setInt(1, id);
+			ArrayList<Transaction> transactions = readTransactions(stmt.executeQuery());
+			return transactions.isEmpty() ? null : transactions.get(0);
+		}
+		finally
+		{
+			closeConnection();
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return returnValue;
 	}
 
 	/**
@@ -1052,28 +1942,17 @@ public class DatabaseLayer
 	public ArrayList<Transaction> getTransactionsByVendingMachine(VendingMachine vm) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
-		Statement stmt = db.createStatement();
-		String query = "SELECT transactionId, timestamp, machineId, customerId, productId, rowX, rowY, balance FROM VMTransaction WHERE machineId=" + vm.getId();
-		ResultSet results = stmt.executeQuery(query);
-		while (results.next())
+		try
 		{
-			int id = results.getInt(1);
-			GregorianCalendar time = new GregorianCalendar();
-			time.setTimeInMillis(results.getLong(2));
-			VendingMachine machine = getVendingMachineById(results.getInt(3));
-			Customer customer = getCustomerById(results.getInt(4));
-			FoodItem product = getFoodItemById(results.getInt(5));
-			Pair<Integer, Integer> row = new Pair<Integer, Integer>(results.getInt(6), results.getInt(7));
-			int balance = results.getInt(8);
-			Transaction transaction = new Transaction(time, machine, customer, product, row, balance);
-			transaction.setId(id);
-			transactions.add(transaction);
+			PreparedStatement stmt = pool.prepare(db, TRANSACTION_QUERY + " WHERE VMTransaction.machineId=?");
+			stmt.setInt(1, vm.getId());
+			ArrayList<Transaction> transactions = readTransactions(stmt.executeQuery());
+			return transactions;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return transactions;
 	}
 
 	/**
@@ -1086,28 +1965,17 @@ public class DatabaseLayer
 	public ArrayList<Transaction> getTransactionsByZipCode(int zipCode) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
-		Statement stmt = db.createStatement();
-		String query = "SELECT transactionId, timestamp, VMTransaction.machineId, customerId, productId, rowX, rowY, balance FROM VMTransaction JOIN VendingMachine JOIN Location ON VMTransaction.machineId = VendingMachine.machineId AND VendingMachine.locationId = Location.locationId WHERE Location.zipCode=" + zipCode;
-		ResultSet results = stmt.executeQuery(query);
-		while (results.next())
+		try
 		{
-			int id = results.getInt(1);
-			GregorianCalendar time = new GregorianCalendar();
-			time.setTimeInMillis(results.getLong(2));
-			VendingMachine machine = getVendingMachineById(results.getInt(3));
-			Customer customer = getCustomerById(results.getInt(4));
-			FoodItem product = getFoodItemById(results.getInt(5));
-			Pair<Integer, Integer> row = new Pair<Integer, Integer>(results.getInt(6), results.getInt(7));
-			int balance = results.getInt(8);
-			Transaction transaction = new Transaction(time, machine, customer, product, row, balance);
-			transaction.setId(id);
-			transactions.add(transaction);
+			PreparedStatement stmt = pool.prepare(db, TRANSACTION_QUERY + TRANSACTION_LOCATION_JOIN + " WHERE Location.zipCode=?");
+			stmt.setInt(1, zipCode);
+			ArrayList<Transaction> transactions = readTransactions(stmt.executeQuery());
+			return transactions;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return transactions;
 	}
 
 	/**
@@ -1120,28 +1988,17 @@ public class DatabaseLayer
 	public ArrayList<Transaction> getTransactionsByState(String state) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
-		Statement stmt = db.createStatement();
-		String query = "SELECT transactionId, timestamp, VMTransaction.machineId, customerId, productId, rowX, rowY, balance FROM VMTransaction JOIN VendingMachine JOIN Location ON VMTransaction.machineId = VendingMachine.machineId AND VendingMachine.locationId = Location.locationId WHERE Location.state=\"" + state + "\"";
-		ResultSet results = stmt.executeQuery(query);
-		while (results.next())
+		try
 		{
-			int id = results.getInt(1);
-			GregorianCalendar time = new GregorianCalendar();
-			time.setTimeInMillis(results.getLong(2));
-			VendingMachine machine = getVendingMachineById(results.getInt(3));
-			Customer customer = getCustomerById(results.getInt(4));
-			FoodItem product = getFoodItemById(results.getInt(5));
-			Pair<Integer, Integer> row = new Pair<Integer, Integer>(results.getInt(6), results.getInt(7));
-			int balance = results.getInt(8);
-			Transaction transaction = new Transaction(time, machine, customer, product, row, balance);
-			transaction.setId(id);
-			transactions.add(transaction);
+			PreparedStatement stmt = pool.prepare(db, TRANSACTION_QUERY + TRANSACTION_LOCATION_JOIN + " WHERE Location.state=?");
+			stmt.setString(1, state);
+			ArrayList<Transaction> transactions = readTransactions(stmt.executeQuery());
+			return transactions;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return transactions;
 	}
 
 	/**
@@ -1154,28 +2011,17 @@ public class DatabaseLayer
 	public ArrayList<Transaction> getTransactionsByCustomer(Customer customer) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
-		Statement stmt = db.createStatement();
-		String query = "SELECT transactionId, timestamp, machineId, customerId, productId, rowX, rowY, balance FROM VMTransaction WHERE customerId=" + customer.getId();
-		ResultSet results = stmt.executeQuery(query);
-		while (results.next())
+		try
 		{
-			int id = results.getInt(1);
-			GregorianCalendar time = new GregorianCalendar();
-			time.setTimeInMillis(results.getLong(2));
-			VendingMachine machine = getVendingMachineById(results.getInt(3));
-			Customer cust = getCustomerById(results.getInt(4));
-			FoodItem product = getFoodItemById(results.getInt(5));
-			Pair<Integer, Integer> row = new Pair<Integer, Integer>(results.getInt(6), results.getInt(7));
-			int balance = results.getInt(8);
-			Transaction transaction = new Transaction(time, machine, cust, product, row, balance);
-			transaction.setId(id);
-			transactions.add(transaction);
+			PreparedStatement stmt = pool.prepare(db, TRANSACTION_QUERY + " WHERE VMTransaction.customerId=?");
+			stmt.setInt(1, customer.getId());
+			ArrayList<Transaction> transactions = readTransactions(stmt.executeQuery());
+			return transactions;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return transactions;
 	}
 
 	/**
@@ -1189,28 +2035,17 @@ public class DatabaseLayer
 	public ArrayList<Transaction> getTransactionsByFoodItem(FoodItem item) throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
-		Statement stmt = db.createStatement();
-		String query = "SELECT transactionId, timestamp, machineId, customerId, productId, rowX, rowY, balance FROM VMTransaction WHERE productId=" + item.getId();
-		ResultSet results = stmt.executeQuery(query);
-		while (results.next())
+		try
 		{
-			int id = results.getInt(1);
-			GregorianCalendar time = new GregorianCalendar();
-			time.setTimeInMillis(results.getLong(2));
-			VendingMachine machine = getVendingMachineById(results.getInt(3));
-			Customer cust = getCustomerById(results.getInt(4));
-			FoodItem product = getFoodItemById(results.getInt(5));
-			Pair<Integer, Integer> row = new Pair<Integer, Integer>(results.getInt(6), results.getInt(7));
-			int balance = results.getInt(8);
-			Transaction transaction = new Transaction(time, machine, cust, product, row, balance);
-			transaction.setId(id);
-			transactions.add(transaction);
+			PreparedStatement stmt = pool.prepare(db, TRANSACTION_QUERY + " WHERE VMTransaction.productId=?");
+			stmt.setInt(1, item.getId());
+			ArrayList<Transaction> transactions = readTransactions(stmt.executeQuery());
+			return transactions;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return transactions;
 	}
 
 	/**
@@ -1221,68 +2056,1538 @@ public class DatabaseLayer
 	public ArrayList<Transaction> getTransactionsAll() throws SQLException, BadStateException, BadArgumentException
 	{
 		Connection db = connect();
-		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
-		Statement stmt = db.createStatement();
-		String query = "SELECT transactionId, timestamp, machineId, customerId, productId, rowX, rowY, balance FROM VMTransaction";
-		ResultSet results = stmt.executeQuery(query);
-		while (results.next())
+		try
 		{
-			int id = results.getInt(1);
-			GregorianCalendar time = new GregorianCalendar();
-			time.setTimeInMillis(results.getLong(2));
-			VendingMachine machine = getVendingMachineById(results.getInt(3));
-			Customer customer = getCustomerById(results.getInt(4));
-			FoodItem product = getFoodItemById(results.getInt(5));
-			Pair<Integer, Integer> row = new Pair<Integer, Integer>(results.getInt(6), results.getInt(7));
-			int balance = results.getInt(8);
-			Transaction transaction = new Transaction(time, machine, customer, product, row, balance);
-			transaction.setId(id);
-			transactions.add(transaction);
+			PreparedStatement stmt = pool.prepare(db, TRANSACTION_QUERY);
+			ArrayList<Transaction> transactions = readTransactions(stmt.executeQuery());
+			return transactions;
+		}
+		finally
+		{
+			closeConnection();
 		}
-		results.close();
-		stmt.close();
-		closeConnection();
-		return transactions;
 	}
 
 	/**
-	 * Updates the given transaction if it exists (determined by id) or creates
-	 * it if it doesn't exist.
-	 * @param transaction The transaction to create/update.
+	 * Fetches one page of the transactions that occurred at the given
+	 * vending machine, in the order they were recorded.
+	 * @param vm The vending machine at which the transactions you desire
+	 * occurred.
+	 * @param afterId The id of the last transaction on the previous page, or
+	 * 0 for the first page.
+	 * @param limit The most transactions to fetch.
+	 * @return An ArrayList of up to limit transactions, each with a greater id
+	 * than afterId. It is shorter than limit only on the last page.
 	 * @throws SQLException in case of a database error
 	 **/
-	public void updateOrCreateTransaction(Transaction transaction) throws SQLException, BadStateException, BadArgumentException
+	public ArrayList<Transaction> getTransactionsByVendingMachine(VendingMachine vm, int afterId, int limit) throws SQLException, BadStateException, BadArgumentException
 	{
-		Connection db = connect();
-		if(!isVendingMachineValid(transaction.getMachine())) {
-			throw new BadArgumentException("VendingMachine in Transaction is not in database, but it must be before the Transaction can be added");
-		}
-		if(!isCustomerValid(transaction.getCustomer())) {
+		return getTransactionsPage("VMTransaction.machineId", vm.getId(), afterId, limit);
+	}
+
+	/**
+	 * Fetches one page of the transactions the given customer has made, in
+	 * the order they were recorded.
+	 * @param customer The customer that performed the transactions you desire.
+	 * @param afterId The id of the last transaction on the previous page, or
+	 * 0 for the first page.
+	 * @param limit The most transactions to fetch.
+	 * @return An ArrayList of up to limit transactions, each with a greater id
+	 * than afterId. It is shorter than limit only on the last page.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<Transaction> getTransactionsByCustomer(Customer customer, int afterId, int limit) throws SQLException, BadStateException, BadArgumentException
+	{
+		return getTransactionsPage("VMTransaction.customerId", customer.getId(), afterId, limit);
+	}
+
+	/**
+	 * Fetches one page of the transactions during which the given item was
+	 * bought, in the order they were recorded.
+	 * @param item The item that was purchased in the transactions you
+	 * desire.
+	 * @param afterId The id of the last transaction on the previous page, or
+	 * 0 for the first page.
+	 * @param limit The most transactions to fetch.
+	 * @return An ArrayList of up to limit transactions, each with a greater id
+	 * than afterId. It is shorter than limit only on the last page.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<Transaction> getTransactionsByFoodItem(FoodItem item, int afterId, int limit) throws SQLException, BadStateException, BadArgumentException
+	{
+		return getTransactionsPage("VMTransaction.productId", item.getId(), afterId, limit);
+	}
+
+	/**
+	 * Fetches the transactions that occurred at the given vending machine
+	 * during the given span of time.
+	 * @param vm The vending machine at which the transactions you desire
+	 * occurred.
+	 * @param start The beginning of the span, inclusive.
+	 * @param end The end of the span, exclusive.
+	 * @return An ArrayList of the transactions, oldest first.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<Transaction> getTransactionsByVendingMachine(VendingMachine vm, GregorianCalendar start, GregorianCalendar end) throws SQLException, BadStateException, BadArgumentException
+	{
+		return getTransactionsBetween("VMTransaction.machineId", vm.getId(), start, end);
+	}
+
+	/**
+	 * Fetches the transactions the given customer made during the given span
+	 * of time.
+	 * @param customer The customer that performed the transactions you desire.
+	 * @param start The beginning of the span, inclusive.
+	 * @param end The end of the span, exclusive.
+	 * @return An ArrayList of the transactions, oldest first.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<Transaction> getTransactionsByCustomer(Customer customer, GregorianCalendar start, GregorianCalendar end) throws SQLException, BadStateException, BadArgumentException
+	{
+		return getTransactionsBetween("VMTransaction.customerId", customer.getId(), start, end);
+	}
+
+	/**
+	 * Fetches the transactions during which the given item was bought
+	 * during the given span of time.
+	 * @param item The item that was purchased in the transactions you
+	 * desire.
+	 * @param start The beginning of the span, inclusive.
+	 * @param end The end of the span, exclusive.
+	 * @return An ArrayList of the transactions, oldest first.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<Transaction> getTransactionsByFoodItem(FoodItem item, GregorianCalendar start, GregorianCalendar end) throws SQLException, BadStateException, BadArgumentException
+	{
+		return getTransactionsBetween("VMTransaction.productId", item.getId(), start, end);
+	}
+
+	/**
+	 * Fetches the transactions with the given value in the given column
+	 * whose ids come after the given one. Each page picks up where the last
+	 * left off by id, so it costs the same no matter how deep into the
+	 * history it is.
+	 * @param column The VMTransaction column to match.
+	 * @param value The value to match.
+	 * @param afterId Only transactions with greater ids are fetched.
+	 * @param limit The most transactions to fetch.
+	 * @return An ArrayList of the transactions, by id.
+	 * @throws SQLException in case of a database error
+	 **/
+	private ArrayList<Transaction> getTransactionsPage(String column, int value, int afterId, int limit) throws SQLException, BadStateException, BadArgumentException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, TRANSACTION_QUERY + " WHERE " + column + "=? AND VMTransaction.transactionId>? ORDER BY VMTransaction.transactionId LIMIT ?");
+			stmt.setInt(1, value);
+			stmt.setInt(2, afterId);
+			stmt.setInt(3, limit);
+			ArrayList<Transaction> transactions = readTransactions(stmt.executeQuery());
+			return transactions;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Fetches the transactions with the given value in the given column that
+	 * occurred during the given span of time.
+	 * @param column The VMTransaction column to match.
+	 * @param value The value to match.
+	 * @param start The beginning of the span, inclusive.
+	 * @param end The end of the span, exclusive.
+	 * @return An ArrayList of the transactions, oldest first.
+	 * @throws SQLException in case of a database error
+	 **/
+	private ArrayList<Transaction> getTransactionsBetween(String column, int value, GregorianCalendar start, GregorianCalendar end) throws SQLException, BadStateException, BadArgumentException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, TRANSACTION_QUERY + " WHERE " + column + "=? AND VMTransaction.timestamp>=? AND VMTransaction.timestamp<? ORDER BY VMTransaction.timestamp, VMTransaction.transactionId");
+			stmt.setInt(1, value);
+			stmt.setLong(2, start.getTimeInMillis());
+			stmt.setLong(3, end.getTimeInMillis());
+			ArrayList<Transaction> transactions = readTransactions(stmt.executeQuery());
+			return transactions;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Loads the whole transaction history into columns for fast statistics.
+	 * Only the ids and figures are read; no machines, customers, or items are
+	 * built.
+	 * @return The transactions, in the order they were recorded.
+	 * @throws SQLException in case of a database error
+	 **/
+	public TransactionColumns getTransactionColumns() throws SQLException
+	{
+		int capacity = 1024;
+		int size = 0;
+		long[] timestamps = new long[capacity];
+		int[] machineIds = new int[capacity];
+		int[] customerIds = new int[capacity];
+		int[] productIds = new int[capacity];
+		int[] rows = new int[capacity];
+		int[] balances = new int[capacity];
+
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT timestamp, machineId, customerId, productId, rowX, rowY, balance FROM VMTransaction ORDER BY transactionId");
+			ResultSet results = stmt.executeQuery();
+			while (results.next())
+			{
+				if (size == capacity)
+				{
+					capacity *= 2;
+					timestamps = Arrays.copyOf(timestamps, capacity);
+					machineIds = Arrays.copyOf(machineIds, capacity);
+					customerIds = Arrays.copyOf(customerIds, capacity);
+					productIds = Arrays.copyOf(productIds, capacity);
+					rows = Arrays.copyOf(rows, capacity);
+					balances = Arrays.copyOf(balances, capacity);
+				}
+				timestamps[size] = results.getLong(1);
+				machineIds[size] = results.getInt(2);
+				customerIds[size] = results.getInt(3);
+				productIds[size] = results.getInt(4);
+				rows[size] = Slot.of(results.getInt(5), results.getInt(6)).pack();
+				balances[size] = results.getInt(7);
+				++size;
+			}
+			results.close();
+			return new TransactionColumns(size, timestamps, machineIds, customerIds, productIds, rows, balances);
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Opens a cursor over all of the transactions that have ever occurred,
+	 * for reading them one at a time instead of all at once.
+	 * @return The cursor, which the caller must close.
+	 * @throws SQLException in case of a database error
+	 **/
+	public TransactionCursor openTransactionsAll() throws SQLException
+	{
+		return new TransactionCursor(TRANSACTION_QUERY, null);
+	}
+
+	/**
+	 * Opens a cursor over the transactions that occurred at the given
+	 * vending machine.
+	 * @param vm The vending machine at which the transactions you desire
+	 * occurred.
+	 * @return The cursor, which the caller must close.
+	 * @throws SQLException in case of a database error
+	 **/
+	public TransactionCursor openTransactionsByVendingMachine(VendingMachine vm) throws SQLException, BadStateException
+	{
+		return new TransactionCursor(TRANSACTION_QUERY + " WHERE VMTransaction.machineId=?", vm.getId());
+	}
+
+	/**
+	 * Opens a cursor over the transactions the given customer has made.
+	 * @param customer The customer that performed the transactions you desire.
+	 * @return The cursor, which the caller must close.
+	 * @throws SQLException in case of a database error
+	 **/
+	public TransactionCursor openTransactionsByCustomer(Customer customer) throws SQLException, BadStateException
+	{
+		return new TransactionCursor(TRANSACTION_QUERY + " WHERE VMTransaction.customerId=?", customer.getId());
+	}
+
+	/**
+	 * Opens a cursor over the transactions during which the given item was
+	 * bought.
+	 * @param item The item that was purchased in the transactions you
+	 * desire.
+	 * @return The cursor, which the caller must close.
+	 * @throws SQLException in case of a database error
+	 **/
+	public TransactionCursor openTransactionsByFoodItem(FoodItem item) throws SQLException, BadStateException
+	{
+		return new TransactionCursor(TRANSACTION_QUERY + " WHERE VMTransaction.productId=?", item.getId());
+	}
+
+	/**
+	 * Reads the result of a TRANSACTION_QUERY one transaction at a time, so
+	 * that reports and exports over any number of transactions take the
+	 * same amount of memory. Rows are fetched from the database in small
+	 * batches as they are needed. Transactions read close together share
+	 * their machines, customers, and items as readTransactions() does, but
+	 * only up to CURSOR_SHARING_LIMIT of each are remembered at a time.
+	 * A cursor holds the current thread's connection until it is closed, so
+	 * it must be closed on the thread that opened it, and should be closed
+	 * in a finally block.
+	 **/
+	public class TransactionCursor
+	{
+		/** The cursor's own statement, separate from the pool's. */
+		private PreparedStatement stmt;
+
+		/** The rows not yet read. */
+		private ResultSet results;
+
+		/** The machines built so far, by id. */
+		private HashMap<Integer, VendingMachine> machines;
+
+		/** The customers built so far, by id. */
+		private HashMap<Integer, Customer> customers;
+
+		/** The items built so far, by id. */
+		private HashMap<Integer, FoodItem> items;
+
+		/**
+		 * Runs the query and positions the cursor before the first
+		 * transaction.
+		 * @param sql A query starting with TRANSACTION_QUERY.
+		 * @param parameter The value for the query's only placeholder, or
+		 * null if it has none.
+		 * @throws SQLException in case of a database error
+		 **/
+		private TransactionCursor(String sql, Integer parameter) throws SQLException
+		{
+			Connection db = connect();
+			try
+			{
+				//not pool.prepare(): a caller reading the same query while the cursor is open would reset it
+				stmt = db.prepareStatement(sql);
+				stmt.setFetchSize(CURSOR_FETCH_SIZE);
+				if (parameter != null)
+					stmt.setInt(1, parameter);
+				results = stmt.executeQuery();
+			}
+			catch (SQLException failure)
+			{
+				if (stmt != null)
+					stmt.close();
+				closeConnection();
+				throw failure;
+			}
+			machines = new HashMap<Integer, VendingMachine>();
+			customers = new HashMap<Integer, Customer>();
+			items = new HashMap<Integer, FoodItem>();
+		}
+
+		/**
+		 * Reads the next transaction. Once there are no more, the cursor
+		 * closes itself.
+		 * @return The transaction, or null if they have all been read.
+		 * @throws SQLException in case of a database error
+		 **/
+		public Transaction next() throws SQLException, BadStateException, BadArgumentException
+		{
+			if (results == null)
+				return null;
+			if (!results.next())
+			{
+				close();
+				return null;
+			}
+
+			if (machines.size() >= CURSOR_SHARING_LIMIT)
+				machines.clear();
+			if (customers.size() >= CURSOR_SHARING_LIMIT)
+				customers.clear();
+			if (items.size() >= CURSOR_SHARING_LIMIT)
+				items.clear();
+			return readTransaction(results, machines, customers, items);
+		}
+
+		/**
+		 * Stops reading and gives back the connection. Closing a cursor
+		 * more than once does nothing.
+		 * @throws SQLException in case of a database error
+		 **/
+		public void close() throws SQLException
+		{
+			if (results == null)
+				return;
+			results = null;
+			try
+			{
+				stmt.close();
+			}
+			finally
+			{
+				closeConnection();
+			}
+		}
+	}
+
+	/**
+	 * Builds the transactions from the result of a TRANSACTION_QUERY in a
+	 * single pass. Items and customers come from the joined columns, and each
+	 * distinct vending machine, customer, and item is built only once no
+	 * matter how many transactions refer to it, so the transactions share
+	 * those objects. Closes the result set when done.
+	 * @param results The result of a query starting with TRANSACTION_QUERY.
+	 * @return An ArrayList of the transactions, in result order.
+	 * @throws SQLException in case of a database error
+	 **/
+	private ArrayList<Transaction> readTransactions(ResultSet results) throws SQLException, BadStateException, BadArgumentException
+	{
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+		HashMap<Integer, VendingMachine> machines = new HashMap<Integer, VendingMachine>();
+		HashMap<Integer, Customer> customers = new HashMap<Integer, Customer>();
+		HashMap<Integer, FoodItem> items = new HashMap<Integer, FoodItem>();
+		while (results.next())
+			transactions.add(readTransaction(results, machines, customers, items));
+		results.close();
+		return transactions;
+	}
+
+	/**
+	 * Builds a transaction from the current row of the result of a
+	 * TRANSACTION_QUERY. Machines, customers, and items already in the given
+	 * maps are reused, and any that aren't are built and added.
+	 * @param results The result set, positioned on the row to read.
+	 * @param machines The machines built so far, by id.
+	 * @param customers The customers built so far, by id.
+	 * @param items The items built so far, by id.
+	 * @return The transaction.
+	 * @throws SQLException in case of a database error
+	 **/
+	private Transaction readTransaction(ResultSet results, HashMap<Integer, VendingMachine> machines, HashMap<Integer, Customer> customers, HashMap<Integer, FoodItem> items) throws SQLException, BadStateException, BadArgumentException
+	{
+		int id = results.getInt(1);
+		long time = results.getLong(2);
+
+		int machineId = results.getInt(3);
+		if (!machines.containsKey(machineId))
+			machines.put(machineId, getVendingMachineById(machineId, items));
+		VendingMachine machine = machines.get(machineId);
+
+		int customerId = results.getInt(4);
+		if (!customers.containsKey(customerId))
+			customers.put(customerId, readCustomer(results, customerId, 14));
+		Customer customer = customers.get(customerId);
+
+		FoodItem product = readFoodItem(results, 9, items);
+		Slot row = Slot.of(results.getInt(6), results.getInt(7));
+		int balance = results.getInt(8);
+		Transaction transaction = new Transaction(time, machine, customer, product, row, balance);
+		transaction.setId(id);
+		return transaction;
+	}
+
+	/**
+	 * Builds a customer from two consecutive columns of the current result
+	 * row: money, name, and version. Cash customers aren't stored in the database, so
+	 * they are built from scratch instead.
+	 * @param results The result set, positioned on the row to read.
+	 * @param id The id of the customer.
+	 * @param firstColumn The index of the money column.
+	 * @return The customer, or null if the columns are null (e.g. because of
+	 * an outer join that found no customer).
+	 **/
+	private Customer readCustomer(ResultSet results, int id, int firstColumn) throws SQLException, BadStateException, BadArgumentException
+	{
+		if (id == Customer.CASH_ID)
+			return new Customer();
+
+		int money = results.getInt(firstColumn);
+		if (results.wasNull())
+			return null;
+
+		Customer customer = new Customer(results.getString(firstColumn+1), money);
+		customer.setId(id);
+		customer.setVersion(results.getInt(firstColumn+2));
+		return customer;
+	}
+
+	/**
+	 * Updates the given transaction if it exists (determined by id) or creates
+	 * it if it doesn't exist. The sales rollups are kept up to date in the
+	 * same database transaction.
+	 * @param transaction The transaction to create/update.
+	 * @throws SQLException in case of a database error
+	 **/
+	public void updateOrCreateTransaction(Transaction transaction) throws SQLException, BadStateException, BadArgumentException
+	{
+		if(!isVendingMachineValid(transaction.getMachine())) {
+			throw new BadArgumentException("VendingMachine in Transaction is not in database, but it must be before the Transaction can be added");
+		}
+		if(!isCustomerValid(transaction.getCustomer())) {
 			throw new BadArgumentException("Customer in Transaction is not in database, but it must be before the Transaction can be added");
 		}
 		if(!isFoodItemValid(transaction.getProduct())) {
 			throw new BadArgumentException("FoodItem in Transaction is not in database, but it must be before the Transaction can be added");
 		}
 
+		Connection db = connect();
+		try
+		{
+			boolean ownTransaction = beginTransaction(db);
+			boolean done = false;
+			try
+			{
+				if (transaction.isTempId())
+				{
+					PreparedStatement insertStmt = pool.prepare(db, "INSERT INTO VMTransaction(timestamp, machineId, customerId, productId, rowX, rowY, balance) VALUES(?, ?, ?, ?, ?, ?, ?)");
+					insertStmt.setLong(1, transaction.getTimestampMillis());
+					insertStmt.setInt(2, transaction.getMachine().getId());
+					insertStmt.setInt(3, transaction.getCustomer().getId());
+					insertStmt.setInt(4, transaction.getProduct().getId());
+					insertStmt.setInt(5, transaction.getRow().getX());
+					insertStmt.setInt(6, transaction.getRow().getY());
+					insertStmt.setInt(7, transaction.getBalance());
+					insertStmt.executeUpdate();
+					ResultSet keys = insertStmt.getGeneratedKeys();
+					keys.next();
+					transaction.setId(keys.getInt(1));
+					keys.close();
+				}
+				else
+				{
+					//take the old version back out of the rollups before it's overwritten
+					PreparedStatement oldStmt = pool.prepare(db, "SELECT VMTransaction.timestamp, VMTransaction.machineId, VMTransaction.customerId, VMTransaction.productId, VMTransaction.balance, Location.state, Location.zipCode FROM VMTransaction" + TRANSACTION_LOCATION_JOIN + " WHERE VMTransaction.transactionId=?");
+					oldStmt.setInt(1, transaction.getId());
+					ResultSet old = oldStmt.executeQuery();
+					if (old.next())
+						addToRollups(db, old.getLong(1), old.getInt(2), old.getInt(3), old.getInt(4), old.getString(6), old.getInt(7), -1, -old.getInt(5));
+					old.close();
+
+					PreparedStatement updateStmt = pool.prepare(db, "UPDATE VMTransaction SET timestamp=?, machineId=?, customerId=?, productId=?, rowX=?, rowY=?, balance=? WHERE transactionId=?");
+					updateStmt.setLong(1, transaction.getTimestampMillis());
+					updateStmt.setInt(2, transaction.getMachine().getId());
+					updateStmt.setInt(3, transaction.getCustomer().getId());
+					updateStmt.setInt(4, transaction.getProduct().getId());
+					updateStmt.setInt(5, transaction.getRow().getX());
+					updateStmt.setInt(6, transaction.getRow().getY());
+					updateStmt.setInt(7, transaction.getBalance());
+					updateStmt.setInt(8, transaction.getId());
+					updateStmt.executeUpdate();
+				}
+				addToRollups(db, transaction);
+				done = true;
+			}
+			finally
+			{
+				endTransaction(db, ownTransaction, done);
+			}
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Counts a newly stored transaction in each of the sales rollups: by
+	 * machine and by item for each hour and day, by customer and month, by
+	 * location and day, and by item for its machine, zip code, state,
+	 * customer, and the whole fleet. The location is the one the machine has now.
+	 * @param db The current thread's connection, on which a database
+	 * transaction is in progress.
+	 * @param transaction The transaction.
+	 * @throws SQLException in case of a database error
+	 **/
+	private void addToRollups(Connection db, Transaction transaction) throws SQLException, BadStateException
+	{
+		Location location = transaction.getMachine().getLocation();
+		addToRollups(db, transaction.getTimestampMillis(), transaction.getMachine().getId(), transaction.getCustomer().getId(), transaction.getProduct().getId(), location.getState(), location.getZipCode(), 1, transaction.getBalance());
+	}
+
+	/**
+	 * Adds to each of the sales rollups. Taking a transaction back out is a
+	 * matter of passing negative amounts.
+	 * @param db The current thread's connection, on which a database
+	 * transaction is in progress.
+	 * @param timestamp When the transaction occurred.
+	 * @param machineId The machine at which it occurred.
+	 * @param customerId The customer who made it.
+	 * @param productId The item that was bought.
+	 * @param state The state the machine is in.
+	 * @param zipCode The zip code the machine is in.
+	 * @param sales The number of sales to add.
+	 * @param revenue The revenue to add.
+	 * @throws SQLException in case of a database error
+	 **/
+	private void addToRollups(Connection db, long timestamp, int machineId, int customerId, int productId, String state, int zipCode, int sales, int revenue) throws SQLException
+	{
+		GregorianCalendar time = new GregorianCalendar();
+		time.setTimeInMillis(timestamp);
+		long hour = SalesTimeSeries.Granularity.HOUR.storedKey(time);
+		int day = dayKey(time);
+		int month = day / 100;
+
+		addToRollup(db, "MachineHourlySales", new String[]{"machineId", "hour"}, new Object[]{machineId, hour}, sales, revenue);
+		addToRollup(db, "ItemHourlySales", new String[]{"productId", "hour"}, new Object[]{productId, hour}, sales, revenue);
+		addToRollup(db, "MachineDailySales", new String[]{"machineId", "day"}, new Object[]{machineId, day}, sales, revenue);
+		addToRollup(db, "ItemDailySales", new String[]{"productId", "day"}, new Object[]{productId, day}, sales, revenue);
+		addToRollup(db, "CustomerMonthlySales", new String[]{"customerId", "month"}, new Object[]{customerId, month}, sales, revenue);
+		addToRollup(db, "LocationDailySales", new String[]{"state", "zipCode", "day"}, new Object[]{state, zipCode, day}, sales, revenue);
+		addToRollup(db, "MachineItemSales", new String[]{"machineId", "productId"}, new Object[]{machineId, productId}, sales, revenue);
+		addToRollup(db, "ZipCodeItemSales", new String[]{"zipCode", "productId"}, new Object[]{zipCode, productId}, sales, revenue);
+		addToRollup(db, "StateItemSales", new String[]{"state", "productId"}, new Object[]{state, productId}, sales, revenue);
+		addToRollup(db, "ItemSales", new String[]{"productId"}, new Object[]{productId}, sales, revenue);
+		addToRollup(db, "CustomerItemSales", new String[]{"customerId", "productId"}, new Object[]{customerId, productId}, sales, revenue);
+	}
+
+	/**
+	 * Adds to one row of a rollup table, creating it if it doesn't exist
+	 * yet. Most sales land in rows that already exist, so the row is updated
+	 * first and only inserted if there was none, which takes one statement
+	 * rather than two in the usual case.
+	 * @param db The current thread's connection, on which a database
+	 * transaction is in progress.
+	 * @param table The rollup table.
+	 * @param keyColumns The columns making up the table's primary key.
+	 * @param keys The values of those columns.
+	 * @param sales The number of sales to add.
+	 * @param revenue The revenue to add.
+	 * @throws SQLException in case of a database error
+	 **/
+	private void addToRollup(Connection db, String table, String[] keyColumns, Object[] keys, int sales, int revenue) throws SQLException
+	{
+		StringBuilder columns = new StringBuilder();
+		StringBuilder placeholders = new StringBuilder();
+		StringBuilder match = new StringBuilder();
+		for (int index = 0; index < keyColumns.length; ++index)
+		{
+			columns.append(keyColumns[index]).append(", ");
+			placeholders.append("?, ");
+			if (index > 0)
+				match.append(" AND ");
+			match.append(keyColumns[index]).append("=?");
+		}
+
+		PreparedStatement addStmt = pool.prepare(db, "UPDATE " + table + " SET sales=sales+?, revenue=revenue+? WHERE " + match);
+		addStmt.setInt(1, sales);
+		addStmt.setInt(2, revenue);
+		for (int index = 0; index < keys.length; ++index)
+			addStmt.setObject(index+3, keys[index]);
+		if (addStmt.executeUpdate() > 0)
+			return;
+
+		//the update already took the write lock, so nobody else can have created it since
+		PreparedStatement createStmt = pool.prepare(db, "INSERT INTO " + table + "(" + columns + "sales, revenue) VALUES(" + placeholders + "?, ?)");
+		for (int index = 0; index < keys.length; ++index)
+			createStmt.setObject(index+1, keys[index]);
+		createStmt.setInt(keys.length+1, sales);
+		createStmt.setInt(keys.length+2, revenue);
+		createStmt.executeUpdate();
+	}
+
+	/**
+	 * Identifies the day on which a moment falls, in local time, the way the
+	 * rollup tables do.
+	 * @param time The moment.
+	 * @return The date as yyyymmdd.
+	 **/
+	private static int dayKey(GregorianCalendar time)
+	{
+		return (int)SalesTimeSeries.Granularity.DAY.storedKey(time);
+	}
+
+	/**
+	 * Charts the sales at the given vending machine over time.
+	 * @param vm The vending machine.
+	 * @param granularity The size of each period.
+	 * @param first A moment in the first period to include.
+	 * @param last A moment in the last period to include.
+	 * @return The series, with an entry for every period from first to last.
+	 * @throws SQLException in case of a database error
+	 **/
+	public SalesTimeSeries getVendingMachineSalesSeries(VendingMachine vm, SalesTimeSeries.Granularity granularity, GregorianCalendar first, GregorianCalendar last) throws SQLException, BadStateException, BadArgumentException
+	{
+		return getSalesSeries(granularity.getTable("Machine"), "machineId", vm.getId(), granularity, first, last);
+	}
+
+	/**
+	 * Charts the sales of the given item over time.
+	 * @param item The item.
+	 * @param granularity The size of each period.
+	 * @param first A moment in the first period to include.
+	 * @param last A moment in the last period to include.
+	 * @return The series, with an entry for every period from first to last.
+	 * @throws SQLException in case of a database error
+	 **/
+	public SalesTimeSeries getFoodItemSalesSeries(FoodItem item, SalesTimeSeries.Granularity granularity, GregorianCalendar first, GregorianCalendar last) throws SQLException, BadStateException, BadArgumentException
+	{
+		return getSalesSeries(granularity.getTable("Item"), "productId", item.getId(), granularity, first, last);
+	}
+
+	/**
+	 * Charts sales over time from a rollup table. Periods the table has no
+	 * row for are filled in with zeros.
+	 * @param table The rollup table.
+	 * @param idColumn The column of the table identifying the subject.
+	 * @param id The subject whose sales to chart.
+	 * @param granularity The size of each period.
+	 * @param first A moment in the first period to include.
+	 * @param last A moment in the last period to include.
+	 * @return The series.
+	 * @throws SQLException in case of a database error
+	 **/
+	private SalesTimeSeries getSalesSeries(String table, String idColumn, int id, SalesTimeSeries.Granularity granularity, GregorianCalendar first, GregorianCalendar last) throws SQLException, BadArgumentException
+	{
+		GregorianCalendar start = (GregorianCalendar)first.clone();
+		granularity.truncate(start);
+		GregorianCalendar end = (GregorianCalendar)last.clone();
+		granularity.truncate(end);
+		granularity.advance(end);
+
+		//number the periods
+		HashMap<Long, Integer> positions = new HashMap<Long, Integer>();
+		for (GregorianCalendar period = (GregorianCalendar)start.clone(); period.before(end); granularity.advance(period))
+			positions.put(granularity.keyOf(period), positions.size());
+		int[] sales = new int[positions.size()];
+		long[] revenue = new long[positions.size()];
+
+		String column = granularity.getColumn();
+		String bucket = column + "/" + granularity.getDivisor();
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT " + bucket + ", SUM(sales), SUM(revenue) FROM " + table + " WHERE " + idColumn + "=? AND " + column + ">=? AND " + column + "<? GROUP BY " + bucket);
+			stmt.setInt(1, id);
+			stmt.setLong(2, granularity.storedKey(start));
+			stmt.setLong(3, granularity.storedKey(end));
+			ResultSet results = stmt.executeQuery();
+			while (results.next())
+			{
+				Integer position = positions.get(results.getLong(1));
+				if (position != null)
+				{
+					sales[position] = results.getInt(2);
+					revenue[position] = results.getLong(3);
+				}
+			}
+			results.close();
+			return new SalesTimeSeries(granularity, start, sales, revenue);
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
 
-		if (transaction.isTempId())
+	/**
+	 * Fetches the daily sales at the given vending machine.
+	 * @param vm The vending machine.
+	 * @param first The first day to include.
+	 * @param last The last day to include.
+	 * @return An ArrayList with a rollup for each day in the span on which
+	 * there were sales, in order.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<SalesRollup> getVendingMachineDailySales(VendingMachine vm, GregorianCalendar first, GregorianCalendar last) throws SQLException, BadStateException
+	{
+		Connection db = connect();
+		try
 		{
-			String query = String.format("INSERT INTO VMTransaction(timestamp, machineId, customerId, productId, rowX, rowY, balance) VALUES(%d, %d, %d, %d, %d, %d, %d)", transaction.getTimestamp().getTimeInMillis(), transaction.getMachine().getId(), transaction.getCustomer().getId(), transaction.getProduct().getId(), transaction.getRow().first, transaction.getRow().second, transaction.getBalance());
-			Statement insertStmt = db.createStatement();
-			insertStmt.executeUpdate(query);
-			ResultSet keys = insertStmt.getGeneratedKeys();
-			keys.next();
-			transaction.setId(keys.getInt(1));
-			keys.close();
-			insertStmt.close();
+			PreparedStatement stmt = pool.prepare(db, "SELECT day, sales, revenue FROM MachineDailySales WHERE machineId=? AND day>=? AND day<=? ORDER BY day");
+			stmt.setInt(1, vm.getId());
+			stmt.setInt(2, dayKey(first));
+			stmt.setInt(3, dayKey(last));
+			ArrayList<SalesRollup> rollups = readRollups(stmt.executeQuery());
+			return rollups;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Fetches the daily sales of the given item.
+	 * @param item The item.
+	 * @param first The first day to include.
+	 * @param last The last day to include.
+	 * @return An ArrayList with a rollup for each day in the span on which
+	 * there were sales, in order.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<SalesRollup> getFoodItemDailySales(FoodItem item, GregorianCalendar first, GregorianCalendar last) throws SQLException, BadStateException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT day, sales, revenue FROM ItemDailySales WHERE productId=? AND day>=? AND day<=? ORDER BY day");
+			stmt.setInt(1, item.getId());
+			stmt.setInt(2, dayKey(first));
+			stmt.setInt(3, dayKey(last));
+			ArrayList<SalesRollup> rollups = readRollups(stmt.executeQuery());
+			return rollups;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Fetches the monthly purchases of the given customer.
+	 * @param customer The customer.
+	 * @param first A day in the first month to include.
+	 * @param last A day in the last month to include.
+	 * @return An ArrayList with a rollup for each month in the span in which
+	 * there were purchases, in order.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<SalesRollup> getCustomerMonthlySales(Customer customer, GregorianCalendar first, GregorianCalendar last) throws SQLException, BadStateException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT month, sales, revenue FROM CustomerMonthlySales WHERE customerId=? AND month>=? AND month<=? ORDER BY month");
+			stmt.setInt(1, customer.getId());
+			stmt.setInt(2, dayKey(first)/100);
+			stmt.setInt(3, dayKey(last)/100);
+			ArrayList<SalesRollup> rollups = readRollups(stmt.executeQuery());
+			return rollups;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Fetches the daily sales at all the machines in the given zip code.
+	 * @param zipCode The zip code.
+	 * @param first The first day to include.
+	 * @param last The last day to include.
+	 * @return An ArrayList with a rollup for each day in the span on which
+	 * there were sales, in order.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<SalesRollup> getZipCodeDailySales(int zipCode, GregorianCalendar first, GregorianCalendar last) throws SQLException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT day, SUM(sales), SUM(revenue) FROM LocationDailySales WHERE zipCode=? AND day>=? AND day<=? GROUP BY day ORDER BY day");
+			stmt.setInt(1, zipCode);
+			stmt.setInt(2, dayKey(first));
+			stmt.setInt(3, dayKey(last));
+			ArrayList<SalesRollup> rollups = readRollups(stmt.executeQuery());
+			return rollups;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Fetches the daily sales at all the machines in the given state.
+	 * @param state The state.
+	 * @param first The first day to include.
+	 * @param last The last day to include.
+	 * @return An ArrayList with a rollup for each day in the span on which
+	 * there were sales, in order.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<SalesRollup> getStateDailySales(String state, GregorianCalendar first, GregorianCalendar last) throws SQLException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT day, SUM(sales), SUM(revenue) FROM LocationDailySales WHERE state=? AND day>=? AND day<=? GROUP BY day ORDER BY day");
+			stmt.setString(1, state);
+			stmt.setInt(2, dayKey(first));
+			stmt.setInt(3, dayKey(last));
+			ArrayList<SalesRollup> rollups = readRollups(stmt.executeQuery());
+			return rollups;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Ranks the items by how many have been sold at the given vending
+	 * machine.
+	 * @param vm The vending machine.
+	 * @param limit The most items to return.
+	 * @return An ArrayList of up to limit items, best-selling first, each
+	 * with the number sold.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<Pair<FoodItem, Integer>> getBestSellersByVendingMachine(VendingMachine vm, int limit) throws SQLException, BadStateException, BadArgumentException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT productId, sales FROM MachineItemSales WHERE machineId=? AND sales>0 ORDER BY sales DESC, productId DESC LIMIT ?");
+			stmt.setInt(1, vm.getId());
+			stmt.setInt(2, limit);
+			ArrayList<Pair<FoodItem, Integer>> ranked = readBestSellers(stmt.executeQuery());
+			return ranked;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Ranks the items by how many have been sold in the given zip code.
+	 * @param zipCode The zip code.
+	 * @param limit The most items to return.
+	 * @return An ArrayList of up to limit items, best-selling first, each
+	 * with the number sold.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<Pair<FoodItem, Integer>> getBestSellersByZipCode(int zipCode, int limit) throws SQLException, BadStateException, BadArgumentException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT productId, sales FROM ZipCodeItemSales WHERE zipCode=? AND sales>0 ORDER BY sales DESC, productId DESC LIMIT ?");
+			stmt.setInt(1, zipCode);
+			stmt.setInt(2, limit);
+			ArrayList<Pair<FoodItem, Integer>> ranked = readBestSellers(stmt.executeQuery());
+			return ranked;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Ranks the items by how many have been sold in the given state.
+	 * @param state The state.
+	 * @param limit The most items to return.
+	 * @return An ArrayList of up to limit items, best-selling first, each
+	 * with the number sold.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<Pair<FoodItem, Integer>> getBestSellersByState(String state, int limit) throws SQLException, BadStateException, BadArgumentException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT productId, sales FROM StateItemSales WHERE state=? AND sales>0 ORDER BY sales DESC, productId DESC LIMIT ?");
+			stmt.setString(1, state);
+			stmt.setInt(2, limit);
+			ArrayList<Pair<FoodItem, Integer>> ranked = readBestSellers(stmt.executeQuery());
+			return ranked;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Ranks the items by how many have been sold across all vending
+	 * machines.
+	 * @param limit The most items to return.
+	 * @return An ArrayList of up to limit items, best-selling first, each
+	 * with the number sold.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<Pair<FoodItem, Integer>> getBestSellersAll(int limit) throws SQLException, BadStateException, BadArgumentException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT productId, sales FROM ItemSales WHERE sales>0 ORDER BY sales DESC, productId DESC LIMIT ?");
+			stmt.setInt(1, limit);
+			ArrayList<Pair<FoodItem, Integer>> ranked = readBestSellers(stmt.executeQuery());
+			return ranked;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Ranks the items by how many of them the given customer has bought.
+	 * @param customer The customer.
+	 * @return An ArrayList of every item the customer has bought, most
+	 * often bought first, each with the number bought.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<Pair<FoodItem, Integer>> getFavoritesByCustomer(Customer customer) throws SQLException, BadStateException, BadArgumentException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT productId, sales FROM CustomerItemSales WHERE customerId=? AND sales>0 ORDER BY sales DESC, productId DESC");
+			stmt.setInt(1, customer.getId());
+			ArrayList<Pair<FoodItem, Integer>> ranked = readBestSellers(stmt.executeQuery());
+			return ranked;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Builds the ranking from a query of one of the item sales tables
+	 * selecting the item id and the number sold, in that order. The tables
+	 * are indexed by sales, so only the rows returned are read. Closes the
+	 * result set when done.
+	 * @param results The result of the query.
+	 * @return An ArrayList of the items, each with the number sold, in
+	 * result order.
+	 * @throws SQLException in case of a database error
+	 **/
+	private ArrayList<Pair<FoodItem, Integer>> readBestSellers(ResultSet results) throws SQLException, BadStateException, BadArgumentException
+	{
+		ArrayList<Pair<Integer, Integer>> ids = new ArrayList<Pair<Integer, Integer>>();
+		while (results.next())
+			ids.add(new Pair<Integer, Integer>(results.getInt(1), results.getInt(2)));
+		results.close();
+
+		ArrayList<Pair<FoodItem, Integer>> ranked = new ArrayList<Pair<FoodItem, Integer>>();
+		for (Pair<Integer, Integer> id : ids)
+		{
+			FoodItem item = getFoodItemById(id.first);
+			if (item != null)
+				ranked.add(new Pair<FoodItem, Integer>(item, id.second));
+		}
+		return ranked;
+	}
+
+	/**
+	 * Builds rollups from a query selecting the period, sales, and revenue,
+	 * in that order. Closes the result set when done.
+	 * @param results The result of the query.
+	 * @return An ArrayList of the rollups, in result order.
+	 * @throws SQLException in case of a database error
+	 **/
+	private ArrayList<SalesRollup> readRollups(ResultSet results) throws SQLException
+	{
+		ArrayList<SalesRollup> rollups = new ArrayList<SalesRollup>();
+		while (results.next())
+			rollups.add(new SalesRollup(results.getInt(1), results.getInt(2), results.getInt(3)));
+		results.close();
+		return rollups;
+	}
+
+	/**
+	 * Records a purchase: inserts the transaction, debits the customer,
+	 * takes one item out of the row it was bought from, and counts the sale
+	 * in the rollups, all in one database transaction. Nothing else about the machine or customer is written,
+	 * so this is much cheaper than saving the transaction, customer, and
+	 * machine separately. The balance and the stock are adjusted in the
+	 * database rather than overwritten, so a purchase made elsewhere in the
+	 * meantime isn't lost. If any step fails, none of them take effect. The
+	 * transaction's id is updated with the auto incremented one, but the
+	 * in-memory customer and row are left for the caller to update. Their
+	 * stored versions advance, so fetch them again before writing them back.
+	 * If this thread is already inside a database transaction, the purchase
+	 * becomes part of it and is not committed here. Otherwise a cached copy
+	 * of the machine is kept, with the row taken down by one.
+	 * @param transaction The new purchase. Its balance is what the customer
+	 * is charged.
+	 * @param row The stored row the product came out of.
+	 * @throws BadArgumentException if the transaction has already been
+	 * saved or refers to something that hasn't been
+	 * @throws BadStateException with the message "Insufficient funds" if the
+	 * customer's stored balance doesn't cover the purchase, or "Item sold out"
+	 * if the stored row is empty
+	 * @throws SQLException in case of a database error
+	 **/
+	public void commitPurchase(Transaction transaction, Row row) throws SQLException, BadStateException, BadArgumentException
+	{
+		if (!transaction.isTempId())
+			throw new BadArgumentException("Transaction has already been stored");
+		if (row.isTempId())
+			throw new BadArgumentException("Row is not in database, but it must be before it can be purchased from");
+		if (transaction.getMachine().isTempId())
+			throw new BadArgumentException("VendingMachine in Transaction is not in database, but it must be before the Transaction can be added");
+		if (transaction.getCustomer().isTempId())
+			throw new BadArgumentException("Customer in Transaction is not in database, but it must be before the Transaction can be added");
+		if (transaction.getProduct().isTempId())
+			throw new BadArgumentException("FoodItem in Transaction is not in database, but it must be before the Transaction can be added");
+
+		int machineId = transaction.getMachine().getId();
+		int customerId = transaction.getCustomer().getId();
+		Connection db = connect();
+		try
+		{
+			boolean ownTransaction = beginTransaction(db);
+			boolean done = false;
+			int id;
+			try
+			{
+				//one row of counts rather than fetching each of them
+				PreparedStatement existsStmt = pool.prepare(db, "SELECT (SELECT COUNT(*) FROM VendingMachine WHERE machineId=?), (SELECT COUNT(*) FROM Customer WHERE customerId=?), (SELECT COUNT(*) FROM Item WHERE itemId=?)");
+				existsStmt.setInt(1, machineId);
+				existsStmt.setInt(2, customerId);
+				existsStmt.setInt(3, transaction.getProduct().getId());
+				ResultSet exists = existsStmt.executeQuery();
+				exists.next();
+				boolean machineStored = exists.getInt(1) > 0;
+				boolean customerStored = customerId == Customer.CASH_ID || exists.getInt(2) > 0;
+				boolean productStored = exists.getInt(3) > 0;
+				exists.close();
+				if (!machineStored)
+					throw new BadArgumentException("VendingMachine in Transaction is not in database, but it must be before the Transaction can be added");
+				if (!customerStored)
+					throw new BadArgumentException("Customer in Transaction is not in database, but it must be before the Transaction can be added");
+				if (!productStored)
+					throw new BadArgumentException("FoodItem in Transaction is not in database, but it must be before the Transaction can be added");
+
+				Location location = transaction.getMachine().getLocation();
+				id = insertPurchase(db, transaction.getTimestampMillis(), machineId, customerId, transaction.getProduct().getId(), transaction.getRow(), row.getId(), transaction.getBalance(), location.getState(), location.getZipCode(), false);
+				done = true;
+			}
+			finally
+			{
+				endTransaction(db, ownTransaction, done);
+				customerCache.invalidate(customerId);
+				if (done && ownTransaction)
+					debitCachedRow(machineId, transaction.getRow(), row.getId());
+				else //an enclosing transaction may yet be rolled back
+					machineCache.invalidate(machineId);
+			}
+			transaction.setId(id);
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Takes one item out of a row of a cached machine, as a purchase just did
+	 * in the database, so that the machine doesn't have to be fetched again.
+	 * The cached copy is replaced rather than changed, since other threads may
+	 * be copying it. If the row isn't where it's expected, the machine is
+	 * dropped from the cache instead.
+	 * @param machineId The machine.
+	 * @param position Where the row is in its current layout.
+	 * @param rowId The stored row.
+	 **/
+	private void debitCachedRow(int machineId, Slot position, int rowId)
+	{
+		synchronized (machineCache)
+		{
+			VendingMachine cached = machineCache.get(machineId);
+			if (cached == null)
+				return;
+			try
+			{
+				VendingMachine copy = copyVendingMachine(cached, new HashMap<Integer, FoodItem>());
+				Row row = copy.getCurrentLayout().getRow(position.getX(), position.getY());
+				if (row != null && row.getId() == rowId && row.getRemainingQuantity() > 0)
+				{
+					row.setRemainingQuantity(row.getRemainingQuantity()-1);
+					row.setVersion(row.getVersion()+1);
+					row.markClean();
+					machineCache.put(machineId, copy);
+					return;
+				}
+			}
+			catch (Exception outOfShape) //fetch it again rather than guess
+			{
+				ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, outOfShape);
+			}
+			machineCache.invalidate(machineId);
+		}
+	}
+
+	/**
+	 * Does the work of commitPurchase() on a connection where a database
+	 * transaction is already in progress. If the database is an offline
+	 * kiosk's replica, the purchase is also queued to be sent to the head
+	 * office.
+	 * @param db The current thread's connection.
+	 * @param timestamp When the purchase occurred.
+	 * @param machineId The machine at which it occurred.
+	 * @param customerId The customer who made it, who is only debited if
+	 * they aren't the cash customer.
+	 * @param productId The item that was bought.
+	 * @param row The position of the row it came out of.
+	 * @param rowId The stored row it came out of.
+	 * @param balance What the customer is charged.
+	 * @param state The state the machine is in.
+	 * @param zipCode The zip code the machine is in.
+	 * @param reconcile Whether the purchase has already happened elsewhere,
+	 * in which case it is stored regardless, and the customer's balance and
+	 * the row's stock are reduced only as far as zero.
+	 * @return The id of the new transaction.
+	 * @throws BadStateException with the message "Insufficient funds" or
+	 * "Item sold out", in which case some of the changes may already have
+	 * been made and the caller must roll them back
+	 * @throws SQLException in case of a database error
+	 **/
+	private int insertPurchase(Connection db, long timestamp, int machineId, int customerId, int productId, Slot row, int rowId, int balance, String state, int zipCode, boolean reconcile) throws SQLException, BadStateException
+	{
+		PreparedStatement insertStmt = pool.prepare(db, "INSERT INTO VMTransaction(timestamp, machineId, customerId, productId, rowX, rowY, balance) VALUES(?, ?, ?, ?, ?, ?, ?)");
+		insertStmt.setLong(1, timestamp);
+		insertStmt.setInt(2, machineId);
+		insertStmt.setInt(3, customerId);
+		insertStmt.setInt(4, productId);
+		insertStmt.setInt(5, row.getX());
+		insertStmt.setInt(6, row.getY());
+		insertStmt.setInt(7, balance);
+		insertStmt.executeUpdate();
+		ResultSet keys = insertStmt.getGeneratedKeys();
+		keys.next();
+		int id = keys.getInt(1);
+		keys.close();
+
+		if (reconcile)
+		{
+			if (customerId != Customer.CASH_ID)
+			{
+				PreparedStatement debitStmt = pool.prepare(db, "UPDATE Customer SET money=MAX(money-?, 0), version=version+1 WHERE customerId=?");
+				debitStmt.setInt(1, balance);
+				debitStmt.setInt(2, customerId);
+				debitStmt.executeUpdate();
+			}
+
+			PreparedStatement stockStmt = pool.prepare(db, "UPDATE VMRow SET remainingQuant=MAX(remainingQuant-1, 0), version=version+1 WHERE vmRowId=?");
+			stockStmt.setInt(1, rowId);
+			stockStmt.executeUpdate();
 		}
 		else
 		{
-			String query = String.format("UPDATE VMTransaction SET timestamp=%d, machineId=%d, customerId=%d, productId=%d, rowX=%d, rowY=%d, balance=%d WHERE transactionId=%d", transaction.getTimestamp().getTimeInMillis(), transaction.getMachine().getId(), transaction.getCustomer().getId(), transaction.getProduct().getId(), transaction.getRow().first, transaction.getRow().second, transaction.getBalance(), transaction.getId());
-			Statement updateStmt = db.createStatement();
-			updateStmt.executeUpdate(query);
-			updateStmt.close();
+			if (customerId != Customer.CASH_ID)
+			{
+				PreparedStatement debitStmt = pool.prepare(db, "UPDATE Customer SET money=money-?, version=version+1 WHERE customerId=? AND money>=?");
+				debitStmt.setInt(1, balance);
+				debitStmt.setInt(2, customerId);
+				debitStmt.setInt(3, balance);
+				if (debitStmt.executeUpdate() == 0)
+					throw new BadStateException("Insufficient funds");
+			}
+
+			PreparedStatement stockStmt = pool.prepare(db, "UPDATE VMRow SET remainingQuant=remainingQuant-1, version=version+1 WHERE vmRowId=? AND remainingQuant>0");
+			stockStmt.setInt(1, rowId);
+			if (stockStmt.executeUpdate() == 0)
+				throw new BadStateException("Item sold out");
+		}
+
+		PreparedStatement outboxStmt = pool.prepare(db, "INSERT INTO SyncOutbox(timestamp, machineId, customerId, productId, rowX, rowY, vmRowId, balance) SELECT ?, ?, ?, ?, ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM ReplicaOf)");
+		outboxStmt.setLong(1, timestamp);
+		outboxStmt.setInt(2, machineId);
+		outboxStmt.setInt(3, customerId);
+		outboxStmt.setInt(4, productId);
+		outboxStmt.setInt(5, row.getX());
+		outboxStmt.setInt(6, row.getY());
+		outboxStmt.setInt(7, rowId);
+		outboxStmt.setInt(8, balance);
+		outboxStmt.executeUpdate();
+
+		addToRollups(db, timestamp, machineId, customerId, productId, state, zipCode, 1, balance);
+		return id;
+	}
+
+	/**
+	 * Finds out how far through a PurchaseJournal has been stored.
+	 * @param journal The journal's name.
+	 * @return The sequence number of the last entry stored, or 0 if none
+	 * ever has been.
+	 * @throws SQLException in case of a database error
+	 **/
+	public long getJournalCheckpoint(String journal) throws SQLException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT sequence FROM JournalCheckpoint WHERE journal=?");
+			stmt.setString(1, journal);
+			ResultSet results = stmt.executeQuery();
+			long sequence = results.next() ? results.getLong(1) : 0;
+			results.close();
+			return sequence;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Stores a group of purchases from a PurchaseJournal in one database
+	 * transaction, as commitPurchase() would each of them, and moves the
+	 * journal's checkpoint past them in the same transaction. Entries at or
+	 * before the checkpoint have already been stored and are skipped, so a
+	 * journal can safely be replayed after a crash. The items have already
+	 * been handed over, so each purchase is stored even if the customer's
+	 * stored balance or the row's stored stock no longer covers it; those are
+	 * instead reduced only as far as zero. Only purchases whose machine no
+	 * longer exists are left out.
+	 * @param journal The journal's name.
+	 * @param entries The entries, in order.
+	 * @return The entries that were left out.
+	 * @throws SQLException in case of a database error, in which case none of
+	 * the entries are stored
+	 **/
+	public ArrayList<PurchaseJournal.Entry> commitJournaledPurchases(String journal, List<PurchaseJournal.Entry> entries) throws SQLException
+	{
+		ArrayList<PurchaseJournal.Entry> rejected = new ArrayList<PurchaseJournal.Entry>();
+		if (entries.isEmpty())
+			return rejected;
+
+		Connection db = connect();
+		try
+		{
+			boolean ownTransaction = beginTransaction(db);
+			boolean done = false;
+			HashMap<Integer, Pair<String, Integer>> locations = new HashMap<Integer, Pair<String, Integer>>();
+			HashSet<Integer> customers = new HashSet<Integer>();
+			try
+			{
+				long checkpoint = getJournalCheckpoint(journal);
+				PreparedStatement locationStmt = pool.prepare(db, "SELECT state, zipCode FROM VendingMachine JOIN Location ON Location.locationId=VendingMachine.locationId WHERE machineId=?");
+				for (PurchaseJournal.Entry entry : entries)
+				{
+					if (entry.getSequence() <= checkpoint)
+						continue;
+
+					Pair<String, Integer> location = locations.get(entry.getMachineId());
+					if (location == null)
+					{
+						locationStmt.setInt(1, entry.getMachineId());
+						ResultSet results = locationStmt.executeQuery();
+						if (results.next())
+							location = new Pair<String, Integer>(results.getString(1), results.getInt(2));
+						results.close();
+						if (location == null)
+						{
+							rejected.add(entry);
+							continue;
+						}
+						locations.put(entry.getMachineId(), location);
+					}
+
+					try
+					{
+						insertPurchase(db, entry.getTimestamp(), entry.getMachineId(), entry.getCustomerId(), entry.getProductId(), entry.getRow(), entry.getRowId(), entry.getBalance(), location.first, location.second, true);
+					}
+					catch (BadStateException impossible) //reconciled purchases are never refused
+					{
+						System.err.println("CRITICAL : Model detected a problem not previously thought possible!");
+						System.err.print("    DUMP : ");
+						impossible.printStackTrace();
+						System.err.println();
+					}
+					customers.add(entry.getCustomerId());
+				}
+
+				PreparedStatement createStmt = pool.prepare(db, "INSERT OR IGNORE INTO JournalCheckpoint(journal, sequence) VALUES(?, 0)");
+				createStmt.setString(1, journal);
+				createStmt.executeUpdate();
+				PreparedStatement moveStmt = pool.prepare(db, "UPDATE JournalCheckpoint SET sequence=? WHERE journal=? AND sequence<?");
+				long last = entries.get(entries.size()-1).getSequence();
+				moveStmt.setLong(1, last);
+				moveStmt.setString(2, journal);
+				moveStmt.setLong(3, last);
+				moveStmt.executeUpdate();
+				done = true;
+			}
+			finally
+			{
+				endTransaction(db, ownTransaction, done);
+				//only once the transaction is over, so another thread can't cache what it replaced
+				for (int customer : customers)
+					customerCache.invalidate(customer);
+				for (int machine : locations.keySet())
+					machineCache.invalidate(machine);
+			}
+			return rejected;
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Stores a group of sales sent by an offline kiosk, as
+	 * commitJournaledPurchases() would, using the kiosk's name as the
+	 * journal's.
+	 * @param kiosk The kiosk's name.
+	 * @param entries The sales, in order.
+	 * @return The sales that were left out.
+	 * @throws SQLException in case of a database error, in which case none of
+	 * the sales are stored
+	 **/
+	public ArrayList<PurchaseJournal.Entry> commitSyncedPurchases(String kiosk, List<PurchaseJournal.Entry> entries) throws SQLException
+	{
+		return commitJournaledPurchases(kiosk, entries);
+	}
+
+	/**
+	 * Fetches the oldest sales an offline kiosk has yet to send to the head
+	 * office. Only a replica made by refreshReplica() records any.
+	 * @param limit The most sales to fetch.
+	 * @return The sales, in order, numbered in the order they were made.
+	 * @throws SQLException in case of a database error
+	 **/
+	public ArrayList<PurchaseJournal.Entry> getSyncOutbox(int limit) throws SQLException
+	{
+		ArrayList<PurchaseJournal.Entry> entries = new ArrayList<PurchaseJournal.Entry>();
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "SELECT sequence, timestamp, machineId, customerId, productId, rowX, rowY, vmRowId, balance FROM SyncOutbox ORDER BY sequence LIMIT ?");
+			stmt.setInt(1, limit);
+			ResultSet results = stmt.executeQuery();
+			while (results.next())
+				entries.add(new PurchaseJournal.Entry(results.getLong(1), results.getLong(2), results.getInt(3), results.getInt(4), results.getInt(5), Slot.of(results.getInt(6), results.getInt(7)), results.getInt(8), results.getInt(9)));
+			results.close();
+		}
+		finally
+		{
+			closeConnection();
+		}
+		return entries;
+	}
+
+	/**
+	 * Forgets the sales that have been sent to the head office.
+	 * @param sequence The number of the last sale sent.
+	 * @throws SQLException in case of a database error
+	 **/
+	public void clearSyncOutbox(long sequence) throws SQLException
+	{
+		Connection db = connect();
+		try
+		{
+			PreparedStatement stmt = pool.prepare(db, "DELETE FROM SyncOutbox WHERE sequence<=?");
+			stmt.setLong(1, sequence);
+			stmt.executeUpdate();
+		}
+		finally
+		{
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Turns away changes to anything refreshReplica() copies from the head
+	 * office, since they would be overwritten by the next refresh; they have
+	 * to be made at the head office instead. This includes restocks and other
+	 * stock edits, which replace rows outright and so, unlike sales, can't be
+	 * queued and merged later.
+	 * @param db The current thread's connection.
+	 * @throws BadStateException if this database is an offline kiosk's replica
+	 * @throws SQLException in case of a database error
+	 **/
+	private void refuseIfReplica(Connection db) throws SQLException, BadStateException
+	{
+		PreparedStatement stmt = pool.prepare(db, "SELECT headOffice FROM ReplicaOf");
+		ResultSet results = stmt.executeQuery();
+		String headOffice = results.next() ? results.getString(1) : null;
+		results.close();
+		if (headOffice != null)
+			throw new BadStateException("This is a replica of "+headOffice+", where changes must be made");
+	}
+
+	/**
+	 * Makes this database an offline kiosk's replica of the head office's,
+	 * or brings an existing replica up to date, in one database transaction.
+	 * Machines, layouts, stock, customers, managers, and favorites are copied
+	 * from the head office; the effects of any sales still waiting in the
+	 * outbox on balances, stock, and favorites are then made again, so that
+	 * they aren't lost before they're sent. From then on, sales made here are
+	 * recorded in the outbox to be sent, and anything else that is copied
+	 * can only be changed at the head office.
+	 * @param headOffice Path to the head office's database, whose schema must
+	 * already be up to date.
+	 * @param kiosk The name under which this kiosk sends its sales.
+	 * @param sent The number of the last sale the head office has received
+	 * from this kiosk, which later sales are numbered after, even if this
+	 * replica is new.
+	 * @throws SQLException in case of a database error, if there is no
+	 * database at <tt>headOffice</tt>, or if this thread is already inside a
+	 * database transaction, in which case nothing changes
+	 **/
+	public void refreshReplica(String headOffice, String kiosk, long sent) throws SQLException
+	{
+		if (!new File(headOffice).isFile())
+			throw new SQLException("There is no head office database at "+headOffice);
+
+		Connection db = connect();
+		try
+		{
+			if (!db.getAutoCommit()) //SQLite can't attach a database mid-transaction
+				throw new SQLException("A replica can't be refreshed inside another transaction");
+
+			Statement stmt = db.createStatement();
+			try
+			{
+				PreparedStatement attachStmt = db.prepareStatement("ATTACH DATABASE ? AS headOffice");
+				attachStmt.setString(1, headOffice);
+				attachStmt.executeUpdate();
+				attachStmt.close();
+
+				try
+				{
+					boolean ownTransaction = beginTransaction(db);
+					boolean done = false;
+					try
+					{
+						for (String table : REPLICATED_TABLES)
+						{
+							StringBuilder columns = new StringBuilder();
+							ResultSet results = stmt.executeQuery("PRAGMA main.table_info("+table+")");
+							while (results.next())
+								columns.append(columns.length() == 0 ? "" : ", ").append(results.getString("name"));
+							results.close();
+
+							stmt.executeUpdate("DELETE FROM main."+table);
+							stmt.executeUpdate("INSERT INTO main."+table+"("+columns+") SELECT "+columns+" FROM headOffice."+table);
+						}
+
+						stmt.executeUpdate("UPDATE Customer SET money=MAX(money-(SELECT SUM(balance) FROM SyncOutbox WHERE SyncOutbox.customerId=Customer.customerId), 0) WHERE customerId IN (SELECT customerId FROM SyncOutbox)");
+						stmt.executeUpdate("UPDATE VMRow SET remainingQuant=MAX(remainingQuant-(SELECT COUNT(*) FROM SyncOutbox WHERE SyncOutbox.vmRowId=VMRow.vmRowId), 0) WHERE vmRowId IN (SELECT vmRowId FROM SyncOutbox)");
+						stmt.executeUpdate("INSERT OR IGNORE INTO CustomerItemSales(customerId, productId, sales, revenue) SELECT DISTINCT customerId, productId, 0, 0 FROM SyncOutbox");
+						stmt.executeUpdate("UPDATE CustomerItemSales SET sales=sales+(SELECT COUNT(*) FROM SyncOutbox WHERE SyncOutbox.customerId=CustomerItemSales.customerId AND SyncOutbox.productId=CustomerItemSales.productId), revenue=revenue+(SELECT TOTAL(balance) FROM SyncOutbox WHERE SyncOutbox.customerId=CustomerItemSales.customerId AND SyncOutbox.productId=CustomerItemSales.productId) WHERE EXISTS (SELECT 1 FROM SyncOutbox WHERE SyncOutbox.customerId=CustomerItemSales.customerId AND SyncOutbox.productId=CustomerItemSales.productId)");
+
+						PreparedStatement numberStmt = pool.prepare(db, "DELETE FROM sqlite_sequence WHERE name='SyncOutbox' AND seq<?");
+						numberStmt.setLong(1, sent);
+						numberStmt.executeUpdate();
+						numberStmt = pool.prepare(db, "INSERT INTO sqlite_sequence(name, seq) SELECT 'SyncOutbox', ? WHERE NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name='SyncOutbox')");
+						numberStmt.setLong(1, sent);
+						numberStmt.executeUpdate();
+
+						stmt.executeUpdate("DELETE FROM ReplicaOf");
+						PreparedStatement replicaStmt = pool.prepare(db, "INSERT INTO ReplicaOf(headOffice, kiosk) VALUES(?, ?)");
+						replicaStmt.setString(1, headOffice);
+						replicaStmt.setString(2, kiosk);
+						replicaStmt.executeUpdate();
+						done = true;
+					}
+					finally
+					{
+						endTransaction(db, ownTransaction, done);
+					}
+				}
+				finally
+				{
+					stmt.executeUpdate("DETACH DATABASE headOffice");
+				}
+			}
+			finally
+			{
+				stmt.close();
+				itemCache.clear();
+				customerCache.clear();
+				locationCache.clear();
+				machineCache.clear();
+			}
+		}
+		finally
+		{
+			closeConnection();
 		}
-		closeConnection();
 	}
 }
@@ -0,0 +1,94 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Tuning applied to each new database connection.
+ * Every profile uses write-ahead logging, which lets readers and a writer work at the same time instead of blocking each other.
+ * The profiles differ in how much they trade memory and durability for speed.
+ */
+public enum DatabaseProfile
+{
+	/**
+	 * For vending kiosks, which have little memory and must never forget a sale once it has been made.
+	 * Every commit is synced to disk, and the page cache is kept small.
+	 */
+	KIOSK("WAL", "FULL", 500, 0, "DEFAULT", 5),
+
+	/**
+	 * For the head-office host that runs managers' reports over the whole fleet.
+	 * Commits are only synced at checkpoints, which is still safe from corruption under WAL; reads get a large page cache, memory mapping, and in-memory temporary tables; and long reports may wait longer for the database.
+	 */
+	REPORTING("WAL", "NORMAL", 20000, 268435456, "MEMORY", 30);
+
+	/** Value for PRAGMA journal_mode. */
+	private final String journalMode;
+
+	/** Value for PRAGMA synchronous. */
+	private final String synchronous;
+
+	/** Value for PRAGMA cache_size, in pages. */
+	private final int cacheSize;
+
+	/** Value for PRAGMA mmap_size, in bytes. */
+	private final long mmapSize;
+
+	/** Value for PRAGMA temp_store. */
+	private final String tempStore;
+
+	/** How long, in seconds, to wait for another connection's lock before giving up. */
+	private final int busyTimeout;
+
+	/**
+	 * Settings constructor.
+	 * @param journalMode value for PRAGMA journal_mode
+	 * @param synchronous value for PRAGMA synchronous
+	 * @param cacheSize value for PRAGMA cache_size, in pages
+	 * @param mmapSize value for PRAGMA mmap_size, in bytes
+	 * @param tempStore value for PRAGMA temp_store
+	 * @param busyTimeout seconds to wait for a lock
+	 */
+	private DatabaseProfile(String journalMode, String synchronous, int cacheSize, long mmapSize, String tempStore, int busyTimeout)
+	{
+		this.journalMode=journalMode;
+		this.synchronous=synchronous;
+		this.cacheSize=cacheSize;
+		this.mmapSize=mmapSize;
+		this.tempStore=tempStore;
+		this.busyTimeout=busyTimeout;
+	}
+
+	/**
+	 * Configures a freshly opened connection.
+	 * SQLite silently ignores any pragma its version doesn't know (e.g. <tt>mmap_size</tt> before 3.7.17), so those settings simply take effect once the driver is upgraded.
+	 * @param conn the connection, which must not be in the middle of a transaction
+	 * @throws SQLException if a setting is rejected
+	 */
+	public void apply(Connection conn) throws SQLException
+	{
+		Statement stmt=conn.createStatement();
+
+		try
+		{
+			//the SQLite driver applies this to the whole connection, and PRAGMA busy_timeout isn't available before SQLite 3.7.15
+			stmt.setQueryTimeout(busyTimeout);
+			stmt.execute("PRAGMA journal_mode="+journalMode);
+			stmt.execute("PRAGMA synchronous="+synchronous);
+			stmt.execute("PRAGMA cache_size="+cacheSize);
+			stmt.execute("PRAGMA mmap_size="+mmapSize);
+			stmt.execute("PRAGMA temp_store="+tempStore);
+		}
+		finally
+		{
+			stmt.close();
+		}
+	}
+
+	/**
+	 * @return the journal mode this profile selects
+	 */
+	public String getJournalMode()
+	{
+		return journalMode;
+	}
+}
@@ -0,0 +1,146 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, expiring cache of model objects keyed by their primary keys.
+ * Once the cache holds its maximum number of entries, the least recently used one is evicted to make room.
+ * Entries older than the time-to-live are treated as absent.
+ * The cache stores whatever instances it is given, so callers that hand out mutable objects should store and return copies.
+ * Every method is safe to call from multiple threads at once.
+ * @param <T> the type of object being cached
+ */
+public class EntityCache<T extends ModelBase>
+{
+	/** The default maximum number of entries. */
+	public static final int DEFAULT_MAX_ENTRIES=1000;
+
+	/** The default number of milliseconds an entry remains valid. */
+	public static final long DEFAULT_TIME_TO_LIVE=60000;
+
+	/** Maximum number of entries. */
+	private final int maxEntries;
+
+	/** Number of milliseconds an entry remains valid. */
+	private final long timeToLive;
+
+	/** The entries, least recently used first, each paired with the time it was stored. */
+	private final LinkedHashMap<Integer, Pair<T, Long>> entries;
+
+	/** Number of lookups that found a live entry. */
+	private long hits;
+
+	/** Number of lookups that didn't. */
+	private long misses;
+
+	/**
+	 * Default constructor.
+	 * Uses the default size and time-to-live.
+	 */
+	public EntityCache()
+	{
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+	}
+
+	/**
+	 * Limits constructor.
+	 * @param maxEntries the most entries to hold at once
+	 * @param timeToLive how long, in milliseconds, an entry remains valid after being stored
+	 * @throws IllegalArgumentException if <tt>maxEntries</tt> isn't positive or <tt>timeToLive</tt> is negative
+	 */
+	public EntityCache(int maxEntries, long timeToLive)
+	{
+		if(maxEntries<=0)
+			throw new IllegalArgumentException("Maximum entries must be positive");
+		else if(timeToLive<0)
+			throw new IllegalArgumentException("Time to live cannot be negative");
+
+		this.maxEntries=maxEntries;
+		this.timeToLive=timeToLive;
+		entries=new LinkedHashMap<Integer, Pair<T, Long>>(16, 0.75f, true) //access order
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Pair<T, Long>> eldest)
+			{
+				return size()>EntityCache.this.maxEntries;
+			}
+		};
+		hits=0;
+		misses=0;
+	}
+
+	/**
+	 * Looks up an entry, counting the lookup as a hit or a miss.
+	 * @param id the primary key
+	 * @return the stored object, or <tt>null</tt> if there is none or it has expired
+	 */
+	public synchronized T get(int id)
+	{
+		Pair<T, Long> entry=entries.get(id);
+
+		if(entry!=null && System.currentTimeMillis()-entry.second>timeToLive)
+		{
+			entries.remove(id);
+			entry=null;
+		}
+
+		if(entry==null)
+		{
+			++misses;
+			return null;
+		}
+		++hits;
+		return entry.first;
+	}
+
+	/**
+	 * Stores an object, replacing any existing entry with the same primary key.
+	 * @param id the primary key
+	 * @param value the object to store
+	 */
+	public synchronized void put(int id, T value)
+	{
+		entries.put(id, new Pair<T, Long>(value, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Forgets a single entry.
+	 * @param id the primary key
+	 */
+	public synchronized void invalidate(int id)
+	{
+		entries.remove(id);
+	}
+
+	/**
+	 * Forgets every entry.
+	 * The hit and miss counts are kept.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of entries currently held, including any that have expired but not yet been looked up
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of lookups that found a live entry
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups that didn't find a live entry
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+}
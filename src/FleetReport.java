@@ -0,0 +1,130 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * Sales figures across the whole fleet of vending machines, broken down by machine, item, state, or zip code.
+ * The transactions are aggregated per machine or per item by a parallel scan of a <tt>TransactionColumns</tt> snapshot; the per-machine totals are then rolled up by where each machine is now.
+ * Results are sorted by key, so the same data always produces the same report.
+ * The number of threads used can be set with <tt>TransactionColumns.setParallelism(int)</tt>.
+ */
+public class FleetReport
+{
+	/** The transaction history. */
+	private TransactionColumns transactions;
+
+	/** The state and zip code of each machine, by machine id. */
+	private HashMap<Integer, Pair<String, Integer>> places;
+
+	/**
+	 * Database constructor.
+	 * Loads the transaction history and where each machine is, without loading the machines themselves.
+	 * @throws SQLException in case of a database error
+	 * @throws BadStateException if a stored object is inconsistent
+	 * @throws BadArgumentException if a stored object is invalid
+	 */
+	public FleetReport() throws SQLException, BadStateException, BadArgumentException
+	{
+		this(DatabaseLayer.getInstance().getTransactionColumns(), DatabaseLayer.getInstance().getVendingMachinePlaces());
+	}
+
+	/**
+	 * Places constructor.
+	 * @param transactions the transaction history
+	 * @param places the state and zip code of each machine whose transactions are to be placed by location, by machine id
+	 */
+	public FleetReport(TransactionColumns transactions, HashMap<Integer, Pair<String, Integer>> places)
+	{
+		this.transactions=transactions;
+		this.places=places;
+	}
+
+	/**
+	 * Snapshot constructor.
+	 * @param transactions the transaction history
+	 * @param machines the machines whose transactions are to be placed by location
+	 * @throws BadStateException if a machine hasn't been stored
+	 */
+	public FleetReport(TransactionColumns transactions, Collection<VendingMachine> machines) throws BadStateException
+	{
+		this.transactions=transactions;
+		places=new HashMap<Integer, Pair<String, Integer>>();
+		for(VendingMachine machine : machines)
+			places.put(machine.getId(), new Pair<String, Integer>(machine.getLocation().getState(), machine.getLocation().getZipCode()));
+	}
+
+	/**
+	 * Totals the sales at each machine.
+	 * @param filter which transactions to include
+	 * @return the totals, keyed by machine id, in order of id
+	 */
+	public ArrayList<TransactionColumns.Group> byMachine(TransactionColumns.Filter filter)
+	{
+		return transactions.group(TransactionColumns.Key.MACHINE, filter);
+	}
+
+	/**
+	 * Totals the sales of each item.
+	 * @param filter which transactions to include
+	 * @return the totals, keyed by item id, in order of id
+	 */
+	public ArrayList<TransactionColumns.Group> byFoodItem(TransactionColumns.Filter filter)
+	{
+		return transactions.group(TransactionColumns.Key.PRODUCT, filter);
+	}
+
+	/**
+	 * Totals the sales in each state.
+	 * Sales at machines that weren't supplied are left out.
+	 * @param filter which transactions to include
+	 * @return the totals, each with a key of <tt>0</tt>, by state in alphabetical order
+	 */
+	public TreeMap<String, TransactionColumns.Group> byState(TransactionColumns.Filter filter)
+	{
+		TreeMap<String, TransactionColumns.Group> states=new TreeMap<String, TransactionColumns.Group>();
+
+		for(TransactionColumns.Group machine : byMachine(filter))
+		{
+			Pair<String, Integer> place=places.get(machine.getKey());
+
+			if(place!=null)
+				states.put(place.first, add(states.get(place.first), machine));
+		}
+		return states;
+	}
+
+	/**
+	 * Totals the sales in each zip code.
+	 * Sales at machines that weren't supplied are left out.
+	 * @param filter which transactions to include
+	 * @return the totals, each with a key of <tt>0</tt>, by zip code in numerical order
+	 */
+	public TreeMap<Integer, TransactionColumns.Group> byZipCode(TransactionColumns.Filter filter)
+	{
+		TreeMap<Integer, TransactionColumns.Group> zipCodes=new TreeMap<Integer, TransactionColumns.Group>();
+
+		for(TransactionColumns.Group machine : byMachine(filter))
+		{
+			Pair<String, Integer> place=places.get(machine.getKey());
+
+			if(place!=null)
+				zipCodes.put(place.second, add(zipCodes.get(place.second), machine));
+		}
+		return zipCodes;
+	}
+
+	/**
+	 * Adds a machine's totals to a running total.
+	 * @param sum the running total, or <tt>null</tt> if there isn't one yet
+	 * @param machine the machine's totals
+	 * @return the new running total, with a key of <tt>0</tt>
+	 */
+	private static TransactionColumns.Group add(TransactionColumns.Group sum, TransactionColumns.Group machine)
+	{
+		if(sum==null)
+			return new TransactionColumns.Group(0, machine.getSales(), machine.getRevenue());
+		return new TransactionColumns.Group(0, sum.getSales()+machine.getSales(), sum.getRevenue()+machine.getRevenue());
+	}
+}
@@ -94,6 +94,7 @@ public class FoodItem extends ModelBase {
 			throw new BadArgumentException("Name must not be null");
 		
 		this.name = name;
+		markDirty();
 	}
 
 	/**
@@ -106,6 +107,7 @@ public class FoodItem extends ModelBase {
 			throw new BadArgumentException("Price must not be negative");
 		
 		this.price = price;
+		markDirty();
 	}
 
 	/**
@@ -118,6 +120,7 @@ public class FoodItem extends ModelBase {
 			throw new BadArgumentException("Fresh length must be positive");
 		
 		this.freshLength = freshLength;
+		markDirty();
 	}
 
 	/**
@@ -126,6 +129,7 @@ public class FoodItem extends ModelBase {
 	public void makeActive(boolean active)
 	{
 		this.active=active;
+		markDirty();
 	}
 
 	/**
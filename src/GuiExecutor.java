@@ -0,0 +1,129 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs the GUIs' slow controller operations off the event dispatch thread, then hands their results back to it.
+ * All of the GUIs share one executor: virtual threads where the Java runtime has them, or else a small fixed pool, so that a burst of clicks queues up rather than starting a thread apiece.
+ */
+public class GuiExecutor
+{
+	/** The number of threads in the pool used when virtual threads aren't available. */
+	public static final int DEFAULT_THREADS=4;
+
+	/**
+	 * An operation to run in the background, followed by its effect on the screen.
+	 * @param <T> the type of the operation's result
+	 */
+	public static abstract class Task<T>
+	{
+		/**
+		 * Does the work; called on a background thread, so mustn't touch any Swing components.
+		 * @return the result
+		 */
+		protected abstract T call();
+
+		/**
+		 * Shows the result; called on the event dispatch thread.
+		 * @param result what <tt>call()</tt> returned
+		 */
+		protected abstract void done(T result);
+
+		/**
+		 * Recovers from <tt>call()</tt> throwing; called on the event dispatch thread.
+		 * By default, this only reports the problem.
+		 * @param problem what was thrown
+		 */
+		protected void failed(RuntimeException problem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.ERROR, problem);
+		}
+	}
+
+	/** The shared executor, created on first use. */
+	private static ExecutorService shared=null;
+
+	/**
+	 * Not to be instantiated.
+	 */
+	private GuiExecutor() {}
+
+	/**
+	 * @return the shared executor
+	 */
+	public static synchronized ExecutorService getExecutor()
+	{
+		if(shared==null)
+			shared=createExecutor();
+		return shared;
+	}
+
+	/**
+	 * Creates an executor that runs each task on its own virtual thread if this Java runtime supports them, or else on a fixed pool of daemon threads.
+	 * @return the new executor
+	 */
+	private static ExecutorService createExecutor()
+	{
+		try
+		{
+			//looked up by name so that the code still builds and runs on older Java versions
+			Method virtual=Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)virtual.invoke(null);
+		}
+		catch(Exception unavailable) //an older Java version, or one where they're still a disabled preview feature
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, unavailable);
+		}
+
+		return Executors.newFixedThreadPool(DEFAULT_THREADS, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable work)
+			{
+				Thread worker=new Thread(work, "GUI worker");
+				worker.setDaemon(true);
+				return worker;
+			}
+		});
+	}
+
+	/**
+	 * Queues a task to run in the background.
+	 * @param task the task
+	 */
+	public static <T> void submit(final Task<T> task)
+	{
+		getExecutor().execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					final T result=task.call();
+					SwingUtilities.invokeLater(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							task.done(result);
+						}
+					});
+				}
+				catch(final RuntimeException problem)
+				{
+					SwingUtilities.invokeLater(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							task.failed(problem);
+						}
+					});
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,131 @@
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * Keeps an offline kiosk's local database in step with the head office's, so that the kiosk keeps selling when it loses its connection.
+ * The kiosk runs against its own database, which records each sale in an outbox as well as making it; syncing sends the outbox to the head office in batches, then copies the head office's machines, stock, and customers back.
+ * The conflict rules are:
+ * <ul>
+ * <li>Sales are never undone: the head office stores each one, reducing the customer's balance and the row's stock only as far as zero if they no longer cover it (e.g. if the customer has since spent the money at another kiosk).</li>
+ * <li>Balances are only ever changed by sending each sale's price, never by overwriting one balance with another, so top-ups and sales made elsewhere are never lost.</li>
+ * <li>Layouts, stock, prices, and everything else come from the head office, and can't be changed locally, since the next sync would overwrite them; sales that haven't been sent yet are then taken off balances and stock and added to favorites again.</li>
+ * </ul>
+ * Only sales are queued. Restocks and other stock edits replace whole rows and layouts rather than adjusting them, so there is no safe way to merge one made offline with changes made at the head office in the meantime; a replica refuses them with a <tt>BadStateException</tt> instead, and restockers have to work against the head office's database.
+ * Each batch is sent in one database transaction at the head office, which keeps track of the last sale it received from each kiosk, so a batch resent after a failure is never stored twice.
+ */
+public class KioskSync
+{
+	/** The default number of sales to send at once. */
+	public static final int DEFAULT_BATCH_SIZE=100;
+
+	/** The default number of milliseconds between syncs when run on its own. */
+	public static final long DEFAULT_INTERVAL=60000;
+
+	/** Path to the head office's database. */
+	private final String headOffice;
+
+	/** The name this kiosk sends its sales under, which must be unique to it. */
+	private final String kiosk;
+
+	/** The number of sales to send at once. */
+	private final int batchSize;
+
+	/**
+	 * Normal constructor.
+	 * @param headOffice path to the head office's database
+	 * @param kiosk the name this kiosk sends its sales under, which must be unique to it
+	 * @param batchSize the number of sales to send at once
+	 * @throws IllegalArgumentException if <tt>batchSize</tt> is not positive
+	 */
+	public KioskSync(String headOffice, String kiosk, int batchSize)
+	{
+		if(batchSize<=0)
+			throw new IllegalArgumentException("Sync batch size must be positive");
+
+		this.headOffice=headOffice;
+		this.kiosk=kiosk;
+		this.batchSize=batchSize;
+	}
+
+	/**
+	 * Sends all outstanding sales to the head office, then brings the local database up to date with it.
+	 * The first sync turns the local database into a replica of the head office's.
+	 * @return the number of sales sent
+	 * @throws SQLException if the head office can't be reached, in which case the unsent sales stay queued to be sent next time
+	 */
+	public synchronized int sync() throws SQLException
+	{
+		DatabaseLayer local=DatabaseLayer.getInstance();
+		if(local==null)
+			throw new SQLException("The local database is unavailable");
+		if(!new File(headOffice).isFile()) //don't create an empty one and then copy it
+			throw new SQLException("There is no head office database at "+headOffice);
+
+		DatabaseLayer remote=DatabaseLayer.open(headOffice);
+		try
+		{
+			int sent=0;
+			for(ArrayList<PurchaseJournal.Entry> batch=local.getSyncOutbox(batchSize); !batch.isEmpty(); batch=local.getSyncOutbox(batchSize))
+			{
+				for(PurchaseJournal.Entry rejected : remote.commitSyncedPurchases(kiosk, batch))
+					ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.WARN, new BadStateException("Synced sale could not be stored: "+rejected));
+				local.clearSyncOutbox(batch.get(batch.size()-1).getSequence());
+				sent+=batch.size();
+			}
+
+			local.refreshReplica(headOffice, kiosk, remote.getJournalCheckpoint(kiosk));
+			return sent;
+		}
+		finally
+		{
+			remote.close();
+		}
+	}
+
+	/**
+	 * Syncs the local database with the head office's at intervals until the process is killed.
+	 * @param args the path to the head office's database, the name this kiosk sends its sales under, and optionally the number of seconds between syncs
+	 */
+	public static void main(String[] args)
+	{
+		long interval=DEFAULT_INTERVAL;
+		if(args.length!=2 && args.length!=3)
+		{
+			System.err.println("Usage: KioskSync <head office database> <kiosk name> [seconds between syncs]");
+			System.exit(1);
+		}
+		try
+		{
+			if(args.length==3)
+				interval=Long.parseLong(args[2])*1000;
+		}
+		catch(NumberFormatException wrong)
+		{
+			System.err.println("Usage: KioskSync <head office database> <kiosk name> [seconds between syncs]");
+			System.exit(1);
+		}
+
+		KioskSync syncer=new KioskSync(args[0], args[1], DEFAULT_BATCH_SIZE);
+		while(true)
+		{
+			try
+			{
+				System.out.println("Sent "+syncer.sync()+" sales to the head office");
+			}
+			catch(SQLException offline) //try again next time
+			{
+				System.err.println("Could not sync with the head office: "+offline.getMessage());
+			}
+
+			try
+			{
+				Thread.sleep(interval);
+			}
+			catch(InterruptedException stopped)
+			{
+				return;
+			}
+		}
+	}
+}
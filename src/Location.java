@@ -14,6 +14,9 @@ public class Location extends ModelBase {
 	/** An array of the location's nearby businesses. */
 	private String[] nearbyBusinesses;
 
+	/** The nearby businesses as of the last time the location was stored or fetched, since the array may be modified in place. */
+	private String[] syncedBusinesses;
+
 	/**
 	 * Location constructor.
 	 *
@@ -31,6 +34,7 @@ public class Location extends ModelBase {
 		this.zipCode = zipCode;
 		this.state = state;
 		this.nearbyBusinesses = nearbyBusinesses;
+		this.syncedBusinesses = nearbyBusinesses.clone();
 	}
 
 	/**
@@ -43,6 +47,7 @@ public class Location extends ModelBase {
 		this.zipCode = old.zipCode;
 		this.state = old.state;
 		this.nearbyBusinesses = old.nearbyBusinesses;
+		this.syncedBusinesses = old.syncedBusinesses;
 	}
 
 	/**
@@ -73,6 +78,7 @@ public class Location extends ModelBase {
 			throw new BadArgumentException("ZIP code must not be negative");
 		
 		this.zipCode = zipCode;
+		markDirty();
 	}
 
 	/**
@@ -85,6 +91,7 @@ public class Location extends ModelBase {
 			throw new BadArgumentException("State must not be null");
 		
 		this.state = state;
+		markDirty();
 	}
 
 	/**
@@ -99,6 +106,26 @@ public class Location extends ModelBase {
 		this.nearbyBusinesses = nearbyBusinesses;
 	}
 
+	/**
+	 * Determines whether the list of nearby businesses has changed since the location was last stored or fetched.
+	 * These are stored separately from the rest of the location, so they are tracked separately from <tt>isDirty()</tt>.
+	 * @return whether the businesses need to be stored
+	 */
+	public boolean areBusinessesDirty()
+	{
+		return isTempId() || !Arrays.equals(nearbyBusinesses, syncedBusinesses);
+	}
+
+	/**
+	 * Also remembers the current list of nearby businesses.
+	 */
+	@Override
+	public void markClean()
+	{
+		super.markClean();
+		syncedBusinesses=nearbyBusinesses.clone();
+	}
+
 	/**
 	 * Retrieves the ZIP code, formatted to 5 digits as one might expect.
 	 * @return the formatted code
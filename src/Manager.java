@@ -45,6 +45,7 @@ public class Manager extends User
 			throw new BadArgumentException("Password must not be null");
 		
 		this.password=password;
+		markDirty();
 	}
 
 	/**
@@ -82,7 +82,7 @@ public class ManagerAlterLayoutScreen {
 	 * @param it the fooditem in question
 	 * @return 0 on success, 1 if the item expires too soon, and -1 on failure
 	 */
-	public int queueRowChange( Pair<Integer, Integer> row, FoodItem it ) {
+	public int queueRowChange( Slot row, FoodItem it ) {
 		if (it != null)
 		{
 			for (VendingMachine machine : machines)
@@ -93,12 +93,12 @@ public class ManagerAlterLayoutScreen {
 		}
 		for (VendingMachine machine : machines)
 		{
-			Row[][] rows = machine.getNextLayout().getRows();
+			VMLayout layout = machine.getNextLayout();
 			try {
 				if (it == null)
-					rows[row.first][row.second] = null;
+					layout.setRow(row.getX(), row.getY(), null);
 				else
-					rows[row.first][row.second] = new Row(it, machine.getNextLayout().getDepth(), new GregorianCalendar());
+					layout.setRow(row.getX(), row.getY(), new Row(it, layout.getDepth(), new GregorianCalendar()));
 			} catch ( Exception generalFault ) {
 				ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, generalFault);
 				return -1;
@@ -186,7 +186,7 @@ public class ManagerAlterLayoutScreenGUI extends JPanel implements ActionListene
 		else if (source == changeRowButton)
 		{
 			// Try the row change
-			Pair<Integer, Integer> selected = vmButtons.getSelectedRow();
+			Slot selected = vmButtons.getSelectedRow();
 			int result = controller.queueRowChange(selected, (FoodItem)stockableItems.getSelectedValue());
 
 			// Set the status bar to an appropriate message depending on the
@@ -207,7 +207,7 @@ public class ManagerAlterLayoutScreenGUI extends JPanel implements ActionListene
 		else if (source == emptyRowButton)
 		{
 			// Try to empty the row
-			Pair<Integer, Integer> selected = vmButtons.getSelectedRow();
+			Slot selected = vmButtons.getSelectedRow();
 			int result = controller.queueRowChange(selected, null);
 
 			// Set the status bar to an appropriate message depending on the
@@ -225,13 +225,20 @@ public class ManagerAlterLayoutScreenGUI extends JPanel implements ActionListene
 		// Commit changes clicked
 		else if (source == commitChangesButton)
 		{
-			new Thread()
+			master.setProcessing(commitChangesButton);
+			GuiExecutor.submit(new GuiExecutor.Task<Boolean>()
 			{
-				public void run()
+				@Override
+				protected Boolean call()
 				{
-					master.setProcessing(commitChangesButton);
 					// Try to commit the changes
-					if (controller.commitRowChanges())
+					return controller.commitRowChanges();
+				}
+
+				@Override
+				protected void done(Boolean committed)
+				{
+					if (committed)
 					{
 						master.popContentPanel();
 						// Display a success message
@@ -245,7 +252,7 @@ public class ManagerAlterLayoutScreenGUI extends JPanel implements ActionListene
 						master.getStatusBar().setStatus("An error occurred while attempting to commit the changes", StatusBar.STATUS_BAD_COLOR);
 					}
 				}
-			}.start();
+			});
 		}
 	}
 }
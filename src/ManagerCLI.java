@@ -134,9 +134,26 @@ public class ManagerCLI
 	 **/
 	private static void viewStatsAll(ManagerReportStatsScreen screen)
 	{
-		ArrayList<Transaction> sales = screen.listSalesAll();
+		DatabaseLayer.TransactionCursor sales = screen.openSalesAll();
 		System.out.println("\n\nAll Sales:");
-		CLIUtilities.printCollection(sales);
+		if (sales == null)
+			return;
+		try
+		{
+			try
+			{
+				for (Transaction sale = sales.next(); sale != null; sale = sales.next())
+					System.out.println(sale.toString());
+			}
+			finally
+			{
+				sales.close();
+			}
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+		}
 	}
 
 	/**
@@ -300,7 +317,7 @@ public class ManagerCLI
 		printRow(layout[x][y]);
 		ArrayList<FoodItem> items = alterLayout.listItems();
 		FoodItem item = foodItemChooser(items);
-		int success = alterLayout.queueRowChange(new Pair<Integer, Integer>(x,y), item);
+		int success = alterLayout.queueRowChange(Slot.of(x,y), item);
 		if (success == 0)
 			System.out.println("Change queued successfully.\nYou still need to commit the changes before the changes become permanent");
 		else if (success == 1)
@@ -325,7 +342,7 @@ public class ManagerCLI
 			x = CLIUtilities.promptInt("Enter X value", true);
 			y = CLIUtilities.promptInt("Enter Y value", true);
 		}
-		int success = alterLayout.queueRowChange(new Pair<Integer, Integer>(x,y), null);
+		int success = alterLayout.queueRowChange(Slot.of(x,y), null);
 		if (success == 0)
 			System.out.println("Change queued successfully.\nYou still need to commit the changes before the changes become permanent");
 		else if (success == 1)
@@ -765,6 +782,7 @@ public class ManagerCLI
 	 **/
 	public static void main(String[] args)
 	{
+		DatabaseLayer.setDatabaseProfile(DatabaseProfile.REPORTING);
 		login();
 		System.out.println("Goodbye!");
 	}
@@ -111,19 +111,24 @@ public class ManagerMachineManagementScreen {
 	}
 
 	/**
+	 * If someone else changes the machine at the same time, the change is made again to their version.
 	 * @param vm		Vending machine whose interval to change
 	 * @param interval	Proposed new restocking interval
 	 *
 	 * @return	0 if valid stocking interval, -1 if unexpected failure, any other integer to represent the minimum number of days for the new stocking interval
 	 * 			(only 0 guarantees a successful change)
 	 */
-	public int changeMachineStockingInterval(VendingMachine vm, int interval) {
+	public int changeMachineStockingInterval(VendingMachine vm, final int interval) {
 		try {
 			int validity = stockingIntervalValidity(vm, interval);
 			
 			if(validity == 0) {
-				vm.setStockingInterval(interval);
-				db.updateOrCreateVendingMachine(vm);
+				db.updateVendingMachine(vm, new DatabaseLayer.Change<VendingMachine>() {
+					@Override
+					public void applyTo(VendingMachine target) throws BadArgumentException {
+						target.setStockingInterval(interval);
+					}
+				});
 				storefronts = db.getVendingMachinesAll();
 			}
 			
@@ -161,13 +166,18 @@ public class ManagerMachineManagementScreen {
 
 	/**
 	 * deactivate a machine
+	 * If someone else changes the machine at the same time, it is deactivated again in their version.
 	 * @param vm The vending machine to deactivate
 	 * @return True on success, false on failure
 	 */
 	public boolean deactivateMachine( VendingMachine vm ) {
 		try {
-			vm.makeActive( false );
-			db.updateOrCreateVendingMachine( vm );
+			db.updateVendingMachine( vm, new DatabaseLayer.Change<VendingMachine>() {
+				@Override
+				public void applyTo( VendingMachine target ) {
+					target.makeActive( false );
+				}
+			} );
 			storefronts = db.getVendingMachinesAll();
 			return true;
 		} catch ( Exception databaseProblem ) {
@@ -178,13 +188,18 @@ public class ManagerMachineManagementScreen {
 
 	/**
 	 * reactivates a machine
+	 * If someone else changes the machine at the same time, it is reactivated again in their version.
 	 * @param vm The vending machine to reactivate
 	 * @return True on success, false on failure
 	 */
 	public boolean reactivateMachine( VendingMachine vm ) {
 		try {
-			vm.makeActive( true );
-			db.updateOrCreateVendingMachine( vm );
+			db.updateVendingMachine( vm, new DatabaseLayer.Change<VendingMachine>() {
+				@Override
+				public void applyTo( VendingMachine target ) {
+					target.makeActive( true );
+				}
+			} );
 			storefronts = db.getVendingMachinesAll();
 			return true;
 		} catch ( Exception databaseProblem ) {
@@ -195,6 +210,7 @@ public class ManagerMachineManagementScreen {
 	
 	/**
 	 * changes a machines location
+	 * If someone else changes the machine at the same time, it is moved again in their version.
 	 * @param vm The vending machine to change
 	 * @param zipCode The new zip code for the machine
 	 * @param state The state for the new machine
@@ -204,9 +220,13 @@ public class ManagerMachineManagementScreen {
 	 */
 	public boolean changeMachineLocation( VendingMachine vm, int zipCode, String state, String[] nearbyBusinesses ) {
 		try {
-			Location location = new Location(zipCode, state, nearbyBusinesses);
-			vm.setLocation( location );
-			db.updateOrCreateVendingMachine( vm );
+			final Location location = new Location(zipCode, state, nearbyBusinesses);
+			db.updateVendingMachine( vm, new DatabaseLayer.Change<VendingMachine>() {
+				@Override
+				public void applyTo( VendingMachine target ) throws BadArgumentException {
+					target.setLocation( location );
+				}
+			} );
 			storefronts = db.getVendingMachinesAll();
 		} catch ( Exception databaseProblem ) {
 			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
@@ -259,29 +259,40 @@ public class ManagerMachineManagementScreenAddMachineGUI extends JPanel implemen
 		// screen.
 		if (source == confirmButton)
 		{
-			new Thread()
+			master.setProcessing((Component)source);
+			// If the old layout was null then we need to make one from the
+			// manager's input.
+			if (oldLayout == null)
 			{
-				public void run()
+				try
 				{
+					oldLayout=new VMLayout(colField.getNumber(), rowField.getNumber(), depthField.getNumber());
+				}
+				catch(BadArgumentException no)
+				{
+					ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.FATAL, no);
+				}
+			}
+			final int zipCode = locationPicker.getZipCode();
+			final String state = locationPicker.getState();
+			final String[] nearbyBusinesses = locationPicker.getNearbyBusinesses();
+			final int interval = stockingIntervalField.getNumber();
+			final VMLayout layout = oldLayout;
 
-					master.setProcessing((Component)source);
-					// If the old layout was null then we need to make one from the
-					// manager's input.
-					if (oldLayout == null)
-					{
-						try
-						{
-							oldLayout=new VMLayout(colField.getNumber(), rowField.getNumber(), depthField.getNumber());
-						}
-						catch(BadArgumentException no)
-						{
-							ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.FATAL, no);
-						}
-					}
+			GuiExecutor.submit(new GuiExecutor.Task<Integer>()
+			{
+				@Override
+				protected Integer call()
+				{
+					return controller.addMachine(zipCode, state, nearbyBusinesses, interval, layout);
+				}
 
-					// Try adding the machine. If it works then display a success
-					// message. If it fails then display an error message.
-					if (controller.addMachine(locationPicker.getZipCode(), locationPicker.getState(), locationPicker.getNearbyBusinesses(), stockingIntervalField.getNumber(), oldLayout) != -1)
+				@Override
+				protected void done(Integer id)
+				{
+					// If adding the machine worked then display a success
+					// message. If it failed then display an error message.
+					if (id != -1)
 					{
 						master.popContentPanel();
 						master.getStatusBar().setStatus("Machine added successfully!", StatusBar.STATUS_GOOD_COLOR);
@@ -295,7 +306,7 @@ public class ManagerMachineManagementScreenAddMachineGUI extends JPanel implemen
 					// back to it.
 					parent.refreshList();
 				}
-			}.start();
+			});
 		}
 	}
 }
@@ -129,21 +129,29 @@ public class ManagerMachineManagementScreenChangeIntervalGUI extends JPanel impl
 	public void actionPerformed(ActionEvent event) {
 		final Object source = event.getSource();
 		if (source == confirmButton) {
-			new Thread()
+			final int interval = stockingField.getNumber();
+			master.setProcessing((Component)source);
+			GuiExecutor.submit(new GuiExecutor.Task<Integer>()
 			{
-				public void run()
+				@Override
+				protected Integer call()
 				{
-					master.setProcessing((Component)source);
-					if(controller.changeMachineStockingInterval(machine, stockingField.getNumber()) == 0) {
+					return controller.changeMachineStockingInterval(machine, interval);
+				}
+
+				@Override
+				protected void done(Integer status)
+				{
+					if(status == 0) {
 						master.popContentPanel();
 						master.getStatusBar().setStatus("Stocking interval changed successfully", StatusBar.STATUS_GOOD_COLOR);
 					} else {
 						master.popContentPanel();
 						master.getStatusBar().setStatus("An error occurred while attempting to change the stocking interval", StatusBar.STATUS_BAD_COLOR);
 					}
+					parent.refreshList();
 				}
-			}.start();
-			parent.refreshList();
+			});
 		} else if (source == cancelButton) {
 			master.popContentPanel();
 			master.getStatusBar().setStatus("Stocking interval changes canceled", StatusBar.STATUS_WARN_COLOR);
@@ -112,12 +112,22 @@ public class ManagerMachineManagementScreenChangeLocationGUI extends JPanel impl
 		final Object source = event.getSource();
 		if (source == confirmButton)
 		{
-			new Thread()
+			final int zipCode = locationPicker.getZipCode();
+			final String state = locationPicker.getState();
+			final String[] nearbyBusinesses = locationPicker.getNearbyBusinesses();
+			master.setProcessing((Component)source);
+			GuiExecutor.submit(new GuiExecutor.Task<Boolean>()
 			{
-				public void run()
+				@Override
+				protected Boolean call()
 				{
-					master.setProcessing((Component)source);
-					if (controller.changeMachineLocation(machine, locationPicker.getZipCode(), locationPicker.getState(), locationPicker.getNearbyBusinesses()))
+					return controller.changeMachineLocation(machine, zipCode, state, nearbyBusinesses);
+				}
+
+				@Override
+				protected void done(Boolean changed)
+				{
+					if (changed)
 					{
 						master.popContentPanel();
 						master.getStatusBar().setStatus("Location changed successfully", StatusBar.STATUS_GOOD_COLOR);
@@ -130,7 +140,7 @@ public class ManagerMachineManagementScreenChangeLocationGUI extends JPanel impl
 
 					parent.refreshList();
 				}
-			}.start();
+			});
 		}
 		else if (source == cancelButton)
 		{
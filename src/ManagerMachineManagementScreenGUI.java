@@ -226,12 +226,19 @@ public class ManagerMachineManagementScreenGUI extends JPanel implements ActionL
 		// Deactivate button
 		if (source == deactivateButton)
 		{
-			new Thread()
+			master.setProcessing((Component)source);
+			GuiExecutor.submit(new GuiExecutor.Task<Boolean>()
 			{
-				public void run()
+				@Override
+				protected Boolean call()
 				{
-					master.setProcessing((Component)source);
-					if (controller.deactivateMachine((VendingMachine)selected))
+					return controller.deactivateMachine((VendingMachine)selected);
+				}
+
+				@Override
+				protected void done(Boolean changed)
+				{
+					if (changed)
 					{
 						master.doneProcessing();
 						master.getStatusBar().setStatus("Machine deactivated successfully", StatusBar.STATUS_GOOD_COLOR);
@@ -242,18 +249,25 @@ public class ManagerMachineManagementScreenGUI extends JPanel implements ActionL
 						master.getStatusBar().setStatus("An error occurred while trying to deactivate the machine", StatusBar.STATUS_BAD_COLOR);
 					}
 				}
-			}.start();
+			});
 		}
 
 		// Reactivate button
 		else if (source == reactivateButton)
 		{
-			new Thread()
+			master.setProcessing((Component)source);
+			GuiExecutor.submit(new GuiExecutor.Task<Boolean>()
 			{
-				public void run()
+				@Override
+				protected Boolean call()
+				{
+					return controller.reactivateMachine((VendingMachine)selected);
+				}
+
+				@Override
+				protected void done(Boolean changed)
 				{
-					master.setProcessing((Component)source);
-					if (controller.reactivateMachine((VendingMachine)selected))
+					if (changed)
 					{
 						master.doneProcessing();
 						master.getStatusBar().setStatus("Machine reactivated successfully", StatusBar.STATUS_GOOD_COLOR);
@@ -264,7 +278,7 @@ public class ManagerMachineManagementScreenGUI extends JPanel implements ActionL
 						master.getStatusBar().setStatus("An error occurred while trying to reactivate the machine", StatusBar.STATUS_BAD_COLOR);
 					}
 				}
-			}.start();
+			});
 		}
 
 		// Set location button
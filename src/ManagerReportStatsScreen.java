@@ -1,5 +1,7 @@
 import java.util.Collection;
 import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.TreeMap;
 
 /**
  * 
@@ -9,6 +11,9 @@ import java.util.ArrayList;
 
 public class ManagerReportStatsScreen {
 
+	/** how many transactions to fetch at a time when paging */
+	public static final int SALES_PAGE_SIZE = 100;
+
 	/** the database */
 	private static DatabaseLayer db = DatabaseLayer.getInstance();
 
@@ -25,6 +30,12 @@ public class ManagerReportStatsScreen {
 	 **/
 	private ArrayList<FoodItem> items;
 
+	/**
+	 * The transaction history in column form, loaded the first time
+	 * statistics are requested
+	 **/
+	private TransactionColumns statistics;
+
 	/**
 	 * base constructor
 	 */
@@ -63,6 +74,43 @@ public class ManagerReportStatsScreen {
 		}
 	}
 
+	/**
+	 * get a page of the transactions made at a specific machine
+	 * @param machine the machine in question
+	 * @param afterId the id of the last transaction already shown, or 0 for the first page
+	 * @return up to SALES_PAGE_SIZE transactions made at that machine after the given one
+	 */
+	public ArrayList<Transaction> listMachineSales( VendingMachine machine, int afterId ) {
+		try
+		{
+			return db.getTransactionsByVendingMachine( machine, afterId, SALES_PAGE_SIZE );
+		}
+		catch(Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * get the transactions made at a specific machine during a span of time
+	 * @param machine the machine in question
+	 * @param start the beginning of the span, inclusive
+	 * @param end the end of the span, exclusive
+	 * @return the transactions made at that machine during the span
+	 */
+	public ArrayList<Transaction> listMachineSales( VendingMachine machine, GregorianCalendar start, GregorianCalendar end ) {
+		try
+		{
+			return db.getTransactionsByVendingMachine( machine, start, end );
+		}
+		catch(Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
 	/**
 	 * Gets all of the customers 
 	 * @return An ArrayList containing all the customers.
@@ -91,6 +139,48 @@ public class ManagerReportStatsScreen {
 		}
 	}
 
+	/**
+	 * Gets a page of the transactions by a specific customer
+	 * @param customer The customer that completed the transactions
+	 * @param afterId The id of the last transaction already shown, or 0 for
+	 * the first page
+	 * @return An ArrayList containing up to SALES_PAGE_SIZE transactions by
+	 * the given customer after the given one.
+	 **/
+	public ArrayList<Transaction> listCustomerSales(Customer customer, int afterId)
+	{
+		try
+		{
+			return db.getTransactionsByCustomer(customer, afterId, SALES_PAGE_SIZE);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the transactions by a specific customer during a span of time
+	 * @param customer The customer that completed the transactions
+	 * @param start The beginning of the span, inclusive
+	 * @param end The end of the span, exclusive
+	 * @return An ArrayList containing the transactions by the given customer
+	 * during the span.
+	 **/
+	public ArrayList<Transaction> listCustomerSales(Customer customer, GregorianCalendar start, GregorianCalendar end)
+	{
+		try
+		{
+			return db.getTransactionsByCustomer(customer, start, end);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
 	/**
 	 * Gets all of the items
 	 * @return An ArrayList containing all the items
@@ -119,6 +209,350 @@ public class ManagerReportStatsScreen {
 		}
 	}
 
+	/**
+	 * Gets a page of the transactions during which a specific item was bought
+	 * @param item The item that was purchased in the transactions you desire
+	 * @param afterId The id of the last transaction already shown, or 0 for
+	 * the first page
+	 * @return An ArrayList containing up to SALES_PAGE_SIZE transactions
+	 * during which the given item was bought, after the given one
+	 **/
+	public ArrayList<Transaction> listFoodItemSales(FoodItem item, int afterId)
+	{
+		try
+		{
+			return db.getTransactionsByFoodItem(item, afterId, SALES_PAGE_SIZE);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the transactions during which a specific item was bought during a
+	 * span of time
+	 * @param item The item that was purchased in the transactions you desire
+	 * @param start The beginning of the span, inclusive
+	 * @param end The end of the span, exclusive
+	 * @return An ArrayList containing the transactions during which the given
+	 * item was bought during the span
+	 **/
+	public ArrayList<Transaction> listFoodItemSales(FoodItem item, GregorianCalendar start, GregorianCalendar end)
+	{
+		try
+		{
+			return db.getTransactionsByFoodItem(item, start, end);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the daily sales totals at a specific machine
+	 * @param machine The machine in question
+	 * @param first The first day to include
+	 * @param last The last day to include
+	 * @return An ArrayList with the totals for each day that had sales
+	 **/
+	public ArrayList<SalesRollup> listMachineDailySales(VendingMachine machine, GregorianCalendar first, GregorianCalendar last)
+	{
+		try
+		{
+			return db.getVendingMachineDailySales(machine, first, last);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the monthly purchase totals of a specific customer
+	 * @param customer The customer in question
+	 * @param first A day in the first month to include
+	 * @param last A day in the last month to include
+	 * @return An ArrayList with the totals for each month that had purchases
+	 **/
+	public ArrayList<SalesRollup> listCustomerMonthlySales(Customer customer, GregorianCalendar first, GregorianCalendar last)
+	{
+		try
+		{
+			return db.getCustomerMonthlySales(customer, first, last);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the daily sales totals of a specific item
+	 * @param item The item in question
+	 * @param first The first day to include
+	 * @param last The last day to include
+	 * @return An ArrayList with the totals for each day that had sales
+	 **/
+	public ArrayList<SalesRollup> listFoodItemDailySales(FoodItem item, GregorianCalendar first, GregorianCalendar last)
+	{
+		try
+		{
+			return db.getFoodItemDailySales(item, first, last);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * Charts the sales at a specific machine over time
+	 * @param machine The machine in question
+	 * @param granularity The size of each period
+	 * @param first A moment in the first period to include
+	 * @param last A moment in the last period to include
+	 * @return The series, or null on error
+	 **/
+	public SalesTimeSeries chartMachineSales(VendingMachine machine, SalesTimeSeries.Granularity granularity, GregorianCalendar first, GregorianCalendar last)
+	{
+		try
+		{
+			return db.getVendingMachineSalesSeries(machine, granularity, first, last);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * Charts the sales of a specific item over time
+	 * @param item The item in question
+	 * @param granularity The size of each period
+	 * @param first A moment in the first period to include
+	 * @param last A moment in the last period to include
+	 * @return The series, or null on error
+	 **/
+	public SalesTimeSeries chartFoodItemSales(FoodItem item, SalesTimeSeries.Granularity granularity, GregorianCalendar first, GregorianCalendar last)
+	{
+		try
+		{
+			return db.getFoodItemSalesSeries(item, granularity, first, last);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the best-selling items across all machines
+	 * @param limit The most items to include
+	 * @return The items, best-selling first, each with the number sold, or
+	 * null on error
+	 **/
+	public ArrayList<Pair<FoodItem, Integer>> listBestSellers(int limit)
+	{
+		try
+		{
+			return db.getBestSellersAll(limit);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the best-selling items at a specific machine
+	 * @param machine The machine in question
+	 * @param limit The most items to include
+	 * @return The items, best-selling first, each with the number sold, or
+	 * null on error
+	 **/
+	public ArrayList<Pair<FoodItem, Integer>> listMachineBestSellers(VendingMachine machine, int limit)
+	{
+		try
+		{
+			return db.getBestSellersByVendingMachine(machine, limit);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the best-selling items in a specific state
+	 * @param state The state in question
+	 * @param limit The most items to include
+	 * @return The items, best-selling first, each with the number sold, or
+	 * null on error
+	 **/
+	public ArrayList<Pair<FoodItem, Integer>> listStateBestSellers(String state, int limit)
+	{
+		try
+		{
+			return db.getBestSellersByState(state, limit);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the best-selling items in a specific zip code
+	 * @param zipCode The zip code in question
+	 * @param limit The most items to include
+	 * @return The items, best-selling first, each with the number sold, or
+	 * null on error
+	 **/
+	public ArrayList<Pair<FoodItem, Integer>> listZipCodeBestSellers(int zipCode, int limit)
+	{
+		try
+		{
+			return db.getBestSellersByZipCode(zipCode, limit);
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the transaction history in a form suited to statistics. It is
+	 * loaded the first time it is needed and kept until refreshed.
+	 * @return The transactions, or null on error.
+	 **/
+	public TransactionColumns getStatistics()
+	{
+		if (statistics == null)
+			refreshStatistics();
+		return statistics;
+	}
+
+	/**
+	 * Reloads the transaction history used for statistics, so that they
+	 * include any sales made since it was last loaded.
+	 **/
+	public void refreshStatistics()
+	{
+		try
+		{
+			statistics = db.getTransactionColumns();
+		}
+		catch (Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			statistics = null;
+		}
+	}
+
+	/**
+	 * Totals the sales in each state across the whole fleet
+	 * @return The totals by state, or null on error
+	 **/
+	public TreeMap<String, TransactionColumns.Group> listStateSales()
+	{
+		FleetReport report = getFleetReport();
+		if (report == null)
+			return null;
+		return report.byState(new TransactionColumns.Filter());
+	}
+
+	/**
+	 * Totals the sales in each zip code across the whole fleet
+	 * @return The totals by zip code, or null on error
+	 **/
+	public TreeMap<Integer, TransactionColumns.Group> listZipCodeSales()
+	{
+		FleetReport report = getFleetReport();
+		if (report == null)
+			return null;
+		return report.byZipCode(new TransactionColumns.Filter());
+	}
+
+	/**
+	 * Builds a fleet-wide report over the statistics and the machines
+	 * present when the screen was launched
+	 * @return The report, or null on error
+	 **/
+	private FleetReport getFleetReport()
+	{
+		TransactionColumns history = getStatistics();
+		if (history == null || machines == null)
+			return null;
+		try
+		{
+			return new FleetReport(history, machines);
+		}
+		catch (BadStateException unstored)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, unstored);
+			return null;
+		}
+	}
+
+	/**
+	 * Ranks the machines by how much they have sold
+	 * @param limit The most machines to include
+	 * @param byRevenue Whether to rank by revenue rather than number of sales
+	 * @return The totals of the best machines, best first, keyed by machine
+	 * id, or null on error
+	 **/
+	public ArrayList<TransactionColumns.Group> rankMachines(int limit, boolean byRevenue)
+	{
+		TransactionColumns history = getStatistics();
+		if (history == null)
+			return null;
+		return history.top(TransactionColumns.Key.MACHINE, new TransactionColumns.Filter(), limit, byRevenue);
+	}
+
+	/**
+	 * Ranks the items by how much they have sold
+	 * @param limit The most items to include
+	 * @param byRevenue Whether to rank by revenue rather than number of sales
+	 * @return The totals of the best items, best first, keyed by item id, or
+	 * null on error
+	 **/
+	public ArrayList<TransactionColumns.Group> rankFoodItems(int limit, boolean byRevenue)
+	{
+		TransactionColumns history = getStatistics();
+		if (history == null)
+			return null;
+		return history.top(TransactionColumns.Key.PRODUCT, new TransactionColumns.Filter(), limit, byRevenue);
+	}
+
+	/**
+	 * Ranks the customers by how much they have bought
+	 * @param limit The most customers to include
+	 * @param byRevenue Whether to rank by money spent rather than number of
+	 * purchases
+	 * @return The totals of the best customers, best first, keyed by
+	 * customer id, or null on error
+	 **/
+	public ArrayList<TransactionColumns.Group> rankCustomers(int limit, boolean byRevenue)
+	{
+		TransactionColumns history = getStatistics();
+		if (history == null)
+			return null;
+		return history.top(TransactionColumns.Key.CUSTOMER, new TransactionColumns.Filter(), limit, byRevenue);
+	}
+
 	/**
 	 * Gets all of the transactions from all VendingMachines.
 	 * @return An ArrayList of all of the transactions.
@@ -134,4 +568,20 @@ public class ManagerReportStatsScreen {
 		}
 
 	}
+
+	/**
+	 * Opens a cursor over all of the transactions from all VendingMachines,
+	 * for going through them one at a time without holding them all in
+	 * memory.
+	 * @return The cursor, which must be closed when done, or null on error.
+	 **/
+	public DatabaseLayer.TransactionCursor openSalesAll()
+	{
+		try {
+			return db.openTransactionsAll();
+		} catch (Exception databaseProblem){
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return null;
+		}
+	}
 }
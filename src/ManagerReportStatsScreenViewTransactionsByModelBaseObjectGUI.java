@@ -1,5 +1,7 @@
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 
 import java.awt.Dimension;
 import java.util.ArrayList;
@@ -43,7 +45,13 @@ public class ManagerReportStatsScreenViewTransactionsByModelBaseObjectGUI extend
 	private JButton returnToMainScreenButton;
 	
 	/** The data feeding the transaction list */
-	private TableModel transactionData;
+	private AbstractTableModel transactionData;
+	
+	/** The transactions fetched so far, in the order they were recorded */
+	private ArrayList<Transaction> transactions;
+	
+	/** Whether every transaction for the object has been fetched */
+	private boolean allFetched;
 	
 	/**
 	 * Constructor for this screen.
@@ -67,15 +75,9 @@ public class ManagerReportStatsScreenViewTransactionsByModelBaseObjectGUI extend
 		
 		this.setAlignmentX(LEFT_ALIGNMENT);
 		
-		ArrayList<Transaction> transactions = null;
-		
-		if(modelBaseObject instanceof VendingMachine) {
-			transactions = controller.listMachineSales((VendingMachine)modelBaseObject);
-		} else if(modelBaseObject instanceof Customer) {
-			transactions = controller.listCustomerSales((Customer)modelBaseObject);
-		} else if(modelBaseObject instanceof FoodItem) {
-			transactions = controller.listFoodItemSales((FoodItem)modelBaseObject);
-		}
+		transactions = new ArrayList<Transaction>();
+		allFetched = false;
+		fetchNextPage();
 		
 		final ArrayList<Transaction> finalTransactions = transactions;
 		
@@ -133,11 +135,6 @@ public class ManagerReportStatsScreenViewTransactionsByModelBaseObjectGUI extend
 		if(transactions.size()==0)
 			master.getStatusBar().setStatus("No transactions matched query", StatusBar.STATUS_WARN_COLOR);
 		
-		String[] transactionStrings = new String[transactions.size()];
-		for(int i = 0; i < transactions.size(); ++i) {
-			transactionStrings[i] = transactions.get(i).toString().substring(ModelBase.ID_SPACES);
-		}
-		
 		transactionList = new JTable(transactionData);
 		transactionList.setAutoCreateRowSorter(true);
 		transactionList.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
@@ -155,6 +152,20 @@ public class ManagerReportStatsScreenViewTransactionsByModelBaseObjectGUI extend
 		JScrollPane transactionScroll = new JScrollPane(transactionList);
 		transactionScroll.setAlignmentX(LEFT_ALIGNMENT);
 		transactionScroll.setPreferredSize(new Dimension(transactionList.getPreferredSize().width, transactionList.getRowHeight() * (transactionList.getRowCount() + 1)+2));
+		transactionScroll.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener() {
+			public void adjustmentValueChanged(AdjustmentEvent event) {
+				int rowHeight = transactionList.getRowHeight();
+				int unseen = event.getAdjustable().getMaximum() - event.getAdjustable().getVisibleAmount() - event.getValue();
+				
+				// fetch the next page before the user actually reaches the bottom
+				if(!allFetched && unseen < rowHeight * ManagerReportStatsScreen.SALES_PAGE_SIZE / 2) {
+					int before = transactions.size();
+					fetchNextPage();
+					if(transactions.size() > before)
+						transactionData.fireTableRowsInserted(before, transactions.size() - 1);
+				}
+			}
+		});
 		this.add(transactionScroll);
 		add(Box.createRigidArea(new Dimension(0, 20)));
 		this.add(returnToMainScreenButton);
@@ -162,6 +173,35 @@ public class ManagerReportStatsScreenViewTransactionsByModelBaseObjectGUI extend
 		this.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
 	}
 	
+	/**
+	 * Appends the next page of the object's transactions to those already fetched.
+	 * Once a short page comes back, there is nothing left to fetch.
+	 */
+	private void fetchNextPage() {
+		int afterId = 0;
+		ArrayList<Transaction> page = null;
+		
+		try {
+			if(!transactions.isEmpty())
+				afterId = transactions.get(transactions.size() - 1).getId();
+		} catch(BadStateException impossible) { // fetched transactions always have ids
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.WARN, impossible);
+		}
+		
+		if(modelBaseObject instanceof VendingMachine) {
+			page = controller.listMachineSales((VendingMachine)modelBaseObject, afterId);
+		} else if(modelBaseObject instanceof Customer) {
+			page = controller.listCustomerSales((Customer)modelBaseObject, afterId);
+		} else if(modelBaseObject instanceof FoodItem) {
+			page = controller.listFoodItemSales((FoodItem)modelBaseObject, afterId);
+		}
+		
+		if(page == null || page.size() < ManagerReportStatsScreen.SALES_PAGE_SIZE)
+			allFetched = true;
+		if(page != null)
+			transactions.addAll(page);
+	}
+	
 	@Override
 	public void actionPerformed(ActionEvent event) {
 		if(event.getSource() == returnToMainScreenButton) {
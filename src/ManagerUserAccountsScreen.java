@@ -66,6 +66,34 @@ public class ManagerUserAccountsScreen {
 		}
 	}
 
+	/**
+	 * add money to a customer's account
+	 * If the customer makes a purchase at the same time, the money is added again to the balance left after it.
+	 * @param cust the customer to credit
+	 * @param amount how much to add
+	 * @return whether it succeeded
+	 */
+	public boolean addFunds( Customer cust, final int amount ) {
+		if ( amount <= 0 )
+			return false;
+		try
+		{
+			db.updateCustomer( cust, new DatabaseLayer.Change<Customer>() {
+				@Override
+				public void applyTo( Customer target ) {
+					target.deductMoney( -amount );
+				}
+			} );
+			customers = db.getCustomersAll();
+			return true;
+		}
+		catch(Exception databaseProblem)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, databaseProblem);
+			return false;
+		}
+	}
+
 	/**
 	 * add a new manager
  	 * @param startingPassword the initial password
@@ -1,6 +1,6 @@
 /**
  * The base class for data representations.
- * It keeps track of and manages access to each type's primary keys.
+ * It keeps track of and manages access to each type's primary keys, as well as whether each instance has been modified since it was last stored.
  * @author Sol Boucher <slb1566@rit.edu>
  */
 public abstract class ModelBase
@@ -17,6 +17,12 @@ public abstract class ModelBase
 	/** The instance's primary key. */
 	private int id;
 
+	/** Whether a field has been changed since the instance was last stored or fetched. */
+	private boolean dirty;
+
+	/** How many times the stored copy had been written when the instance was last stored or fetched. */
+	private int version;
+
 	/**
 	 * Default constructor.
 	 * Does not assign a primary key, instead allowing it to be changed once in the future.
@@ -24,6 +30,8 @@ public abstract class ModelBase
 	public ModelBase()
 	{
 		id=TEMP_ID;
+		dirty=false;
+		version=0;
 	}
 
 	/**
@@ -34,6 +42,8 @@ public abstract class ModelBase
 	public ModelBase(ModelBase existing)
 	{
 		this.id=existing.id;
+		this.dirty=existing.dirty;
+		this.version=existing.version;
 	}
 
 	/**
@@ -74,6 +84,53 @@ public abstract class ModelBase
 		return id==TEMP_ID;
 	}
 
+	/**
+	 * Determines whether the instance needs to be written to the database.
+	 * New instances always do; stored ones do once one of their setters has been called.
+	 * @return whether the instance differs from what was last stored or fetched
+	 */
+	public boolean isDirty()
+	{
+		return dirty || id==TEMP_ID;
+	}
+
+	/**
+	 * Records that the instance now matches the database.
+	 * This method is <i>not</i> intended for use by the view.
+	 */
+	public void markClean()
+	{
+		dirty=false;
+	}
+
+	/**
+	 * Reveals which revision of the stored copy the instance is based on.
+	 * Types stored with a version column may only be written back over that same revision; the others stay at <tt>0</tt>.
+	 * @return the number of times the stored copy had been written, or <tt>0</tt> if it never has been
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Records which revision of the stored copy the instance is based on.
+	 * This method is <i>not</i> intended for use by the view.
+	 * @param version the number of times the stored copy had been written
+	 */
+	public void setVersion(int version)
+	{
+		this.version=version;
+	}
+
+	/**
+	 * Records that a field has been changed and will need to be stored.
+	 */
+	protected void markDirty()
+	{
+		dirty=true;
+	}
+
 	/**
 	 * Checks whether two instances' IDs are the same.
 	 * Database-backable instances whose IDs are both unassigned are considered to have matching IDs.
@@ -54,6 +54,13 @@ public class Pair<L,R> {
 		return first.equals(other.first) && second.equals(other.second);
 	}
 
+	/** @inheritDoc */
+	@Override
+	public int hashCode()
+	{
+		return 31*(first==null ? 0 : first.hashCode())+(second==null ? 0 : second.hashCode());
+	}
+
 	/** @inheritDoc */
 	@Override
 	public String toString() {
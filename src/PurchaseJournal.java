@@ -0,0 +1,519 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * A write-behind log of purchases, so that a busy kiosk doesn't have to wait for the database on every sale.
+ * Each purchase is appended to a file, which is synced to disk once enough purchases have piled up or enough time has passed, whichever comes first; <tt>append()</tt> returns once its purchase has been synced, so a sale is never forgotten.
+ * A background thread then stores the synced purchases in the database in groups, recording how far it has got in the same database transaction.
+ * Should the program stop before that happens, opening the journal again stores whatever was left over.
+ * Every method is safe to call from multiple threads at once.
+ */
+public class PurchaseJournal
+{
+	/** The default number of milliseconds to wait for more purchases before syncing the file. */
+	public static final long DEFAULT_SYNC_INTERVAL=50;
+
+	/** The default number of purchases after which the file is synced right away. */
+	public static final int DEFAULT_SYNC_BATCH=32;
+
+	/** Separates the fields of each line of the file. */
+	private static final String SEPARATOR=" ";
+
+	/**
+	 * A purchase as recorded in the journal.
+	 * Everything is identified by its primary key, so that it can be read back without the objects it refers to.
+	 */
+	public static class Entry
+	{
+		/** Where in the journal the purchase falls; later purchases have higher numbers. */
+		private final long sequence;
+
+		/** When the purchase occurred, in milliseconds since the epoch. */
+		private final long timestamp;
+
+		/** The machine at which it occurred. */
+		private final int machineId;
+
+		/** The customer who made it. */
+		private final int customerId;
+
+		/** The item that was bought. */
+		private final int productId;
+
+		/** The position of the row it came out of. */
+		private final Slot row;
+
+		/** The stored row it came out of. */
+		private final int rowId;
+
+		/** The amount of money that changed hands. */
+		private final int balance;
+
+		/**
+		 * Normal constructor.
+		 * @param sequence where in the journal the purchase falls
+		 * @param timestamp when the purchase occurred, in milliseconds since the epoch
+		 * @param machineId the machine at which it occurred
+		 * @param customerId the customer who made it
+		 * @param productId the item that was bought
+		 * @param row the position of the row it came out of
+		 * @param rowId the stored row it came out of
+		 * @param balance the amount of money that changed hands
+		 */
+		public Entry(long sequence, long timestamp, int machineId, int customerId, int productId, Slot row, int rowId, int balance)
+		{
+			this.sequence=sequence;
+			this.timestamp=timestamp;
+			this.machineId=machineId;
+			this.customerId=customerId;
+			this.productId=productId;
+			this.row=row;
+			this.rowId=rowId;
+			this.balance=balance;
+		}
+
+		/**
+		 * Reads an entry back from the file.
+		 * @param line a line written by <tt>toString()</tt>
+		 * @return the entry
+		 * @throws BadArgumentException if the line is garbled
+		 */
+		public static Entry parse(String line) throws BadArgumentException
+		{
+			String[] fields=line.split(SEPARATOR);
+
+			if(fields.length!=9)
+				throw new BadArgumentException("Journal entry has the wrong number of fields");
+			try
+			{
+				return new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), Slot.of(Integer.parseInt(fields[5]), Integer.parseInt(fields[6])), Integer.parseInt(fields[7]), Integer.parseInt(fields[8]));
+			}
+			catch(NumberFormatException garbled)
+			{
+				throw new BadArgumentException("Journal entry has a malformed field");
+			}
+		}
+
+		/**
+		 * @return where in the journal the purchase falls
+		 */
+		public long getSequence()
+		{
+			return sequence;
+		}
+
+		/**
+		 * @return when the purchase occurred, in milliseconds since the epoch
+		 */
+		public long getTimestamp()
+		{
+			return timestamp;
+		}
+
+		/**
+		 * @return the machine at which it occurred
+		 */
+		public int getMachineId()
+		{
+			return machineId;
+		}
+
+		/**
+		 * @return the customer who made it
+		 */
+		public int getCustomerId()
+		{
+			return customerId;
+		}
+
+		/**
+		 * @return the item that was bought
+		 */
+		public int getProductId()
+		{
+			return productId;
+		}
+
+		/**
+		 * @return the position of the row it came out of
+		 */
+		public Slot getRow()
+		{
+			return row;
+		}
+
+		/**
+		 * @return the stored row it came out of
+		 */
+		public int getRowId()
+		{
+			return rowId;
+		}
+
+		/**
+		 * @return the amount of money that changed hands
+		 */
+		public int getBalance()
+		{
+			return balance;
+		}
+
+		/**
+		 * @return the line of the file recording the entry, without its line break
+		 */
+		@Override
+		public String toString()
+		{
+			return sequence+SEPARATOR+timestamp+SEPARATOR+machineId+SEPARATOR+customerId+SEPARATOR+productId+SEPARATOR+row.getX()+SEPARATOR+row.getY()+SEPARATOR+rowId+SEPARATOR+balance;
+		}
+	}
+
+	/** The name under which the database remembers how far through the journal it has got. */
+	private final String name;
+
+	/** The file, opened for appending. */
+	private final FileOutputStream out;
+
+	/** Milliseconds to wait for more purchases before syncing the file. */
+	private final long syncInterval;
+
+	/** Number of purchases after which the file is synced right away. */
+	private final int syncBatch;
+
+	/** Purchases written to the file but not yet synced, in order. */
+	private final ArrayList<Entry> unsynced;
+
+	/** Purchases synced but not yet stored in the database, in order. */
+	private final ArrayList<Entry> unstored;
+
+	/** Sequence number for the next purchase. */
+	private long nextSequence;
+
+	/** Sequence number of the last purchase synced to disk. */
+	private long syncedSequence;
+
+	/** The problem that stopped the file from being synced, if any; every later <tt>append()</tt> fails with it. */
+	private IOException syncFailure;
+
+	/** Whether <tt>close()</tt> has been called. */
+	private boolean closed;
+
+	/** Held while storing purchases, so that the same ones aren't stored twice at once. */
+	private final Object storing;
+
+	/** Syncs the file and stores purchases in the background. */
+	private final Thread flusher;
+
+	/**
+	 * Opens a journal with the default batching.
+	 * Any purchases left over from the last time it was open are stored first.
+	 * @param file the file to use, which is created if it doesn't exist
+	 * @throws IOException if the file can't be read or written
+	 * @throws SQLException in case of a database error
+	 */
+	public PurchaseJournal(File file) throws IOException, SQLException
+	{
+		this(file, DEFAULT_SYNC_INTERVAL, DEFAULT_SYNC_BATCH);
+	}
+
+	/**
+	 * Opens a journal.
+	 * Any purchases left over from the last time it was open are stored first.
+	 * @param file the file to use, which is created if it doesn't exist
+	 * @param syncInterval how many milliseconds to wait for more purchases before syncing the file
+	 * @param syncBatch how many purchases to let pile up before syncing the file right away
+	 * @throws IOException if the file can't be read or written
+	 * @throws SQLException in case of a database error
+	 */
+	public PurchaseJournal(File file, long syncInterval, int syncBatch) throws IOException, SQLException
+	{
+		if(syncInterval<=0 || syncBatch<=0)
+			throw new IllegalArgumentException("Journal batching limits must be positive");
+
+		name=file.getCanonicalPath();
+		this.syncInterval=syncInterval;
+		this.syncBatch=syncBatch;
+		unsynced=new ArrayList<Entry>();
+		unstored=new ArrayList<Entry>();
+		syncFailure=null;
+		closed=false;
+		storing=new Object();
+
+		long checkpoint=DatabaseLayer.getInstance().getJournalCheckpoint(name);
+		nextSequence=checkpoint+1;
+		for(Entry entry : replay(file))
+		{
+			nextSequence=Math.max(nextSequence, entry.getSequence()+1);
+			if(entry.getSequence()>checkpoint)
+				unstored.add(entry);
+		}
+		syncedSequence=nextSequence-1;
+		store();
+
+		out=new FileOutputStream(file, true);
+		if(unstored.isEmpty())
+			out.getChannel().truncate(0);
+
+		flusher=new Thread("Purchase journal flusher")
+		{
+			@Override
+			public void run()
+			{
+				flushLoop();
+			}
+		};
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Records a purchase and waits for it to reach the disk, but not the database.
+	 * Its transaction won't be given an id.
+	 * @param transaction the purchase
+	 * @param row the stored row the product came out of
+	 * @throws BadArgumentException if the transaction has already been stored or refers to something that hasn't been
+	 * @throws IOException if the file can't be written or synced
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void append(Transaction transaction, Row row) throws BadArgumentException, IOException, InterruptedException
+	{
+		if(!transaction.isTempId())
+			throw new BadArgumentException("Transaction has already been stored");
+
+		Entry entry;
+		try
+		{
+			entry=new Entry(0, transaction.getTimestampMillis(), transaction.getMachine().getId(), transaction.getCustomer().getId(), transaction.getProduct().getId(), transaction.getRow(), row.getId(), transaction.getBalance());
+		}
+		catch(BadStateException unstored)
+		{
+			throw new BadArgumentException("Purchases can only be journaled once everything they refer to has been stored");
+		}
+
+		synchronized(this)
+		{
+			if(closed)
+				throw new IOException("Journal is closed");
+			else if(syncFailure!=null)
+				throw syncFailure;
+
+			entry=new Entry(nextSequence++, entry.getTimestamp(), entry.getMachineId(), entry.getCustomerId(), entry.getProductId(), entry.getRow(), entry.getRowId(), entry.getBalance());
+			out.write((entry+"\n").getBytes("UTF-8"));
+			unsynced.add(entry);
+			if(unsynced.size()>=syncBatch)
+				notifyAll();
+
+			while(syncedSequence<entry.getSequence() && syncFailure==null)
+				wait();
+			if(syncedSequence<entry.getSequence())
+				throw syncFailure;
+		}
+	}
+
+	/**
+	 * Syncs and stores every purchase appended so far, without waiting for the next batch.
+	 * @throws IOException if the file can't be synced
+	 * @throws SQLException in case of a database error
+	 */
+	public void flush() throws IOException, SQLException
+	{
+		synchronized(this)
+		{
+			sync();
+		}
+		store();
+	}
+
+	/**
+	 * @return the number of purchases that have been appended but not yet stored in the database
+	 */
+	public synchronized int getPendingCount()
+	{
+		return unsynced.size()+unstored.size();
+	}
+
+	/**
+	 * Stops the background thread, stores whatever is outstanding, and closes the file.
+	 * @throws IOException if the file can't be synced or closed
+	 * @throws SQLException in case of a database error
+	 * @throws InterruptedException if the thread is interrupted while waiting for the background thread
+	 */
+	public void close() throws IOException, SQLException, InterruptedException
+	{
+		synchronized(this)
+		{
+			if(closed)
+				return;
+			closed=true;
+			notifyAll();
+		}
+		flusher.join();
+		try
+		{
+			flush();
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Body of the background thread: waits for a batch to fill up or the interval to pass, syncs it, then stores it.
+	 * Once the file fails to sync, the purchases already synced are stored and the thread stops, since every later <tt>append()</tt> fails anyway.
+	 */
+	private void flushLoop()
+	{
+		while(true)
+		{
+			try
+			{
+				synchronized(this)
+				{
+					if(!closed && unsynced.size()<syncBatch)
+						wait(syncInterval);
+					if(closed)
+						return;
+					sync();
+				}
+				store();
+			}
+			catch(InterruptedException stopped)
+			{
+				return;
+			}
+			catch(IOException problem)
+			{
+				ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.ERROR, problem);
+				synchronized(this)
+				{
+					if(syncFailure==null) //only emptying the file failed, so try again next time
+						continue;
+				}
+				try
+				{
+					store();
+				}
+				catch(Exception unstored) //they're still in the file for the next time it's opened
+				{
+					ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.ERROR, unstored);
+				}
+				return;
+			}
+			catch(Exception problem) //leave everything queued and try again next time
+			{
+				ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.ERROR, problem);
+			}
+		}
+	}
+
+	/**
+	 * Syncs whatever has been written to the file and wakes up the appenders waiting on it.
+	 * Must be called while synchronized on the instance.
+	 * Once the file has failed to sync, it isn't tried again.
+	 * @throws IOException if the file can't be synced, in which case appenders are woken up to report it
+	 */
+	private void sync() throws IOException
+	{
+		if(syncFailure!=null)
+			throw syncFailure;
+		else if(unsynced.isEmpty())
+			return;
+		try
+		{
+			out.getFD().sync();
+		}
+		catch(IOException failure)
+		{
+			syncFailure=failure;
+			notifyAll();
+			throw failure;
+		}
+		syncedSequence=unsynced.get(unsynced.size()-1).getSequence();
+		unstored.addAll(unsynced);
+		unsynced.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Stores the synced purchases in the database as one group, then empties the file if nothing else is outstanding.
+	 * The items have already been handed over, so each purchase is stored even if the balance or stock it was made against has since run out; only purchases from machines that no longer exist are reported and dropped.
+	 * @throws IOException if the file can't be emptied
+	 * @throws SQLException in case of a database error, in which case the purchases stay queued
+	 */
+	private void store() throws IOException, SQLException
+	{
+		synchronized(storing)
+		{
+			ArrayList<Entry> batch;
+			synchronized(this)
+			{
+				if(unstored.isEmpty())
+					return;
+				batch=new ArrayList<Entry>(unstored);
+			}
+
+			for(Entry rejected : DatabaseLayer.getInstance().commitJournaledPurchases(name, batch))
+				ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.WARN, new BadStateException("Journaled purchase could not be stored: "+rejected));
+
+			synchronized(this)
+			{
+				unstored.subList(0, batch.size()).clear();
+				if(out!=null && unstored.isEmpty() && unsynced.isEmpty())
+					out.getChannel().truncate(0);
+			}
+		}
+	}
+
+	/**
+	 * Reads back the purchases in the file.
+	 * A last line without a line break was cut short as it was being written, and so is ignored along with any other garbled line.
+	 * @param file the file, which needn't exist
+	 * @return the purchases, in order
+	 * @throws IOException if the file can't be read
+	 */
+	private static ArrayList<Entry> replay(File file) throws IOException
+	{
+		ArrayList<Entry> entries=new ArrayList<Entry>();
+		if(!file.exists())
+			return entries;
+
+		byte[] contents=new byte[(int)file.length()];
+		FileInputStream in=new FileInputStream(file);
+		try
+		{
+			int read=0;
+			while(read<contents.length)
+			{
+				int chunk=in.read(contents, read, contents.length-read);
+				if(chunk<0)
+					break;
+				read+=chunk;
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		String text=new String(contents, "UTF-8");
+		int start=0;
+		for(int end=text.indexOf('\n'); end>=0; end=text.indexOf('\n', start))
+		{
+			try
+			{
+				entries.add(Entry.parse(text.substring(start, end)));
+			}
+			catch(BadArgumentException garbled)
+			{
+				ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.WARN, garbled);
+			}
+			start=end+1;
+		}
+		return entries;
+	}
+}
@@ -165,9 +165,12 @@ public class RestockerTaskListScreen {
 				}
 				int x = Integer.parseInt( split[i + 1] );
 				int y = Integer.parseInt( split[i + 2] );
-				rows[x][y] = null;
+				status.setRow( x, y, null );
 			} catch (PatternSyntaxException ex) {
 				System.err.println("You see nothing.");
+			} catch (BadArgumentException impossible) {
+				ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, impossible);
+				return false;
 			}
 		}
 		else if ( inst.startsWith("Add") ) {
@@ -184,11 +187,11 @@ public class RestockerTaskListScreen {
 				int y = Integer.parseInt( split[i + 2] );
 				if ( rows[x][y] != null && rows[x][y].getRemainingQuantity() != 0 )
 					return false; // Don't add to non null rows
-				FoodItem prod = vm.getNextLayout().getRows()[x][y].getProduct();
+				FoodItem prod = vm.getNextLayout().getRow(x, y).getProduct();
 				int quantity = Integer.parseInt( split[1] );
 				GregorianCalendar cal = new GregorianCalendar();
 				cal.add(cal.DAY_OF_YEAR, (int)prod.getFreshLength());
-				rows[x][y] = new Row( vm.getNextLayout().getRows()[x][y].getProduct(), quantity, cal );
+				status.setRow( x, y, new Row( prod, quantity, cal ) );
 			} catch (PatternSyntaxException ex) {
 				System.err.println("You see nothing.");
 			} catch (BadArgumentException impossible) {
@@ -210,6 +213,7 @@ public class RestockerTaskListScreen {
 	/**
 	 * updates the necessary machinery that the stocking is complete only
 	 *	if all instructions are complete
+	 * If someone else changes the machine at the same time, the restocked layout is swapped into their version.
 	 * @return boolean if the stocking was successfully finished
 	 */
 	public boolean completeStocking() {
@@ -218,24 +222,32 @@ public class RestockerTaskListScreen {
 			if ( next.second )
 				return false;
 		}
-		VMLayout pres = new VMLayout( status, true );
 		ArrayList<Integer> insts = new ArrayList<Integer>( instructions.keySet() );
 		for ( Integer inst : insts ) {
 			this.removeInstruction( inst );
 		}
-		vm.swapInNextLayout( pres );
-		try {
-			vm.setNextLayout( status );
-		} catch ( BadArgumentException impossible ) {
-			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.ERROR, impossible);
-		}
+		final VMLayout stocked = status;
+		DatabaseLayer.Change<VendingMachine> restock = new DatabaseLayer.Change<VendingMachine>() {
+			@Override
+			public void applyTo( VendingMachine target ) throws BadArgumentException {
+				//fresh copies each time, in case an attempt that lost the race gave them ids
+				target.swapInNextLayout( new VMLayout( stocked, true ) );
+				target.setNextLayout( new VMLayout( stocked, true ) );
+			}
+		};
 		try
 		{
-			db.updateOrCreateVendingMachine( vm );
+			if ( vm.isTempId() ) { //nobody else can have changed it
+				restock.applyTo( vm );
+				db.updateOrCreateVendingMachine( vm );
+			} else {
+				vm = db.updateVendingMachine( vm, restock );
+			}
 		}
 		catch(Exception databaseProblem)
 		{
 			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.ERROR, databaseProblem);
+			return false;
 		}
 		return true;
 	}
@@ -131,20 +131,39 @@ public class RestockerTaskListScreenGUI extends JPanel
 			@Override
 			public void actionPerformed(ActionEvent ignored)
 			{
-				new Thread()
+				final boolean[] checked = new boolean[tasks.length];
+				for(int index=0; index<tasks.length; ++index)
+					checked[index] = tasks[index].isSelected();
+
+				master.setProcessing(doneButton);
+				GuiExecutor.submit(new GuiExecutor.Task<Boolean>()
 				{
-					public void run()
+					@Override
+					protected Boolean call()
 					{
-						master.setProcessing(doneButton);
-						for(int index=0; index<tasks.length; ++index)
-							if(tasks[index].isSelected())
+						for(int index=0; index<checked.length; ++index)
+							if(checked[index])
 								controller.removeInstruction(index+1);
 						
-						controller.completeStocking();
-						master.getStatusBar().setStatus("Restocking complete!", StatusBar.STATUS_GOOD_COLOR);
-						master.popContentPanel();
+						return controller.completeStocking();
+					}
+
+					@Override
+					protected void done(Boolean completed)
+					{
+						if(completed)
+						{
+							master.getStatusBar().setStatus("Restocking complete!", StatusBar.STATUS_GOOD_COLOR);
+							master.popContentPanel();
+						}
+						else
+						{
+							master.doneProcessing();
+							doneButton.setEnabled(true);
+							master.getStatusBar().setStatus("Restocking could not be recorded", StatusBar.STATUS_BAD_COLOR);
+						}
 					}
-				}.start();
+				});
 			}
 		});
 		cancelButton.addActionListener(new ActionListener()
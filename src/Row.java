@@ -1,3 +1,4 @@
+import java.util.ArrayList;
 import java.util.GregorianCalendar;
 
 /**
@@ -15,8 +16,24 @@ public class Row extends ModelBase
 	/** The number of the product remaining. */
 	private int remainingQuantity;
 
-	/** The expiration date of all products in the row. */
-	private GregorianCalendar expirationDate;
+	/** The expiration date of all products in the row, in milliseconds since the epoch. */
+	private long expirationDate;
+
+	/** Whatever needs to know when the product is replaced, such as the layouts holding the row; <tt>null</tt> until there is something. */
+	private ArrayList<Watcher> watchers;
+
+	/**
+	 * Something that needs to know when a row's product is replaced.
+	 * This interface is <i>not</i> intended for use by the view.
+	 */
+	interface Watcher
+	{
+		/**
+		 * Called after a watched row's product has been replaced.
+		 * @param row the row
+		 */
+		void productChanged(Row row);
+	}
 
 	/**
 	 * Fresh constructor.
@@ -27,13 +44,24 @@ public class Row extends ModelBase
 	 * @throws BadArgumentException if the <tt>quantity</tt> is invalid or something else is <tt>null</tt>
 	 */
 	public Row(FoodItem product, int quantity, GregorianCalendar sellBy) throws BadArgumentException
+	{
+		this(product, quantity, millisOf(sellBy));
+	}
+
+	/**
+	 * Fresh constructor.
+	 * Creates an instance with the specified values.
+	 * @param product the product carrried by the <tt>Row</tt>
+	 * @param quantity the number of items stocked in the <tt>Row</tt>
+	 * @param sellBy the expiration date of the items in the <tt>Row</tt>, in milliseconds since the epoch
+	 * @throws BadArgumentException if the <tt>quantity</tt> is invalid or the <tt>product</tt> is <tt>null</tt>
+	 */
+	public Row(FoodItem product, int quantity, long sellBy) throws BadArgumentException
 	{
 		if(product==null)
 			throw new BadArgumentException("Product cannot be null");
 		else if(quantity<0)
 			throw new BadArgumentException("Quantity cannot be negative");
-		else if(sellBy==null)
-			throw new BadArgumentException("Expiration date cannot be null");
 		
 		this.product=product;
 		remainingQuantity=quantity;
@@ -52,7 +80,7 @@ public class Row extends ModelBase
 
 	/**
 	 * (Optionally mixed-depth) copy constructor.
-	 * If asked to make a deep copy, the two instances' IDs and expiration dates&mdash;but <i>not</i> their products&mdash;will become independent and/or be recursively copied to avoid changes' clashing.
+	 * If asked to make a deep copy, the two instances' IDs&mdash;but <i>not</i> their products&mdash;will become independent to avoid changes' clashing.
 	 * From the consequential discrepancy between the primary keys, we see that deep-copied daughter instances are never <tt>equal</tt> to their mothers.
 	 * @param existing the instance to clone
 	 * @param deepShallows whether to do the partial-decoupling
@@ -61,9 +89,7 @@ public class Row extends ModelBase
 	{
 		super();
 		
-		if(deepShallows)
-			this.expirationDate=(GregorianCalendar)existing.expirationDate.clone();
-		else
+		if(!deepShallows)
 		{
 			try
 			{
@@ -76,11 +102,12 @@ public class Row extends ModelBase
 				impossible.printStackTrace();
 				System.err.println();
 			}
-			this.expirationDate=existing.expirationDate;
+			setVersion(existing.getVersion());
 		}
 			
 		this.product=existing.product;
 		this.remainingQuantity=existing.remainingQuantity;
+		this.expirationDate=existing.expirationDate;
 	}
 
 	/**
@@ -93,6 +120,41 @@ public class Row extends ModelBase
 			throw new BadArgumentException("Product cannot be null");
 		
 		this.product=product;
+		markDirty();
+
+		ArrayList<Watcher> told;
+		synchronized(this)
+		{
+			if(watchers==null)
+				return;
+			told=new ArrayList<Watcher>(watchers);
+		}
+		for(Watcher watcher : told) //outside the lock, since watchers take their own
+			watcher.productChanged(this);
+	}
+
+	/**
+	 * Arranges to be told whenever the product is replaced; watching a row again has no further effect.
+	 * This method is <i>not</i> intended for use by the view.
+	 * @param watcher what to tell
+	 */
+	synchronized void watch(Watcher watcher)
+	{
+		if(watchers==null)
+			watchers=new ArrayList<Watcher>(1);
+		if(!watchers.contains(watcher))
+			watchers.add(watcher);
+	}
+
+	/**
+	 * Stops telling something when the product is replaced.
+	 * This method is <i>not</i> intended for use by the view.
+	 * @param watcher what to stop telling
+	 */
+	synchronized void unwatch(Watcher watcher)
+	{
+		if(watchers!=null)
+			watchers.remove(watcher);
 	}
 
 	/**
@@ -114,6 +176,7 @@ public class Row extends ModelBase
 			throw new BadArgumentException("Quantity cannot be negative");
 		
 		this.remainingQuantity=remainingQuantity;
+		markDirty();
 	}
 
 	/**
@@ -130,16 +193,26 @@ public class Row extends ModelBase
 	 */
 	public void setExpirationDate(GregorianCalendar expirationDate) throws BadArgumentException
 	{
-		if(expirationDate==null)
-			throw new BadArgumentException("Expiration date cannot be null");
-		
-		this.expirationDate=expirationDate;
+		this.expirationDate=millisOf(expirationDate);
+		markDirty();
 	}
 
 	/**
+	 * Note that changing the calendar returned won't affect the row.
 	 * @return the expiration date
 	 */
 	public GregorianCalendar getExpirationDate()
+	{
+		GregorianCalendar calendar=new GregorianCalendar();
+
+		calendar.setTimeInMillis(expirationDate);
+		return calendar;
+	}
+
+	/**
+	 * @return the expiration date, in milliseconds since the epoch
+	 */
+	public long getExpirationMillis()
 	{
 		return expirationDate;
 	}
@@ -154,6 +227,7 @@ public class Row extends ModelBase
 		if(remainingQuantity>0)
 		{
 			--remainingQuantity;
+			markDirty();
 			
 			return true;
 		}
@@ -174,7 +248,7 @@ public class Row extends ModelBase
 			return false;
 		Row other=(Row)another;
 		
-		return super.equals(another) && product.equals(other.product) && this.remainingQuantity==other.remainingQuantity && expirationDate.equals(other.expirationDate);
+		return super.equals(another) && product.equals(other.product) && this.remainingQuantity==other.remainingQuantity && this.expirationDate==other.expirationDate;
 	}
 
 	/** @inheritDoc */
@@ -182,4 +256,16 @@ public class Row extends ModelBase
 	public String toString() {
 		return super.toString() + " " + String.format("Row of %s, with %d items remaining", product.getName(), remainingQuantity);
 	}
+
+	/**
+	 * @param date a date
+	 * @return the date in milliseconds since the epoch
+	 * @throws BadArgumentException if the date is <tt>null</tt>
+	 */
+	private static long millisOf(GregorianCalendar date) throws BadArgumentException
+	{
+		if(date==null)
+			throw new BadArgumentException("Expiration date cannot be null");
+		return date.getTimeInMillis();
+	}
 }
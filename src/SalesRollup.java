@@ -0,0 +1,101 @@
+import java.util.Collection;
+
+/**
+ * The number of sales and the revenue they brought in over one reporting period, as kept in the rollup tables.
+ * Periods are identified by their calendar date written as a number: <tt>yyyymmdd</tt> for days and <tt>yyyymm</tt> for months, both in local time.
+ */
+public class SalesRollup
+{
+	/** The period covered, as <tt>yyyymmdd</tt> or <tt>yyyymm</tt>. */
+	private int period;
+
+	/** The number of transactions. */
+	private int sales;
+
+	/** The money taken in, in cents. */
+	private int revenue;
+
+	/**
+	 * Normal constructor.
+	 * @param period the period covered, as <tt>yyyymmdd</tt> or <tt>yyyymm</tt>
+	 * @param sales the number of transactions
+	 * @param revenue the money taken in, in cents
+	 */
+	public SalesRollup(int period, int sales, int revenue)
+	{
+		this.period=period;
+		this.sales=sales;
+		this.revenue=revenue;
+	}
+
+	/**
+	 * Adds up several periods.
+	 * @param rollups the periods to add up
+	 * @return their combined sales and revenue, with a period of <tt>0</tt>
+	 */
+	public static SalesRollup total(Collection<SalesRollup> rollups)
+	{
+		int sales=0;
+		int revenue=0;
+
+		for(SalesRollup rollup : rollups)
+		{
+			sales+=rollup.sales;
+			revenue+=rollup.revenue;
+		}
+		return new SalesRollup(0, sales, revenue);
+	}
+
+	/**
+	 * @return the period covered, as <tt>yyyymmdd</tt> or <tt>yyyymm</tt>
+	 */
+	public int getPeriod()
+	{
+		return period;
+	}
+
+	/**
+	 * @return the number of transactions
+	 */
+	public int getSales()
+	{
+		return sales;
+	}
+
+	/**
+	 * @return the money taken in, in cents
+	 */
+	public int getRevenue()
+	{
+		return revenue;
+	}
+
+	/**
+	 * Checks whether two instances contain the same data.
+	 * @param another another instance
+	 * @return whether their contents match
+	 */
+	@Override
+	public boolean equals(Object another)
+	{
+		if(!(another instanceof SalesRollup))
+			return false;
+		SalesRollup other=(SalesRollup)another;
+
+		return period==other.period && sales==other.sales && revenue==other.revenue;
+	}
+
+	/** @inheritDoc */
+	@Override
+	public int hashCode()
+	{
+		return 31*(31*period+sales)+revenue;
+	}
+
+	/** @inheritDoc */
+	@Override
+	public String toString()
+	{
+		return String.format("%d: %d sales, %.2f", period, sales, ((double)revenue)/100);
+	}
+}
@@ -0,0 +1,255 @@
+import java.util.GregorianCalendar;
+
+/**
+ * Sales and revenue over a run of consecutive, equally sized periods of local time, such as the hours of a day or the days of a year.
+ * Every period in the run has an entry, even if nothing was sold during it.
+ * Series are built from the sales rollup tables rather than from individual transactions.
+ */
+public class SalesTimeSeries
+{
+	/** The sizes of period a series can be broken into. */
+	public static enum Granularity
+	{
+		/** One period per hour. */
+		HOUR("Hourly", "hour", 1),
+
+		/** One period per day. */
+		DAY("Daily", "day", 1),
+
+		/** One period per calendar month, added up from the days. */
+		MONTH("Daily", "day", 100);
+
+		/** What distinguishes the names of the rollup tables this is built from, e.g. <tt>Daily</tt> for <tt>MachineDailySales</tt>. */
+		private final String tableInfix;
+
+		/** The column of those tables identifying the period. */
+		private final String column;
+
+		/** What to divide that column by to identify one of these periods. */
+		private final int divisor;
+
+		/**
+		 * Enumeration constructor.
+		 * @param tableInfix what distinguishes the names of the rollup tables to use
+		 * @param column the column of those tables identifying the period
+		 * @param divisor what to divide that column by to identify one of these periods
+		 */
+		private Granularity(String tableInfix, String column, int divisor)
+		{
+			this.tableInfix=tableInfix;
+			this.column=column;
+			this.divisor=divisor;
+		}
+
+		/**
+		 * @param subject what the rollup counts sales by, e.g. <tt>Machine</tt> or <tt>Item</tt>
+		 * @return the name of the rollup table to read
+		 */
+		public String getTable(String subject)
+		{
+			return subject+tableInfix+"Sales";
+		}
+
+		/**
+		 * @return the column of the rollup table identifying its periods
+		 */
+		public String getColumn()
+		{
+			return column;
+		}
+
+		/**
+		 * @return what to divide the rollup table's period column by to identify one of these periods
+		 */
+		public int getDivisor()
+		{
+			return divisor;
+		}
+
+		/**
+		 * Identifies the rollup table period a moment falls in, in local time.
+		 * @param time the moment
+		 * @return the period as <tt>yyyymmddhh</tt> for hours, or <tt>yyyymmdd</tt> otherwise
+		 */
+		public long storedKey(GregorianCalendar time)
+		{
+			long day=time.get(GregorianCalendar.YEAR)*10000+(time.get(GregorianCalendar.MONTH)+1)*100+time.get(GregorianCalendar.DAY_OF_MONTH);
+
+			if(this==HOUR)
+				return day*100+time.get(GregorianCalendar.HOUR_OF_DAY);
+			return day;
+		}
+
+		/**
+		 * Identifies the period a moment falls in, in local time.
+		 * @param time the moment
+		 * @return the period as <tt>yyyymmddhh</tt>, <tt>yyyymmdd</tt>, or <tt>yyyymm</tt>
+		 */
+		public long keyOf(GregorianCalendar time)
+		{
+			return storedKey(time)/divisor;
+		}
+
+		/**
+		 * Moves a moment back to the beginning of its period.
+		 * @param time the moment, which is modified
+		 */
+		public void truncate(GregorianCalendar time)
+		{
+			time.set(GregorianCalendar.MILLISECOND, 0);
+			time.set(GregorianCalendar.SECOND, 0);
+			time.set(GregorianCalendar.MINUTE, 0);
+			if(this!=HOUR)
+				time.set(GregorianCalendar.HOUR_OF_DAY, 0);
+			if(this==MONTH)
+				time.set(GregorianCalendar.DAY_OF_MONTH, 1);
+		}
+
+		/**
+		 * Moves a moment forward by one period.
+		 * @param time the moment, which is modified
+		 */
+		public void advance(GregorianCalendar time)
+		{
+			if(this==HOUR)
+				time.add(GregorianCalendar.HOUR_OF_DAY, 1);
+			else if(this==DAY)
+				time.add(GregorianCalendar.DAY_OF_MONTH, 1);
+			else
+				time.add(GregorianCalendar.MONTH, 1);
+		}
+	}
+
+	/** The size of each period. */
+	private Granularity granularity;
+
+	/** The beginning of the first period. */
+	private GregorianCalendar start;
+
+	/** The number of sales in each period. */
+	private int[] sales;
+
+	/** The money taken in during each period, in cents. */
+	private long[] revenue;
+
+	/**
+	 * Normal constructor.
+	 * The arrays are used as they are, not copied.
+	 * @param granularity the size of each period
+	 * @param start the beginning of the first period
+	 * @param sales the number of sales in each period
+	 * @param revenue the money taken in during each period
+	 * @throws BadArgumentException if an argument is <tt>null</tt> or the arrays' lengths differ
+	 */
+	public SalesTimeSeries(Granularity granularity, GregorianCalendar start, int[] sales, long[] revenue) throws BadArgumentException
+	{
+		if(granularity==null || start==null || sales==null || revenue==null)
+			throw new BadArgumentException("Time series fields cannot be null");
+		else if(sales.length!=revenue.length)
+			throw new BadArgumentException("Every period must have both sales and revenue");
+
+		this.granularity=granularity;
+		this.start=start;
+		this.sales=sales;
+		this.revenue=revenue;
+	}
+
+	/**
+	 * @return the size of each period
+	 */
+	public Granularity getGranularity()
+	{
+		return granularity;
+	}
+
+	/**
+	 * @return the number of periods
+	 */
+	public int size()
+	{
+		return sales.length;
+	}
+
+	/**
+	 * @param index a period's position in the series
+	 * @return when that period begins
+	 */
+	public GregorianCalendar getPeriodStart(int index)
+	{
+		GregorianCalendar time=(GregorianCalendar)start.clone();
+
+		for(int step=0; step<index; ++step)
+			granularity.advance(time);
+		return time;
+	}
+
+	/**
+	 * @param index a period's position in the series
+	 * @return the number of sales during that period
+	 */
+	public int getSales(int index)
+	{
+		return sales[index];
+	}
+
+	/**
+	 * @param index a period's position in the series
+	 * @return the money taken in during that period, in cents
+	 */
+	public long getRevenue(int index)
+	{
+		return revenue[index];
+	}
+
+	/**
+	 * Smooths the number of sales with a trailing moving average.
+	 * Each period's value is the mean over it and the <tt>window-1</tt> periods before it; the first few periods average over as many as there are.
+	 * @param window the number of periods to average over
+	 * @return the average for each period
+	 * @throws BadArgumentException if <tt>window</tt> is not positive
+	 */
+	public double[] movingAverageSales(int window) throws BadArgumentException
+	{
+		long[] values=new long[sales.length];
+
+		for(int index=0; index<sales.length; ++index)
+			values[index]=sales[index];
+		return movingAverage(values, window);
+	}
+
+	/**
+	 * Smooths the revenue with a trailing moving average.
+	 * Each period's value is the mean over it and the <tt>window-1</tt> periods before it; the first few periods average over as many as there are.
+	 * @param window the number of periods to average over
+	 * @return the average for each period, in cents
+	 * @throws BadArgumentException if <tt>window</tt> is not positive
+	 */
+	public double[] movingAverageRevenue(int window) throws BadArgumentException
+	{
+		return movingAverage(revenue, window);
+	}
+
+	/**
+	 * Computes a trailing moving average by keeping a running sum, so the cost doesn't depend on the window.
+	 * @param values the values to smooth
+	 * @param window the number of values to average over
+	 * @return the average ending at each value
+	 * @throws BadArgumentException if <tt>window</tt> is not positive
+	 */
+	private static double[] movingAverage(long[] values, int window) throws BadArgumentException
+	{
+		if(window<=0)
+			throw new BadArgumentException("Window must be positive");
+
+		double[] averages=new double[values.length];
+		long sum=0;
+		for(int index=0; index<values.length; ++index)
+		{
+			sum+=values[index];
+			if(index>=window)
+				sum-=values[index-window];
+			averages[index]=((double)sum)/Math.min(index+1, window);
+		}
+		return averages;
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * The position of a row within a vending machine's layout, as its indices into <tt>VMLayout.getRows()</tt>.
+ * Instances are immutable, and those for the positions of ordinary-sized layouts are shared, so obtaining one doesn't usually allocate anything.
+ * Because they can be hashed, they may also be used as keys.
+ */
+public final class Slot
+{
+	/** The number of positions along each side for which instances are shared. */
+	private static final int SHARED_SIZE=32;
+
+	/** The shared instances, by major and then minor coordinate. */
+	private static final Slot[][] shared=new Slot[SHARED_SIZE][SHARED_SIZE];
+
+	static
+	{
+		for(int x=0; x<SHARED_SIZE; ++x)
+			for(int y=0; y<SHARED_SIZE; ++y)
+				shared[x][y]=new Slot(x, y);
+	}
+
+	/** The major coordinate. */
+	private final int x;
+
+	/** The minor coordinate. */
+	private final int y;
+
+	/**
+	 * Normal constructor.
+	 * @param x the major coordinate
+	 * @param y the minor coordinate
+	 */
+	private Slot(int x, int y)
+	{
+		this.x=x;
+		this.y=y;
+	}
+
+	/**
+	 * Obtains the instance for a position, reusing a shared one where possible.
+	 * @param x the major coordinate
+	 * @param y the minor coordinate
+	 * @return the position
+	 */
+	public static Slot of(int x, int y)
+	{
+		if(x>=0 && x<SHARED_SIZE && y>=0 && y<SHARED_SIZE)
+			return shared[x][y];
+		return new Slot(x, y);
+	}
+
+	/**
+	 * Obtains the position from its packed form.
+	 * @param packed the position as returned by <tt>pack()</tt>
+	 * @return the position
+	 */
+	public static Slot unpack(int packed)
+	{
+		return of(packed>>>16, packed & 0xffff);
+	}
+
+	/**
+	 * @return the major coordinate
+	 */
+	public int getX()
+	{
+		return x;
+	}
+
+	/**
+	 * @return the minor coordinate
+	 */
+	public int getY()
+	{
+		return y;
+	}
+
+	/**
+	 * Packs the position into a single number, for storing many of them compactly.
+	 * Only positions whose coordinates are both between <tt>0</tt> and <tt>65535</tt> survive the trip.
+	 * @return the major coordinate in the upper half and the minor one in the lower half
+	 */
+	public int pack()
+	{
+		return x<<16 | (y & 0xffff);
+	}
+
+	/**
+	 * Checks whether two instances contain the same data.
+	 * @param another another instance
+	 * @return whether their contents match
+	 */
+	@Override
+	public boolean equals(Object another)
+	{
+		if(!(another instanceof Slot))
+			return false;
+		Slot other=(Slot)another;
+
+		return x==other.x && y==other.y;
+	}
+
+	/** @inheritDoc */
+	@Override
+	public int hashCode()
+	{
+		return 31*x+y;
+	}
+
+	/** @inheritDoc */
+	@Override
+	public String toString()
+	{
+		return String.format("<%d, %d>", x, y);
+	}
+}
@@ -0,0 +1,73 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared out among an unbounded number of keys, such as the ids of machines or customers.
+ * Operations on the same key always get the same lock, so they happen one at a time, while operations on most different keys get different locks and can go ahead in parallel.
+ * Keys occasionally share a lock; that costs some parallelism, never correctness.
+ * A thread that needs locks from several instances must always take them in the same order, or two threads may deadlock.
+ */
+public class StripedLock
+{
+	/** The default number of locks. */
+	public static final int DEFAULT_STRIPES=64;
+
+	/** The locks. */
+	private final ReentrantLock[] stripes;
+
+	/**
+	 * Normal constructor.
+	 * @param count the number of locks to share out
+	 * @throws IllegalArgumentException if <tt>count</tt> is not positive
+	 */
+	public StripedLock(int count)
+	{
+		if(count<=0)
+			throw new IllegalArgumentException("Lock stripe count must be positive");
+
+		stripes=new ReentrantLock[count];
+		for(int stripe=0; stripe<count; ++stripe)
+			stripes[stripe]=new ReentrantLock();
+	}
+
+	/**
+	 * @param key the key
+	 * @return the lock guarding it
+	 */
+	public ReentrantLock get(int key)
+	{
+		//spread the bits so that runs of sequential ids don't share locks
+		int spread=key^(key>>>16);
+		spread*=0x45d9f3b;
+		return stripes[((spread^(spread>>>16)) & 0x7fffffff)%stripes.length];
+	}
+
+	/**
+	 * Finds the lock guarding an object, which is chosen by its id if it has been stored, or by the instance itself otherwise.
+	 * @param model the object
+	 * @return the lock guarding it
+	 */
+	public ReentrantLock get(ModelBase model)
+	{
+		try
+		{
+			if(!model.isTempId())
+				return get(model.getId());
+		}
+		catch(BadStateException impossible) //we just checked that it has an id
+		{
+			System.err.println("CRITICAL : Model detected a problem not previously thought possible!");
+			System.err.print("    DUMP : ");
+			impossible.printStackTrace();
+			System.err.println();
+		}
+		return get(System.identityHashCode(model));
+	}
+
+	/**
+	 * @return the number of locks
+	 */
+	public int getStripeCount()
+	{
+		return stripes.length;
+	}
+}
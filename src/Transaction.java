@@ -5,8 +5,8 @@ import java.util.GregorianCalendar;
  * @author Lane Lawley <lxl5734@rit.edu>
  */
 public class Transaction extends ModelBase {
-	/** The time the transaction occurred. */
-	private GregorianCalendar timestamp;
+	/** The time the transaction occurred, in milliseconds since the epoch. */
+	private long timestamp;
 
 	/** The machine at which the transaction occurred. */
 	private VendingMachine machine;
@@ -18,7 +18,7 @@ public class Transaction extends ModelBase {
 	private FoodItem product;
 
 	/** The row the product was purchased from. */
-	private Pair<Integer, Integer> whichRow;
+	private Slot whichRow;
 
 	/** The amount of money that changed hands. */
 	private int balance;
@@ -34,7 +34,7 @@ public class Transaction extends ModelBase {
 	 * @throws BadArgumentException if a <tt>null</tt> is passed in or a coordinate is negative
 	 * @throws NullPointerException if <tt>product</tt> happens to be negative ... avoid!
 	 */
-	public Transaction(GregorianCalendar timestamp, VendingMachine machine, Customer customer, FoodItem product, Pair<Integer, Integer> whichRow) throws BadArgumentException
+	public Transaction(GregorianCalendar timestamp, VendingMachine machine, Customer customer, FoodItem product, Slot whichRow) throws BadArgumentException
 	{
 		this(timestamp, machine, customer, product, whichRow, product.getPrice());
 	}
@@ -50,19 +50,31 @@ public class Transaction extends ModelBase {
 	 * @param balance		The amount of money that changed hands.
 	 * @throws BadArgumentException if a <tt>null</tt> is passed in or a coordinate is negative
 	 */
-	public Transaction(GregorianCalendar timestamp, VendingMachine machine, Customer customer, FoodItem product, Pair<Integer, Integer> whichRow, int balance) throws BadArgumentException
+	public Transaction(GregorianCalendar timestamp, VendingMachine machine, Customer customer, FoodItem product, Slot whichRow, int balance) throws BadArgumentException
 	{
-		if(timestamp==null)
-			throw new BadArgumentException("Timestamp cannot be null");
-		else if(machine==null)
+		this(millisOf(timestamp), machine, customer, product, whichRow, balance);
+	}
+
+	/**
+	 * Loading constructor, for transactions whose time is already known in milliseconds.
+	 *
+	 * @param timestamp		The time the transaction occurred, in milliseconds since the epoch.
+	 * @param machine		The machine at which the transaction occurred.
+	 * @param customer		The customer who purchased the product.
+	 * @param product		The product purchased.
+	 * @param whichRow		The row the product was purchased from.
+	 * @param balance		The amount of money that changed hands.
+	 * @throws BadArgumentException if a <tt>null</tt> is passed in or a coordinate is negative
+	 */
+	public Transaction(long timestamp, VendingMachine machine, Customer customer, FoodItem product, Slot whichRow, int balance) throws BadArgumentException
+	{
+		if(machine==null)
 			throw new BadArgumentException("Machine cannot be null");
 		else if(customer==null)
 			throw new BadArgumentException("Customer cannot be null");
 		else if(whichRow==null)
 			throw new BadArgumentException("Row specification cannot be null");
-		else if(whichRow.first==null || whichRow.second==null)
-			throw new BadArgumentException("Row specification cannot contain null coordinate");
-		else if(whichRow.first<0 || whichRow.second<0)
+		else if(whichRow.getX()<0 || whichRow.getY()<0)
 			throw new BadArgumentException("Row specification cannot contain negative coordinate");
 		
 		this.timestamp = timestamp;
@@ -88,8 +100,15 @@ public class Transaction extends ModelBase {
 		this.balance = old.balance;
 	}
 
-	/** @return	The time the transaction occurred. */
+	/** @return	The time the transaction occurred, which may be changed without affecting the transaction. */
 	public GregorianCalendar getTimestamp() {
+		GregorianCalendar calendar = new GregorianCalendar();
+		calendar.setTimeInMillis(timestamp);
+		return calendar;
+	}
+
+	/** @return	The time the transaction occurred, in milliseconds since the epoch. */
+	public long getTimestampMillis() {
 		return timestamp;
 	}
 
@@ -109,7 +128,7 @@ public class Transaction extends ModelBase {
 	}
 
 	/** @return The row the product was purchased from. */
-	public Pair<Integer, Integer> getRow() {
+	public Slot getRow() {
 		return whichRow;
 	}
 
@@ -135,12 +154,24 @@ public class Transaction extends ModelBase {
 			return false;
 		Transaction other=(Transaction)another;
 		
-		return super.equals(another) && timestamp.equals(other.timestamp) && machine.equals(other.machine) && customer.equals(other.customer) && product.equals(other.product) && whichRow.equals(other.whichRow) && this.balance==other.balance;
+		return super.equals(another) && timestamp==other.timestamp && machine.equals(other.machine) && customer.equals(other.customer) && product.equals(other.product) && whichRow.equals(other.whichRow) && this.balance==other.balance;
 	}
 
 	/** @inheritDoc */
 	@Override
 	public String toString() {
-		return super.toString() + " " + String.format("%s bought %s at %s", customer.getName(), product.getName(), timestamp.getTime());
+		return super.toString() + " " + String.format("%s bought %s at %s", customer.getName(), product.getName(), getTimestamp().getTime());
+	}
+
+	/**
+	 * @param timestamp a time
+	 * @return the time in milliseconds since the epoch
+	 * @throws BadArgumentException if the time is <tt>null</tt>
+	 */
+	private static long millisOf(GregorianCalendar timestamp) throws BadArgumentException
+	{
+		if(timestamp==null)
+			throw new BadArgumentException("Timestamp cannot be null");
+		return timestamp.getTimeInMillis();
 	}
 }
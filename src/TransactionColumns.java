@@ -0,0 +1,455 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A read-only snapshot of the transaction history held as one primitive array per column, for statistics.
+ * Answering a query means scanning a few arrays rather than walking fully built <tt>Transaction</tt>s, so large histories can be sliced quickly and in little memory.
+ * Big scans are split into ranges of rows (and so, roughly, of time) that are aggregated in parallel on a fork/join pool and merged in row order.
+ * Rows are in the order the transactions were recorded; row coordinates are packed into a single <tt>int</tt> with <tt>x</tt> in the upper half.
+ */
+public class TransactionColumns
+{
+	/** The columns by which transactions can be grouped. */
+	public static enum Key
+	{
+		/** The machine at which the transaction occurred. */
+		MACHINE,
+
+		/** The customer who made the transaction. */
+		CUSTOMER,
+
+		/** The item that was bought. */
+		PRODUCT
+	}
+
+	/**
+	 * Restricts a query to some of the transactions.
+	 * A new filter matches everything; each setter narrows it and returns the same filter so that calls can be chained.
+	 */
+	public static class Filter
+	{
+		/** The machine to match, or <tt>null</tt> for any. */
+		private Integer machineId=null;
+
+		/** The customer to match, or <tt>null</tt> for any. */
+		private Integer customerId=null;
+
+		/** The item to match, or <tt>null</tt> for any. */
+		private Integer productId=null;
+
+		/** The earliest time to match, inclusive. */
+		private long start=Long.MIN_VALUE;
+
+		/** The latest time to match, exclusive. */
+		private long end=Long.MAX_VALUE;
+
+		/**
+		 * @param machineId the only machine to match
+		 * @return this filter
+		 */
+		public Filter machine(int machineId)
+		{
+			this.machineId=machineId;
+			return this;
+		}
+
+		/**
+		 * @param customerId the only customer to match
+		 * @return this filter
+		 */
+		public Filter customer(int customerId)
+		{
+			this.customerId=customerId;
+			return this;
+		}
+
+		/**
+		 * @param productId the only item to match
+		 * @return this filter
+		 */
+		public Filter product(int productId)
+		{
+			this.productId=productId;
+			return this;
+		}
+
+		/**
+		 * @param start the earliest time to match, in milliseconds since the epoch, inclusive
+		 * @param end the latest time to match, in milliseconds since the epoch, exclusive
+		 * @return this filter
+		 */
+		public Filter between(long start, long end)
+		{
+			this.start=start;
+			this.end=end;
+			return this;
+		}
+	}
+
+	/** The sales and revenue of one group of transactions. */
+	public static class Group
+	{
+		/** The id the transactions share, or <tt>0</tt> for an ungrouped total. */
+		private final int key;
+
+		/** The number of transactions. */
+		private final int sales;
+
+		/** The money taken in, in cents. */
+		private final long revenue;
+
+		/**
+		 * Normal constructor.
+		 * @param key the id the transactions share
+		 * @param sales the number of transactions
+		 * @param revenue the money taken in, in cents
+		 */
+		public Group(int key, int sales, long revenue)
+		{
+			this.key=key;
+			this.sales=sales;
+			this.revenue=revenue;
+		}
+
+		/**
+		 * @return the id the transactions share, or <tt>0</tt> for an ungrouped total
+		 */
+		public int getKey()
+		{
+			return key;
+		}
+
+		/**
+		 * @return the number of transactions
+		 */
+		public int getSales()
+		{
+			return sales;
+		}
+
+		/**
+		 * @return the money taken in, in cents
+		 */
+		public long getRevenue()
+		{
+			return revenue;
+		}
+
+		/** @inheritDoc */
+		@Override
+		public String toString()
+		{
+			return String.format("%d: %d sales, %.2f", key, sales, ((double)revenue)/100);
+		}
+	}
+
+	/** Scans of fewer rows than this are done on the calling thread. */
+	public static final int PARALLEL_THRESHOLD=100000;
+
+	/** The fewest rows a parallel scan hands to a single task. */
+	private static final int MIN_GRAIN=16384;
+
+	/** The number of threads among which big scans are split. */
+	private static int parallelism=Runtime.getRuntime().availableProcessors();
+
+	/** Threads for big scans, started the first time one is needed. */
+	private static ForkJoinPool scanners=null;
+
+	/** The number of rows. */
+	private final int size;
+
+	/** When each transaction occurred, in milliseconds since the epoch. */
+	private final long[] timestamps;
+
+	/** The machine of each transaction. */
+	private final int[] machineIds;
+
+	/** The customer of each transaction. */
+	private final int[] customerIds;
+
+	/** The item bought in each transaction. */
+	private final int[] productIds;
+
+	/** The row each item came from, packed by <tt>Slot.pack()</tt>. */
+	private final int[] rows;
+
+	/** The money that changed hands in each transaction. */
+	private final int[] balances;
+
+	/**
+	 * Normal constructor.
+	 * The arrays are used as they are, not copied, and may be longer than <tt>size</tt>.
+	 * @param size the number of rows
+	 * @param timestamps when each transaction occurred
+	 * @param machineIds the machine of each transaction
+	 * @param customerIds the customer of each transaction
+	 * @param productIds the item bought in each transaction
+	 * @param rows the row of each transaction, packed by <tt>Slot.pack()</tt>
+	 * @param balances the money that changed hands in each transaction
+	 * @throws IllegalArgumentException if an array is shorter than <tt>size</tt>
+	 */
+	public TransactionColumns(int size, long[] timestamps, int[] machineIds, int[] customerIds, int[] productIds, int[] rows, int[] balances)
+	{
+		if(size<0 || timestamps.length<size || machineIds.length<size || customerIds.length<size || productIds.length<size || rows.length<size || balances.length<size)
+			throw new IllegalArgumentException("Every column must have a value for each row");
+
+		this.size=size;
+		this.timestamps=timestamps;
+		this.machineIds=machineIds;
+		this.customerIds=customerIds;
+		this.productIds=productIds;
+		this.rows=rows;
+		this.balances=balances;
+	}
+
+	/**
+	 * @return the number of transactions
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @param index a row number
+	 * @return the coordinates of the row from which that transaction's item came
+	 */
+	public Slot getRow(int index)
+	{
+		return Slot.unpack(rows[index]);
+	}
+
+	/**
+	 * Adds up the transactions matching a filter.
+	 * @param filter which transactions to include
+	 * @return their total, with a key of <tt>0</tt>
+	 */
+	public Group total(Filter filter)
+	{
+		int sales=0;
+		long revenue=0;
+
+		for(Group part : groupBy(null, filter).values())
+		{
+			sales+=part.sales;
+			revenue+=part.revenue;
+		}
+		return new Group(0, sales, revenue);
+	}
+
+	/**
+	 * Adds up the transactions matching a filter separately for each value of a column.
+	 * @param key the column whose values to group by
+	 * @param filter which transactions to include
+	 * @return the total for each value with at least one matching transaction, in order of the value
+	 */
+	public ArrayList<Group> group(Key key, Filter filter)
+	{
+		ArrayList<Group> groups=new ArrayList<Group>(groupBy(key, filter).values());
+
+		Collections.sort(groups, new Comparator<Group>()
+		{
+			public int compare(Group left, Group right)
+			{
+				return left.key<right.key ? -1 : left.key==right.key ? 0 : 1;
+			}
+		});
+		return groups;
+	}
+
+	/**
+	 * Finds the values of a column with the most sales or revenue among the transactions matching a filter.
+	 * @param key the column whose values to rank
+	 * @param filter which transactions to include
+	 * @param limit the most values to return
+	 * @param byRevenue whether to rank by revenue rather than by number of sales
+	 * @return the totals for up to <tt>limit</tt> values, best first
+	 */
+	public ArrayList<Group> top(Key key, Filter filter, int limit, final boolean byRevenue)
+	{
+		ArrayList<Group> groups=new ArrayList<Group>(groupBy(key, filter).values());
+
+		Collections.sort(groups, new Comparator<Group>()
+		{
+			public int compare(Group left, Group right)
+			{
+				long difference=byRevenue ? right.revenue-left.revenue : right.sales-left.sales;
+
+				if(difference==0)
+					return left.key<right.key ? -1 : left.key==right.key ? 0 : 1;
+				return difference<0 ? -1 : 1;
+			}
+		});
+		if(groups.size()>limit)
+			return new ArrayList<Group>(groups.subList(0, limit));
+		return groups;
+	}
+
+	/**
+	 * Sets how many threads big scans are split among.
+	 * This is only useful before the first big scan; after that, it does nothing.
+	 * @param threads the number of threads, which must be positive; <tt>1</tt> disables parallel scanning
+	 * @return whether the setting was applied
+	 */
+	public static synchronized boolean setParallelism(int threads)
+	{
+		if(scanners==null && threads>0)
+		{
+			parallelism=threads;
+
+			return true;
+		}
+		else
+			return false;
+	}
+
+	/**
+	 * Scans the columns, splitting the work among several threads if there are enough rows.
+	 * @param key the column to group by, or <tt>null</tt> to put everything in one group
+	 * @param filter which transactions to include
+	 * @return the groups, by their key
+	 */
+	private HashMap<Integer, Group> groupBy(Key key, Filter filter)
+	{
+		ForkJoinPool pool=getScanners();
+
+		if(size<PARALLEL_THRESHOLD || pool==null)
+			return scan(key, filter, 0, size);
+		return pool.invoke(new ScanTask(key, filter, 0, size, Math.max(MIN_GRAIN, size/(pool.getParallelism()*4))));
+	}
+
+	/**
+	 * One range of rows of a parallel scan.
+	 * Ranges bigger than the grain are halved, and the halves' results are merged left into right so that the outcome doesn't depend on which thread finishes first.
+	 */
+	private class ScanTask extends RecursiveTask<HashMap<Integer, Group>>
+	{
+		/** Identifies this version of the class when serialized. */
+		private static final long serialVersionUID=1L;
+
+		/** The column to group by, or <tt>null</tt>. */
+		private final Key key;
+
+		/** Which transactions to include. */
+		private final Filter filter;
+
+		/** The first row to scan. */
+		private final int from;
+
+		/** One past the last row to scan. */
+		private final int to;
+
+		/** The most rows to scan without splitting. */
+		private final int grain;
+
+		/**
+		 * Normal constructor.
+		 * @param key the column to group by, or <tt>null</tt>
+		 * @param filter which transactions to include
+		 * @param from the first row to scan
+		 * @param to one past the last row to scan
+		 * @param grain the most rows to scan without splitting
+		 */
+		public ScanTask(Key key, Filter filter, int from, int to, int grain)
+		{
+			this.key=key;
+			this.filter=filter;
+			this.from=from;
+			this.to=to;
+			this.grain=grain;
+		}
+
+		/** @inheritDoc */
+		@Override
+		protected HashMap<Integer, Group> compute()
+		{
+			if(to-from<=grain)
+				return scan(key, filter, from, to);
+
+			int middle=from+(to-from)/2;
+			ScanTask left=new ScanTask(key, filter, from, middle, grain);
+			ScanTask right=new ScanTask(key, filter, middle, to, grain);
+			left.fork();
+			HashMap<Integer, Group> merged=right.compute();
+			for(Map.Entry<Integer, Group> group : left.join().entrySet())
+			{
+				Group existing=merged.get(group.getKey());
+				Group addition=group.getValue();
+
+				if(existing==null)
+					merged.put(group.getKey(), addition);
+				else
+					merged.put(group.getKey(), new Group(existing.key, existing.sales+addition.sales, existing.revenue+addition.revenue));
+			}
+			return merged;
+		}
+	}
+
+	/**
+	 * Scans a range of rows on the calling thread.
+	 * Each group's running totals are kept in a two-element array so that nothing is allocated per row.
+	 * @param key the column to group by, or <tt>null</tt> to put everything in one group
+	 * @param filter which transactions to include
+	 * @param from the first row to scan
+	 * @param to one past the last row to scan
+	 * @return the groups, by their key
+	 */
+	private HashMap<Integer, Group> scan(Key key, Filter filter, int from, int to)
+	{
+		int[] keys=key==Key.MACHINE ? machineIds : key==Key.CUSTOMER ? customerIds : key==Key.PRODUCT ? productIds : null;
+		boolean anyMachine=filter.machineId==null;
+		boolean anyCustomer=filter.customerId==null;
+		boolean anyProduct=filter.productId==null;
+		int machineId=anyMachine ? 0 : filter.machineId;
+		int customerId=anyCustomer ? 0 : filter.customerId;
+		int productId=anyProduct ? 0 : filter.productId;
+		HashMap<Integer, long[]> totals=new HashMap<Integer, long[]>();
+		long[] last=null;
+		int lastKey=0;
+
+		for(int index=from; index<to; ++index)
+		{
+			if(timestamps[index]<filter.start || timestamps[index]>=filter.end
+					|| !anyMachine && machineIds[index]!=machineId
+					|| !anyCustomer && customerIds[index]!=customerId
+					|| !anyProduct && productIds[index]!=productId)
+				continue;
+
+			int group=keys==null ? 0 : keys[index];
+			if(last==null || group!=lastKey) //consecutive rows often share a key
+			{
+				last=totals.get(group);
+				if(last==null)
+				{
+					last=new long[2];
+					totals.put(group, last);
+				}
+				lastKey=group;
+			}
+			++last[0];
+			last[1]+=balances[index];
+		}
+
+		HashMap<Integer, Group> groups=new HashMap<Integer, Group>();
+		for(Map.Entry<Integer, long[]> total : totals.entrySet())
+			groups.put(total.getKey(), new Group(total.getKey(), (int)total.getValue()[0], total.getValue()[1]));
+		return groups;
+	}
+
+	/**
+	 * Starts the scanning threads if they haven't been already.
+	 * Fork/join threads are daemons, so they don't keep the program running.
+	 * @return the threads, or <tt>null</tt> if scans aren't to be split
+	 */
+	private static synchronized ForkJoinPool getScanners()
+	{
+		if(scanners==null && parallelism>1)
+			scanners=new ForkJoinPool(parallelism);
+		return scanners;
+	}
+}
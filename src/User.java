@@ -42,6 +42,7 @@ public abstract class User extends ModelBase
 			throw new BadArgumentException("Name cannot be null");
 		
 		this.name=name;
+		markDirty();
 	}
 
 	/**
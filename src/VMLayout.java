@@ -1,5 +1,9 @@
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 /**
  * Encapsulates a vending machine's layout.
@@ -22,8 +26,223 @@ public class VMLayout extends ModelBase
 	/** The maximum number of objects in each row */
 	private int depth;
 
-	/** When the next restocking is due (<tt>null</tt> if unset). */
-	private GregorianCalendar nextVisit;
+	/** When the next restocking is due, in milliseconds since the epoch (<tt>null</tt> if unset). */
+	private Long nextVisit;
+
+	/** The next visit (in milliseconds) as of the last time the layout was stored or fetched, or <tt>null</tt> if there was none. */
+	private Long syncedVisit;
+
+	/** Which row was in each position as of the last time the layout was stored or fetched, or <tt>null</tt> if it never has been. */
+	private Row[][] syncedRows;
+
+	/** Where each item is stocked, shared with any shallow copies since they share the rows. */
+	private SlotIndex index;
+
+	/**
+	 * Keeps track of which positions hold a row of each stored item, so that items can be found without searching the whole layout.
+	 * It is updated as rows are placed with <tt>setRow()</tt>, and built again from scratch only after one of its rows' products is replaced, which the rows report to it.
+	 * Rows whose items haven't been stored yet are set aside and added once their items have ids.
+	 * The quantities aren't copied into it, but read from the rows themselves.
+	 */
+	private static class SlotIndex implements Row.Watcher
+	{
+		/** The rows being indexed. */
+		private Row[][] rows;
+
+		/** The positions holding each item, by item id, or <tt>null</tt> if they need to be worked out again. */
+		private HashMap<Integer, ArrayList<Slot>> slots;
+
+		/** The positions whose items had yet to be stored, and so were left out of <tt>slots</tt>. */
+		private ArrayList<Slot> unstored;
+
+		/**
+		 * Normal constructor.
+		 * @param rows the rows to index
+		 */
+		public SlotIndex(Row[][] rows)
+		{
+			this.rows=rows;
+			slots=null;
+			unstored=new ArrayList<Slot>();
+		}
+
+		/** @inheritDoc */
+		@Override
+		public synchronized void productChanged(Row row)
+		{
+			slots=null;
+		}
+
+		/**
+		 * Places a row, updating the positions of the items it replaces and brings in.
+		 * @param x the major coordinate
+		 * @param y the minor coordinate
+		 * @param row the new row, or <tt>null</tt> to leave the position empty
+		 */
+		public synchronized void set(int x, int y, Row row)
+		{
+			if(slots!=null)
+				remove(x, y);
+			if(rows[x][y]!=null)
+				rows[x][y].unwatch(this);
+			rows[x][y]=row;
+			if(slots!=null)
+				add(x, y);
+		}
+
+		/**
+		 * Finds a position where an item is still available.
+		 * @param productId the item's id
+		 * @return the first position with some left, or <tt>null</tt> if there is none
+		 */
+		public synchronized Slot findStocked(int productId)
+		{
+			return findStocked(getSlots().get(productId));
+		}
+
+		/**
+		 * Totals how many of an item are left.
+		 * @param productId the item's id
+		 * @return the number remaining across all its rows
+		 */
+		public synchronized int countRemaining(int productId)
+		{
+			ArrayList<Slot> positions=getSlots().get(productId);
+			int remaining=0;
+
+			if(positions!=null)
+				for(Slot position : positions)
+					remaining+=rows[position.getX()][position.getY()].getRemainingQuantity();
+			return remaining;
+		}
+
+		/**
+		 * Collects the items that are still available.
+		 * @return the ids of the items
+		 */
+		public synchronized HashSet<Integer> listStocked()
+		{
+			HashSet<Integer> stocked=new HashSet<Integer>();
+
+			for(Map.Entry<Integer, ArrayList<Slot>> item : getSlots().entrySet())
+				if(findStocked(item.getValue())!=null)
+					stocked.add(item.getKey());
+			return stocked;
+		}
+
+		/**
+		 * @param positions the positions holding an item, or <tt>null</tt> if there are none
+		 * @return the first position with some left, or <tt>null</tt> if there is none
+		 */
+		private Slot findStocked(ArrayList<Slot> positions)
+		{
+			if(positions!=null)
+				for(Slot position : positions)
+					if(rows[position.getX()][position.getY()].getRemainingQuantity()>0)
+						return position;
+			return null;
+		}
+
+		/**
+		 * Works the positions out again if a product has been replaced, and adds any rows whose items have since been stored.
+		 * @return the positions holding each item
+		 */
+		private HashMap<Integer, ArrayList<Slot>> getSlots()
+		{
+			if(slots==null)
+			{
+				slots=new HashMap<Integer, ArrayList<Slot>>();
+				unstored.clear();
+				for(int x=0; x<rows.length; ++x)
+					for(int y=0; y<rows[x].length; ++y)
+						add(x, y);
+			}
+			else if(!unstored.isEmpty())
+			{
+				ArrayList<Slot> waiting=unstored;
+
+				unstored=new ArrayList<Slot>();
+				for(Slot position : waiting)
+					add(position.getX(), position.getY());
+			}
+			return slots;
+		}
+
+		/**
+		 * Records the item in a position, and starts watching its row.
+		 * @param x the major coordinate
+		 * @param y the minor coordinate
+		 */
+		private void add(int x, int y)
+		{
+			Row row=rows[x][y];
+
+			if(row==null)
+				return;
+			row.watch(this);
+			if(row.getProduct().isTempId())
+			{
+				unstored.add(Slot.of(x, y));
+				return;
+			}
+
+			Integer productId=productIdOf(row);
+			ArrayList<Slot> positions=slots.get(productId);
+
+			if(positions==null)
+			{
+				positions=new ArrayList<Slot>();
+				slots.put(productId, positions);
+			}
+			positions.add(Slot.of(x, y));
+		}
+
+		/**
+		 * Forgets the item in a position.
+		 * @param x the major coordinate
+		 * @param y the minor coordinate
+		 */
+		private void remove(int x, int y)
+		{
+			Slot position=Slot.of(x, y);
+			Integer productId=productIdOf(rows[x][y]);
+
+			if(productId!=null)
+			{
+				ArrayList<Slot> positions=slots.get(productId);
+
+				if(positions!=null)
+				{
+					positions.remove(position);
+					if(positions.isEmpty())
+						slots.remove(productId);
+				}
+			}
+			unstored.remove(position);
+		}
+
+		/**
+		 * @param row a row, or <tt>null</tt>
+		 * @return the id of the item in it, or <tt>null</tt> if there is no row or its item hasn't been stored
+		 */
+		private static Integer productIdOf(Row row)
+		{
+			if(row==null || row.getProduct().isTempId())
+				return null;
+			try
+			{
+				return row.getProduct().getId();
+			}
+			catch(BadStateException impossible) //we just checked that it has an id
+			{
+				System.err.println("CRITICAL : Model detected a problem not previously thought possible!");
+				System.err.print("    DUMP : ");
+				impossible.printStackTrace();
+				System.err.println();
+				return null;
+			}
+		}
+	}
 
 	/**
 	 * Dimension specification constructor.
@@ -46,6 +265,9 @@ public class VMLayout extends ModelBase
 		rows=new Row[height][width];
 		this.depth=depth;
 		nextVisit=null;
+		syncedVisit=null;
+		syncedRows=null;
+		index=new SlotIndex(rows);
 	}
 
 	/**
@@ -72,6 +294,9 @@ public class VMLayout extends ModelBase
 		this.rows = rows;
 		this.depth=depth;
 		nextVisit=null;
+		syncedVisit=null;
+		syncedRows=null;
+		index=new SlotIndex(rows);
 	}
 
 	/**
@@ -102,10 +327,9 @@ public class VMLayout extends ModelBase
 			for(int row=0; row<rows.length; ++row)
 				for(int col=0; col<rows[row].length; ++col)
 					this.rows[row][col]= existing.rows[row][col]==null ? null : new Row(existing.rows[row][col], true);
-			if(existing.nextVisit!=null)
-				this.nextVisit=(GregorianCalendar)existing.nextVisit.clone();
-			else
-				this.nextVisit=null;
+			this.nextVisit=existing.nextVisit;
+			this.syncedRows=null;
+			this.index=new SlotIndex(rows);
 		}
 		else //shallow copy
 		{
@@ -122,13 +346,17 @@ public class VMLayout extends ModelBase
 			}
 			this.rows=existing.rows;
 			this.nextVisit=existing.nextVisit;
+			this.syncedRows=existing.syncedRows;
+			this.index=existing.index;
 		}
 		
 		this.depth=existing.depth;
+		this.syncedVisit=existing.syncedVisit;
 	}
 
 	/**
 	 * Note that you shouldn't add any <tt>Row</tt> that stocks more items than <tt>getDepth()</tt>'s value.
+	 * Rows must be placed with <tt>setRow()</tt> rather than through the returned array, which would leave the index of where each item is stocked out of date.
 	 * @return all the things!
 	 */
 	public Row[][] getRows()
@@ -136,6 +364,110 @@ public class VMLayout extends ModelBase
 		return rows;
 	}
 
+	/**
+	 * @param x the major coordinate
+	 * @param y the minor coordinate
+	 * @return the row in that position, or <tt>null</tt> if it is empty
+	 * @throws BadArgumentException if the position is outside the layout
+	 */
+	public Row getRow(int x, int y) throws BadArgumentException
+	{
+		checkPosition(x, y);
+		return rows[x][y];
+	}
+
+	/**
+	 * Places a row, keeping track of where each item is stocked.
+	 * Note that you shouldn't add any <tt>Row</tt> that stocks more items than <tt>getDepth()</tt>'s value.
+	 * @param x the major coordinate
+	 * @param y the minor coordinate
+	 * @param row the row to place, or <tt>null</tt> to leave the position empty
+	 * @throws BadArgumentException if the position is outside the layout
+	 */
+	public void setRow(int x, int y, Row row) throws BadArgumentException
+	{
+		checkPosition(x, y);
+		index.set(x, y, row);
+	}
+
+	/**
+	 * Finds a row from which an item can be bought, without searching the whole layout.
+	 * Items that haven't been stored, and so have no id, are never found.
+	 * @param item the item, or <tt>null</tt>
+	 * @return the position of a row of it that isn't empty, or <tt>null</tt> if there is none
+	 */
+	public Slot findStockedSlot(FoodItem item)
+	{
+		if(item==null || item.isTempId())
+			return null;
+		try
+		{
+			return index.findStocked(item.getId());
+		}
+		catch(BadStateException impossible) //we just checked that it has an id
+		{
+			System.err.println("CRITICAL : Model detected a problem not previously thought possible!");
+			System.err.print("    DUMP : ");
+			impossible.printStackTrace();
+			System.err.println();
+			return null;
+		}
+	}
+
+	/**
+	 * @param item the item
+	 * @return whether the item can be bought, i.e. it is in a row that isn't empty
+	 */
+	public boolean isStocked(FoodItem item)
+	{
+		return findStockedSlot(item)!=null;
+	}
+
+	/**
+	 * Totals an item's stock across every row holding it.
+	 * Items that haven't been stored, and so have no id, are never counted.
+	 * @param item the item, or <tt>null</tt>
+	 * @return the number remaining
+	 */
+	public int getRemainingQuantity(FoodItem item)
+	{
+		if(item==null || item.isTempId())
+			return 0;
+		try
+		{
+			return index.countRemaining(item.getId());
+		}
+		catch(BadStateException impossible) //we just checked that it has an id
+		{
+			System.err.println("CRITICAL : Model detected a problem not previously thought possible!");
+			System.err.print("    DUMP : ");
+			impossible.printStackTrace();
+			System.err.println();
+			return 0;
+		}
+	}
+
+	/**
+	 * Collects the items available for purchase, i.e. those in a row that isn't empty.
+	 * Items that haven't been stored, and so have no id, are left out.
+	 * @return the ids of the items
+	 */
+	public HashSet<Integer> getStockedItemIds()
+	{
+		return index.listStocked();
+	}
+
+	/**
+	 * @param x the major coordinate
+	 * @param y the minor coordinate
+	 * @throws BadArgumentException if the position is outside the layout
+	 */
+	private void checkPosition(int x, int y) throws BadArgumentException
+	{
+		if(x<0 || x>=rows.length || y<0 || y>=rows[x].length)
+			throw new BadArgumentException("Position is outside the layout");
+	}
+
 	/**
 	 * @return the maximum number of elements in any row
 	 */
@@ -145,21 +477,94 @@ public class VMLayout extends ModelBase
 	}
 
 	/**
-	 * @param nextVisit the next restocking visit
+	 * Note that later changes to the calendar won't affect the layout.
+	 * @param nextVisit the next restocking visit, or <tt>null</tt> for none
 	 */
 	public void setNextVisit(GregorianCalendar nextVisit)
+	{
+		setNextVisitMillis(nextVisit==null ? null : nextVisit.getTimeInMillis());
+	}
+
+	/**
+	 * @param nextVisit the next restocking visit, in milliseconds since the epoch, or <tt>null</tt> for none
+	 */
+	public void setNextVisitMillis(Long nextVisit)
 	{
 		this.nextVisit=nextVisit;
+		markDirty();
 	}
 
 	/**
+	 * Note that changing the calendar returned won't affect the layout.
 	 * @return the next restocking visit, or <tt>null</tt> if none is defined
 	 */
 	public GregorianCalendar getNextVisit()
+	{
+		if(nextVisit==null)
+			return null;
+
+		GregorianCalendar calendar=new GregorianCalendar();
+		calendar.setTimeInMillis(nextVisit);
+		return calendar;
+	}
+
+	/**
+	 * @return the next restocking visit, in milliseconds since the epoch, or <tt>null</tt> if none is defined
+	 */
+	public Long getNextVisitMillis()
 	{
 		return nextVisit;
 	}
 
+	/**
+	 * Also compares the next visit against the one last stored or fetched, which copies inherit from their originals.
+	 * This only concerns the layout's own fields; see <tt>isArrangementDirty()</tt> and the rows' own <tt>isDirty()</tt>.
+	 * @return whether the layout differs from what was last stored or fetched
+	 */
+	@Override
+	public boolean isDirty()
+	{
+		if(super.isDirty())
+			return true;
+		else if(nextVisit==null || syncedVisit==null)
+			return (nextVisit==null)!=(syncedVisit==null);
+		else
+			return nextVisit.longValue()!=syncedVisit.longValue();
+	}
+
+	/**
+	 * Determines whether any position now holds a different row (or none) than when the layout was last stored or fetched.
+	 * Changes to the rows themselves aren't counted.
+	 * @return whether the rows have been rearranged
+	 */
+	public boolean isArrangementDirty()
+	{
+		if(syncedRows==null || syncedRows.length!=rows.length)
+			return true;
+		for(int row=0; row<rows.length; ++row)
+		{
+			if(syncedRows[row].length!=rows[row].length)
+				return true;
+			for(int col=0; col<rows[row].length; ++col)
+				if(syncedRows[row][col]!=rows[row][col])
+					return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Also remembers the current arrangement of rows, although not the rows themselves, which must be marked clean separately.
+	 */
+	@Override
+	public void markClean()
+	{
+		super.markClean();
+		syncedVisit=nextVisit;
+		syncedRows=new Row[rows.length][];
+		for(int row=0; row<rows.length; ++row)
+			syncedRows[row]=rows[row].clone();
+	}
+
 	/**
 	 * @return a visual representation of the contents of the machine
 	 */
@@ -208,6 +613,6 @@ public class VMLayout extends ModelBase
 	/** @inheritDoc */
 	@Override
 	public String toString() {
-		return super.toString() + " " + String.format("Vending machine layout of dimensions %d x %d x %d, next visited on %s", rows.length, rows[0].length, depth, nextVisit.getTime());
+		return super.toString() + " " + String.format("Vending machine layout of dimensions %d x %d x %d, next visited on %s", rows.length, rows[0].length, depth, getNextVisit().getTime());
 	}
 }
@@ -27,7 +27,7 @@ public class VMLayoutPanel extends JPanel implements ActionListener
 	/**
 	 * The selected row. Defaults to null.
 	 **/
-	private Pair<Integer, Integer> selectedRow;
+	private Slot selectedRow;
 
 	/**
 	 * List of all of the VendingMachineItemChangedListeners for this VMLayoutPanel.
@@ -143,7 +143,7 @@ public class VMLayoutPanel extends JPanel implements ActionListener
 	/**
 	 * @return The row currently selected, or null if no row is selected.
 	 **/
-	public Pair<Integer, Integer> getSelectedRow()
+	public Slot getSelectedRow()
 	{
 		return selectedRow;
 	}
@@ -153,7 +153,7 @@ public class VMLayoutPanel extends JPanel implements ActionListener
 	 */
 	public boolean selectionIsEmpty()
 	{
-		return selectedRow==null || grid[selectedRow.first][selectedRow.second].getText().equals("<html>EMPTY<br /></html>");
+		return selectedRow==null || grid[selectedRow.getX()][selectedRow.getY()].getText().equals("<html>EMPTY<br /></html>");
 	}
 
 	/**
@@ -175,7 +175,7 @@ public class VMLayoutPanel extends JPanel implements ActionListener
 			{
 				JToggleButton button = grid[j][i];
 				if (button == source)
-					selectedRow = new Pair<Integer, Integer>(j, i);
+					selectedRow = Slot.of(j, i);
 				else
 					button.setSelected(false);
 			}
@@ -0,0 +1,223 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.ArrayList;
+
+/**
+ * A kiosk terminal's connection to a <tt>VendingServer</tt>, offering the operations of the customer screens.
+ * Methods that can be refused return <tt>null</tt>, <tt>false</tt>, or a reason, as the screens do; an <tt>IOException</tt> means the server couldn't be reached or didn't understand.
+ */
+public class VendingClient
+{
+	/** The connection. */
+	private final Socket connection;
+
+	/** Replies from the server. */
+	private final BufferedReader in;
+
+	/** Requests to the server. */
+	private final Writer out;
+
+	/** The details of the last reply. */
+	private String details;
+
+	/**
+	 * Normal constructor.
+	 * @param host the server's host
+	 * @param port the server's port
+	 * @throws IOException if the server can't be reached
+	 */
+	public VendingClient(String host, int port) throws IOException
+	{
+		connection=new Socket(host, port);
+		in=new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+		out=new OutputStreamWriter(connection.getOutputStream(), "UTF-8");
+		details=null;
+	}
+
+	/**
+	 * Sends a request and reads the first line of its reply.
+	 * @param request the request
+	 * @return whether the reply was <tt>OK</tt> rather than <tt>FAIL</tt>
+	 * @throws IOException if the connection failed or the reply was <tt>ERROR</tt>
+	 */
+	private boolean send(String request) throws IOException
+	{
+		out.write(request+"\n");
+		out.flush();
+		String reply=in.readLine();
+		if(reply==null)
+			throw new IOException("Server disconnected");
+
+		int space=reply.indexOf(' ');
+		String status=space<0 ? reply : reply.substring(0, space);
+		details=space<0 ? "" : reply.substring(space+1);
+		if(status.equals("ERROR"))
+			throw new IOException(details);
+		return status.equals("OK");
+	}
+
+	/**
+	 * Reads an item from a reply line.
+	 * @param words the line's words, beginning with the item's id
+	 * @return the item, or <tt>null</tt> if it's invalid
+	 */
+	private static FoodItem parseItem(String[] words)
+	{
+		try
+		{
+			FoodItem item=new FoodItem(words[3], Integer.parseInt(words[1]), Long.parseLong(words[2]));
+			item.setId(Integer.parseInt(words[0]));
+			return item;
+		}
+		catch(BadArgumentException invalid)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.WARN, invalid);
+			return null;
+		}
+		catch(BadStateException impossible) //the item was just created, so has no id yet
+		{
+			System.err.println("CRITICAL : Model detected a problem not previously thought possible!");
+			System.err.print("    DUMP : ");
+			impossible.printStackTrace();
+			System.err.println();
+			return null;
+		}
+	}
+
+	/**
+	 * Says which machine this terminal is.
+	 * @param id the machine's id
+	 * @return whether it's valid and active
+	 * @throws IOException if the server couldn't be reached
+	 */
+	public boolean selectMachine(int id) throws IOException
+	{
+		return send("MACHINE "+id);
+	}
+
+	/**
+	 * Logs a customer in.
+	 * @param id the customer's id
+	 * @return whether they exist
+	 * @throws IOException if the server couldn't be reached or no machine has been selected
+	 */
+	public boolean login(int id) throws IOException
+	{
+		return send("LOGIN "+id);
+	}
+
+	/**
+	 * Starts a cash session.
+	 * @return whether it started
+	 * @throws IOException if the server couldn't be reached or no machine has been selected
+	 */
+	public boolean cashLogin() throws IOException
+	{
+		return send("CASH");
+	}
+
+	/**
+	 * Adds cash to a cash session.
+	 * @param cents the amount inserted
+	 * @return whether it was accepted
+	 * @throws IOException if the server couldn't be reached or this isn't a cash session
+	 */
+	public boolean insertCash(int cents) throws IOException
+	{
+		return send("INSERT "+cents);
+	}
+
+	/**
+	 * @return the logged-in customer's balance
+	 * @throws IOException if the server couldn't be reached or nobody is logged in
+	 */
+	public int getBalance() throws IOException
+	{
+		send("BALANCE");
+		return Integer.parseInt(details);
+	}
+
+	/**
+	 * Lists what's for sale.
+	 * @return the items, by position, with <tt>null</tt> where nothing is for sale
+	 * @throws IOException if the server couldn't be reached or nobody is logged in
+	 */
+	public FoodItem[][] listLayout() throws IOException
+	{
+		send("LAYOUT");
+		String[] size=details.split(" ");
+		FoodItem[][] layout=new FoodItem[Integer.parseInt(size[0])][Integer.parseInt(size[1])];
+		for(int count=Integer.parseInt(size[2]); count>0; --count)
+		{
+			String[] words=in.readLine().split(" ", 6);
+			layout[Integer.parseInt(words[0])][Integer.parseInt(words[1])]=parseItem(new String[]{words[2], words[3], words[4], words[5]});
+		}
+		return layout;
+	}
+
+	/**
+	 * Lists the logged-in customer's favorites that are for sale.
+	 * @return the items
+	 * @throws IOException if the server couldn't be reached or nobody is logged in
+	 */
+	public ArrayList<FoodItem> getFrequentlyBought() throws IOException
+	{
+		send("FAVORITES");
+		ArrayList<FoodItem> favorites=new ArrayList<FoodItem>();
+		for(int count=Integer.parseInt(details); count>0; --count)
+		{
+			FoodItem item=parseItem(in.readLine().split(" ", 4));
+			if(item!=null)
+				favorites.add(item);
+		}
+		return favorites;
+	}
+
+	/**
+	 * Buys an item.
+	 * @param product where the item is
+	 * @return <tt>"Good"</tt> on success, or else the reason it failed
+	 * @throws IOException if the server couldn't be reached or nobody is logged in
+	 */
+	public String tryPurchase(Slot product) throws IOException
+	{
+		if(send("BUY "+product.getX()+" "+product.getY()))
+			return "Good";
+		return details;
+	}
+
+	/**
+	 * Ends the customer's session.
+	 * @return their balance, i.e. a cash customer's change
+	 * @throws IOException if the server couldn't be reached or nobody is logged in
+	 */
+	public int logout() throws IOException
+	{
+		send("LOGOUT");
+		return Integer.parseInt(details);
+	}
+
+	/**
+	 * Disconnects from the server.
+	 * @throws IOException if the connection couldn't be closed
+	 */
+	public void close() throws IOException
+	{
+		try
+		{
+			send("QUIT");
+		}
+		catch(IOException alreadyGone)
+		{
+			ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, alreadyGone);
+		}
+		finally
+		{
+			connection.close();
+		}
+	}
+}
@@ -88,6 +88,7 @@ public class VendingMachine extends ModelBase
 	public void makeActive(boolean active)
 	{
 		this.active=active;
+		markDirty();
 	}
 
 	/**
@@ -108,6 +109,7 @@ public class VendingMachine extends ModelBase
 			throw new BadArgumentException("Location cannot be null");
 		
 		this.location=location;
+		markDirty();
 	}
 
 	/**
@@ -137,6 +139,7 @@ public class VendingMachine extends ModelBase
 		//otherwise, we're trying to postpone a prescheduled visit, which could allow products to expire while in the machine!
 		
 		this.stockingInterval=stockingInterval;
+		markDirty();
 	}
 
 	/**
@@ -166,6 +169,7 @@ public class VendingMachine extends ModelBase
 			throw new BadArgumentException("Next layout cannot be null");
 		
 		this.nextLayout=nextLayout;
+		markDirty();
 	}
 
 	/**
@@ -187,6 +191,7 @@ public class VendingMachine extends ModelBase
 		currentLayout=next;
 		nextLayout=new VMLayout(currentLayout, true); //deep copy
 		currentLayout.setNextVisit(VendingMachine.lastPossibleVisit(stockingInterval)); //visit after stockingInterval
+		markDirty();
 	}
 
 	/**
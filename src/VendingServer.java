@@ -0,0 +1,416 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A headless process that owns the database and serves the customer screens to any number of kiosk terminals over local sockets, so that only one process ever opens the database file.
+ * Each terminal's connection is served by a thread from a fixed pool, so there should be at least as many threads as terminals; any more terminals wait for one to disconnect.
+ * <p>
+ * The protocol is line-based text in UTF-8. Each request is one line, and each reply begins with a line that is <tt>OK</tt>, <tt>FAIL</tt>, or <tt>ERROR</tt>, optionally followed by a space and some details.
+ * <tt>FAIL</tt> means the request was refused, with the same reason the screen would have given; <tt>ERROR</tt> means it couldn't be understood or carried out.
+ * The requests are:
+ * <ul>
+ * <li><tt>MACHINE</tt> <i>id</i>: selects the vending machine the terminal is</li>
+ * <li><tt>LOGIN</tt> <i>id</i>: logs a customer in, replying with their balance and name</li>
+ * <li><tt>CASH</tt>: starts a cash session, replying likewise</li>
+ * <li><tt>INSERT</tt> <i>cents</i>: adds cash to a cash session, replying with the balance</li>
+ * <li><tt>BALANCE</tt>: replies with the balance</li>
+ * <li><tt>LAYOUT</tt>: replies with the layout's size and how many items are for sale, followed by a line for each giving its position, id, price, freshness length, and name</li>
+ * <li><tt>FAVORITES</tt>: replies with how many of the customer's favorites are for sale, followed by a line for each giving its id, price, freshness length, and name</li>
+ * <li><tt>BUY</tt> <i>x</i> <i>y</i>: buys the item at a position, replying with the remaining balance</li>
+ * <li><tt>LOGOUT</tt>: ends the session, replying with the balance (i.e. a cash customer's change)</li>
+ * <li><tt>QUIT</tt>: disconnects</li>
+ * </ul>
+ */
+public class VendingServer
+{
+	/** The default port to listen on. */
+	public static final int DEFAULT_PORT=7337;
+
+	/** The default number of terminals to serve at once. */
+	public static final int DEFAULT_THREADS=64;
+
+	/** Accepts connections. */
+	private final ServerSocket listener;
+
+	/** Serves connections. */
+	private final ExecutorService workers;
+
+	/** The connections currently open, so they can be closed on shutdown. */
+	private final HashSet<Socket> connections;
+
+	/** Accepts connections in the background. */
+	private final Thread acceptor;
+
+	/** Whether <tt>close()</tt> has been called. */
+	private volatile boolean closed;
+
+	/**
+	 * Normal constructor.
+	 * Only connections from this host are accepted.
+	 * Nothing is served until <tt>start()</tt> is called.
+	 * @param port the port to listen on, or <tt>0</tt> to pick any free one
+	 * @param threads the number of terminals to serve at once
+	 * @throws IllegalArgumentException if <tt>threads</tt> is not positive
+	 * @throws IOException if the port can't be listened on
+	 */
+	public VendingServer(int port, int threads) throws IOException
+	{
+		if(threads<=0)
+			throw new IllegalArgumentException("Server thread count must be positive");
+
+		listener=new ServerSocket(port, 0, InetAddress.getByName(null));
+		workers=Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable work)
+			{
+				Thread worker=new Thread(work, "Terminal session");
+				worker.setDaemon(true);
+				return worker;
+			}
+		});
+		connections=new HashSet<Socket>();
+		closed=false;
+		acceptor=new Thread("Terminal acceptor")
+		{
+			@Override
+			public void run()
+			{
+				acceptLoop();
+			}
+		};
+		acceptor.setDaemon(true);
+	}
+
+	/**
+	 * Starts accepting connections in the background.
+	 */
+	public void start()
+	{
+		acceptor.start();
+	}
+
+	/**
+	 * @return the port being listened on
+	 */
+	public int getPort()
+	{
+		return listener.getLocalPort();
+	}
+
+	/**
+	 * Stops accepting connections, disconnects every terminal, and waits briefly for their sessions to end.
+	 * @throws IOException if the listening socket can't be closed
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void close() throws IOException, InterruptedException
+	{
+		closed=true;
+		listener.close();
+		synchronized(connections)
+		{
+			for(Socket connection : connections)
+				try
+				{
+					connection.close();
+				}
+				catch(IOException alreadyGone)
+				{
+					ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, alreadyGone);
+				}
+		}
+		workers.shutdown();
+		workers.awaitTermination(1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Hands each connection to a worker until the server is closed.
+	 */
+	private void acceptLoop()
+	{
+		while(!closed)
+		{
+			try
+			{
+				final Socket connection=listener.accept();
+
+				synchronized(connections)
+				{
+					connections.add(connection);
+				}
+				workers.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						serve(connection);
+					}
+				});
+			}
+			catch(IOException acceptFailed)
+			{
+				if(!closed)
+					ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.ERROR, acceptFailed);
+			}
+		}
+	}
+
+	/**
+	 * Answers a terminal's requests until it disconnects.
+	 * @param connection the terminal's connection
+	 */
+	private void serve(Socket connection)
+	{
+		try
+		{
+			BufferedReader in=new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+			Writer out=new OutputStreamWriter(connection.getOutputStream(), "UTF-8");
+			Session session=new Session();
+
+			for(String request=in.readLine(); request!=null; request=in.readLine())
+			{
+				out.write(session.handle(request));
+				out.flush();
+				if(session.isOver())
+					break;
+			}
+		}
+		catch(IOException disconnected)
+		{
+			if(!closed)
+				ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, disconnected);
+		}
+		finally
+		{
+			synchronized(connections)
+			{
+				connections.remove(connection);
+			}
+			try
+			{
+				connection.close();
+			}
+			catch(IOException alreadyGone)
+			{
+				ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.INFO, alreadyGone);
+			}
+		}
+	}
+
+	/**
+	 * What one terminal is doing: which machine it is, and who is logged in.
+	 */
+	private static class Session
+	{
+		/** The machine the terminal is, or <tt>null</tt> if it hasn't said. */
+		private Integer machineId;
+
+		/** The logged-in customer's screen, or <tt>null</tt> if nobody is logged in. */
+		private CustomerPurchaseScreen screen;
+
+		/** Whether the terminal has asked to disconnect. */
+		private boolean over;
+
+		/**
+		 * Normal constructor.
+		 */
+		public Session()
+		{
+			machineId=null;
+			screen=null;
+			over=false;
+		}
+
+		/**
+		 * @return whether the terminal has asked to disconnect
+		 */
+		public boolean isOver()
+		{
+			return over;
+		}
+
+		/**
+		 * Carries out a request.
+		 * @param request the line the terminal sent
+		 * @return the reply, including its final line break
+		 */
+		public String handle(String request)
+		{
+			String[] words=request.trim().split(" +");
+			String command=words[0].toUpperCase();
+
+			try
+			{
+				if(command.equals("QUIT"))
+				{
+					over=true;
+					return reply("OK", null);
+				}
+				else if(command.equals("MACHINE"))
+				{
+					if(screen!=null)
+						return reply("ERROR", "Log out first");
+					int id=Integer.parseInt(words[1]);
+					if(CustomerLoginScreen.buildInstance(id)==null)
+						return reply("FAIL", "Machine is either invalid or inactive");
+					machineId=id;
+					return reply("OK", null);
+				}
+				else if(command.equals("LOGIN") || command.equals("CASH"))
+				{
+					if(machineId==null)
+						return reply("ERROR", "Select a machine first");
+					else if(screen!=null)
+						return reply("ERROR", "Log out first");
+					CustomerLoginScreen login=CustomerLoginScreen.buildInstance(machineId); //fetched afresh so the stock is current
+					if(login==null)
+						return reply("FAIL", "Machine is either invalid or inactive");
+					screen=command.equals("CASH") ? login.cashLogin() : login.tryLogin(Integer.parseInt(words[1]));
+					if(screen==null)
+						return reply("FAIL", "No such customer");
+					return reply("OK", screen.getBalance()+" "+screen.getUserName());
+				}
+				else if(screen==null)
+					return reply("ERROR", "Log in first");
+				else if(command.equals("INSERT"))
+				{
+					if(!(screen instanceof CashCustomerPurchaseScreen))
+						return reply("ERROR", "Only cash customers can insert cash");
+					else if(!((CashCustomerPurchaseScreen)screen).addCash(Integer.parseInt(words[1])))
+						return reply("FAIL", "Cash must be positive");
+					return reply("OK", String.valueOf(screen.getBalance()));
+				}
+				else if(command.equals("BALANCE"))
+					return reply("OK", String.valueOf(screen.getBalance()));
+				else if(command.equals("LAYOUT"))
+				{
+					FoodItem[][] layout=screen.listLayout();
+					StringBuilder items=new StringBuilder();
+					int count=0;
+					for(int x=0; x<layout.length; ++x)
+						for(int y=0; y<layout[x].length; ++y)
+							if(layout[x][y]!=null)
+							{
+								items.append(x).append(' ').append(y).append(' ').append(describe(layout[x][y])).append('\n');
+								++count;
+							}
+					return reply("OK", layout.length+" "+layout[0].length+" "+count)+items;
+				}
+				else if(command.equals("FAVORITES"))
+				{
+					ArrayList<FoodItem> favorites=screen.getFrequentlyBought();
+					if(favorites==null)
+						return reply("ERROR", "Favorites are unavailable");
+					StringBuilder items=new StringBuilder();
+					for(FoodItem favorite : favorites)
+						items.append(describe(favorite)).append('\n');
+					return reply("OK", String.valueOf(favorites.size()))+items;
+				}
+				else if(command.equals("BUY"))
+				{
+					String outcome=screen.tryPurchase(Slot.of(Integer.parseInt(words[1]), Integer.parseInt(words[2])));
+					if(!outcome.equals("Good"))
+						return reply("FAIL", outcome);
+					return reply("OK", String.valueOf(screen.getBalance()));
+				}
+				else if(command.equals("LOGOUT"))
+				{
+					int balance=screen.getBalance();
+					screen=null;
+					return reply("OK", String.valueOf(balance));
+				}
+				else
+					return reply("ERROR", "Unknown request");
+			}
+			catch(NumberFormatException notNumber)
+			{
+				return reply("ERROR", "Expected a number");
+			}
+			catch(ArrayIndexOutOfBoundsException missing)
+			{
+				return reply("ERROR", "Missing argument");
+			}
+			catch(BadStateException unstored)
+			{
+				ControllerExceptionHandler.registerConcern(ControllerExceptionHandler.Verbosity.ERROR, unstored);
+				return reply("ERROR", unstored.getMessage());
+			}
+		}
+
+		/**
+		 * Formats an item for a reply.
+		 * @param item the item
+		 * @return its id, price, freshness length, and name
+		 * @throws BadStateException if the item hasn't been stored
+		 */
+		private static String describe(FoodItem item) throws BadStateException
+		{
+			return item.getId()+" "+item.getPrice()+" "+item.getFreshLength()+" "+item.getName().replace('\n', ' ');
+		}
+
+		/**
+		 * Formats the first line of a reply.
+		 * @param status <tt>OK</tt>, <tt>FAIL</tt>, or <tt>ERROR</tt>
+		 * @param details what to say after it, or <tt>null</tt> for nothing
+		 * @return the line, including its line break
+		 */
+		private static String reply(String status, String details)
+		{
+			if(details==null)
+				return status+"\n";
+			return status+" "+details.replace('\n', ' ')+"\n";
+		}
+	}
+
+	/**
+	 * Runs a server until the process is killed.
+	 * @param args optionally, the port to listen on, and then the number of terminals to serve at once
+	 */
+	public static void main(String[] args)
+	{
+		int port=DEFAULT_PORT;
+		int threads=DEFAULT_THREADS;
+		try
+		{
+			if(args.length>0)
+				port=Integer.parseInt(args[0]);
+			if(args.length>1)
+				threads=Integer.parseInt(args[1]);
+		}
+		catch(NumberFormatException wrong)
+		{
+			System.err.println("Usage: VendingServer [port] [threads]");
+			System.exit(1);
+		}
+
+		//one connection per terminal, so that none waits on another's queries
+		DatabaseLayer.setConnectionPoolLimits(threads, Math.min(threads, ConnectionPool.DEFAULT_WARM_SIZE));
+		if(DatabaseLayer.getInstance()==null)
+			System.exit(1);
+
+		try
+		{
+			VendingServer server=new VendingServer(port, threads);
+			server.start();
+			System.out.println("Serving up to "+threads+" terminals on port "+server.getPort());
+			server.acceptor.join();
+		}
+		catch(Exception fatal)
+		{
+			System.err.println("Server could not run: "+fatal.getMessage());
+			System.exit(1);
+		}
+	}
+}